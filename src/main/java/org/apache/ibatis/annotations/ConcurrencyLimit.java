@@ -0,0 +1,39 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ *  自适应的并发数限制： 限制 mapper 中同时执行的语句数量，与 XML 中的 <concurrencyLimit/> 节点相同。
+ *    queueTimeout 的单位为毫秒，queueSize 为 0 时超过限制的调用立即被拒绝
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ConcurrencyLimit {
+  int initialLimit() default 20;
+
+  int minLimit() default 1;
+
+  int maxLimit() default 200;
+
+  int queueSize() default 0;
+
+  long queueTimeout() default 1000;
+}
@@ -17,6 +17,7 @@ package org.apache.ibatis.binding;
 
 import org.apache.ibatis.annotations.MapKey;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.reflection.MetaObject;
@@ -86,7 +87,10 @@ public class MapperMethod {
        //2.3 如果返回值为 map 类型
       } else if (method.returnsMap()) {
         result = executeForMap(sqlSession, args);
-      //2.4 否则，返回单条记录
+      //2.4 如果返回值为游标
+      } else if (method.returnsCursor()) {
+        result = executeForCursor(sqlSession, args);
+      //2.5 否则，返回单条记录
       } else {
         Object param = method.convertArgsToSqlCommandParam(args);
         result = sqlSession.selectOne(command.getName(), param);
@@ -164,6 +168,21 @@ public class MapperMethod {
     return result;
   }
 
+  /**
+   *  如果 该方法的返回值为游标类型
+   * */
+  private <T> Cursor<T> executeForCursor(SqlSession sqlSession, Object[] args) {
+    Cursor<T> result;
+    Object param = method.convertArgsToSqlCommandParam(args);
+    if (method.hasRowBounds()) {
+      RowBounds rowBounds = method.extractRowBounds(args);
+      result = sqlSession.<T>selectCursor(command.getName(), param, rowBounds);
+    } else {
+      result = sqlSession.<T>selectCursor(command.getName(), param);
+    }
+    return result;
+  }
+
   private <E> Object convertToDeclaredCollection(Configuration config, List<E> list) {
     Object collection = config.getObjectFactory().create(method.getReturnType());
     MetaObject metaObject = config.newMetaObject(collection);
@@ -261,6 +280,8 @@ public class MapperMethod {
     private final boolean returnsMap;
     //是否没有返回值
     private final boolean returnsVoid;
+    //是否返回游标
+    private final boolean returnsCursor;
     //返回值类型
     private final Class<?> returnType;
     //当前方法 @MapKey注解的值
@@ -278,6 +299,7 @@ public class MapperMethod {
       this.returnType = method.getReturnType();
       this.returnsVoid = void.class.equals(this.returnType);
       this.returnsMany = (configuration.getObjectFactory().isCollection(this.returnType) || this.returnType.isArray());
+      this.returnsCursor = Cursor.class.equals(this.returnType);
       this.mapKey = getMapKey(method);
       this.returnsMap = (this.mapKey != null);
       this.hasNamedParameters = hasNamedParams(method);
@@ -350,6 +372,10 @@ public class MapperMethod {
       return returnsVoid;
     }
 
+    public boolean returnsCursor() {
+      return returnsCursor;
+    }
+
     /**
      * @param method 方法对象
      * @param paramType 指定的参数类型
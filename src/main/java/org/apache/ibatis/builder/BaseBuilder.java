@@ -22,6 +22,7 @@ import java.util.regex.Pattern;
 
 import org.apache.ibatis.mapping.ParameterMode;
 import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.mapping.RouteType;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.mapping.ParameterMode;
 import org.apache.ibatis.mapping.ResultSetType;
@@ -112,6 +113,20 @@ public abstract class BaseBuilder {
     }
   }
 
+  /**
+   *  通过别名获取读写分离的路由方式（DEFAULT | PRIMARY | REPLICA）
+   * */
+  protected RouteType resolveRouteType(String alias) {
+    if (alias == null) {
+      return null;
+    }
+    try {
+      return RouteType.valueOf(alias);
+    } catch (IllegalArgumentException e) {
+      throw new BuilderException("Error resolving RouteType. Cause: " + e, e);
+    }
+  }
+
   /**
    * 通过参数模式别名获取对应的 ParameterMode( IN | OUT | INOUT)
    * */
@@ -36,6 +36,7 @@ import org.apache.ibatis.cache.decorators.LruCache;
 import org.apache.ibatis.cache.impl.PerpetualCache;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.limiter.ConcurrencyLimiter;
 import org.apache.ibatis.mapping.CacheBuilder;
 import org.apache.ibatis.mapping.Discriminator;
 import org.apache.ibatis.mapping.MappedStatement;
@@ -46,6 +47,7 @@ import org.apache.ibatis.mapping.ResultFlag;
 import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.mapping.ResultMapping;
 import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.mapping.RouteType;
 import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.SqlSource;
 import org.apache.ibatis.mapping.StatementType;
@@ -85,6 +87,11 @@ public class MapperBuilderAssistant extends BaseBuilder {
    * */
   private boolean unresolvedCacheRef;
 
+  /**
+   *  当前命名空间中语句默认的读写分离路由方式
+   * */
+  private RouteType currentRoute;
+
   public MapperBuilderAssistant(Configuration configuration, String resource) {
     super(configuration);
     ErrorContext.instance().resource(resource);
@@ -108,6 +115,14 @@ public class MapperBuilderAssistant extends BaseBuilder {
     this.currentNamespace = currentNamespace;
   }
 
+  public RouteType getCurrentRoute() {
+    return currentRoute;
+  }
+
+  public void setCurrentRoute(RouteType currentRoute) {
+    this.currentRoute = currentRoute;
+  }
+
   /**
    * @param base  基础字符串（不允许包含 "."）
    * @param isReference 是否是为引用属性，比如resultMap属性、extends属性等等
@@ -134,6 +149,25 @@ public class MapperBuilderAssistant extends BaseBuilder {
     return currentNamespace + "." + base;
   }
 
+  /**
+   *  为当前命名空间创建并发限制器，XML 和注解中的语句都会使用它
+   * */
+  public ConcurrencyLimiter useNewConcurrencyLimiter(Integer initialLimit, Integer minLimit, Integer maxLimit, Integer queueSize, Long queueTimeout) {
+    ConcurrencyLimiter limiter;
+    try {
+      limiter = new ConcurrencyLimiter(currentNamespace,
+          valueOrDefault(initialLimit, 20),
+          valueOrDefault(minLimit, 1),
+          valueOrDefault(maxLimit, 200),
+          valueOrDefault(queueSize, 0),
+          valueOrDefault(queueTimeout, 1000L));
+    } catch (IllegalArgumentException e) {
+      throw new BuilderException(e.getMessage(), e);
+    }
+    configuration.addConcurrencyLimiter(limiter);
+    return limiter;
+  }
+
   /**
    * @param namespace  指定的命名空间
    *     获取对应的命名空间对应的缓存
@@ -325,6 +359,38 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String databaseId,
       LanguageDriver lang,
       String resultSets) {
+    return addMappedStatement(
+      id, sqlSource, statementType, sqlCommandType, fetchSize, timeout,
+      parameterMap, parameterType, resultMap, resultType, resultSetType,
+      flushCache, useCache, resultOrdered, keyGenerator, keyProperty,
+      keyColumn, databaseId, lang, resultSets, null);
+  }
+
+  /**
+   * @param route 读写分离的路由方式，为空时使用当前命名空间的默认值
+   * */
+  public MappedStatement addMappedStatement(
+      String id,
+      SqlSource sqlSource,
+      StatementType statementType,
+      SqlCommandType sqlCommandType,
+      Integer fetchSize,
+      Integer timeout,
+      String parameterMap,
+      Class<?> parameterType,
+      String resultMap,
+      Class<?> resultType,
+      ResultSetType resultSetType,
+      boolean flushCache,
+      boolean useCache,
+      boolean resultOrdered,
+      KeyGenerator keyGenerator,
+      String keyProperty,
+      String keyColumn,
+      String databaseId,
+      LanguageDriver lang,
+      String resultSets,
+      RouteType route) {
     
     if (unresolvedCacheRef) {
       throw new IncompleteElementException("Cache-ref not yet resolved");
@@ -345,6 +411,10 @@ public class MapperBuilderAssistant extends BaseBuilder {
     statementBuilder.lang(lang);
     statementBuilder.resultOrdered(resultOrdered);
     statementBuilder.resulSets(resultSets);
+    statementBuilder.route(valueOrDefault(route, valueOrDefault(currentRoute, RouteType.DEFAULT)));
+    if (configuration.hasConcurrencyLimiter(currentNamespace)) {
+      statementBuilder.concurrencyLimiter(configuration.getConcurrencyLimiter(currentNamespace));
+    }
     setStatementTimeout(timeout, statementBuilder);
 
     //2. 设置构建类的 ParameterMap、ResultMap和 Cache相关的属性
@@ -465,6 +535,30 @@ public class MapperBuilderAssistant extends BaseBuilder {
       String resultSet,
       String foreignColumn, 
       boolean lazy) {
+    return buildResultMapping(resultType, property, column, javaType, jdbcType, nestedSelect, nestedResultMap, notNullColumn,
+        columnPrefix, typeHandler, flags, resultSet, foreignColumn, lazy, false);
+  }
+
+  /**
+   *  构建 ResultMapping 对象
+   *  @param batch 内嵌查询是否批量加载（fetchType="batch"）
+   * */
+  public ResultMapping buildResultMapping(
+      Class<?> resultType,
+      String property,
+      String column,
+      Class<?> javaType,
+      JdbcType jdbcType,
+      String nestedSelect,
+      String nestedResultMap,
+      String notNullColumn,
+      String columnPrefix,
+      Class<? extends TypeHandler<?>> typeHandler,
+      List<ResultFlag> flags,
+      String resultSet,
+      String foreignColumn,
+      boolean lazy,
+      boolean batch) {
     //1. 获取对应字段的类型
     Class<?> javaTypeClass = resolveResultJavaType(resultType, property, javaType);
     //2. 获取对应的类型处理器
@@ -486,7 +580,8 @@ public class MapperBuilderAssistant extends BaseBuilder {
     builder.notNullColumns(parseMultipleColumnNames(notNullColumn));
     builder.columnPrefix(columnPrefix);
     builder.foreignColumn(foreignColumn);
-    builder.lazy(lazy);
+    builder.lazy(batch ? configuration.isBatchLazyLoadingEnabled() : lazy);
+    builder.batch(batch);
     return builder.build();
   }
 
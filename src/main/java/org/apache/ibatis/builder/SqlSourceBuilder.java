@@ -46,6 +46,11 @@ public class SqlSourceBuilder extends BaseBuilder {
 
   private static final String parameterProperties = "javaType,jdbcType,mode,numericScale,resultMap,typeHandler,jdbcTypeName";
 
+  /**
+   *  按位置绑定的参数的占位符内容，即 #{?}
+   * */
+  public static final String POSITIONAL_PARAMETER = "?";
+
   public SqlSourceBuilder(Configuration configuration) {
     super(configuration);
   }
@@ -57,8 +62,21 @@ public class SqlSourceBuilder extends BaseBuilder {
    *    解析原生sql里的所有 #{}占位符，替换为 "?", 返回静态sql源
    * */
   public SqlSource parse(String originalSql, Class<?> parameterType, Map<String, Object> additionalParameters) {
+    return parse(originalSql, parameterType, additionalParameters, null, null);
+  }
+
+  /**
+   * Parses a SQL that also contains positional #{?} placeholders. Each of them takes the next mapping of
+   * positionalMappings, and its index in the resulting parameter mappings is stored in positions.
+   */
+  /**
+   * @param positionalMappings 按位置绑定的参数映射，依次对应 sql 中的 #{?} 占位符
+   * @param positions 用于返回每个按位置绑定的参数在最终参数映射中的下标，长度与 positionalMappings 相同
+   * */
+  public SqlSource parse(String originalSql, Class<?> parameterType, Map<String, Object> additionalParameters,
+      List<ParameterMapping> positionalMappings, int[] positions) {
     //1. 构建参数映射记号处理器， 解析 #{}占位符内的内容为 ParameterMapping 对象
-    ParameterMappingTokenHandler handler = new ParameterMappingTokenHandler(configuration, parameterType, additionalParameters);
+    ParameterMappingTokenHandler handler = new ParameterMappingTokenHandler(parameterType, additionalParameters, positionalMappings, positions);
     GenericTokenParser parser = new GenericTokenParser("#{", "}", handler);
     //2. 解析过程，返回待预编译的sql语句， 此时所有的 #{} 都被替换为了 "?"
     String sql = parser.parse(originalSql);
@@ -66,19 +84,118 @@ public class SqlSourceBuilder extends BaseBuilder {
     return new StaticSqlSource(configuration, sql, handler.getParameterMappings());
   }
 
+  /**
+   * Builds the parameter mapping for the content of a #{} placeholder.
+   * The property type is looked up in the additional parameters first, then in the parameter type.
+   */
+  /**
+   * @param content #{}占位符内里的内容
+   * @param parameterType 参数类型
+   * @param metaParameters 附加参数（动态上下文的绑定）的元对象
+   *   通过 content 构建参数映射对象
+   * */
+  public ParameterMapping buildParameterMapping(String content, Class<?> parameterType, MetaObject metaParameters) {
+    //先解析参数映射,就是转化成一个hashmap
+    //#{favouriteSection,jdbcType=VARCHAR} 构建完成之后变成 property = favouriteSection,jdbcType = varchar
+    Map<String, String> propertiesMap = parseParameterMapping(content);
+    return buildParameterMapping(propertiesMap.get("property"), propertiesMap, content, parameterType, metaParameters);
+  }
+
+  /**
+   * Builds the parameter mapping for an already parsed #{} placeholder, optionally bound to another property.
+   * Lets callers that parsed the placeholder once reuse it, see {@link #parseParameterMapping(String)}.
+   */
+  /**
+   * @param property 参数映射的属性名，可能与 propertiesMap 中的 property 不同（例如 foreach 重命名后的属性）
+   * @param propertiesMap 已经解析好的 #{} 占位符内容
+   * @param content #{}占位符内里的内容，用于异常信息
+   * */
+  public ParameterMapping buildParameterMapping(String property, Map<String, String> propertiesMap, String content, Class<?> parameterType, MetaObject metaParameters) {
+    Class<?> propertyType;
+
+    if (metaParameters.hasGetter(property)) {
+      propertyType = metaParameters.getGetterType(property);
+    } else if (typeHandlerRegistry.hasTypeHandler(parameterType)) {
+      propertyType = parameterType;
+    } else if (JdbcType.CURSOR.name().equals(propertiesMap.get("jdbcType"))) {
+      propertyType = java.sql.ResultSet.class;
+    } else if (property != null) {
+      MetaClass metaClass = MetaClass.forClass(parameterType);
+      if (metaClass.hasGetter(property)) {
+        propertyType = metaClass.getGetterType(property);
+      } else {
+        propertyType = Object.class;
+      }
+    } else {
+      propertyType = Object.class;
+    }
+    ParameterMapping.Builder builder = new ParameterMapping.Builder(configuration, property, propertyType);
+    Class<?> javaType = propertyType;
+    String typeHandlerAlias = null;
+    for (Map.Entry<String, String> entry : propertiesMap.entrySet()) {
+      String name = entry.getKey();
+      String value = entry.getValue();
+      if ("javaType".equals(name)) {
+        javaType = resolveClass(value);
+        builder.javaType(javaType);
+      } else if ("jdbcType".equals(name)) {
+        builder.jdbcType(resolveJdbcType(value));
+      } else if ("mode".equals(name)) {
+        builder.mode(resolveParameterMode(value));
+      } else if ("numericScale".equals(name)) {
+        builder.numericScale(Integer.valueOf(value));
+      } else if ("resultMap".equals(name)) {
+        builder.resultMapId(value);
+      } else if ("typeHandler".equals(name)) {
+        typeHandlerAlias = value;
+      } else if ("jdbcTypeName".equals(name)) {
+        builder.jdbcTypeName(value);
+      } else if ("property".equals(name)) {
+        // Do Nothing
+      } else if ("expression".equals(name)) {
+        throw new BuilderException("Expression based parameters are not supported yet");
+      } else {
+        throw new BuilderException("An invalid property '" + name + "' was found in mapping #{" + content + "}.  Valid properties are " + parameterProperties);
+      }
+    }
+    //#{age,javaType=int,jdbcType=NUMERIC,typeHandler=MyTypeHandler}
+    if (typeHandlerAlias != null) {
+      builder.typeHandler(resolveTypeHandler(javaType, typeHandlerAlias));
+    }
+    return builder.build();
+  }
+
+  /**
+   *  解析 #{} 占位符内的内容，例如 property = favouriteSection, jdbcType = VARCHAR
+   * */
+  public Map<String, String> parseParameterMapping(String content) {
+    try {
+      return new ParameterExpression(content);
+    } catch (BuilderException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new BuilderException("Parsing error was found in mapping #{" + content + "}.  Check syntax #{property|(expression), var1=value1, var2=value2, ...} ", ex);
+    }
+  }
+
   /**
    *  参数映射记号处理器
    * */
-  private static class ParameterMappingTokenHandler extends BaseBuilder implements TokenHandler {
+  private class ParameterMappingTokenHandler implements TokenHandler {
 
     private List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
     private Class<?> parameterType;
     private MetaObject metaParameters;
+    private List<ParameterMapping> positionalMappings;
+    private int[] positions;
+    private int positionalCount;
 
-    public ParameterMappingTokenHandler(Configuration configuration, Class<?> parameterType, Map<String, Object> additionalParameters) {
-      super(configuration);
+    public ParameterMappingTokenHandler(Class<?> parameterType, Map<String, Object> additionalParameters,
+        List<ParameterMapping> positionalMappings, int[] positions) {
       this.parameterType = parameterType;
       this.metaParameters = configuration.newMetaObject(additionalParameters);
+      this.positionalMappings = positionalMappings;
+      this.positions = positions;
     }
 
     public List<ParameterMapping> getParameterMappings() {
@@ -90,81 +207,13 @@ public class SqlSourceBuilder extends BaseBuilder {
      * */
     @Override
     public String handleToken(String content) {
-      parameterMappings.add(buildParameterMapping(content));
-      return "?";
-    }
-
-    /**
-     * @param content #{}占位符内里的内容
-     *   通过 content 构建参数映射对象
-     * */
-    private ParameterMapping buildParameterMapping(String content) {
-        //先解析参数映射,就是转化成一个hashmap
-      //#{favouriteSection,jdbcType=VARCHAR} 构建完成之后变成 property = favouriteSection,jdbcType = varchar
-      Map<String, String> propertiesMap = parseParameterMapping(content);
-      String property = propertiesMap.get("property");
-      Class<?> propertyType;
-
-      if (metaParameters.hasGetter(property)) {
-        propertyType = metaParameters.getGetterType(property);
-      } else if (typeHandlerRegistry.hasTypeHandler(parameterType)) {
-        propertyType = parameterType;
-      } else if (JdbcType.CURSOR.name().equals(propertiesMap.get("jdbcType"))) {
-        propertyType = java.sql.ResultSet.class;
-      } else if (property != null) {
-        MetaClass metaClass = MetaClass.forClass(parameterType);
-        if (metaClass.hasGetter(property)) {
-          propertyType = metaClass.getGetterType(property);
-        } else {
-          propertyType = Object.class;
-        }
-      } else {
-        propertyType = Object.class;
-      }
-      ParameterMapping.Builder builder = new ParameterMapping.Builder(configuration, property, propertyType);
-      Class<?> javaType = propertyType;
-      String typeHandlerAlias = null;
-      for (Map.Entry<String, String> entry : propertiesMap.entrySet()) {
-        String name = entry.getKey();
-        String value = entry.getValue();
-        if ("javaType".equals(name)) {
-          javaType = resolveClass(value);
-          builder.javaType(javaType);
-        } else if ("jdbcType".equals(name)) {
-          builder.jdbcType(resolveJdbcType(value));
-        } else if ("mode".equals(name)) {
-          builder.mode(resolveParameterMode(value));
-        } else if ("numericScale".equals(name)) {
-          builder.numericScale(Integer.valueOf(value));
-        } else if ("resultMap".equals(name)) {
-          builder.resultMapId(value);
-        } else if ("typeHandler".equals(name)) {
-          typeHandlerAlias = value;
-        } else if ("jdbcTypeName".equals(name)) {
-          builder.jdbcTypeName(value);
-        } else if ("property".equals(name)) {
-          // Do Nothing
-        } else if ("expression".equals(name)) {
-          throw new BuilderException("Expression based parameters are not supported yet");
-        } else {
-          throw new BuilderException("An invalid property '" + name + "' was found in mapping #{" + content + "}.  Valid properties are " + parameterProperties);
-        }
-      }
-      //#{age,javaType=int,jdbcType=NUMERIC,typeHandler=MyTypeHandler}
-      if (typeHandlerAlias != null) {
-        builder.typeHandler(resolveTypeHandler(javaType, typeHandlerAlias));
-      }
-      return builder.build();
-    }
-
-    private Map<String, String> parseParameterMapping(String content) {
-      try {
-        return new ParameterExpression(content);
-      } catch (BuilderException ex) {
-        throw ex;
-      } catch (Exception ex) {
-        throw new BuilderException("Parsing error was found in mapping #{" + content + "}.  Check syntax #{property|(expression), var1=value1, var2=value2, ...} ", ex);
+      if (positionalMappings != null && positionalCount < positionalMappings.size() && POSITIONAL_PARAMETER.equals(content)) {
+        positions[positionalCount] = parameterMappings.size();
+        parameterMappings.add(positionalMappings.get(positionalCount++));
+        return "?";
       }
+      parameterMappings.add(buildParameterMapping(content, parameterType, metaParameters));
+      return "?";
     }
   }
   
@@ -35,6 +35,7 @@ import java.util.Set;
 
 import org.apache.ibatis.annotations.*;
 import org.apache.ibatis.annotations.ResultMap;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
@@ -48,6 +49,7 @@ import org.apache.ibatis.annotations.Arg;
 import org.apache.ibatis.annotations.CacheNamespace;
 import org.apache.ibatis.annotations.CacheNamespaceRef;
 import org.apache.ibatis.annotations.Case;
+import org.apache.ibatis.annotations.ConcurrencyLimit;
 import org.apache.ibatis.annotations.ConstructorArgs;
 import org.apache.ibatis.annotations.Delete;
 import org.apache.ibatis.annotations.DeleteProvider;
@@ -60,6 +62,7 @@ import org.apache.ibatis.annotations.Result;
 import org.apache.ibatis.annotations.ResultMap;
 import org.apache.ibatis.annotations.ResultType;
 import org.apache.ibatis.annotations.Results;
+import org.apache.ibatis.annotations.Route;
 import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.SelectKey;
 import org.apache.ibatis.annotations.SelectProvider;
@@ -83,6 +86,7 @@ import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ResultFlag;
 import org.apache.ibatis.mapping.ResultMapping;
 import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.mapping.RouteType;
 import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.SqlSource;
 import org.apache.ibatis.mapping.StatementType;
@@ -152,8 +156,13 @@ public class MapperAnnotationBuilder {
 
       //设置当前的辅助类的namespace为type的名称
       assistant.setCurrentNamespace(type.getName());
+      //通过Route注解设置当前mapper中语句默认的读写分离路由方式
+      Route route = type.getAnnotation(Route.class);
+      assistant.setCurrentRoute(route == null ? null : route.value());
       //通过CacheNamespace注解获取cache的一些属性，并且创建cache,添加到configuration对象中
       parseCache();
+      //通过ConcurrencyLimit注解，为当前mapper创建并发限制器
+      parseConcurrencyLimit();
       //通过CacheNamespaceRef注解，给当前的mapper文件准备缓存。
       parseCacheRef();
       Method[] methods = type.getMethods();
@@ -219,6 +228,14 @@ public class MapperAnnotationBuilder {
     }
   }
 
+  private void parseConcurrencyLimit() {
+    ConcurrencyLimit concurrencyLimit = type.getAnnotation(ConcurrencyLimit.class);
+    if (concurrencyLimit != null) {
+      assistant.useNewConcurrencyLimiter(concurrencyLimit.initialLimit(), concurrencyLimit.minLimit(), concurrencyLimit.maxLimit(),
+          concurrencyLimit.queueSize(), concurrencyLimit.queueTimeout());
+    }
+  }
+
   private void parseCacheRef() {
     CacheNamespaceRef cacheDomainRef = type.getAnnotation(CacheNamespaceRef.class);
     if (cacheDomainRef != null) {
@@ -378,7 +395,8 @@ public class MapperAnnotationBuilder {
           null,
           languageDriver,
           // ResultSets
-          null);
+          null,
+          getRoute(method));
     }
   }
   
@@ -415,7 +433,7 @@ public class MapperAnnotationBuilder {
       if (rt != null) {
         returnType = rt.value();
       } 
-    } else if (Collection.class.isAssignableFrom(returnType)) {
+    } else if (Collection.class.isAssignableFrom(returnType) || Cursor.class.isAssignableFrom(returnType)) {
       Type returnTypeParameter = method.getGenericReturnType();
       if (returnTypeParameter instanceof ParameterizedType) {
         Type[] actualTypeArguments = ((ParameterizedType) returnTypeParameter).getActualTypeArguments();
@@ -544,8 +562,9 @@ public class MapperAnnotationBuilder {
           result.typeHandler() == UnknownTypeHandler.class ? null : result.typeHandler(),
           flags,
           null,
-          null,
-          isLazy(result));
+          foreignColumn(result),
+          isLazy(result),
+          isBatch(result));
       resultMappings.add(resultMapping);
     }
   }
@@ -571,6 +590,19 @@ public class MapperAnnotationBuilder {
     return isLazy;
   }
   
+  private boolean isBatch(Result result) {
+    return (result.one().select().length() > 0 && result.one().fetchType() == FetchType.BATCH)
+        || (result.many().select().length() > 0 && result.many().fetchType() == FetchType.BATCH);
+  }
+
+  private String foreignColumn(Result result) {
+    String foreignColumn = result.one().foreignColumn();
+    if (foreignColumn.length() < 1) {
+      foreignColumn = result.many().foreignColumn();
+    }
+    return nullOrEmpty(foreignColumn);
+  }
+
   private boolean hasNestedSelect(Result result) {
     if (result.one().select().length() > 0 && result.many().select().length() > 0) {
       throw new BuilderException("Cannot use both @One and @Many annotations in the same @Result");
@@ -612,6 +644,11 @@ public class MapperAnnotationBuilder {
     return results == null ? new Result[0] : results.value();
   }
 
+  private RouteType getRoute(Method method) {
+    Route route = method.getAnnotation(Route.class);
+    return route == null ? null : route.value();
+  }
+
   private Arg[] argsIf(ConstructorArgs args) {
     return args == null ? new Arg[0] : args.value();
   }
@@ -639,7 +676,7 @@ public class MapperAnnotationBuilder {
 
     assistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType, fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass, resultSetTypeEnum,
         flushCache, useCache, false,
-        keyGenerator, keyProperty, keyColumn, null, languageDriver, null);
+        keyGenerator, keyProperty, keyColumn, null, languageDriver, null, RouteType.PRIMARY);
 
     id = assistant.applyCurrentNamespace(id, false);
 
@@ -329,6 +329,14 @@ public class XMLConfigBuilder extends BaseBuilder {
       configuration.setUseGeneratedKeys(booleanValueOf(props.getProperty("useGeneratedKeys"), false));
       configuration.setDefaultExecutorType(ExecutorType.valueOf(props.getProperty("defaultExecutorType", "SIMPLE")));
       configuration.setDefaultStatementTimeout(integerValueOf(props.getProperty("defaultStatementTimeout"), null));  //超时时间
+      configuration.setBatchFetchSize(integerValueOf(props.getProperty("batchFetchSize"), 100));
+      configuration.setBatchLazyLoadingEnabled(booleanValueOf(props.getProperty("batchLazyLoadingEnabled"), false));
+      configuration.setBatchGroupingEnabled(booleanValueOf(props.getProperty("batchGroupingEnabled"), false));
+      configuration.setBatchFlushSize(integerValueOf(props.getProperty("batchFlushSize"), 0));
+      configuration.setBatchFlushMemoryKb(integerValueOf(props.getProperty("batchFlushMemoryKb"), 0));
+      configuration.setBatchRetainParameters(booleanValueOf(props.getProperty("batchRetainParameters"), true));
+      configuration.setBatchInsertRewriteSize(integerValueOf(props.getProperty("batchInsertRewriteSize"), 0));
+      configuration.setBatchInsertRewriteMaxParameters(integerValueOf(props.getProperty("batchInsertRewriteMaxParameters"), 2000));
       configuration.setMapUnderscoreToCamelCase(booleanValueOf(props.getProperty("mapUnderscoreToCamelCase"), false));
       configuration.setSafeRowBoundsEnabled(booleanValueOf(props.getProperty("safeRowBoundsEnabled"), false));
       configuration.setLocalCacheScope(LocalCacheScope.valueOf(props.getProperty("localCacheScope", "SESSION")));
@@ -337,6 +345,9 @@ public class XMLConfigBuilder extends BaseBuilder {
       configuration.setSafeResultHandlerEnabled(booleanValueOf(props.getProperty("safeResultHandlerEnabled"), true));
       configuration.setDefaultScriptingLanguage(resolveClass(props.getProperty("defaultScriptingLanguage")));
       configuration.setCallSettersOnNulls(booleanValueOf(props.getProperty("callSettersOnNulls"), false));
+      configuration.setCompiledRowMappingEnabled(booleanValueOf(props.getProperty("compiledRowMappingEnabled"), false));
+      configuration.setCompiledDynamicSqlEnabled(booleanValueOf(props.getProperty("compiledDynamicSqlEnabled"), false));
+      configuration.setDynamicSqlShapeCacheSize(integerValueOf(props.getProperty("dynamicSqlShapeCacheSize"), 64));
       configuration.setLogPrefix(props.getProperty("logPrefix"));
       configuration.setLogImpl(resolveClass(props.getProperty("logImpl")));
       configuration.setConfigurationFactory(resolveClass(props.getProperty("configurationFactory")));
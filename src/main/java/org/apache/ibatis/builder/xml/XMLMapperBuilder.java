@@ -149,10 +149,14 @@ public class XMLMapperBuilder extends BaseBuilder {
         throw new BuilderException("Mapper's namespace cannot be empty");
       }
       builderAssistant.setCurrentNamespace(namespace);
+      //读写分离时当前命名空间中语句默认的路由方式
+      builderAssistant.setCurrentRoute(resolveRouteType(context.getStringAttribute("route")));
       //2.解析cache-ref节点
       cacheRefElement(context.evalNode("cache-ref"));
       //3.解析cache节点
       cacheElement(context.evalNode("cache"));
+      //解析concurrencyLimit节点，限制当前命名空间中同时执行的语句数量
+      concurrencyLimitElement(context.evalNode("concurrencyLimit"));
       //4.配置parameterMap(已经废弃,老式风格的参数映射)，已废弃
       parameterMapElement(context.evalNodes("/mapper/parameterMap"));
       //5.配置resultMap(高级功能)
@@ -283,6 +287,19 @@ public class XMLMapperBuilder extends BaseBuilder {
     }
   }
 
+  /**
+   *  解析 <concurrencyLimit/> 节点： 初始限制、最小和最大限制、等待队列的长度和最长等待时间（毫秒）
+   * */
+  private void concurrencyLimitElement(XNode context) {
+    if (context != null) {
+      Integer initialLimit = context.getIntAttribute("initialLimit");
+      Integer minLimit = context.getIntAttribute("minLimit");
+      Integer maxLimit = context.getIntAttribute("maxLimit");
+      Integer queueSize = context.getIntAttribute("queueSize");
+      Long queueTimeout = context.getLongAttribute("queueTimeout");
+      builderAssistant.useNewConcurrencyLimiter(initialLimit, minLimit, maxLimit, queueSize, queueTimeout);
+    }
+  }
 
   private void parameterMapElement(List<XNode> list) throws Exception {
     for (XNode parameterMapNode : list) {
@@ -512,13 +529,15 @@ public class XMLMapperBuilder extends BaseBuilder {
     String typeHandler = context.getStringAttribute("typeHandler");
     String resulSet = context.getStringAttribute("resultSet");
     String foreignColumn = context.getStringAttribute("foreignColumn");
-    boolean lazy = "lazy".equals(context.getStringAttribute("fetchType", configuration.isLazyLoadingEnabled() ? "lazy" : "eager"));
+    String fetchType = context.getStringAttribute("fetchType", configuration.isLazyLoadingEnabled() ? "lazy" : "eager");
+    boolean lazy = "lazy".equals(fetchType);
+    boolean batch = "batch".equals(fetchType);
     Class<?> javaTypeClass = resolveClass(javaType);
     @SuppressWarnings("unchecked")
     Class<? extends TypeHandler<?>> typeHandlerClass = (Class<? extends TypeHandler<?>>) resolveClass(typeHandler);
     JdbcType jdbcTypeEnum = resolveJdbcType(jdbcType);
     //3. 通过构建助手构建 ResultMapping 对象
-    return builderAssistant.buildResultMapping(resultType, property, column, javaTypeClass, jdbcTypeEnum, nestedSelect, nestedResultMap, notNullColumn, columnPrefix, typeHandlerClass, flags, resulSet, foreignColumn, lazy);
+    return builderAssistant.buildResultMapping(resultType, property, column, javaTypeClass, jdbcTypeEnum, nestedSelect, nestedResultMap, notNullColumn, columnPrefix, typeHandlerClass, flags, resulSet, foreignColumn, lazy, batch);
   }
   
   //5.1.1.1 处理嵌套的result map
@@ -35,6 +35,7 @@ import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.mapping.RouteType;
 import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.SqlSource;
 import org.apache.ibatis.mapping.StatementType;
@@ -121,6 +122,7 @@ public class XMLStatementBuilder extends BaseBuilder {
     //6. 根据 sql语句节点构建 Sql源
     SqlSource sqlSource = langDriver.createSqlSource(configuration, context, parameterTypeClass);
     String resultSets = context.getStringAttribute("resultSets");
+    RouteType route = resolveRouteType(context.getStringAttribute("route"));
     //7.（仅对 insert 和 update 有用），mybatis会通过 getGeneratedKeys 的返回值或者通过 insert 语句的 selectKey 子元素设置它的键值
     //如果希望得到多个生成的列，也可以是逗号分隔的属性名称列表，keyProperty表示要返回的实体类的属性
     String keyProperty = context.getStringAttribute("keyProperty");
@@ -144,7 +146,7 @@ public class XMLStatementBuilder extends BaseBuilder {
     builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
         fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
         resultSetTypeEnum, flushCache, useCache, resultOrdered, 
-        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets);
+        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, resultSets, route);
   }
 
   /**
@@ -203,10 +205,11 @@ public class XMLStatementBuilder extends BaseBuilder {
     SqlSource sqlSource = langDriver.createSqlSource(configuration, nodeToHandle, parameterTypeClass);
     SqlCommandType sqlCommandType = SqlCommandType.SELECT;
     //4. 获取selectkey节点的所有属性，封装成mappedStatment对象注册到configuration对象中。
+    //   selectKey 语句总是发送到主库（序列、自增主键只在主库上有效）
     builderAssistant.addMappedStatement(id, sqlSource, statementType, sqlCommandType,
         fetchSize, timeout, parameterMap, parameterTypeClass, resultMap, resultTypeClass,
         resultSetTypeEnum, flushCache, useCache, resultOrdered,
-        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, null);
+        keyGenerator, keyProperty, keyColumn, databaseId, langDriver, null, RouteType.PRIMARY);
 
     id = builderAssistant.applyCurrentNamespace(id, false);
 
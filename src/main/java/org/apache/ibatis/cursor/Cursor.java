@@ -0,0 +1,49 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cursor;
+
+import java.io.Closeable;
+
+/**
+ *  游标：以迭代器的方式逐行获取映射结果，不会将整个结果集一次性加载到内存中。
+ *    如果结果映射中包含内嵌的 ResultMap，sql 语句需要按照 id 列排序，并指定 resultOrdered="true"
+ */
+public interface Cursor<T> extends Closeable, Iterable<T> {
+
+  /**
+   * @return true if the cursor has started to fetch items from database.
+   */
+  boolean isOpen();
+
+  /**
+   *
+   * @return true if the cursor is fully consumed and has returned all elements matching the query.
+   */
+  boolean isConsumed();
+
+  /**
+   * Get the current item index. The first item has the index 0.
+   * @return -1 if the first cursor item has not been retrieved. The index of the current item retrieved.
+   */
+  int getCurrentIndex();
+
+  /**
+   * Closes the cursor and releases the underlying {@code ResultSet} (and its {@code Statement}).
+   * 关闭游标，释放对应的结果集
+   */
+  @Override
+  void close();
+}
@@ -0,0 +1,292 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cursor.defaults;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
+import org.apache.ibatis.executor.resultset.ResultSetWrapper;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ *  默认的游标实现： 每次迭代只让结果集处理器处理一条记录（包含批量加载的内嵌查询时一次处理 batchFetchSize 条），非线程安全
+ */
+public class DefaultCursor<T> implements Cursor<T> {
+
+  // ResultSetHandler stuff
+  private final DefaultResultSetHandler resultSetHandler;
+  private final ResultMap resultMap;
+  private final ResultSetWrapper rsw;
+  private final RowBounds rowBounds;
+
+  /**
+   *  处理了 fetchSize 个结果对象就停止的结果处理器
+   * */
+  private final ObjectWrapperResultHandler<T> objectWrapperResultHandler = new ObjectWrapperResultHandler<T>();
+
+  /**
+   *  每次让结果集处理器处理的结果对象数，包含批量加载的内嵌查询时大于 1
+   * */
+  private final int fetchSize;
+
+  /**
+   *  结果集中已经没有更多的记录
+   * */
+  private boolean resultSetExhausted;
+
+  private final CursorIterator cursorIterator = new CursorIterator();
+  private boolean iteratorRetrieved = false;
+
+  private CursorStatus status = CursorStatus.CREATED;
+
+  /**
+   *  包含分页偏移量在内的当前索引
+   * */
+  private int indexWithRowBound = -1;
+
+  /**
+   *  游标关闭或读完时回调，用于释放游标占用的会话和连接
+   * */
+  private final List<Runnable> closeListeners = new ArrayList<Runnable>();
+
+  private enum CursorStatus {
+
+    /**
+     * A freshly created cursor, database ResultSet consuming has not started
+     */
+    CREATED,
+    /**
+     * A cursor currently in use, database ResultSet consuming has started
+     */
+    OPEN,
+    /**
+     * A closed cursor, not fully consumed
+     */
+    CLOSED,
+    /**
+     * A fully consumed cursor, a consumed cursor is always closed
+     */
+    CONSUMED
+  }
+
+  public DefaultCursor(DefaultResultSetHandler resultSetHandler, ResultMap resultMap, ResultSetWrapper rsw, RowBounds rowBounds) {
+    this.resultSetHandler = resultSetHandler;
+    this.resultMap = resultMap;
+    this.rsw = rsw;
+    this.rowBounds = rowBounds;
+    this.fetchSize = resultSetHandler.getCursorFetchSize(resultMap);
+  }
+
+  @Override
+  public boolean isOpen() {
+    return status == CursorStatus.OPEN;
+  }
+
+  @Override
+  public boolean isConsumed() {
+    return status == CursorStatus.CONSUMED;
+  }
+
+  @Override
+  public int getCurrentIndex() {
+    return rowBounds.getOffset() + cursorIterator.iteratorIndex;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    if (iteratorRetrieved) {
+      throw new IllegalStateException("Cannot open more than one iterator on a Cursor");
+    }
+    iteratorRetrieved = true;
+    return cursorIterator;
+  }
+
+  /**
+   *  关闭结果集，SimpleExecutor | BatchExecutor 创建的 Statement 随结果集一起关闭
+   * */
+  @Override
+  public void close() {
+    close(CursorStatus.CLOSED);
+  }
+
+  /**
+   *  添加游标关闭或读完时的回调，游标已经关闭时立即执行
+   * */
+  public void addCloseListener(Runnable listener) {
+    if (isClosed()) {
+      listener.run();
+    } else {
+      closeListeners.add(listener);
+    }
+  }
+
+  private void close(CursorStatus closedStatus) {
+    if (isClosed()) {
+      return;
+    }
+
+    ResultSet rs = rsw.getResultSet();
+    try {
+      if (rs != null) {
+        // SimpleExecutor | BatchExecutor 创建的语句要求随结果集关闭，不依赖驱动对 closeOnCompletion 的支持
+        Statement statement = rs.getStatement();
+        boolean closeStatement = statement != null && statement.isCloseOnCompletion();
+        rs.close();
+        if (closeStatement) {
+          statement.close();
+        }
+      }
+    } catch (SQLException e) {
+      // ignore
+    } finally {
+      status = closedStatus;
+      for (Runnable listener : closeListeners) {
+        listener.run();
+      }
+      closeListeners.clear();
+    }
+  }
+
+  /**
+   *  跳过分页偏移量之前的记录，然后获取下一个结果对象，如果超过了分页的 limit 则返回 null
+   * */
+  protected T fetchNextUsingRowBound() {
+    T result = fetchNextObjectFromDatabase();
+    while (result != null && indexWithRowBound < rowBounds.getOffset()) {
+      result = fetchNextObjectFromDatabase();
+    }
+    return result;
+  }
+
+  /**
+   *  返回已处理的下一个结果对象，没有时让结果集处理器再处理一批记录，处理完成后由 ObjectWrapperResultHandler 停止处理
+   * */
+  protected T fetchNextObjectFromDatabase() {
+    if (isClosed()) {
+      return null;
+    }
+
+    if (objectWrapperResultHandler.results.isEmpty() && !resultSetExhausted) {
+      try {
+        status = CursorStatus.OPEN;
+        objectWrapperResultHandler.fetchSize = getFetchSize();
+        resultSetHandler.handleRowValues(rsw, resultMap, objectWrapperResultHandler, RowBounds.DEFAULT, null);
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
+      resultSetExhausted = objectWrapperResultHandler.results.size() < objectWrapperResultHandler.fetchSize;
+    }
+
+    T next = objectWrapperResultHandler.results.poll();
+    if (next != null) {
+      indexWithRowBound++;
+    }
+    // No more object or limit reached
+    if (next == null || getReadItemsCount() == rowBounds.getOffset() + rowBounds.getLimit()) {
+      close(CursorStatus.CONSUMED);
+    }
+
+    return next;
+  }
+
+  /**
+   *  本次处理的结果对象数，不超过分页的 limit
+   * */
+  private int getFetchSize() {
+    final long remaining = (long) rowBounds.getOffset() + rowBounds.getLimit() - getReadItemsCount();
+    return (int) Math.max(1, Math.min(fetchSize, remaining));
+  }
+
+  /**
+   *  是否已经关闭（包括读完后自动关闭）
+   * */
+  public boolean isClosed() {
+    return status == CursorStatus.CLOSED || status == CursorStatus.CONSUMED;
+  }
+
+  private int getReadItemsCount() {
+    return indexWithRowBound + 1;
+  }
+
+  private static class ObjectWrapperResultHandler<T> implements ResultHandler {
+
+    private final LinkedList<T> results = new LinkedList<T>();
+    private int fetchSize = 1;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void handleResult(ResultContext context) {
+      results.add((T) context.getResultObject());
+      if (results.size() >= fetchSize) {
+        context.stop();
+      }
+    }
+  }
+
+  private class CursorIterator implements Iterator<T> {
+
+    /**
+     * Holder for the next object to be returned
+     */
+    T object;
+
+    /**
+     * Index of objects returned using next(), and as such, visible to users.
+     */
+    int iteratorIndex = -1;
+
+    @Override
+    public boolean hasNext() {
+      if (object == null) {
+        object = fetchNextUsingRowBound();
+      }
+      return object != null;
+    }
+
+    @Override
+    public T next() {
+      // Fill next with object fetched from hasNext()
+      T next = object;
+
+      if (next == null) {
+        next = fetchNextUsingRowBound();
+      }
+
+      if (next != null) {
+        object = null;
+        iteratorIndex++;
+        return next;
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Cannot remove element from Cursor");
+    }
+  }
+}
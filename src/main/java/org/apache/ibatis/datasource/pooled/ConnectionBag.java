@@ -0,0 +1,350 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *  无锁的连接容器： 借出连接时通过 CAS 修改条目的状态。依次尝试当前线程最近归还的连接、所有的连接，
+ *    最后在公平的 SynchronousQueue 上等待归还的连接
+ */
+class ConnectionBag {
+
+  static final int STATE_NOT_IN_USE = 0;
+  static final int STATE_IN_USE = 1;
+  static final int STATE_REMOVED = -1;
+  /**
+   *  被后台维护线程占用（校验、淘汰），既不是空闲也不是使用中
+   * */
+  static final int STATE_RESERVED = -2;
+
+  /**
+   *  每个线程最多记录的最近归还的连接数量
+   * */
+  private static final int MAX_THREAD_ENTRIES = 16;
+
+  /**
+   *  连接被移除、空出位置时交给等待线程的标记，等待的线程收到后重新尝试新建连接
+   * */
+  private static final Entry FREED_SLOT = new Entry();
+
+  /**
+   *  空出位置时最多尝试交给等待线程的次数
+   * */
+  private static final int MAX_FREED_SLOT_OFFERS = 64;
+
+  /**
+   *  连接池中的一个连接： 真实连接不变，每次归还时会创建新的 PooledConnection
+   * */
+  static final class Entry {
+    private final AtomicInteger state = new AtomicInteger(STATE_IN_USE);
+    private final AtomicReference<PooledConnection> connection = new AtomicReference<PooledConnection>();
+
+    /**
+     *  连接到期需要淘汰的时间，0 表示不限制
+     * */
+    private volatile long expireTimestamp;
+
+    long getExpireTimestamp() {
+      return expireTimestamp;
+    }
+
+    void setExpireTimestamp(long expireTimestamp) {
+      this.expireTimestamp = expireTimestamp;
+    }
+
+    boolean isExpired(long now) {
+      return expireTimestamp > 0 && now >= expireTimestamp;
+    }
+
+    int getState() {
+      return state.get();
+    }
+
+    PooledConnection getConnection() {
+      return connection.get();
+    }
+
+    void setConnection(PooledConnection conn) {
+      connection.set(conn);
+    }
+
+    /**
+     *  替换当前的 PooledConnection，连接已被其他线程回收（替换）时返回 false
+     * */
+    boolean replaceConnection(PooledConnection expect, PooledConnection update) {
+      return connection.compareAndSet(expect, update);
+    }
+  }
+
+  private final CopyOnWriteArrayList<Entry> sharedList = new CopyOnWriteArrayList<Entry>();
+
+  private final ThreadLocal<List<WeakReference<Entry>>> threadList = new ThreadLocal<List<WeakReference<Entry>>>() {
+    @Override
+    protected List<WeakReference<Entry>> initialValue() {
+      return new ArrayList<WeakReference<Entry>>(MAX_THREAD_ENTRIES);
+    }
+  };
+
+  /**
+   *  公平模式：归还的连接交给等待最久的线程
+   * */
+  private final SynchronousQueue<Entry> handoffQueue = new SynchronousQueue<Entry>(true);
+
+  private final AtomicInteger waiters = new AtomicInteger();
+
+  /**
+   *  空闲连接的数量，随条目状态的变化更新，不需要遍历所有的连接
+   * */
+  private final AtomicInteger idle = new AtomicInteger();
+
+  /**
+   *  使用中的连接数量，同样随条目状态的变化更新
+   * */
+  private final AtomicInteger inUse = new AtomicInteger();
+
+  /**
+   *  所有连接的数量，包括已经预留、正在创建的连接
+   * */
+  private final AtomicInteger size = new AtomicInteger();
+
+  /**
+   *  借出一个空闲的连接
+   * @param timeout 没有空闲连接时等待的时间，0 表示不等待
+   * @return 超时或者有连接被移除（可以新建连接）时返回 null
+   * */
+  Entry borrow(long timeout, TimeUnit unit) throws InterruptedException {
+    //1. 当前线程最近归还的连接
+    final List<WeakReference<Entry>> list = threadList.get();
+    for (int i = list.size() - 1; i >= 0; i--) {
+      final Entry entry = list.remove(i).get();
+      if (entry != null && take(entry)) {
+        return entry;
+      }
+    }
+    //2. 遍历所有的连接
+    if (timeout <= 0) {
+      return scan();
+    }
+    //先登记为等待的线程再遍历，保证遍历之后归还的连接会交给当前线程
+    waiters.incrementAndGet();
+    try {
+      final Entry scanned = scan();
+      if (scanned != null) {
+        return scanned;
+      }
+      //3. 等待其他线程归还连接
+      long remaining = unit.toNanos(timeout);
+      while (remaining > 0) {
+        final long start = System.nanoTime();
+        final Entry entry = handoffQueue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (entry == null || entry == FREED_SLOT) {
+          return null;
+        }
+        if (take(entry)) {
+          return entry;
+        }
+        remaining -= System.nanoTime() - start;
+      }
+      return null;
+    } finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  private Entry scan() {
+    for (Entry entry : sharedList) {
+      if (take(entry)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   *  将空闲的连接变为使用中
+   * */
+  private boolean take(Entry entry) {
+    if (entry.state.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
+      idle.decrementAndGet();
+      inUse.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   *  归还连接： 有线程在等待时直接交给等待的线程，否则记录到当前线程最近归还的连接中
+   * @return 连接已经被移除（例如 forceCloseAll）时返回 false
+   * */
+  boolean requite(Entry entry) {
+    if (!entry.state.compareAndSet(STATE_IN_USE, STATE_NOT_IN_USE)) {
+      return false;
+    }
+    inUse.decrementAndGet();
+    idle.incrementAndGet();
+    if (handOff(entry)) {
+      return true;
+    }
+    final List<WeakReference<Entry>> list = threadList.get();
+    if (list.size() < MAX_THREAD_ENTRIES) {
+      list.add(new WeakReference<Entry>(entry));
+    }
+    return true;
+  }
+
+  /**
+   *  占用一个空闲的连接（后台校验、淘汰时使用），连接不是空闲状态时返回 false
+   * */
+  boolean reserveEntry(Entry entry) {
+    if (entry.state.compareAndSet(STATE_NOT_IN_USE, STATE_RESERVED)) {
+      idle.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   *  将占用的或者新建的连接变为空闲，有线程在等待时直接交给等待的线程
+   * */
+  void unreserveEntry(Entry entry) {
+    if (entry.state.getAndSet(STATE_NOT_IN_USE) == STATE_IN_USE) {
+      inUse.decrementAndGet();
+    }
+    idle.incrementAndGet();
+    handOff(entry);
+  }
+
+  /**
+   *  有线程在等待时，反复尝试把空闲的连接交给它，直到交出或者连接被其他线程借走；
+   *    等待的线程可能已经登记但还没有开始 poll，只尝试一次会让它白白等到超时
+   * @return 没有等待的线程时返回 false
+   * */
+  private boolean handOff(Entry entry) {
+    for (int i = 0; waiters.get() > 0; i++) {
+      if (entry.state.get() != STATE_NOT_IN_USE || handoffQueue.offer(entry)) {
+        return true;
+      } else if ((i & 0xff) == 0xff) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+      } else {
+        Thread.yield();
+      }
+    }
+    return false;
+  }
+
+  /**
+   *  预留一个连接的位置，连接数已经达到最大值时返回 false；预留成功后必须调用 add 或者 cancelReserve
+   * */
+  boolean reserve(int maxSize) {
+    for (;;) {
+      final int current = size.get();
+      if (current >= maxSize) {
+        return false;
+      }
+      if (size.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  void cancelReserve() {
+    size.decrementAndGet();
+    signalFreedSlot();
+  }
+
+  /**
+   *  添加一个预留位置上新建的连接，状态为使用中
+   * */
+  void add(Entry entry) {
+    inUse.incrementAndGet();
+    sharedList.add(entry);
+  }
+
+  /**
+   *  移除连接，连接已经被移除时返回 false；空出的位置交给一个等待的线程新建连接
+   * */
+  boolean remove(Entry entry) {
+    for (;;) {
+      final int current = entry.state.get();
+      if (current == STATE_REMOVED) {
+        return false;
+      }
+      if (entry.state.compareAndSet(current, STATE_REMOVED)) {
+        if (current == STATE_NOT_IN_USE) {
+          idle.decrementAndGet();
+        } else if (current == STATE_IN_USE) {
+          inUse.decrementAndGet();
+        }
+        sharedList.remove(entry);
+        size.decrementAndGet();
+        signalFreedSlot();
+        return true;
+      }
+    }
+  }
+
+  /**
+   *  唤醒一个等待的线程，否则它要等到 poolTimeToWait 超时才会发现可以新建连接
+   * */
+  private void signalFreedSlot() {
+    for (int i = 0; i < MAX_FREED_SLOT_OFFERS && waiters.get() > 0; i++) {
+      if (handoffQueue.offer(FREED_SLOT)) {
+        return;
+      }
+      Thread.yield();
+    }
+  }
+
+  List<Entry> values() {
+    return new ArrayList<Entry>(sharedList);
+  }
+
+  int getIdleCount() {
+    return idle.get();
+  }
+
+  int getInUseCount() {
+    return inUse.get();
+  }
+
+  int getCount(int state) {
+    int count = 0;
+    for (Entry entry : sharedList) {
+      if (entry.state.get() == state) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  int getWaitingThreadCount() {
+    return waiters.get();
+  }
+
+  int size() {
+    return size.get();
+  }
+
+}
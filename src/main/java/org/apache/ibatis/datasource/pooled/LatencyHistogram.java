@@ -0,0 +1,133 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *  无锁、固定内存的延迟直方图： 按 2 的幂分桶，每个幂再分为 8 个线性子桶，百分位数的误差不超过 12.5%
+ */
+public class LatencyHistogram {
+
+  /**
+   *  小于该值的时间每个值一个桶
+   * */
+  private static final int LINEAR_BUCKETS = 16;
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int LINEAR_EXPONENT = 4;
+  private static final int BUCKET_COUNT = LINEAR_BUCKETS + (63 - LINEAR_EXPONENT) * SUB_BUCKETS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   *  记录一次耗时（纳秒），负数按 0 记录
+   * */
+  public void record(long nanos) {
+    final long value = nanos < 0 ? 0 : nanos;
+    buckets.incrementAndGet(bucketIndex(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   *  平均耗时（纳秒）
+   * */
+  public long getMean() {
+    final long n = count.get();
+    return n == 0 ? 0 : sum.get() / n;
+  }
+
+  /**
+   *  最大耗时（纳秒）
+   * */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   *  百分位数（纳秒），返回所在桶的上界，不超过最大值
+   * @param percentile 0 到 100 之间
+   * */
+  public long getPercentile(double percentile) {
+    final long[] snapshot = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      snapshot[i] = buckets.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    final double clamped = Math.min(100.0, Math.max(0.0, percentile));
+    final long rank = Math.max(1, (long) Math.ceil(clamped / 100.0 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public long getPercentile(double percentile, TimeUnit unit) {
+    return unit.convert(getPercentile(percentile), TimeUnit.NANOSECONDS);
+  }
+
+  static int bucketIndex(long value) {
+    if (value < LINEAR_BUCKETS) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR_BUCKETS + (exponent - LINEAR_EXPONENT) * SUB_BUCKETS + subBucket;
+  }
+
+  static long bucketUpperBound(int index) {
+    if (index < LINEAR_BUCKETS) {
+      return index;
+    }
+    final int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_EXPONENT;
+    final int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+    final long lower = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    final long width = 1L << (exponent - SUB_BUCKET_BITS);
+    return lower + width - 1 < 0 ? Long.MAX_VALUE : lower + width - 1;
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount()
+        + ", mean=" + TimeUnit.NANOSECONDS.toMicros(getMean()) + "us"
+        + ", p50=" + getPercentile(50, TimeUnit.MICROSECONDS) + "us"
+        + ", p99=" + getPercentile(99, TimeUnit.MICROSECONDS) + "us"
+        + ", max=" + TimeUnit.NANOSECONDS.toMicros(getMax()) + "us";
+  }
+
+}
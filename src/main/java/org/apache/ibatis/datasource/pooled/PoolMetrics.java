@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.util.Map;
+
+/**
+ *  连接池的实时指标： 只读取无锁的计数器，监控系统可以随时轮询而不影响连接池
+ */
+public interface PoolMetrics {
+
+  /**
+   *  正在使用的连接数
+   * */
+  int getActiveConnectionCount();
+
+  /**
+   *  空闲的连接数
+   * */
+  int getIdleConnectionCount();
+
+  /**
+   *  连接池中所有的连接数（包括正在创建的连接）
+   * */
+  int getTotalConnectionCount();
+
+  /**
+   *  正在等待连接的线程数
+   * */
+  int getPendingThreadCount();
+
+  long getRequestCount();
+
+  long getBadConnectionCount();
+
+  long getHadToWaitCount();
+
+  long getClaimedOverdueConnectionCount();
+
+  /**
+   *  泄漏检测报告过的连接数（借出时间超过 poolLeakDetectionThreshold）
+   * */
+  long getLeakedConnectionCount();
+
+  /**
+   *  获取连接的耗时（包括等待、创建和校验）
+   * */
+  LatencyHistogram getCheckoutWaitTime();
+
+  /**
+   *  连接从借出到归还的时间
+   * */
+  LatencyHistogram getCheckoutHoldTime();
+
+  /**
+   *  校验连接（侦测查询或者 Connection.isValid）的耗时
+   * */
+  LatencyHistogram getValidationTime();
+
+  /**
+   *  创建真实连接的耗时
+   * */
+  LatencyHistogram getConnectionCreationTime();
+
+  /**
+   *  开启泄漏检测时，每个语句（MappedStatement id）每次执行占用连接的时间： 从创建该语句到创建下一个语句或者归还连接，
+   *  一次借出中各语句的时间之和等于连接的占用时间，用于找出长时间占用连接的语句
+   * */
+  Map<String, LatencyHistogram> getStatementHoldTimes();
+
+}
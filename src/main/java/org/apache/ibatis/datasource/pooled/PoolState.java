@@ -15,93 +15,177 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Clinton Begin
  */
 /**
  * 连接池的状态:  用于统计和打印当前连接池的一些信息
+ *   统计值都是原子计数器，读取时不需要获取连接池的锁；同时通过 PoolMetrics 接口提供延迟直方图和实时指标
  */
-public class PoolState {
+public class PoolState implements PoolMetrics {
 
   protected PooledDataSource dataSource;
 
-  //空闲的连接
-  protected final List<PooledConnection> idleConnections = new ArrayList<PooledConnection>();
-  //活动的连接
-  protected final List<PooledConnection> activeConnections = new ArrayList<PooledConnection>();
-
   //请求次数
-  protected long requestCount = 0;
+  protected final AtomicLong requestCount = new AtomicLong();
   //所有获取数据库连接的请求时间之和
-  protected long accumulatedRequestTime = 0;
+  protected final AtomicLong accumulatedRequestTime = new AtomicLong();
   // 所有数据库连接被使用的时间之和
-  protected long accumulatedCheckoutTime = 0;
+  protected final AtomicLong accumulatedCheckoutTime = new AtomicLong();
   //过期的连接数量
-  protected long claimedOverdueConnectionCount = 0;
+  protected final AtomicLong claimedOverdueConnectionCount = new AtomicLong();
   //所有过期的连接的使用时间之和
-  protected long accumulatedCheckoutTimeOfOverdueConnections = 0;
+  protected final AtomicLong accumulatedCheckoutTimeOfOverdueConnections = new AtomicLong();
   //总等待时间
-  protected long accumulatedWaitTime = 0;
+  protected final AtomicLong accumulatedWaitTime = new AtomicLong();
   //等待获取连接的次数
-  protected long hadToWaitCount = 0;
+  protected final AtomicLong hadToWaitCount = new AtomicLong();
   //获取无效的数据库连接的次数
-  protected long badConnectionCount = 0;
+  protected final AtomicLong badConnectionCount = new AtomicLong();
+  //预编译语句缓存的命中、未命中和淘汰次数，在获取语句时更新，不使用连接池的锁
+  protected final AtomicLong statementCacheHitCount = new AtomicLong();
+  protected final AtomicLong statementCacheMissCount = new AtomicLong();
+  protected final AtomicLong statementCacheEvictionCount = new AtomicLong();
+  //获取连接、使用连接、校验连接和创建连接的耗时分布
+  protected final LatencyHistogram checkoutWaitTime = new LatencyHistogram();
+  protected final LatencyHistogram checkoutHoldTime = new LatencyHistogram();
+  protected final LatencyHistogram validationTime = new LatencyHistogram();
+  protected final LatencyHistogram connectionCreationTime = new LatencyHistogram();
+  //泄漏检测报告过的连接数，以及每个语句所在连接的占用时间分布
+  protected final AtomicLong leakedConnectionCount = new AtomicLong();
+  protected final ConcurrentMap<String, LatencyHistogram> statementHoldTimes = new ConcurrentHashMap<String, LatencyHistogram>();
 
   public PoolState(PooledDataSource dataSource) {
     this.dataSource = dataSource;
   }
 
-  public synchronized long getRequestCount() {
-    return requestCount;
+  @Override
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  public long getAverageRequestTime() {
+    return average(accumulatedRequestTime.get(), requestCount.get());
+  }
+
+  public long getAverageWaitTime() {
+    return average(accumulatedWaitTime.get(), hadToWaitCount.get());
+  }
+
+  @Override
+  public long getHadToWaitCount() {
+    return hadToWaitCount.get();
+  }
+
+  @Override
+  public long getBadConnectionCount() {
+    return badConnectionCount.get();
+  }
+
+  @Override
+  public long getClaimedOverdueConnectionCount() {
+    return claimedOverdueConnectionCount.get();
+  }
+
+  @Override
+  public long getLeakedConnectionCount() {
+    return leakedConnectionCount.get();
+  }
+
+  public long getAverageOverdueCheckoutTime() {
+    return average(accumulatedCheckoutTimeOfOverdueConnections.get(), claimedOverdueConnectionCount.get());
   }
 
-  public synchronized long getAverageRequestTime() {
-    return requestCount == 0 ? 0 : accumulatedRequestTime / requestCount;
+  public long getAverageCheckoutTime() {
+    return average(accumulatedCheckoutTime.get(), requestCount.get());
   }
 
-  public synchronized long getAverageWaitTime() {
-    return hadToWaitCount == 0 ? 0 : accumulatedWaitTime / hadToWaitCount;
 
+  public long getStatementCacheHitCount() {
+    return statementCacheHitCount.get();
   }
 
-  public synchronized long getHadToWaitCount() {
-    return hadToWaitCount;
+  public long getStatementCacheMissCount() {
+    return statementCacheMissCount.get();
   }
 
-  public synchronized long getBadConnectionCount() {
-    return badConnectionCount;
+  public long getStatementCacheEvictionCount() {
+    return statementCacheEvictionCount.get();
   }
 
-  public synchronized long getClaimedOverdueConnectionCount() {
-    return claimedOverdueConnectionCount;
+  @Override
+  public int getTotalConnectionCount() {
+    return dataSource.bag.size();
+  }
+
+  @Override
+  public int getPendingThreadCount() {
+    return dataSource.bag.getWaitingThreadCount();
+  }
+
+  @Override
+  public LatencyHistogram getCheckoutWaitTime() {
+    return checkoutWaitTime;
+  }
+
+  @Override
+  public LatencyHistogram getCheckoutHoldTime() {
+    return checkoutHoldTime;
   }
 
-  public synchronized long getAverageOverdueCheckoutTime() {
-    return claimedOverdueConnectionCount == 0 ? 0 : accumulatedCheckoutTimeOfOverdueConnections / claimedOverdueConnectionCount;
+  @Override
+  public LatencyHistogram getValidationTime() {
+    return validationTime;
   }
 
-  public synchronized long getAverageCheckoutTime() {
-    return requestCount == 0 ? 0 : accumulatedCheckoutTime / requestCount;
+  @Override
+  public LatencyHistogram getConnectionCreationTime() {
+    return connectionCreationTime;
+  }
+
+  @Override
+  public Map<String, LatencyHistogram> getStatementHoldTimes() {
+    return Collections.unmodifiableMap(statementHoldTimes);
   }
 
+  void recordStatementHoldTime(String statementId, long nanos) {
+    LatencyHistogram histogram = statementHoldTimes.get(statementId);
+    if (histogram == null) {
+      histogram = new LatencyHistogram();
+      LatencyHistogram existing = statementHoldTimes.putIfAbsent(statementId, histogram);
+      if (existing != null) {
+        histogram = existing;
+      }
+    }
+    histogram.record(nanos);
+  }
 
-  public synchronized int getIdleConnectionCount() {
-    return idleConnections.size();
+  @Override
+  public int getIdleConnectionCount() {
+    return dataSource.bag.getIdleCount();
   }
 
-  public synchronized int getActiveConnectionCount() {
-    return activeConnections.size();
+  @Override
+  public int getActiveConnectionCount() {
+    return dataSource.bag.getInUseCount();
   }
 
 
+  private static long average(long total, long count) {
+    return count == 0 ? 0 : total / count;
+  }
+
   /**
    *  打印统计信息
    * */
   @Override
-  public synchronized String toString() {
+  public String toString() {
     StringBuilder builder = new StringBuilder();
     builder.append("\n===CONFINGURATION==============================================");
     builder.append("\n jdbcDriver                     ").append(dataSource.getDriver());
@@ -115,9 +199,16 @@ public class PoolState {
     builder.append("\n poolPingEnabled                ").append(dataSource.poolPingEnabled);
     builder.append("\n poolPingQuery                  ").append(dataSource.poolPingQuery);
     builder.append("\n poolPingConnectionsNotUsedFor  ").append(dataSource.poolPingConnectionsNotUsedFor);
+    builder.append("\n poolPreparedStatementCacheSize ").append(dataSource.poolPreparedStatementCacheSize);
+    builder.append("\n poolMinimumIdleConnections     ").append(dataSource.poolMinimumIdleConnections);
+    builder.append("\n poolMaximumLifetime            ").append(dataSource.poolMaximumLifetime);
+    builder.append("\n poolIdleTimeout                ").append(dataSource.poolIdleTimeout);
+    builder.append("\n poolBackgroundValidation       ").append(dataSource.poolBackgroundValidationEnabled);
+    builder.append("\n poolLeakDetectionThreshold     ").append(dataSource.poolLeakDetectionThreshold);
     builder.append("\n ---STATUS-----------------------------------------------------");
     builder.append("\n activeConnections              ").append(getActiveConnectionCount());
     builder.append("\n idleConnections                ").append(getIdleConnectionCount());
+    builder.append("\n pendingThreads                 ").append(getPendingThreadCount());
     builder.append("\n requestCount                   ").append(getRequestCount());
     builder.append("\n averageRequestTime             ").append(getAverageRequestTime());
     builder.append("\n averageCheckoutTime            ").append(getAverageCheckoutTime());
@@ -126,6 +217,14 @@ public class PoolState {
     builder.append("\n hadToWait                      ").append(getHadToWaitCount());
     builder.append("\n averageWaitTime                ").append(getAverageWaitTime());
     builder.append("\n badConnectionCount             ").append(getBadConnectionCount());
+    builder.append("\n leakedConnectionCount          ").append(getLeakedConnectionCount());
+    builder.append("\n statementCacheHits             ").append(getStatementCacheHitCount());
+    builder.append("\n statementCacheMisses           ").append(getStatementCacheMissCount());
+    builder.append("\n statementCacheEvictions        ").append(getStatementCacheEvictionCount());
+    builder.append("\n checkoutWaitTime               ").append(checkoutWaitTime);
+    builder.append("\n checkoutHoldTime               ").append(checkoutHoldTime);
+    builder.append("\n validationTime                 ").append(validationTime);
+    builder.append("\n connectionCreationTime         ").append(connectionCreationTime);
     builder.append("\n===============================================================");
     return builder.toString();
   }
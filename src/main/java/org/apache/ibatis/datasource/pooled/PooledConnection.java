@@ -15,25 +15,29 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-import org.apache.ibatis.reflection.ExceptionUtil;
-import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.executor.ErrorContext;
+import org.apache.ibatis.jdbc.DelegatingConnection;
 
 /**
  * @author Clinton Begin
  */
 /**
- *  池化的连接: 是数据库连接 Connection 的代理类
+ *  池化的连接: 持有真实的数据库连接，以及交给使用者的包装连接
  */
-class PooledConnection implements InvocationHandler {
+class PooledConnection {
 
-  private static final String CLOSE = "close";
-  private static final Class<?>[] IFACES = new Class<?>[] { Connection.class };
+  /**
+   *  泄漏检测时每次借出最多记录的语句数
+   * */
+  private static final int MAX_TRACKED_STATEMENTS = 16;
 
   /**
    *  所代理数据库连接的哈希码
@@ -51,7 +55,7 @@ class PooledConnection implements InvocationHandler {
   private Connection realConnection;
 
   /**
-   *  数据库连接代理对象： 当调用 close 方法时不关闭，而是将连接返回到连接池
+   *  交给使用者的包装连接： 当调用 close 方法时不关闭，而是将连接返回到连接池
    * */
   private Connection proxyConnection;
 
@@ -60,6 +64,11 @@ class PooledConnection implements InvocationHandler {
    * */
   private long checkoutTimestamp;
 
+  /**
+   *  被获取时的 System.nanoTime()，用于统计使用时间的分布
+   * */
+  private long checkoutNanoTime;
+
   /**
    *  该连接被创建的时间
    * */
@@ -78,7 +87,32 @@ class PooledConnection implements InvocationHandler {
   /**
    *  当前连接还是否有效
    * */
-  private boolean valid;
+  private volatile boolean valid;
+
+  /**
+   *  真实连接上空闲的预编译语句缓存，没有开启时为 null；连接返回连接池时随真实连接转移
+   * */
+  private final PooledStatementCache statementCache;
+
+  /**
+   *  连接在连接池中对应的条目，由连接池在借出和归还时使用
+   * */
+  private final ConnectionBag.Entry bagEntry;
+
+  /**
+   *  开启泄漏检测时： 借出该连接的线程名（没有开启时为 null）、抽样记录的借出时的调用栈（没有抽中时为 null）、
+   *  本次借出期间执行过的语句 id，以及是否已经报告过泄漏。由借出的线程写入，后台维护线程读取
+   * */
+  private volatile String checkoutThreadName;
+  private volatile Throwable checkoutStack;
+  private volatile CopyOnWriteArrayList<String> checkoutStatements;
+  private volatile boolean leakReported;
+
+  /**
+   *  开启泄漏检测时，借出的线程正在使用连接的语句 id 和开始的 System.nanoTime()，只由借出的线程访问
+   * */
+  private String currentStatementId;
+  private long currentStatementNanos;
 
   /*
    * Constructor for SimplePooledConnection that uses the Connection and PooledDataSource passed in
@@ -87,13 +121,27 @@ class PooledConnection implements InvocationHandler {
    * @param dataSource - the dataSource that the connection is from
    */
   public PooledConnection(Connection connection, PooledDataSource dataSource) {
+    this(connection, dataSource, dataSource.newStatementCache(), null);
+  }
+
+  /*
+   * Constructor that keeps the statement cache of the real connection
+   *
+   * @param connection - the connection that is to be presented as a pooled connection
+   * @param dataSource - the dataSource that the connection is from
+   * @param statementCache - the statement cache of the connection (may be null)
+   * @param bagEntry - the entry of the connection in the pool
+   */
+  PooledConnection(Connection connection, PooledDataSource dataSource, PooledStatementCache statementCache, ConnectionBag.Entry bagEntry) {
     this.hashCode = connection.hashCode();
     this.realConnection = connection;
     this.dataSource = dataSource;
     this.createdTimestamp = System.currentTimeMillis();
     this.lastUsedTimestamp = System.currentTimeMillis();
     this.valid = true;
-    this.proxyConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), IFACES, this);
+    this.statementCache = statementCache;
+    this.bagEntry = bagEntry;
+    this.proxyConnection = new ProxyConnection();
   }
 
   /*
@@ -112,6 +160,42 @@ class PooledConnection implements InvocationHandler {
     return valid && realConnection != null && dataSource.pingConnection(this);
   }
 
+  /*
+   * Method to see if the connection can still be used without pinging the database
+   *
+   * @return True if the connection has not been invalidated
+   */
+  boolean isUsable() {
+    return valid && realConnection != null;
+  }
+
+  /*
+   * Getter for the statement cache of the real connection
+   *
+   * @return The statement cache (or null if statement caching is disabled)
+   */
+  PooledStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /*
+   * Getter for the entry of the connection in the pool
+   *
+   * @return The entry
+   */
+  ConnectionBag.Entry getBagEntry() {
+    return bagEntry;
+  }
+
+  /*
+   * Closes the idle cached statements, before the real connection is closed
+   */
+  void closeStatementCache() {
+    if (statementCache != null) {
+      statementCache.clear();
+    }
+  }
+
   /*
    * Getter for the *real* connection that this wraps
    *
@@ -229,6 +313,78 @@ class PooledConnection implements InvocationHandler {
     this.checkoutTimestamp = timestamp;
   }
 
+  long getCheckoutNanoTime() {
+    return checkoutNanoTime;
+  }
+
+  void setCheckoutNanoTime(long checkoutNanoTime) {
+    this.checkoutNanoTime = checkoutNanoTime;
+  }
+
+  String getCheckoutThreadName() {
+    return checkoutThreadName;
+  }
+
+  Throwable getCheckoutStack() {
+    return checkoutStack;
+  }
+
+  /**
+   *  开启泄漏检测时记录借出的线程和（抽样的）调用栈
+   * */
+  void setCheckoutOwner(String threadName, Throwable stack) {
+    this.checkoutThreadName = threadName;
+    this.checkoutStack = stack;
+  }
+
+  /**
+   * @return 本次借出期间执行过的语句 id，没有时为 null
+   * */
+  List<String> getCheckoutStatements() {
+    return checkoutStatements;
+  }
+
+  boolean isLeakReported() {
+    return leakReported;
+  }
+
+  void setLeakReported(boolean leakReported) {
+    this.leakReported = leakReported;
+  }
+
+  /**
+   *  记录当前正在执行的语句（由执行器放在 ErrorContext 中），上一个语句占用连接的时间到此结束
+   * */
+  private void recordStatement() {
+    String statementId = ErrorContext.instance().getObject();
+    long now = System.nanoTime();
+    finishStatement(now);
+    if (statementId == null) {
+      return;
+    }
+    currentStatementId = statementId;
+    currentStatementNanos = now;
+    CopyOnWriteArrayList<String> statements = checkoutStatements;
+    if (statements == null) {
+      statements = new CopyOnWriteArrayList<String>();
+      checkoutStatements = statements;
+    }
+    if (statements.size() < MAX_TRACKED_STATEMENTS) {
+      statements.addIfAbsent(statementId);
+    }
+  }
+
+  /**
+   *  记录当前语句占用连接的时间： 从创建该语句到创建下一个语句或者归还连接
+   * */
+  void finishStatement(long now) {
+    String statementId = currentStatementId;
+    if (statementId != null) {
+      currentStatementId = null;
+      dataSource.getPoolState().recordStatementHoldTime(statementId, now - currentStatementNanos);
+    }
+  }
+
   /*
    * Getter for the time that this connection has been checked out
    *
@@ -260,32 +416,13 @@ class PooledConnection implements InvocationHandler {
     }
   }
 
-  /*
-   * Required for InvocationHandler implementation.
-   *
-   * @param proxy  - not used
-   * @param method - the method to be executed
-   * @param args   - the parameters to be passed to the method
-   * @see java.lang.reflect.InvocationHandler#invoke(Object, java.lang.reflect.Method, Object[])
-   */
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    String methodName = method.getName();
-    //如果调用close的话，忽略它，反而将这个connection加入到池中
-    if (CLOSE.hashCode() == methodName.hashCode() && CLOSE.equals(methodName)) {
-      dataSource.pushConnection(this);
-      return null;
-    } else {
-      try {
-        //如果打当前方法的声明类不是object，说明是自己内部定义的方法，则核对当前连接是否有效
-        if (!Object.class.equals(method.getDeclaringClass())) {
-          checkConnection();
-        }
-        //其他的方法，则交给真正的connection去调用
-        return method.invoke(realConnection, args);
-      } catch (Throwable t) {
-        throw ExceptionUtil.unwrapThrowable(t);
-      }
+  /**
+   *  创建语句前核对连接是否有效，开启了泄漏检测时，记录借出期间执行的语句
+   * */
+  private void beforeStatementCreation() throws SQLException {
+    checkConnection();
+    if (checkoutThreadName != null) {
+      recordStatement();
     }
   }
 
@@ -295,4 +432,127 @@ class PooledConnection implements InvocationHandler {
     }
   }
 
+  /**
+   *  交给使用者的连接： 每次调用前核对连接是否有效，close 时将连接返回到连接池，
+   *    开启了语句缓存时 prepareStatement 和 prepareCall 优先从缓存中获取
+   * */
+  final class ProxyConnection extends DelegatingConnection {
+
+    PooledConnection getPooledConnection() {
+      return PooledConnection.this;
+    }
+
+    @Override
+    protected Connection getDelegate() throws SQLException {
+      checkConnection();
+      return realConnection;
+    }
+
+    @Override
+    public void close() throws SQLException {
+      //如果调用close的话，忽略它，反而将这个connection加入到池中
+      dataSource.pushConnection(PooledConnection.this);
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+      beforeStatementCreation();
+      return super.createStatement();
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+      beforeStatementCreation();
+      return super.createStatement(resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+      beforeStatementCreation();
+      return super.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+      beforeStatementCreation();
+      if (statementCache != null) {
+        return statementCache.prepareStatement(PooledConnection.this, PooledStatementCache.Key.of(sql));
+      }
+      return super.prepareStatement(sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+      beforeStatementCreation();
+      if (statementCache != null) {
+        return statementCache.prepareStatement(PooledConnection.this, PooledStatementCache.Key.of(sql, resultSetType, resultSetConcurrency));
+      }
+      return super.prepareStatement(sql, resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+      beforeStatementCreation();
+      return super.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+      beforeStatementCreation();
+      if (statementCache != null) {
+        return statementCache.prepareStatement(PooledConnection.this, PooledStatementCache.Key.of(sql, autoGeneratedKeys));
+      }
+      return super.prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+      beforeStatementCreation();
+      return super.prepareStatement(sql, columnIndexes);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+      beforeStatementCreation();
+      if (statementCache != null) {
+        return statementCache.prepareStatement(PooledConnection.this, PooledStatementCache.Key.of(sql, columnNames));
+      }
+      return super.prepareStatement(sql, columnNames);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+      beforeStatementCreation();
+      if (statementCache != null) {
+        return (CallableStatement) statementCache.prepareStatement(PooledConnection.this, PooledStatementCache.Key.ofCall(sql));
+      }
+      return super.prepareCall(sql);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+      beforeStatementCreation();
+      if (statementCache != null) {
+        return (CallableStatement) statementCache.prepareStatement(PooledConnection.this, PooledStatementCache.Key.ofCall(sql, resultSetType, resultSetConcurrency));
+      }
+      return super.prepareCall(sql, resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+      beforeStatementCreation();
+      return super.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public int hashCode() {
+      return PooledConnection.this.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return PooledConnection.this.equals(obj);
+    }
+  }
+
 }
@@ -16,14 +16,21 @@
 package org.apache.ibatis.datasource.pooled;
 
 import java.io.PrintWriter;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Proxy;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Statement;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.sql.DataSource;
@@ -33,7 +40,8 @@ import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 
 /**
- * This is a simple, synchronous, thread-safe database connection pool.
+ * This is a simple, thread-safe database connection pool. Connections are borrowed and
+ * returned without a pool-wide lock (see {@link ConnectionBag}).
  *
  * @author Clinton Begin
  */
@@ -46,6 +54,11 @@ public class PooledDataSource implements DataSource {
 
   private final PoolState state = new PoolState(this);
 
+  /**
+   *  连接池中所有的连接，借出和归还时不需要加锁
+   * */
+  final ConnectionBag bag = new ConnectionBag();
+
   /**
    *  内部包含了一个非池化的数据源，实际上是从该数据源获取数据库连接
    * */
@@ -66,8 +79,36 @@ public class PooledDataSource implements DataSource {
   protected boolean poolPingEnabled = false;
   //用来配置 poolPingQuery 多次时间被用一次 毫秒
   protected int poolPingConnectionsNotUsedFor = 0;
+  //每个连接缓存的预编译语句的最大数量，0 表示不缓存
+  protected int poolPreparedStatementCacheSize = 0;
+  //后台维护线程保持的最小空闲连接数
+  protected int poolMinimumIdleConnections = 0;
+  //连接的最大存活时间（毫秒），到期后空闲时或归还时关闭，0 表示不限制
+  protected long poolMaximumLifetime = 0;
+  //空闲超过该时间（毫秒）的连接在空闲连接数多于最小空闲连接数时关闭，0 表示不关闭
+  protected long poolIdleTimeout = 0;
+  //由后台维护线程校验空闲连接，获取连接时不再执行侦测查询
+  protected boolean poolBackgroundValidationEnabled = false;
+  //没有设置侦测查询时，通过 Connection.isValid 校验连接的超时时间（秒）
+  protected int poolValidationTimeout = 5;
+  //后台维护线程的执行间隔（毫秒）
+  protected long poolHousekeepingPeriod = 30000;
+  //借出超过该时间（毫秒）的连接被报告为可能的泄漏，0 表示不检测
+  protected long poolLeakDetectionThreshold = 0;
+  //泄漏检测时每多少次借出记录一次调用栈，1 表示每次都记录
+  protected int poolLeakDetectionSampleInterval = 10;
+
+  /**
+   *  借出次数，用于抽样记录调用栈
+   * */
+  private final AtomicInteger checkoutSequence = new AtomicInteger();
 
-  private int expectedConnectionTypeCode;
+  /**
+   *  后台维护线程，需要时在配置完成或第一次获取连接时启动，close 时停止
+   * */
+  volatile ScheduledExecutorService housekeeper;
+
+  private volatile int expectedConnectionTypeCode;
 
   public PooledDataSource() {
     dataSource = new UnpooledDataSource();
@@ -233,6 +274,98 @@ public class PooledDataSource implements DataSource {
     forceCloseAll();
   }
 
+  /*
+   * The maximum number of idle prepared statements cached by each connection.
+   * Cached statements survive the session and go back to the pool with the connection.
+   *
+   * @param poolPreparedStatementCacheSize the cache size (0 disables statement caching)
+   */
+  public void setPoolPreparedStatementCacheSize(int poolPreparedStatementCacheSize) {
+    this.poolPreparedStatementCacheSize = poolPreparedStatementCacheSize;
+    forceCloseAll();
+  }
+
+  /*
+   * The number of idle connections the background housekeeper keeps in the pool
+   *
+   * @param poolMinimumIdleConnections the minimum number of idle connections
+   */
+  public void setPoolMinimumIdleConnections(int poolMinimumIdleConnections) {
+    this.poolMinimumIdleConnections = poolMinimumIdleConnections;
+    forceCloseAll();
+  }
+
+  /*
+   * The maximum lifetime of a connection. Each connection is retired a little earlier
+   * (up to 2.5%) so that connections created together are not all closed at once.
+   *
+   * @param poolMaximumLifetime the lifetime in milliseconds (0 means unlimited)
+   */
+  public void setPoolMaximumLifetime(long poolMaximumLifetime) {
+    this.poolMaximumLifetime = poolMaximumLifetime;
+    forceCloseAll();
+  }
+
+  /*
+   * The time after which an idle connection above the minimum idle count is closed
+   *
+   * @param poolIdleTimeout the idle timeout in milliseconds (0 means never)
+   */
+  public void setPoolIdleTimeout(long poolIdleTimeout) {
+    this.poolIdleTimeout = poolIdleTimeout;
+    forceCloseAll();
+  }
+
+  /*
+   * Validates idle connections in the background instead of pinging them on checkout
+   *
+   * @param poolBackgroundValidationEnabled True to validate idle connections in the background
+   */
+  public void setPoolBackgroundValidationEnabled(boolean poolBackgroundValidationEnabled) {
+    this.poolBackgroundValidationEnabled = poolBackgroundValidationEnabled;
+    forceCloseAll();
+  }
+
+  /*
+   * The timeout of Connection.isValid, used when no ping query is enabled
+   *
+   * @param poolValidationTimeout the timeout in seconds
+   */
+  public void setPoolValidationTimeout(int poolValidationTimeout) {
+    this.poolValidationTimeout = poolValidationTimeout;
+    forceCloseAll();
+  }
+
+  /*
+   * The period of the background housekeeper. A running housekeeper is rescheduled with the new period.
+   *
+   * @param poolHousekeepingPeriod the period in milliseconds
+   */
+  public void setPoolHousekeepingPeriod(long poolHousekeepingPeriod) {
+    this.poolHousekeepingPeriod = poolHousekeepingPeriod;
+    forceCloseAll();
+  }
+
+  /*
+   * Connections checked out for longer than this are reported as possible leaks by the housekeeper
+   *
+   * @param poolLeakDetectionThreshold the threshold in milliseconds, 0 disables leak detection
+   */
+  public void setPoolLeakDetectionThreshold(long poolLeakDetectionThreshold) {
+    this.poolLeakDetectionThreshold = poolLeakDetectionThreshold;
+    forceCloseAll();
+  }
+
+  /*
+   * The checkout stack is captured for one checkout out of this many
+   *
+   * @param poolLeakDetectionSampleInterval the interval, 1 captures every checkout
+   */
+  public void setPoolLeakDetectionSampleInterval(int poolLeakDetectionSampleInterval) {
+    this.poolLeakDetectionSampleInterval = poolLeakDetectionSampleInterval;
+    forceCloseAll();
+  }
+
   public String getDriver() {
     return dataSource.getDriver();
   }
@@ -289,32 +422,79 @@ public class PooledDataSource implements DataSource {
     return poolPingConnectionsNotUsedFor;
   }
 
+  public int getPoolPreparedStatementCacheSize() {
+    return poolPreparedStatementCacheSize;
+  }
+
+  public int getPoolMinimumIdleConnections() {
+    return poolMinimumIdleConnections;
+  }
+
+  public long getPoolMaximumLifetime() {
+    return poolMaximumLifetime;
+  }
+
+  public long getPoolIdleTimeout() {
+    return poolIdleTimeout;
+  }
+
+  public boolean isPoolBackgroundValidationEnabled() {
+    return poolBackgroundValidationEnabled;
+  }
+
+  public int getPoolValidationTimeout() {
+    return poolValidationTimeout;
+  }
+
+  public long getPoolHousekeepingPeriod() {
+    return poolHousekeepingPeriod;
+  }
+
+  public long getPoolLeakDetectionThreshold() {
+    return poolLeakDetectionThreshold;
+  }
+
+  public int getPoolLeakDetectionSampleInterval() {
+    return poolLeakDetectionSampleInterval;
+  }
+
+  /**
+   *  为新建的真实连接创建预编译语句缓存，没有开启时返回 null
+   * */
+  PooledStatementCache newStatementCache() {
+    return poolPreparedStatementCacheSize > 0 ? new PooledStatementCache(state, poolPreparedStatementCacheSize) : null;
+  }
+
   /*
    * Closes all active and idle connections in the pool
    * 强制关闭所有连接池中活跃和空闲的连接, 如果不是自动提交，则进行回滚
    */
   public void forceCloseAll() {
-    synchronized (state) {
-      expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
-      //关闭所有的activeConnections和idleConnections
-      for (int i = state.activeConnections.size(); i > 0; i--) {
-        try {
-          PooledConnection conn = state.activeConnections.remove(i - 1);
-          conn.invalidate();
+    //设置变更后按新的配置重新启动后台维护线程
+    boolean housekeeping = stopHousekeeper();
+    closeAllConnections();
+    if (housekeeping) {
+      startHousekeeper();
+    }
+  }
 
-          Connection realConn = conn.getRealConnection();
-          if (!realConn.getAutoCommit()) {
-            realConn.rollback();
-          }
-          realConn.close();
-        } catch (Exception e) {
-          // ignore
-        }
-      }
-      for (int i = state.idleConnections.size(); i > 0; i--) {
+  /**
+   *  关闭连接池： 停止后台维护线程并关闭所有连接，之后再获取连接会重新启用连接池
+   * */
+  public void close() {
+    stopHousekeeper();
+    closeAllConnections();
+  }
+
+  private void closeAllConnections() {
+    expectedConnectionTypeCode = assembleConnectionTypeCode(dataSource.getUrl(), dataSource.getUsername(), dataSource.getPassword());
+    //关闭所有使用中和空闲的连接
+    for (ConnectionBag.Entry entry : bag.values()) {
+      if (bag.remove(entry)) {
         try {
-          PooledConnection conn = state.idleConnections.remove(i - 1);
+          PooledConnection conn = entry.getConnection();
           conn.invalidate();
+          conn.closeStatementCache();
 
           Connection realConn = conn.getRealConnection();
           if (!realConn.getAutoCommit()) {
@@ -331,179 +511,376 @@ public class PooledDataSource implements DataSource {
     }
   }
 
+  /**
+   *  关闭所有空闲的连接，使用中的连接不受影响（例如数据库不可用时排空连接池）
+   * */
+  public void closeIdleConnections() {
+    for (ConnectionBag.Entry entry : bag.values()) {
+      if (bag.reserveEntry(entry)) {
+        discard(entry);
+      }
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("PooledDataSource closed all idle connections.");
+    }
+  }
+
   public PoolState getPoolState() {
     return state;
   }
 
+  /**
+   *  连接池的实时指标，可以被监控系统随时轮询
+   * */
+  public PoolMetrics getPoolMetrics() {
+    return state;
+  }
+
   private int assembleConnectionTypeCode(String url, String username, String password) {
     return ("" + url + username + password).hashCode();
   }
 
   /**
-   *  向连接池返回连接
+   *  向连接池返回连接： 先通过 CAS 把条目中的连接替换为新的连接，取得真实连接的所有权之后才回滚，
+   *    避免回滚掉其他线程作为过期连接回收之后所做的修改
    * */
   protected void pushConnection(PooledConnection conn) throws SQLException {
-
-    synchronized (state) {
-      //先从activeConnections中删除此connection
-      state.activeConnections.remove(conn);
-      // 如果该数据库连接有效
-      if (conn.isValid()) {
-        // 1. 如果空闲连接数量没有超过最大值，且和期待的连接类型相同
-        if (state.idleConnections.size() < poolMaximumIdleConnections && conn.getConnectionTypeCode() == expectedConnectionTypeCode) {
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          //1.1 如果该连接不是自动提交，则回滚
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
-          //1.2 新建一个数据库连接，并加入到空闲链表
-          PooledConnection newConn = new PooledConnection(conn.getRealConnection(), this);
-          state.idleConnections.add(newConn);
-          newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
-          newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
-          //1.3 并将 conn 置为无效
-          conn.invalidate();
-          if (log.isDebugEnabled()) {
-            log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
-          }
-          //1.4 通知其他线程获取连接
-          state.notifyAll();
-        //2. 如果空闲的连接已超过最大值
-        } else {
-          state.accumulatedCheckoutTime += conn.getCheckoutTime();
-          if (!conn.getRealConnection().getAutoCommit()) {
-            conn.getRealConnection().rollback();
-          }
-          //2.1 则将返回的连接关闭
-          conn.getRealConnection().close();
-          if (log.isDebugEnabled()) {
-            log.debug("Closed connection " + conn.getRealHashCode() + ".");
-          }
-          //2.2 并将 conn 置为无效
-          conn.invalidate();
-        }
+    final ConnectionBag.Entry entry = conn.getBagEntry();
+    PooledConnection newConn = null;
+    // 如果该连接没有被置为无效，且没有被其他线程作为过期连接回收
+    if (conn.isUsable() && entry != null && entry.getConnection() == conn) {
+      newConn = new PooledConnection(conn.getRealConnection(), this, conn.getStatementCache(), entry);
+      newConn.setCreatedTimestamp(conn.getCreatedTimestamp());
+      newConn.setLastUsedTimestamp(conn.getLastUsedTimestamp());
+      newConn.setConnectionTypeCode(conn.getConnectionTypeCode());
+      if (entry.replaceConnection(conn, newConn)) {
+        conn.invalidate();
       } else {
+        newConn = null;
+      }
+    }
+    if (newConn == null) {
+      //连接已经属于其他线程（或者已经被移除），不能再操作真实连接
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCount.incrementAndGet();
+      return;
+    }
+    state.accumulatedCheckoutTime.addAndGet(conn.getCheckoutTime());
+    if (conn.getCheckoutTimestamp() > 0) {
+      long holdNanos = System.nanoTime() - conn.getCheckoutNanoTime();
+      state.checkoutHoldTime.record(holdNanos);
+      if (conn.getCheckoutThreadName() != null) {
+        recordCheckoutStatements(conn, holdNanos);
+      }
+    }
+    if (!newConn.isValid()) {
+      if (log.isDebugEnabled()) {
+        log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+      }
+      state.badConnectionCount.incrementAndGet();
+      discard(entry);
+      return;
+    }
+    //如果该连接不是自动提交，则回滚；回滚失败的连接不再放回连接池
+    try {
+      if (!newConn.getRealConnection().getAutoCommit()) {
+        newConn.getRealConnection().rollback();
+      }
+    } catch (SQLException e) {
+      discard(entry);
+      throw e;
+    }
+    // 1. 如果空闲连接数量没有超过最大值，且和期待的连接类型相同，则归还到连接池，有线程在等待时直接交给等待的线程
+    if (bag.getIdleCount() < poolMaximumIdleConnections && newConn.getConnectionTypeCode() == expectedConnectionTypeCode
+        && !entry.isExpired(System.currentTimeMillis())) {
+      if (bag.requite(entry)) {
         if (log.isDebugEnabled()) {
-          log.debug("A bad connection (" + conn.getRealHashCode() + ") attempted to return to the pool, discarding connection.");
+          log.debug("Returned connection " + newConn.getRealHashCode() + " to pool.");
         }
-        state.badConnectionCount++;
+      }
+    //2. 如果空闲的连接已超过最大值（或者连接已到期），则将返回的连接关闭
+    } else if (bag.remove(entry)) {
+      newConn.invalidate();
+      newConn.closeStatementCache();
+      newConn.getRealConnection().close();
+      if (log.isDebugEnabled()) {
+        log.debug("Closed connection " + newConn.getRealHashCode() + ".");
       }
     }
   }
 
-
   /**
-   *  通过用户名和密码获取数据库连接
+   *  通过用户名和密码获取数据库连接，取不到可用的连接时抛出 SQLTransientConnectionException（瞬时错误，可以重试或者降低并发）
    * */
   private PooledConnection popConnection(String username, String password) throws SQLException {
     boolean countedWait = false;
     PooledConnection conn = null;
     long t = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
     int localBadConnectionCount = 0;
-    // 通过死循环的方式获取数据库连接，
+    if (housekeeper == null && isHousekeepingRequired()) {
+      startHousekeeper();
+    }
+    // 通过循环的方式获取数据库连接，
     while (conn == null) {
-      synchronized (state) {
-        //1. 如果有空闲的，则返回空闲链表中的第一个连接
-        if (!state.idleConnections.isEmpty()) {
-          conn = state.idleConnections.remove(0);
-          if (log.isDebugEnabled()) {
-            log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
-          }
-        //2. 如果没有空闲的连接
-        } else {
-          //2.1 如果活跃连接数小于最大值，则新建一个连接
-          if (state.activeConnections.size() < poolMaximumActiveConnections) {
-            conn = new PooledConnection(dataSource.getConnection(), this);
-            if (log.isDebugEnabled()) {
-              log.debug("Created connection " + conn.getRealHashCode() + ".");
-            }
-          //2.2 如果正在使用的连接数已超过指定的最大值
-          } else {
-            //2.2.1 获取最先使用，但是还没有释放的数据库连接
-            PooledConnection oldestActiveConnection = state.activeConnections.get(0);
-            long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
-            //2.2.2 如果使用时间超过了回收时间
-            if (longestCheckoutTime > poolMaximumCheckoutTime) {
-              state.claimedOverdueConnectionCount++;
-              state.accumulatedCheckoutTimeOfOverdueConnections += longestCheckoutTime;
-              state.accumulatedCheckoutTime += longestCheckoutTime;
-              //2.2.2.1 从活跃的连接池中移除该连接
-              state.activeConnections.remove(oldestActiveConnection);
-              //2.2.2.2 如果该连接不是自动提交，则进行回滚，并置为无效
-              if (!oldestActiveConnection.getRealConnection().getAutoCommit()) {
-                oldestActiveConnection.getRealConnection().rollback();
-              }
-              //2.2.2.3 新建一个新的连接
-              conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this);
-              oldestActiveConnection.invalidate();
-              if (log.isDebugEnabled()) {
-                log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
-              }
-            //2.2.3 如果最先使用的连接还没有超过回收时间
-            } else {
-              // Must wait
-              try {
-                //2.2.3.1 等待获取连接的次数 + 1
-                if (!countedWait) {
-                  state.hadToWaitCount++;
-                  countedWait = true;
-                }
-                if (log.isDebugEnabled()) {
-                  log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
-                }
-                long wt = System.currentTimeMillis();
-                state.wait(poolTimeToWait);
-                state.accumulatedWaitTime += System.currentTimeMillis() - wt;
-                //2.2.3.2 如果当前线程被中断，则退出
-              } catch (InterruptedException e) {
-                break;
-              }
-            }
-          }
+      //1. 如果有空闲的，则不等待直接借出
+      ConnectionBag.Entry entry = borrowIdle();
+      if (entry != null) {
+        conn = entry.getConnection();
+        if (log.isDebugEnabled()) {
+          log.debug("Checked out connection " + conn.getRealHashCode() + " from pool.");
+        }
+      //2.1 如果连接数小于最大值，则新建一个连接
+      } else if (bag.reserve(poolMaximumActiveConnections)) {
+        conn = createConnection();
+        if (log.isDebugEnabled()) {
+          log.debug("Created connection " + conn.getRealHashCode() + ".");
+        }
+      //2.2 如果连接数已达到最大值，则尝试回收使用时间超过回收时间的连接
+      } else if ((conn = claimOverdueConnection()) != null) {
+        if (log.isDebugEnabled()) {
+          log.debug("Claimed overdue connection " + conn.getRealHashCode() + ".");
+        }
+      //2.3 否则等待其他线程归还连接
+      } else {
+        if (!countedWait) {
+          state.hadToWaitCount.incrementAndGet();
+          countedWait = true;
+        }
+        if (log.isDebugEnabled()) {
+          log.debug("Waiting as long as " + poolTimeToWait + " milliseconds for connection.");
+        }
+        long wt = System.currentTimeMillis();
+        try {
+          entry = bag.borrow(poolTimeToWait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          //如果当前线程被中断，则退出
+          Thread.currentThread().interrupt();
+          break;
+        } finally {
+          state.accumulatedWaitTime.addAndGet(System.currentTimeMillis() - wt);
+        }
+        if (entry == null) {
+          continue;
+        }
+        conn = entry.getConnection();
+      }
+      //3. 如果获取到了数据库连接
+      //3.1 如果连接有效且回滚成功，则更新统计信息
+      if (conn.isValid() && rollbackForCheckout(conn)) {
+        conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
+        long checkoutNanos = System.nanoTime();
+        conn.setCheckoutTimestamp(System.currentTimeMillis());
+        conn.setCheckoutNanoTime(checkoutNanos);
+        conn.setLastUsedTimestamp(System.currentTimeMillis());
+        if (poolLeakDetectionThreshold > 0) {
+          recordCheckoutOwner(conn);
         }
-        //3. 如果获取到了数据库连接
-        if (conn != null) {
-          //3.1 如果连接有效，则更新统计信息
-          if (conn.isValid()) {
-            if (!conn.getRealConnection().getAutoCommit()) {
-              conn.getRealConnection().rollback();
-            }
-            conn.setConnectionTypeCode(assembleConnectionTypeCode(dataSource.getUrl(), username, password));
-            conn.setCheckoutTimestamp(System.currentTimeMillis());
-            conn.setLastUsedTimestamp(System.currentTimeMillis());
-            state.activeConnections.add(conn);
-            state.requestCount++;
-            state.accumulatedRequestTime += System.currentTimeMillis() - t;
-          //3.2 如果连接无效，则记录, 如果本线程获取坏的连接超过了指定的值，则抛出异常
-          } else {
-            if (log.isDebugEnabled()) {
-              log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
-            }
-            state.badConnectionCount++;
-            localBadConnectionCount++;
-            conn = null;
-            if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
-              if (log.isDebugEnabled()) {
-                log.debug("PooledDataSource: Could not get a good connection to the database.");
-              }
-              throw new SQLException("PooledDataSource: Could not get a good connection to the database.");
-            }
+        state.requestCount.incrementAndGet();
+        state.accumulatedRequestTime.addAndGet(System.currentTimeMillis() - t);
+        state.checkoutWaitTime.record(checkoutNanos - startNanos);
+      //3.2 如果连接无效，则记录并移除, 如果本线程获取坏的连接超过了指定的值，则抛出异常
+      } else {
+        if (log.isDebugEnabled()) {
+          log.debug("A bad connection (" + conn.getRealHashCode() + ") was returned from the pool, getting another connection.");
+        }
+        state.badConnectionCount.incrementAndGet();
+        localBadConnectionCount++;
+        discard(conn.getBagEntry());
+        conn = null;
+        if (localBadConnectionCount > (poolMaximumIdleConnections + 3)) {
+          if (log.isDebugEnabled()) {
+            log.debug("PooledDataSource: Could not get a good connection to the database.");
           }
+          throw new SQLTransientConnectionException("PooledDataSource: Could not get a good connection to the database.");
         }
       }
-
     }
   // 如果获取不到连接，也抛出异常
     if (conn == null) {
       if (log.isDebugEnabled()) {
         log.debug("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
       }
-      throw new SQLException("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
+      throw new SQLTransientConnectionException("PooledDataSource: Unknown severe error condition.  The connection pool returned a null connection.");
     }
 
     return conn;
   }
 
+  /**
+   *  借出前回滚未提交的事务；失败时返回 false，由调用方按坏连接移出连接池
+   * */
+  private boolean rollbackForCheckout(PooledConnection conn) {
+    try {
+      if (!conn.getRealConnection().getAutoCommit()) {
+        conn.getRealConnection().rollback();
+      }
+      return true;
+    } catch (SQLException e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Could not roll back connection " + conn.getRealHashCode() + " before checkout: " + e);
+      }
+      return false;
+    }
+  }
+
+  /**
+   *  泄漏检测： 记录借出连接的线程，每 poolLeakDetectionSampleInterval 次借出记录一次调用栈
+   * */
+  private void recordCheckoutOwner(PooledConnection conn) {
+    Throwable stack = null;
+    int interval = poolLeakDetectionSampleInterval;
+    if (interval <= 1 || (checkoutSequence.getAndIncrement() & Integer.MAX_VALUE) % interval == 0) {
+      stack = new Throwable("Connection " + conn.getRealHashCode() + " was checked out here");
+    }
+    conn.setCheckoutOwner(Thread.currentThread().getName(), stack);
+  }
+
+  /**
+   *  泄漏检测： 归还连接时结束最后一个语句占用连接的时间
+   * */
+  private void recordCheckoutStatements(PooledConnection conn, long holdNanos) {
+    conn.finishStatement(System.nanoTime());
+    if (conn.isLeakReported()) {
+      log.warn("PooledDataSource: Connection " + conn.getRealHashCode() + " reported as a possible leak was returned after "
+          + TimeUnit.NANOSECONDS.toMillis(holdNanos) + " ms.");
+    }
+  }
+
+  /**
+   *  泄漏检测： 报告借出时间超过 poolLeakDetectionThreshold 的连接，每个连接只报告一次
+   * */
+  private void detectLeaks(long now) {
+    for (ConnectionBag.Entry entry : bag.values()) {
+      PooledConnection conn = entry.getConnection();
+      if (entry.getState() == ConnectionBag.STATE_IN_USE && conn != null && conn.getCheckoutThreadName() != null
+          && !conn.isLeakReported() && now - conn.getCheckoutTimestamp() > poolLeakDetectionThreshold) {
+        conn.setLeakReported(true);
+        state.leakedConnectionCount.incrementAndGet();
+        log.warn(describeCheckout("Possible connection leak", conn, now - conn.getCheckoutTimestamp()));
+      }
+    }
+  }
+
+  /**
+   *  描述连接的借出者： 线程、执行过的语句和（抽样的）调用栈
+   * */
+  private String describeCheckout(String title, PooledConnection conn, long checkoutTime) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("PooledDataSource: ").append(title).append(". Connection ").append(conn.getRealHashCode())
+        .append(" was checked out ").append(checkoutTime).append(" ms ago by thread '").append(conn.getCheckoutThreadName()).append("'");
+    List<String> statements = conn.getCheckoutStatements();
+    if (statements != null) {
+      builder.append(" and used by ").append(statements);
+    }
+    Throwable stack = conn.getCheckoutStack();
+    if (stack != null) {
+      StringWriter writer = new StringWriter();
+      stack.printStackTrace(new PrintWriter(writer));
+      builder.append(". ").append(writer);
+    } else {
+      builder.append(". The checkout stack was not sampled (poolLeakDetectionSampleInterval is ")
+          .append(poolLeakDetectionSampleInterval).append(").");
+    }
+    return builder.toString();
+  }
+
+  /**
+   *  不等待，借出一个空闲的连接
+   * */
+  private ConnectionBag.Entry borrowIdle() {
+    try {
+      return bag.borrow(0, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      // 不等待时不会被中断
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /**
+   *  在预留的位置上新建一个连接
+   * */
+  private PooledConnection createConnection() throws SQLException {
+    try {
+      ConnectionBag.Entry entry = new ConnectionBag.Entry();
+      long start = System.nanoTime();
+      Connection realConn = dataSource.getConnection();
+      state.connectionCreationTime.record(System.nanoTime() - start);
+      PooledConnection conn = new PooledConnection(realConn, this, newStatementCache(), entry);
+      entry.setConnection(conn);
+      if (poolMaximumLifetime > 0) {
+        //每个连接提前最多 2.5% 到期，避免同时创建的连接同时被关闭
+        long jitter = (long) (Math.random() * poolMaximumLifetime * 0.025);
+        entry.setExpireTimestamp(conn.getCreatedTimestamp() + poolMaximumLifetime - jitter);
+      }
+      bag.add(entry);
+      return conn;
+    } catch (SQLException e) {
+      bag.cancelReserve();
+      throw e;
+    } catch (RuntimeException e) {
+      bag.cancelReserve();
+      throw e;
+    }
+  }
+
+  /**
+   *  回收使用时间最长、且超过了回收时间的连接： 用同一个真实连接新建一个连接，原来的连接置为无效
+   * */
+  private PooledConnection claimOverdueConnection() throws SQLException {
+    PooledConnection oldestActiveConnection = null;
+    for (ConnectionBag.Entry entry : bag.values()) {
+      PooledConnection candidate = entry.getConnection();
+      if (entry.getState() == ConnectionBag.STATE_IN_USE && candidate.getCheckoutTimestamp() > 0
+          && (oldestActiveConnection == null || candidate.getCheckoutTimestamp() < oldestActiveConnection.getCheckoutTimestamp())) {
+        oldestActiveConnection = candidate;
+      }
+    }
+    if (oldestActiveConnection == null) {
+      return null;
+    }
+    long longestCheckoutTime = oldestActiveConnection.getCheckoutTime();
+    if (longestCheckoutTime <= poolMaximumCheckoutTime) {
+      return null;
+    }
+    ConnectionBag.Entry entry = oldestActiveConnection.getBagEntry();
+    PooledConnection conn = new PooledConnection(oldestActiveConnection.getRealConnection(), this, oldestActiveConnection.getStatementCache(), entry);
+    conn.setCreatedTimestamp(oldestActiveConnection.getCreatedTimestamp());
+    conn.setLastUsedTimestamp(oldestActiveConnection.getLastUsedTimestamp());
+    //其他线程已经回收或者归还了该连接
+    if (!entry.replaceConnection(oldestActiveConnection, conn)) {
+      return null;
+    }
+    oldestActiveConnection.invalidate();
+    if (oldestActiveConnection.getCheckoutThreadName() != null) {
+      log.warn(describeCheckout("Claimed overdue connection", oldestActiveConnection, longestCheckoutTime));
+    }
+    state.claimedOverdueConnectionCount.incrementAndGet();
+    state.accumulatedCheckoutTimeOfOverdueConnections.addAndGet(longestCheckoutTime);
+    state.accumulatedCheckoutTime.addAndGet(longestCheckoutTime);
+    //未提交的事务由 popConnection 借出前回滚
+    return conn;
+  }
+
+  /**
+   *  从连接池中移除连接并关闭真实连接
+   * */
+  private void discard(ConnectionBag.Entry entry) {
+    if (bag.remove(entry)) {
+      PooledConnection conn = entry.getConnection();
+      conn.invalidate();
+      conn.closeStatementCache();
+      try {
+        conn.getRealConnection().close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+  }
+
   /*
    * Method to check to see if a connection is still usable
    * 判断当前连接是否可用: 通过执行给定的sql语句
@@ -522,43 +899,187 @@ public class PooledDataSource implements DataSource {
       result = false;
     }
 
-    if (result) {
+    //开启后台校验时，空闲连接已经由后台维护线程校验过，这里不再执行侦测查询
+    if (result && !poolBackgroundValidationEnabled) {
       if (poolPingEnabled) {
         if (poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
-          try {
-            if (log.isDebugEnabled()) {
-              log.debug("Testing connection " + conn.getRealHashCode() + " ...");
-            }
-            Connection realConn = conn.getRealConnection();
-            Statement statement = realConn.createStatement();
-            ResultSet rs = statement.executeQuery(poolPingQuery);
-            rs.close();
-            statement.close();
-            if (!realConn.getAutoCommit()) {
-              realConn.rollback();
-            }
-            result = true;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
-            }
-          } catch (Exception e) {
-            log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
-            try {
-              conn.getRealConnection().close();
-            } catch (Exception e2) {
-              //ignore
-            }
-            result = false;
-            if (log.isDebugEnabled()) {
-              log.debug("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
-            }
-          }
+          result = executePingQuery(conn);
         }
       }
     }
     return result;
   }
 
+  /**
+   *  执行侦测查询，失败时关闭真实连接
+   * */
+  private boolean executePingQuery(PooledConnection conn) {
+    boolean result;
+    long start = System.nanoTime();
+    try {
+      if (log.isDebugEnabled()) {
+        log.debug("Testing connection " + conn.getRealHashCode() + " ...");
+      }
+      Connection realConn = conn.getRealConnection();
+      Statement statement = realConn.createStatement();
+      ResultSet rs = statement.executeQuery(poolPingQuery);
+      rs.close();
+      statement.close();
+      if (!realConn.getAutoCommit()) {
+        realConn.rollback();
+      }
+      result = true;
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + conn.getRealHashCode() + " is GOOD!");
+      }
+    } catch (Exception e) {
+      log.warn("Execution of ping query '" + poolPingQuery + "' failed: " + e.getMessage());
+      try {
+        conn.closeStatementCache();
+        conn.getRealConnection().close();
+      } catch (Exception e2) {
+        //ignore
+      }
+      result = false;
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
+      }
+    }
+    state.validationTime.record(System.nanoTime() - start);
+    return result;
+  }
+
+  /**
+   *  后台校验空闲连接： 设置了侦测查询时执行侦测查询，否则调用 Connection.isValid
+   * */
+  private boolean validateIdleConnection(PooledConnection conn) {
+    try {
+      if (conn.getRealConnection().isClosed()) {
+        return false;
+      }
+      if (poolPingEnabled) {
+        if (poolPingConnectionsNotUsedFor >= 0 && conn.getTimeElapsedSinceLastUse() > poolPingConnectionsNotUsedFor) {
+          return executePingQuery(conn);
+        }
+        return true;
+      }
+      long start = System.nanoTime();
+      boolean valid = conn.getRealConnection().isValid(poolValidationTimeout);
+      state.validationTime.record(System.nanoTime() - start);
+      return valid;
+    } catch (SQLException e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Connection " + conn.getRealHashCode() + " is BAD: " + e.getMessage());
+      }
+      return false;
+    }
+  }
+
+  private boolean isHousekeepingRequired() {
+    return poolMinimumIdleConnections > 0 || poolMaximumLifetime > 0 || poolIdleTimeout > 0 || poolBackgroundValidationEnabled
+        || poolLeakDetectionThreshold > 0;
+  }
+
+  /**
+   *  需要时启动后台维护线程，并立即填充最小空闲连接
+   * */
+  synchronized void startHousekeeper() {
+    if (housekeeper != null || !isHousekeepingRequired()) {
+      return;
+    }
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "PooledDataSource housekeeper");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.setRemoveOnCancelPolicy(true);
+    long period = poolHousekeepingPeriod > 0 ? poolHousekeepingPeriod : 30000;
+    //泄漏检测时至少每个阈值检查一次
+    if (poolLeakDetectionThreshold > 0) {
+      period = Math.min(period, poolLeakDetectionThreshold);
+    }
+    executor.scheduleWithFixedDelay(new Housekeeper(this, executor), 0, period, TimeUnit.MILLISECONDS);
+    housekeeper = executor;
+  }
+
+  /**
+   *  停止后台维护线程，返回之前是否在运行
+   * */
+  private synchronized boolean stopHousekeeper() {
+    ScheduledExecutorService executor = housekeeper;
+    if (executor == null) {
+      return false;
+    }
+    housekeeper = null;
+    executor.shutdownNow();
+    return true;
+  }
+
+  /**
+   *  后台维护： 报告可能泄漏的连接，淘汰到期和空闲超时的连接，校验空闲连接，填充最小空闲连接
+   * */
+  void housekeep() {
+    final long now = System.currentTimeMillis();
+    if (poolLeakDetectionThreshold > 0) {
+      detectLeaks(now);
+    }
+    int idle = bag.getIdleCount();
+    for (ConnectionBag.Entry entry : bag.values()) {
+      //只处理空闲的连接，占用期间不会被借出
+      if (!bag.reserveEntry(entry)) {
+        continue;
+      }
+      PooledConnection conn = entry.getConnection();
+      boolean good = false;
+      try {
+        if (entry.isExpired(now)
+            || (poolIdleTimeout > 0 && idle > poolMinimumIdleConnections && conn.getTimeElapsedSinceLastUse() > poolIdleTimeout)) {
+          if (log.isDebugEnabled()) {
+            log.debug("Retired connection " + conn.getRealHashCode() + ".");
+          }
+        } else if (poolBackgroundValidationEnabled && !validateIdleConnection(conn)) {
+          state.badConnectionCount.incrementAndGet();
+          if (log.isDebugEnabled()) {
+            log.debug("Removed bad idle connection " + conn.getRealHashCode() + ".");
+          }
+        } else {
+          good = true;
+        }
+      } finally {
+        //校验失败（包括抛出异常）的连接也要移除，避免一直处于占用状态
+        if (good) {
+          bag.unreserveEntry(entry);
+        } else {
+          idle--;
+          discard(entry);
+        }
+      }
+    }
+    fillMinimumIdle();
+  }
+
+  /**
+   *  填充最小空闲连接，不超过最大连接数
+   * */
+  private void fillMinimumIdle() {
+    while (bag.getIdleCount() < poolMinimumIdleConnections && bag.reserve(poolMaximumActiveConnections)) {
+      try {
+        PooledConnection conn = createConnection();
+        conn.setConnectionTypeCode(expectedConnectionTypeCode);
+        bag.unreserveEntry(conn.getBagEntry());
+        if (log.isDebugEnabled()) {
+          log.debug("Created idle connection " + conn.getRealHashCode() + ".");
+        }
+      } catch (SQLException e) {
+        log.warn("PooledDataSource: Could not create an idle connection: " + e.getMessage());
+        return;
+      }
+    }
+  }
+
   /*
    * Unwraps a pooled connection to get to the 'real' connection
    *
@@ -566,17 +1087,14 @@ public class PooledDataSource implements DataSource {
    * @return The 'real' connection
    */
   public static Connection unwrapConnection(Connection conn) {
-    if (Proxy.isProxyClass(conn.getClass())) {
-      InvocationHandler handler = Proxy.getInvocationHandler(conn);
-      if (handler instanceof PooledConnection) {
-        return ((PooledConnection) handler).getRealConnection();
-      }
+    if (conn instanceof PooledConnection.ProxyConnection) {
+      return ((PooledConnection.ProxyConnection) conn).getPooledConnection().getRealConnection();
     }
     return conn;
   }
 
   protected void finalize() throws Throwable {
-    forceCloseAll();
+    close();
     super.finalize();
   }
 
@@ -592,4 +1110,31 @@ public class PooledDataSource implements DataSource {
     return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME); // requires JDK version 1.6
   }
 
+  /**
+   *  后台维护任务： 只持有数据源的弱引用，数据源被回收后停止
+   * */
+  private static class Housekeeper implements Runnable {
+    private final WeakReference<PooledDataSource> dataSourceRef;
+    private final ScheduledExecutorService executor;
+
+    Housekeeper(PooledDataSource dataSource, ScheduledExecutorService executor) {
+      this.dataSourceRef = new WeakReference<PooledDataSource>(dataSource);
+      this.executor = executor;
+    }
+
+    @Override
+    public void run() {
+      PooledDataSource dataSource = dataSourceRef.get();
+      if (dataSource == null) {
+        executor.shutdown();
+        return;
+      }
+      try {
+        dataSource.housekeep();
+      } catch (RuntimeException e) {
+        log.warn("PooledDataSource: Housekeeping failed: " + e.getMessage());
+      }
+    }
+  }
+
 }
@@ -15,6 +15,8 @@
  */
 package org.apache.ibatis.datasource.pooled;
 
+import java.util.Properties;
+
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 
@@ -30,4 +32,13 @@ public class PooledDataSourceFactory extends UnpooledDataSourceFactory {
     this.dataSource = new PooledDataSource();
   }
 
+  /**
+   *  配置完成后启动后台维护线程，不必等到第一次获取连接才填充最小空闲连接
+   * */
+  @Override
+  public void setProperties(Properties properties) {
+    super.setProperties(properties);
+    ((PooledDataSource) dataSource).startHousekeeper();
+  }
+
 }
@@ -0,0 +1,279 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.jdbc.DelegatingCallableStatement;
+
+/**
+ *  缓存的预编译语句（或存储过程语句）的包装类： 调用 close 方法时不关闭，而是重置语句的状态后放回连接的语句缓存
+ */
+class PooledPreparedStatement extends DelegatingCallableStatement {
+
+  private final PreparedStatement realStatement;
+  private final PooledConnection owner;
+  private final PooledStatementCache statementCache;
+  private final PooledStatementCache.Key key;
+
+  private boolean closed;
+
+  /**
+   *  是否调用过 addBatch，放回缓存前需要清空批处理
+   * */
+  private boolean batched;
+
+  /**
+   *  第一次修改前的语句设置，放回缓存前恢复
+   * */
+  private Integer originalQueryTimeout;
+  private Integer originalFetchSize;
+  private Integer originalFetchDirection;
+  private Integer originalMaxRows;
+  private Integer originalMaxFieldSize;
+  private Boolean originalPoolable;
+
+  /**
+   *  escapeProcessing 没有 getter，修改过时恢复为 JDBC 规定的默认值 true
+   * */
+  private boolean escapeProcessingChanged;
+
+  /**
+   *  设置了游标名或 closeOnCompletion 的语句无法恢复，关闭时不再放回缓存
+   * */
+  private boolean notReusable;
+
+  /**
+   *  通过该包装类返回的结果集，放回缓存前关闭，下一个使用者不会看到上一次执行的结果集
+   * */
+  private final List<ResultSet> openResultSets = new ArrayList<ResultSet>();
+
+  PooledPreparedStatement(PreparedStatement realStatement, PooledConnection owner, PooledStatementCache statementCache, PooledStatementCache.Key key) {
+    this.realStatement = realStatement;
+    this.owner = owner;
+    this.statementCache = statementCache;
+    this.key = key;
+  }
+
+  @Override
+  protected PreparedStatement getDelegate() throws SQLException {
+    if (closed) {
+      throw new SQLException("Error accessing PooledPreparedStatement. Statement is closed.");
+    }
+    return realStatement;
+  }
+
+  @Override
+  protected CallableStatement getCallableDelegate() throws SQLException {
+    final PreparedStatement statement = getDelegate();
+    if (!(statement instanceof CallableStatement)) {
+      throw new SQLException("Error accessing PooledPreparedStatement. Statement is not a CallableStatement.");
+    }
+    return (CallableStatement) statement;
+  }
+
+  /**
+   *  返回连接池交给使用者的包装连接，而不是真实连接，避免绕过连接池的归还
+   * */
+  @Override
+  public Connection getConnection() throws SQLException {
+    getDelegate();
+    return owner.getProxyConnection();
+  }
+
+  @Override
+  public ResultSet executeQuery() throws SQLException {
+    return wrap(getDelegate().executeQuery());
+  }
+
+  @Override
+  public ResultSet executeQuery(String sql) throws SQLException {
+    return wrap(getDelegate().executeQuery(sql));
+  }
+
+  @Override
+  public ResultSet getResultSet() throws SQLException {
+    return wrap(getDelegate().getResultSet());
+  }
+
+  @Override
+  public ResultSet getGeneratedKeys() throws SQLException {
+    return wrap(getDelegate().getGeneratedKeys());
+  }
+
+  private ResultSet wrap(ResultSet resultSet) {
+    if (resultSet == null) {
+      return null;
+    }
+    final ResultSet pooledResultSet = new PooledResultSet(resultSet, this);
+    openResultSets.add(resultSet);
+    return pooledResultSet;
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return closed || realStatement.isClosed();
+  }
+
+  @Override
+  public void addBatch() throws SQLException {
+    getDelegate().addBatch();
+    batched = true;
+  }
+
+  @Override
+  public void addBatch(String sql) throws SQLException {
+    getDelegate().addBatch(sql);
+    batched = true;
+  }
+
+  @Override
+  public void setQueryTimeout(int seconds) throws SQLException {
+    if (originalQueryTimeout == null) {
+      originalQueryTimeout = getDelegate().getQueryTimeout();
+    }
+    realStatement.setQueryTimeout(seconds);
+  }
+
+  @Override
+  public void setFetchSize(int rows) throws SQLException {
+    if (originalFetchSize == null) {
+      originalFetchSize = getDelegate().getFetchSize();
+    }
+    realStatement.setFetchSize(rows);
+  }
+
+  @Override
+  public void setFetchDirection(int direction) throws SQLException {
+    if (originalFetchDirection == null) {
+      originalFetchDirection = getDelegate().getFetchDirection();
+    }
+    realStatement.setFetchDirection(direction);
+  }
+
+  @Override
+  public void setMaxRows(int max) throws SQLException {
+    if (originalMaxRows == null) {
+      originalMaxRows = getDelegate().getMaxRows();
+    }
+    realStatement.setMaxRows(max);
+  }
+
+  @Override
+  public void setLargeMaxRows(long max) throws SQLException {
+    if (originalMaxRows == null) {
+      originalMaxRows = getDelegate().getMaxRows();
+    }
+    realStatement.setLargeMaxRows(max);
+  }
+
+  @Override
+  public void setMaxFieldSize(int max) throws SQLException {
+    if (originalMaxFieldSize == null) {
+      originalMaxFieldSize = getDelegate().getMaxFieldSize();
+    }
+    realStatement.setMaxFieldSize(max);
+  }
+
+  @Override
+  public void setPoolable(boolean poolable) throws SQLException {
+    if (originalPoolable == null) {
+      originalPoolable = getDelegate().isPoolable();
+    }
+    realStatement.setPoolable(poolable);
+  }
+
+  @Override
+  public void setEscapeProcessing(boolean enable) throws SQLException {
+    getDelegate().setEscapeProcessing(enable);
+    escapeProcessingChanged = true;
+  }
+
+  @Override
+  public void setCursorName(String name) throws SQLException {
+    getDelegate().setCursorName(name);
+    notReusable = true;
+  }
+
+  @Override
+  public void closeOnCompletion() throws SQLException {
+    getDelegate().closeOnCompletion();
+    notReusable = true;
+  }
+
+  /**
+   *  连接仍然有效时重置语句并放回缓存，否则关闭语句
+   * */
+  @Override
+  public void close() throws SQLException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (ResultSet resultSet : openResultSets) {
+      try {
+        resultSet.close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+    openResultSets.clear();
+    if (notReusable || !owner.isUsable() || realStatement.isClosed()) {
+      PooledStatementCache.closeQuietly(realStatement);
+      return;
+    }
+    try {
+      realStatement.clearParameters();
+      if (batched) {
+        realStatement.clearBatch();
+      }
+      if (originalQueryTimeout != null) {
+        realStatement.setQueryTimeout(originalQueryTimeout);
+      }
+      if (originalFetchSize != null) {
+        realStatement.setFetchSize(originalFetchSize);
+      }
+      if (originalFetchDirection != null) {
+        realStatement.setFetchDirection(originalFetchDirection);
+      }
+      if (originalMaxRows != null) {
+        realStatement.setMaxRows(originalMaxRows);
+      }
+      if (originalMaxFieldSize != null) {
+        realStatement.setMaxFieldSize(originalMaxFieldSize);
+      }
+      if (originalPoolable != null) {
+        realStatement.setPoolable(originalPoolable);
+      }
+      if (escapeProcessingChanged) {
+        realStatement.setEscapeProcessing(true);
+      }
+      realStatement.clearWarnings();
+    } catch (SQLException e) {
+      //无法重置的语句不再放回缓存
+      PooledStatementCache.closeQuietly(realStatement);
+      return;
+    }
+    statementCache.returnStatement(key, realStatement);
+  }
+
+}
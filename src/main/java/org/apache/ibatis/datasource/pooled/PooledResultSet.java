@@ -0,0 +1,48 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.ibatis.jdbc.DelegatingResultSet;
+
+/**
+ *  缓存语句返回的结果集的包装类： getStatement 返回语句的包装类，避免使用者绕过语句缓存关闭真实的语句
+ */
+class PooledResultSet extends DelegatingResultSet {
+
+  private final ResultSet realResultSet;
+  private final PooledPreparedStatement statement;
+
+  PooledResultSet(ResultSet realResultSet, PooledPreparedStatement statement) {
+    this.realResultSet = realResultSet;
+    this.statement = statement;
+  }
+
+  @Override
+  protected ResultSet getDelegate() throws SQLException {
+    return realResultSet;
+  }
+
+  @Override
+  public Statement getStatement() throws SQLException {
+    realResultSet.getStatement();
+    return statement;
+  }
+
+}
@@ -0,0 +1,216 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ *  一个真实连接上空闲的 PreparedStatement 的 LRU 缓存： 语句使用时从缓存中取出，close 时放回，
+ *    所以同时打开的两个语句不会共用同一个 JDBC 语句
+ */
+class PooledStatementCache {
+
+  private static final int UNSPECIFIED = Integer.MIN_VALUE;
+
+  private final PoolState state;
+  private final int maxSize;
+
+  /**
+   *  key: 语句的缓存key, value: 空闲的语句，按访问顺序排列
+   * */
+  private final LinkedHashMap<Key, PreparedStatement> statements;
+
+  PooledStatementCache(PoolState state, int maxSize) {
+    this.state = state;
+    this.maxSize = maxSize;
+    this.statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true);
+  }
+
+  /**
+   *  从缓存中取出语句，没有则在真实连接上预编译一个新的语句
+   * */
+  PreparedStatement prepareStatement(PooledConnection owner, Key key) throws SQLException {
+    PreparedStatement statement;
+    synchronized (this) {
+      statement = statements.remove(key);
+    }
+    if (statement != null && statement.isClosed()) {
+      statement = null;
+    }
+    if (statement != null) {
+      state.statementCacheHitCount.incrementAndGet();
+    } else {
+      state.statementCacheMissCount.incrementAndGet();
+      statement = key.prepare(owner.getRealConnection());
+    }
+    return new PooledPreparedStatement(statement, owner, this, key);
+  }
+
+  /**
+   *  语句关闭时放回缓存，超过最大数量时关闭最久没有使用的语句
+   * */
+  void returnStatement(Key key, PreparedStatement statement) {
+    PreparedStatement evicted = null;
+    synchronized (this) {
+      if (statements.containsKey(key)) {
+        //已经有相同的空闲语句
+        evicted = statement;
+      } else {
+        statements.put(key, statement);
+        if (statements.size() > maxSize) {
+          final Iterator<PreparedStatement> iterator = statements.values().iterator();
+          evicted = iterator.next();
+          iterator.remove();
+          state.statementCacheEvictionCount.incrementAndGet();
+        }
+      }
+    }
+    if (evicted != null) {
+      closeQuietly(evicted);
+    }
+  }
+
+  /**
+   *  关闭并清空所有空闲的语句，在关闭真实连接前调用
+   * */
+  void clear() {
+    final PreparedStatement[] idle;
+    synchronized (this) {
+      idle = statements.values().toArray(new PreparedStatement[statements.size()]);
+      statements.clear();
+    }
+    for (PreparedStatement statement : idle) {
+      closeQuietly(statement);
+    }
+  }
+
+  synchronized int size() {
+    return statements.size();
+  }
+
+  static void closeQuietly(PreparedStatement statement) {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  /**
+   *  语句的缓存key： sql、是否为存储过程语句，以及 prepareStatement 重载方法的其他参数
+   * */
+  static final class Key {
+    private final String sql;
+    private final boolean callable;
+    private final int resultSetType;
+    private final int resultSetConcurrency;
+    private final int autoGeneratedKeys;
+    private final String[] columnNames;
+    private final int hashCode;
+
+    private Key(String sql, boolean callable, int resultSetType, int resultSetConcurrency, int autoGeneratedKeys, String[] columnNames) {
+      this.sql = sql;
+      this.callable = callable;
+      this.resultSetType = resultSetType;
+      this.resultSetConcurrency = resultSetConcurrency;
+      this.autoGeneratedKeys = autoGeneratedKeys;
+      this.columnNames = columnNames;
+      int hash = sql.hashCode();
+      hash = 31 * hash + (callable ? 1 : 0);
+      hash = 31 * hash + resultSetType;
+      hash = 31 * hash + resultSetConcurrency;
+      hash = 31 * hash + autoGeneratedKeys;
+      hash = 31 * hash + Arrays.hashCode(columnNames);
+      this.hashCode = hash;
+    }
+
+    /**
+     *  可以缓存的 prepareStatement 重载方法： (sql)、(sql, 结果集类型, 并发类型)、(sql, 主键生成方式)、(sql, 主键列名)
+     * */
+    static Key of(String sql) {
+      return new Key(sql, false, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, null);
+    }
+
+    static Key of(String sql, int resultSetType, int resultSetConcurrency) {
+      return new Key(sql, false, resultSetType, resultSetConcurrency, UNSPECIFIED, null);
+    }
+
+    static Key of(String sql, int autoGeneratedKeys) {
+      return new Key(sql, false, UNSPECIFIED, UNSPECIFIED, autoGeneratedKeys, null);
+    }
+
+    static Key of(String sql, String[] columnNames) {
+      return new Key(sql, false, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, columnNames.clone());
+    }
+
+    /**
+     *  可以缓存的 prepareCall 重载方法： (sql)、(sql, 结果集类型, 并发类型)
+     * */
+    static Key ofCall(String sql) {
+      return new Key(sql, true, UNSPECIFIED, UNSPECIFIED, UNSPECIFIED, null);
+    }
+
+    static Key ofCall(String sql, int resultSetType, int resultSetConcurrency) {
+      return new Key(sql, true, resultSetType, resultSetConcurrency, UNSPECIFIED, null);
+    }
+
+    /**
+     *  在真实连接上调用与缓存key对应的 prepareStatement 或 prepareCall 重载方法
+     * */
+    PreparedStatement prepare(Connection connection) throws SQLException {
+      if (callable) {
+        return resultSetType != UNSPECIFIED ? connection.prepareCall(sql, resultSetType, resultSetConcurrency) : connection.prepareCall(sql);
+      } else if (columnNames != null) {
+        return connection.prepareStatement(sql, columnNames.clone());
+      } else if (autoGeneratedKeys != UNSPECIFIED) {
+        return connection.prepareStatement(sql, autoGeneratedKeys);
+      } else if (resultSetType != UNSPECIFIED) {
+        return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+      } else {
+        return connection.prepareStatement(sql);
+      }
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key that = (Key) o;
+      return hashCode == that.hashCode
+          && callable == that.callable
+          && resultSetType == that.resultSetType
+          && resultSetConcurrency == that.resultSetConcurrency
+          && autoGeneratedKeys == that.autoGeneratedKeys
+          && sql.equals(that.sql)
+          && Arrays.equals(columnNames, that.columnNames);
+    }
+  }
+
+}
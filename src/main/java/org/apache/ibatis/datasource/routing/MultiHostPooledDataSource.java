@@ -0,0 +1,493 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+
+/**
+ *  多主机连接池数据源： 每个主机一个 PooledDataSource，获取连接时选择 “延迟 * (使用中的连接数 + 1) * (1 + 10 * 错误率)” 最小的主机。
+ *    连续 hostFailureThreshold 次失败的主机被隔离，后台连续 hostReadmitProbes 次探测成功后恢复
+ */
+public class MultiHostPooledDataSource implements DataSource {
+
+  private static final Log log = LogFactory.getLog(MultiHostPooledDataSource.class);
+
+  /**
+   *  EWMA 中新样本的权重
+   * */
+  private static final double EWMA_WEIGHT = 0.2;
+
+  /**
+   *  错误率对主机评分的放大倍数
+   * */
+  private static final double ERROR_PENALTY = 10;
+
+  private final List<Host> hosts = new CopyOnWriteArrayList<Host>();
+
+  /**
+   *  连续失败多少次后隔离主机
+   * */
+  protected int hostFailureThreshold = 1;
+
+  /**
+   *  隔离的主机连续探测成功多少次后恢复
+   * */
+  protected int hostReadmitProbes = 2;
+
+  /**
+   *  后台探测的间隔（毫秒）
+   * */
+  protected long hostProbePeriod = 5000;
+
+  /**
+   *  后台探测线程，第一次获取连接时启动
+   * */
+  volatile ScheduledExecutorService prober;
+
+  /**
+   *  调用 close 之后为 true，再次获取连接时重置
+   * */
+  private volatile boolean closed;
+
+  public MultiHostPooledDataSource() {
+  }
+
+  /**
+   *  添加一个主机
+   * @param name 主机名称，用于日志和监控
+   * */
+  public void addHost(String name, PooledDataSource dataSource) {
+    hosts.add(new Host(name, dataSource));
+  }
+
+  public List<Host> getHosts() {
+    return Collections.unmodifiableList(hosts);
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return getConnection(null, null);
+  }
+
+  /**
+   *  按评分依次尝试各个主机，直到成功获取连接
+   * */
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    if (prober == null) {
+      startProber();
+    }
+    final int size = hosts.size();
+    if (size == 0) {
+      throw new SQLException("MultiHostPooledDataSource: No hosts are configured.");
+    }
+    final boolean[] tried = new boolean[size];
+    SQLException lastException = null;
+    for (int attempt = 0; attempt < size; attempt++) {
+      final int index = selectHost(tried);
+      tried[index] = true;
+      final Host host = hosts.get(index);
+      try {
+        final Connection connection = username == null
+            ? host.dataSource.getConnection() : host.dataSource.getConnection(username, password);
+        host.recordCheckout(true);
+        return connection;
+      } catch (SQLException e) {
+        if (log.isDebugEnabled()) {
+          log.debug("Could not get a connection from host " + host.name + ": " + e.getMessage());
+        }
+        recordFailure(host);
+        lastException = e;
+      }
+    }
+    throw lastException;
+  }
+
+  /**
+   *  在尚未尝试的主机中选择评分最低的主机，优先选择健康的主机
+   * */
+  private int selectHost(boolean[] tried) {
+    int selected = -1;
+    double selectedScore = 0;
+    boolean selectedQuarantined = true;
+    for (int i = 0; i < tried.length; i++) {
+      if (tried[i]) {
+        continue;
+      }
+      final Host host = hosts.get(i);
+      final boolean quarantined = host.quarantined;
+      final double score = host.getScore();
+      if (selected < 0 || (selectedQuarantined && !quarantined)
+          || (selectedQuarantined == quarantined && score < selectedScore)) {
+        selected = i;
+        selectedScore = score;
+        selectedQuarantined = quarantined;
+      }
+    }
+    return selected;
+  }
+
+  private void recordFailure(Host host) {
+    if (host.recordCheckout(false) >= hostFailureThreshold) {
+      quarantine(host);
+    }
+  }
+
+  /**
+   *  隔离主机并排空它的空闲连接
+   * */
+  private void quarantine(Host host) {
+    synchronized (host) {
+      if (host.quarantined) {
+        return;
+      }
+      host.quarantined = true;
+      host.consecutiveProbes = 0;
+    }
+    log.warn("MultiHostPooledDataSource: Host " + host.name + " is quarantined.");
+    host.dataSource.closeIdleConnections();
+  }
+
+  /**
+   *  后台探测： 校验每个主机的一个连接，记录延迟；隔离的主机连续探测成功后恢复
+   * */
+  void probe() {
+    for (Host host : hosts) {
+      final boolean good = probe(host);
+      if (good) {
+        if (host.quarantined && ++host.consecutiveProbes >= hostReadmitProbes) {
+          host.consecutiveFailures.set(0);
+          host.quarantined = false;
+          log.warn("MultiHostPooledDataSource: Host " + host.name + " is readmitted.");
+        }
+      } else if (host.quarantined) {
+        host.consecutiveProbes = 0;
+        host.dataSource.closeIdleConnections();
+      } else {
+        recordFailure(host);
+      }
+    }
+  }
+
+  /**
+   *  探测使用每个主机一个单独的非池化连接并反复使用： 子连接池耗尽时不会阻塞探测线程，也不占用业务的连接；
+   *    校验失败的连接被关闭，下一次探测重新建立
+   * */
+  private boolean probe(Host host) {
+    Connection connection = host.probeConnection.getAndSet(null);
+    try {
+      if (connection == null) {
+        final PooledDataSource dataSource = host.dataSource;
+        connection = new UnpooledDataSource(dataSource.getDriver(), dataSource.getUrl(), dataSource.getDriverProperties())
+            .getConnection(dataSource.getUsername(), dataSource.getPassword());
+      }
+      final long start = System.nanoTime();
+      final boolean valid = validate(connection, host.dataSource);
+      if (valid) {
+        host.recordLatency(System.nanoTime() - start);
+        host.probeConnection.set(connection);
+        //探测期间数据源被关闭时，由这里关闭放回的连接
+        if (closed) {
+          host.closeProbeConnection();
+        }
+        connection = null;
+      }
+      return valid;
+    } catch (SQLException e) {
+      if (log.isDebugEnabled()) {
+        log.debug("Probe of host " + host.name + " failed: " + e.getMessage());
+      }
+      return false;
+    } finally {
+      closeQuietly(connection);
+    }
+  }
+
+  /**
+   *  子连接池开启了侦测查询时执行侦测查询，否则调用 Connection.isValid。
+   *    复用的连接上，有的驱动的 isValid 不访问数据库，发现不了数据库已经关闭
+   * */
+  private static boolean validate(Connection connection, PooledDataSource dataSource) throws SQLException {
+    if (dataSource.isPoolPingEnabled()) {
+      Statement statement = connection.createStatement();
+      try {
+        statement.executeQuery(dataSource.getPoolPingQuery()).close();
+      } finally {
+        statement.close();
+      }
+      return true;
+    }
+    return connection.isValid(dataSource.getPoolValidationTimeout());
+  }
+
+  private static void closeQuietly(Connection connection) {
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        // ignore
+      }
+    }
+  }
+
+  private synchronized void startProber() {
+    if (prober != null) {
+      return;
+    }
+    closed = false;
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "MultiHostPooledDataSource prober");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.setRemoveOnCancelPolicy(true);
+    executor.scheduleWithFixedDelay(new Prober(this, executor), 0, hostProbePeriod > 0 ? hostProbePeriod : 5000, TimeUnit.MILLISECONDS);
+    prober = executor;
+  }
+
+  /**
+   *  停止后台探测并关闭所有主机的连接，之后再获取连接会重新启动探测
+   * */
+  public synchronized void forceCloseAll() {
+    stopProber();
+    for (Host host : hosts) {
+      host.dataSource.forceCloseAll();
+    }
+  }
+
+  /**
+   *  关闭数据源： 停止后台探测，关闭所有主机的连接池
+   * */
+  public synchronized void close() {
+    closed = true;
+    stopProber();
+    for (Host host : hosts) {
+      host.dataSource.close();
+    }
+  }
+
+  private synchronized void stopProber() {
+    if (prober != null) {
+      prober.shutdownNow();
+      prober = null;
+    }
+    for (Host host : hosts) {
+      host.closeProbeConnection();
+    }
+  }
+
+  public int getHostFailureThreshold() {
+    return hostFailureThreshold;
+  }
+
+  public void setHostFailureThreshold(int hostFailureThreshold) {
+    this.hostFailureThreshold = hostFailureThreshold;
+  }
+
+  public int getHostReadmitProbes() {
+    return hostReadmitProbes;
+  }
+
+  public void setHostReadmitProbes(int hostReadmitProbes) {
+    this.hostReadmitProbes = hostReadmitProbes;
+  }
+
+  public long getHostProbePeriod() {
+    return hostProbePeriod;
+  }
+
+  public void setHostProbePeriod(long hostProbePeriod) {
+    this.hostProbePeriod = hostProbePeriod;
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return hosts.isEmpty() ? null : hosts.get(0).dataSource.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    for (Host host : hosts) {
+      host.dataSource.setLogWriter(out);
+    }
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    for (Host host : hosts) {
+      host.dataSource.setLoginTimeout(seconds);
+    }
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return hosts.isEmpty() ? 0 : hosts.get(0).dataSource.getLoginTimeout();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    throw new SQLException(getClass().getName() + " is not a wrapper.");
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return false;
+  }
+
+  // @Override only valid jdk7+
+  public Logger getParentLogger() {
+    return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+  }
+
+  /**
+   *  数据库主机和它的健康状态
+   * */
+  public static class Host {
+    private final String name;
+    private final PooledDataSource dataSource;
+
+    /**
+     *  校验连接延迟（纳秒）和获取连接错误率的 EWMA
+     * */
+    private volatile double latency;
+    private volatile double errorRate;
+
+    private volatile boolean quarantined;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile int consecutiveProbes;
+
+    /**
+     *  后台探测复用的连接，探测进行中为 null
+     * */
+    final AtomicReference<Connection> probeConnection = new AtomicReference<Connection>();
+
+    Host(String name, PooledDataSource dataSource) {
+      this.name = name;
+      this.dataSource = dataSource;
+    }
+
+    void closeProbeConnection() {
+      closeQuietly(probeConnection.getAndSet(null));
+    }
+
+    synchronized void recordLatency(long nanos) {
+      latency = latency == 0 ? nanos : latency + EWMA_WEIGHT * (nanos - latency);
+    }
+
+    /**
+     * @return 连续失败的次数
+     * */
+    int recordCheckout(boolean success) {
+      synchronized (this) {
+        errorRate += EWMA_WEIGHT * ((success ? 0 : 1) - errorRate);
+      }
+      if (!success) {
+        return consecutiveFailures.incrementAndGet();
+      }
+      if (consecutiveFailures.get() != 0) {
+        consecutiveFailures.set(0);
+      }
+      return 0;
+    }
+
+    /**
+     *  评分越低越优先，没有延迟样本时按 1 纳秒计算（即按使用中的连接数选择）；使用中的连接数是计数器，不需要遍历连接
+     * */
+    double getScore() {
+      return Math.max(latency, 1) * (dataSource.getPoolMetrics().getActiveConnectionCount() + 1) * (1 + ERROR_PENALTY * errorRate);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public PooledDataSource getDataSource() {
+      return dataSource;
+    }
+
+    /**
+     *  校验连接延迟的 EWMA（纳秒）
+     * */
+    public double getLatency() {
+      return latency;
+    }
+
+    public double getErrorRate() {
+      return errorRate;
+    }
+
+    public boolean isQuarantined() {
+      return quarantined;
+    }
+
+    @Override
+    public String toString() {
+      return name + " (latency " + (long) latency + "ns, error rate " + errorRate + (quarantined ? ", quarantined)" : ")");
+    }
+  }
+
+  /**
+   *  后台探测任务： 只持有数据源的弱引用，数据源被回收后停止
+   * */
+  private static class Prober implements Runnable {
+    private final WeakReference<MultiHostPooledDataSource> dataSourceRef;
+    private final ScheduledExecutorService executor;
+
+    Prober(MultiHostPooledDataSource dataSource, ScheduledExecutorService executor) {
+      this.dataSourceRef = new WeakReference<MultiHostPooledDataSource>(dataSource);
+      this.executor = executor;
+    }
+
+    @Override
+    public void run() {
+      MultiHostPooledDataSource dataSource = dataSourceRef.get();
+      if (dataSource == null) {
+        executor.shutdown();
+        return;
+      }
+      try {
+        dataSource.probe();
+      } catch (RuntimeException e) {
+        log.warn("MultiHostPooledDataSource: Probing failed: " + e.getMessage());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,76 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.DataSourceException;
+import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+
+/**
+ *  多主机连接池数据源工厂： urls 为逗号分隔的 JDBC URL，hostXxx 为多主机数据源的属性，其它属性每个主机的池化数据源共用
+ */
+public class MultiHostPooledDataSourceFactory implements DataSourceFactory {
+
+  private static final String URLS_PROPERTY = "urls";
+  private static final String HOST_PROPERTY_PREFIX = "host";
+
+  private final MultiHostPooledDataSource dataSource = new MultiHostPooledDataSource();
+
+  @Override
+  public void setProperties(Properties properties) {
+    Properties poolProperties = new Properties();
+    MetaObject metaDataSource = SystemMetaObject.forObject(dataSource);
+    String urls = null;
+    for (String propertyName : properties.stringPropertyNames()) {
+      String value = properties.getProperty(propertyName);
+      if (URLS_PROPERTY.equals(propertyName)) {
+        urls = value;
+      } else if (propertyName.startsWith(HOST_PROPERTY_PREFIX) && metaDataSource.hasSetter(propertyName)) {
+        Class<?> targetType = metaDataSource.getSetterType(propertyName);
+        metaDataSource.setValue(propertyName, targetType == long.class ? (Object) Long.valueOf(value) : (Object) Integer.valueOf(value));
+      } else {
+        poolProperties.setProperty(propertyName, value);
+      }
+    }
+    if (urls == null || urls.trim().length() == 0) {
+      throw new DataSourceException("The MULTI_HOST data source requires the urls property.");
+    }
+    for (String url : urls.split(",")) {
+      url = url.trim();
+      if (url.length() > 0) {
+        Properties hostProperties = new Properties();
+        hostProperties.putAll(poolProperties);
+        hostProperties.setProperty("url", url);
+        DataSourceFactory factory = new PooledDataSourceFactory();
+        factory.setProperties(hostProperties);
+        dataSource.addHost(url, (PooledDataSource) factory.getDataSource());
+      }
+    }
+  }
+
+  @Override
+  public DataSource getDataSource() {
+    return dataSource;
+  }
+
+}
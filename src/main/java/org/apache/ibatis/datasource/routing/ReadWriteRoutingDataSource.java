@@ -0,0 +1,189 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.DataSourceException;
+
+/**
+ *  读写分离数据源： 一个主库和若干个带权重的从库。与 ReadWriteRoutingTransaction 一起使用时，
+ *    事务中发生写操作之前的查询发送到 “使用中的事务数 / 权重” 最小的从库
+ */
+public class ReadWriteRoutingDataSource implements DataSource {
+
+  private DataSource primary;
+
+  private final List<Replica> replicas = new CopyOnWriteArrayList<Replica>();
+
+  /**
+   *  负载相同时从哪个从库开始比较，使负载相同的从库被轮流选择
+   * */
+  private final AtomicInteger nextReplica = new AtomicInteger();
+
+  public ReadWriteRoutingDataSource() {
+  }
+
+  public ReadWriteRoutingDataSource(DataSource primary) {
+    this.primary = primary;
+  }
+
+  public DataSource getPrimary() {
+    return primary;
+  }
+
+  public void setPrimary(DataSource primary) {
+    this.primary = primary;
+  }
+
+  /**
+   *  添加一个从库
+   * @param weight 权重，必须大于 0
+   * */
+  public void addReplica(String name, DataSource dataSource, int weight) {
+    if (weight <= 0) {
+      throw new DataSourceException("The weight of replica '" + name + "' must be greater than zero but was " + weight + ".");
+    }
+    replicas.add(new Replica(name, dataSource, weight));
+  }
+
+  public List<Replica> getReplicas() {
+    return Collections.unmodifiableList(replicas);
+  }
+
+  /**
+   *  为一个事务选择从库，并增加该从库正在使用的事务数。使用完之后必须调用 {@link #releaseReplica(Replica)}
+   * @return 没有从库时返回 null
+   * */
+  public Replica acquireReplica() {
+    final int size = replicas.size();
+    if (size == 0) {
+      return null;
+    }
+    final int start = (nextReplica.getAndIncrement() & Integer.MAX_VALUE) % size;
+    Replica selected = null;
+    for (int i = 0; i < size; i++) {
+      final Replica replica = replicas.get((start + i) % size);
+      //(inFlight + 1) / weight 最小的从库，交叉相乘避免浮点运算
+      if (selected == null
+          || (long) (replica.inFlight.get() + 1) * selected.weight < (long) (selected.inFlight.get() + 1) * replica.weight) {
+        selected = replica;
+      }
+    }
+    selected.inFlight.incrementAndGet();
+    return selected;
+  }
+
+  public void releaseReplica(Replica replica) {
+    replica.inFlight.decrementAndGet();
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return primary.getConnection();
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return primary.getConnection(username, password);
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return primary.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    primary.setLogWriter(out);
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    primary.setLoginTimeout(seconds);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return primary.getLoginTimeout();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    throw new SQLException(getClass().getName() + " is not a wrapper.");
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return false;
+  }
+
+  // @Override only valid jdk7+
+  public Logger getParentLogger() {
+    return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+  }
+
+  /**
+   *  从库
+   * */
+  public static class Replica {
+    private final String name;
+    private final DataSource dataSource;
+    private final int weight;
+
+    /**
+     *  正在使用该从库的事务数
+     * */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    Replica(String name, DataSource dataSource, int weight) {
+      this.name = name;
+      this.dataSource = dataSource;
+      this.weight = weight;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public DataSource getDataSource() {
+      return dataSource;
+    }
+
+    public int getWeight() {
+      return weight;
+    }
+
+    public int getInFlight() {
+      return inFlight.get();
+    }
+
+    @Override
+    public String toString() {
+      return name + " (weight " + weight + ", in flight " + inFlight.get() + ")";
+    }
+  }
+
+}
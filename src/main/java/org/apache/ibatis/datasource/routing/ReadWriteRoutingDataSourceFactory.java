@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.datasource.DataSourceException;
+import org.apache.ibatis.datasource.DataSourceFactory;
+import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+
+/**
+ *  读写分离数据源工厂： primary.xxx 为主库的属性，replica.名称.xxx 为从库的属性（weight 默认为 1），没有前缀的属性共用
+ */
+public class ReadWriteRoutingDataSourceFactory implements DataSourceFactory {
+
+  private static final String PRIMARY_PREFIX = "primary.";
+  private static final String REPLICA_PREFIX = "replica.";
+  private static final String WEIGHT_PROPERTY = "weight";
+
+  private final ReadWriteRoutingDataSource dataSource = new ReadWriteRoutingDataSource();
+
+  @Override
+  public void setProperties(Properties properties) {
+    Properties shared = new Properties();
+    Properties primary = new Properties();
+    //key: 从库名称, value: 从库的属性，保持配置的顺序
+    Map<String, Properties> replicas = new LinkedHashMap<String, Properties>();
+    for (String propertyName : properties.stringPropertyNames()) {
+      String value = properties.getProperty(propertyName);
+      if (propertyName.startsWith(PRIMARY_PREFIX)) {
+        primary.setProperty(propertyName.substring(PRIMARY_PREFIX.length()), value);
+      } else if (propertyName.startsWith(REPLICA_PREFIX)) {
+        String rest = propertyName.substring(REPLICA_PREFIX.length());
+        int dot = rest.indexOf('.');
+        if (dot <= 0) {
+          throw new DataSourceException("Invalid replica property '" + propertyName + "'. Expected replica.<name>.<property>.");
+        }
+        String name = rest.substring(0, dot);
+        Properties replica = replicas.get(name);
+        if (replica == null) {
+          replica = new Properties();
+          replicas.put(name, replica);
+        }
+        replica.setProperty(rest.substring(dot + 1), value);
+      } else {
+        shared.setProperty(propertyName, value);
+      }
+    }
+    dataSource.setPrimary(newPooledDataSource(shared, primary));
+    for (Map.Entry<String, Properties> entry : replicas.entrySet()) {
+      Properties replica = entry.getValue();
+      int weight = 1;
+      String weightValue = (String) replica.remove(WEIGHT_PROPERTY);
+      if (weightValue != null) {
+        try {
+          weight = Integer.parseInt(weightValue.trim());
+        } catch (NumberFormatException e) {
+          throw new DataSourceException("Invalid weight '" + weightValue + "' of replica '" + entry.getKey() + "'. Cause: " + e, e);
+        }
+      }
+      dataSource.addReplica(entry.getKey(), newPooledDataSource(shared, replica), weight);
+    }
+  }
+
+  @Override
+  public DataSource getDataSource() {
+    return dataSource;
+  }
+
+  private DataSource newPooledDataSource(Properties shared, Properties own) {
+    Properties properties = new Properties();
+    properties.putAll(shared);
+    properties.putAll(own);
+    DataSourceFactory factory = new PooledDataSourceFactory();
+    factory.setProperties(properties);
+    return factory.getDataSource();
+  }
+
+}
@@ -20,14 +20,27 @@ import static org.apache.ibatis.executor.ExecutionPlaceholder.EXECUTION_PLACEHOL
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.transaction.RoutingTransaction;
 import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cache.impl.PerpetualCache;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.defaults.DefaultCursor;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.executor.loader.BatchLoadGroup;
+import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.LogFactory;
 import org.apache.ibatis.logging.jdbc.ConnectionLogger;
@@ -36,6 +49,8 @@ import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.ParameterMode;
 import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.mapping.TempTable;
+import org.apache.ibatis.scripting.xmltags.DynamicSqlSource;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.session.Configuration;
@@ -56,6 +71,8 @@ public abstract class BaseExecutor implements Executor {
 
   private static final Log log = LogFactory.getLog(BaseExecutor.class);
 
+  private static final int MIN_BATCH_LOAD_GROUPS_PRUNE_THRESHOLD = 16;
+
   /**
    *  事务对象，用于对数据库连接的提交、回滚等操作
    * */
@@ -87,6 +104,16 @@ public abstract class BaseExecutor implements Executor {
    * */
   protected Configuration configuration;
 
+  /**
+   *  当前执行器创建的批量懒加载分组，执行器关闭时释放
+   * */
+  protected Set<BatchLoadGroup> batchLoadGroups;
+
+  /**
+   *  分组数达到该值时清理已经加载完成的分组，清理后按剩余分组数的两倍调整，使注册的平均开销为常数
+   * */
+  private int batchLoadGroupsPruneThreshold = MIN_BATCH_LOAD_GROUPS_PRUNE_THRESHOLD;
+
   /**
    *  查询堆栈的深度
    * */
@@ -97,11 +124,27 @@ public abstract class BaseExecutor implements Executor {
    * */
   private boolean closed;
 
+  /**
+   *  临时表装载器，第一次使用临时表时创建
+   * */
+  private TempTableLoader tempTableLoader;
+
+  /**
+   *  正在执行的语句引用的临时表，嵌套执行的语句不能清空后复用
+   * */
+  private final Set<String> tempTablesInUse = new HashSet<String>();
+
+  /**
+   *  引用了临时表的游标，关闭之前它引用的临时表不能被清空后复用
+   * */
+  private final Map<Cursor<?>, List<TempTable>> tempTableCursors = new IdentityHashMap<Cursor<?>, List<TempTable>>();
+
   protected BaseExecutor(Configuration configuration, Transaction transaction) {
     this.transaction = transaction;
     this.deferredLoads = new ConcurrentLinkedQueue<DeferredLoad>();
     this.localCache = new PerpetualCache("LocalCache");
     this.localOutputParameterCache = new PerpetualCache("LocalOutputParameterCache");
+    this.batchLoadGroups = Collections.newSetFromMap(new IdentityHashMap<BatchLoadGroup, Boolean>());
     this.closed = false;
     this.configuration = configuration;
     this.wrapper = this;
@@ -133,6 +176,7 @@ public abstract class BaseExecutor implements Executor {
       // Ignore.  There's nothing that can be done at this point.
       log.warn("Unexpected exception on closing transaction.  Cause: " + e);
     } finally {
+      closeBatchLoadGroups();
       transaction = null;
       deferredLoads = null;
       localCache = null;
@@ -146,6 +190,34 @@ public abstract class BaseExecutor implements Executor {
     return closed;
   }
 
+  /**
+   *  注册批量懒加载分组，同时清理已经加载完成（没有成员）的分组
+   * */
+  @Override
+  public void registerBatchLoadGroup(BatchLoadGroup batchLoadGroup) {
+    if (closed) {
+      throw new ExecutorException("Executor was closed.");
+    }
+    if (batchLoadGroups.size() >= batchLoadGroupsPruneThreshold) {
+      for (Iterator<BatchLoadGroup> iterator = batchLoadGroups.iterator(); iterator.hasNext();) {
+        if (iterator.next().isEmpty()) {
+          iterator.remove();
+        }
+      }
+      batchLoadGroupsPruneThreshold = Math.max(MIN_BATCH_LOAD_GROUPS_PRUNE_THRESHOLD, batchLoadGroups.size() * 2);
+    }
+    batchLoadGroups.add(batchLoadGroup);
+  }
+
+  private void closeBatchLoadGroups() {
+    if (batchLoadGroups != null) {
+      for (BatchLoadGroup batchLoadGroup : batchLoadGroups) {
+        batchLoadGroup.close();
+      }
+      batchLoadGroups = null;
+    }
+  }
+
     /**
      * 执行 update | delete | insert 语句
      * */
@@ -157,8 +229,155 @@ public abstract class BaseExecutor implements Executor {
     }
     //1. 清除本地缓存
     clearLocalCache();
-    //2. 模板方法模式，交给子类实现
-    return doUpdate(ms, parameter);
+    //2. foreach 的集合超过 chunkSize 时，按块依次执行；通过临时表引用集合时，先装载临时表（每一块引用的临时表相同）
+    if (ms.getSqlSource() instanceof DynamicSqlSource
+        && (((DynamicSqlSource) ms.getSqlSource()).isChunked() || ((DynamicSqlSource) ms.getSqlSource()).usesTempTables())) {
+      // 主键生成器需要在生成sql之前执行（issue #435），之后直接使用这里生成的绑定sql，集合只求值和装载一次
+      if (!(ms.getKeyGenerator() instanceof NoKeyGenerator)) {
+        // 需要分块执行的语句不能使用主键生成器，先生成一次sql判断，避免 selectKey 已经执行之后才拒绝
+        if (((DynamicSqlSource) ms.getSqlSource()).isChunked() && ms.getBoundSql(parameter).getChunks() != null) {
+          throw new ExecutorException("Statement '" + ms.getId() + "' uses a key generator and cannot be executed in chunks.");
+        }
+        ms.getKeyGenerator().processBefore(wrapper, ms, null, parameter);
+      }
+      BoundSql boundSql = ms.getBoundSql(parameter);
+      if (boundSql.getChunks() != null && !(ms.getKeyGenerator() instanceof NoKeyGenerator)) {
+        throw new ExecutorException("Statement '" + ms.getId() + "' uses a key generator and cannot be executed in chunks.");
+      }
+      loadTempTables(ms, boundSql);
+      try {
+        if (boundSql.getChunks() != null) {
+          return doUpdateChunks(ms, parameter, boundSql.getChunks(), boundSql.isChunkBatch());
+        }
+        return doUpdate(ms, parameter, boundSql);
+      } finally {
+        releaseTempTables(boundSql);
+        clearTempTables(ms, boundSql.getTempTables());
+      }
+    }
+    //3. 模板方法模式，交给子类实现
+    return doUpdate(ms, parameter, null);
+  }
+
+  /**
+   * @param chunks 每一块的绑定sql
+   * @param batch 是否作为一个 JDBC 批处理执行
+   *   在同一个连接上依次执行每一块，返回更新的总行数
+   * */
+  protected int doUpdateChunks(MappedStatement ms, Object parameter, List<BoundSql> chunks, boolean batch) throws SQLException {
+    if (batch) {
+      return doBatchChunks(ms, parameter, chunks);
+    }
+    int updateCount = 0;
+    for (BoundSql chunk : chunks) {
+      updateCount += doUpdate(ms, parameter, chunk);
+    }
+    return updateCount;
+  }
+
+  /**
+   *  sql 相同的连续的块共用一个 Statement 对象加入批处理，驱动返回 SUCCESS_NO_INFO 的块不计入总行数
+   * */
+  private int doBatchChunks(MappedStatement ms, Object parameter, List<BoundSql> chunks) throws SQLException {
+    Statement stmt = null;
+    String sql = null;
+    int updateCount = 0;
+    try {
+      for (BoundSql chunk : chunks) {
+        StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, RowBounds.DEFAULT, null, chunk);
+        if (!chunk.getSql().equals(sql)) {
+          updateCount += executeBatch(stmt);
+          closeStatement(stmt);
+          stmt = handler.prepare(getConnection(ms));
+          sql = chunk.getSql();
+        }
+        handler.parameterize(stmt);
+        handler.batch(stmt);
+      }
+      return updateCount + executeBatch(stmt);
+    } finally {
+      closeStatement(stmt);
+    }
+  }
+
+  /**
+   *  将绑定sql引用的集合装载到临时表，并标记为使用中，执行完成后调用 releaseTempTables。
+   *    临时表名只在一条语句内唯一，正在执行的语句（例如外层查询）或未关闭的游标使用中的临时表不能被清空后复用
+   * */
+  protected void loadTempTables(MappedStatement ms, BoundSql boundSql) throws SQLException {
+    if (boundSql.getTempTables() != null) {
+      for (TempTable tempTable : boundSql.getTempTables()) {
+        if (isTempTableInUse(tempTable.getName())) {
+          throw new ExecutorException("Statement '" + ms.getId() + "' cannot load the temporary table " + tempTable.getName()
+              + " while an enclosing statement or an open cursor of the same session reads it. Close the cursor first"
+              + " or raise the tempTableThreshold of the nested statement.");
+        }
+      }
+      if (tempTableLoader == null) {
+        tempTableLoader = new TempTableLoader(configuration);
+      }
+      tempTableLoader.load(getConnection(ms), boundSql.getTempTables());
+      for (TempTable tempTable : boundSql.getTempTables()) {
+        tempTablesInUse.add(tempTable.getName());
+      }
+    }
+  }
+
+  protected void releaseTempTables(BoundSql boundSql) {
+    if (boundSql.getTempTables() != null) {
+      for (TempTable tempTable : boundSql.getTempTables()) {
+        tempTablesInUse.remove(tempTable.getName());
+      }
+    }
+  }
+
+  /**
+   *  清空语句使用过的临时表，集合的内容不会留在连接上（例如归还到连接池的连接）。
+   *    清空失败时忽略，不掩盖语句本身的结果或者错误，下一次装载前还会清空
+   * */
+  protected void clearTempTables(MappedStatement ms, List<TempTable> tempTables) {
+    if (tempTables == null || tempTableLoader == null || closed) {
+      return;
+    }
+    try {
+      tempTableLoader.clear(getConnection(ms), tempTables);
+    } catch (SQLException e) {
+      // ignore
+    }
+  }
+
+  /**
+   *  同时清理已经关闭的游标
+   * */
+  private boolean isTempTableInUse(String name) {
+    if (tempTablesInUse.contains(name)) {
+      return true;
+    }
+    boolean inUse = false;
+    for (Iterator<Map.Entry<Cursor<?>, List<TempTable>>> iterator = tempTableCursors.entrySet().iterator(); iterator.hasNext();) {
+      final Map.Entry<Cursor<?>, List<TempTable>> entry = iterator.next();
+      final Cursor<?> cursor = entry.getKey();
+      if (cursor instanceof DefaultCursor ? ((DefaultCursor<?>) cursor).isClosed() : cursor.isConsumed()) {
+        iterator.remove();
+        continue;
+      }
+      for (TempTable tempTable : entry.getValue()) {
+        inUse |= tempTable.getName().equals(name);
+      }
+    }
+    return inUse;
+  }
+
+  private static int executeBatch(Statement stmt) throws SQLException {
+    int updateCount = 0;
+    if (stmt != null) {
+      for (int count : stmt.executeBatch()) {
+        if (count > 0) {
+          updateCount += count;
+        }
+      }
+    }
+    return updateCount;
   }
 
   @Override
@@ -244,6 +463,42 @@ public abstract class BaseExecutor implements Executor {
     return list;
   }
 
+  /**
+   *  执行 select 语句，以游标的方式返回结果： 结果不会放入本地缓存
+   * */
+  @Override
+  public <E> Cursor<E> queryCursor(final MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+    ErrorContext.instance().resource(ms.getResource()).activity("executing a cursor query").object(ms.getId());
+    if (closed) {
+      throw new ExecutorException("Executor was closed.");
+    }
+    BoundSql boundSql = ms.getBoundSql(parameter);
+    if (boundSql.getChunks() != null) {
+      throw new ExecutorException("Statement '" + ms.getId() + "' must be executed in chunks and cannot return a cursor.");
+    }
+    loadTempTables(ms, boundSql);
+    try {
+      final Cursor<E> cursor = doQueryCursor(ms, parameter, rowBounds, boundSql);
+      final List<TempTable> tempTables = boundSql.getTempTables();
+      if (tempTables != null) {
+        tempTableCursors.put(cursor, tempTables);
+        //游标读取完或者关闭之后才清空临时表
+        if (cursor instanceof DefaultCursor) {
+          ((DefaultCursor<E>) cursor).addCloseListener(new Runnable() {
+            @Override
+            public void run() {
+              tempTableCursors.remove(cursor);
+              clearTempTables(ms, tempTables);
+            }
+          });
+        }
+      }
+      return cursor;
+    } finally {
+      releaseTempTables(boundSql);
+    }
+  }
+
   /**
    *  延迟加载
    * */
@@ -260,6 +515,19 @@ public abstract class BaseExecutor implements Executor {
     }
   }
 
+  /**
+   *  将查询结果放入一级缓存，正在执行的查询（占位符）不会被覆盖
+   * */
+  @Override
+  public void putLocalCache(MappedStatement ms, CacheKey key, List<Object> list) {
+    if (closed) {
+      throw new ExecutorException("Executor was closed.");
+    }
+    if (localCache.getObject(key) == null) {
+      localCache.putObject(key, list);
+    }
+  }
+
   /**
    *  根据传入的参数构建缓存key对象(保证唯一)
    * */
@@ -272,6 +540,22 @@ public abstract class BaseExecutor implements Executor {
     cacheKey.update(ms.getId());
     cacheKey.update(Integer.valueOf(rowBounds.getOffset()));
     cacheKey.update(Integer.valueOf(rowBounds.getLimit()));
+    //按块执行的语句，缓存key包含每一块的sql和参数，即对应完整的参数
+    if (boundSql.getChunks() == null) {
+      updateCacheKey(cacheKey, ms, parameterObject, boundSql);
+    } else {
+      for (BoundSql chunk : boundSql.getChunks()) {
+        updateCacheKey(cacheKey, ms, parameterObject, chunk);
+      }
+    }
+    if (configuration.getEnvironment() != null) {
+      // issue #176
+      cacheKey.update(configuration.getEnvironment().getId());
+    }
+    return cacheKey;
+  }
+
+  private void updateCacheKey(CacheKey cacheKey, MappedStatement ms, Object parameterObject, BoundSql boundSql) {
     cacheKey.update(boundSql.getSql());
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     TypeHandlerRegistry typeHandlerRegistry = ms.getConfiguration().getTypeHandlerRegistry();
@@ -280,7 +564,9 @@ public abstract class BaseExecutor implements Executor {
       if (parameterMapping.getMode() != ParameterMode.OUT) {
         Object value;
         String propertyName = parameterMapping.getProperty();
-        if (boundSql.hasAdditionalParameter(propertyName)) {
+        if (boundSql.hasPositionalValue(i)) {
+          value = boundSql.getPositionalValue(i);
+        } else if (boundSql.hasAdditionalParameter(propertyName)) {
           value = boundSql.getAdditionalParameter(propertyName);
         } else if (parameterObject == null) {
           value = null;
@@ -293,12 +579,14 @@ public abstract class BaseExecutor implements Executor {
         cacheKey.update(value);
       }
     }
-    if (configuration.getEnvironment() != null) {
-      // issue #176
-      cacheKey.update(configuration.getEnvironment().getId());
+    //通过临时表引用的集合不在参数中，需要加入缓存key
+    if (boundSql.getTempTables() != null) {
+      for (TempTable tempTable : boundSql.getTempTables()) {
+        cacheKey.update(tempTable.getName());
+        cacheKey.updateAll(tempTable.getValues().toArray());
+      }
     }
-    return cacheKey;
-  }    
+  }
 
   @Override
   public boolean isCached(MappedStatement ms, CacheKey key) {
@@ -326,6 +614,9 @@ public abstract class BaseExecutor implements Executor {
       try {
         //1. 清空本地缓存
         clearLocalCache();
+        if (tempTableLoader != null) {
+          tempTableLoader.reset();
+        }
         //2. 刷新（执行）被添加到批量处理的sql语句
         flushStatements(true);
       } finally {
@@ -347,7 +638,10 @@ public abstract class BaseExecutor implements Executor {
     }
   }
 
-  protected abstract int doUpdate(MappedStatement ms, Object parameter)
+  /**
+   * @param boundSql 要执行的绑定sql，为 null 时由语句处理器在执行主键生成器之后获取
+   * */
+  protected abstract int doUpdate(MappedStatement ms, Object parameter, BoundSql boundSql)
       throws SQLException;
 
   protected abstract List<BatchResult> doFlushStatements(boolean isRollback)
@@ -356,6 +650,9 @@ public abstract class BaseExecutor implements Executor {
   protected abstract <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql)
       throws SQLException;
 
+  protected abstract <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql)
+      throws SQLException;
+
   protected void closeStatement(Statement statement) {
     if (statement != null) {
       try {
@@ -396,7 +693,17 @@ public abstract class BaseExecutor implements Executor {
     //1. 先向缓存中加入占位符，表示当前的查询正在执行
     localCache.putObject(key, EXECUTION_PLACEHOLDER);
     try {
-      list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+      loadTempTables(ms, boundSql);
+      try {
+        if (boundSql.getChunks() == null) {
+          list = doQuery(ms, parameter, rowBounds, resultHandler, boundSql);
+        } else {
+          list = queryChunks(ms, parameter, rowBounds, resultHandler, boundSql.getChunks());
+        }
+      } finally {
+        releaseTempTables(boundSql);
+        clearTempTables(ms, boundSql.getTempTables());
+      }
     } finally {
       localCache.removeObject(key);
     }
@@ -409,12 +716,46 @@ public abstract class BaseExecutor implements Executor {
     return list;
   }
 
+  /**
+   *  依次执行每一块，按顺序合并结果。分页对象对每一块分别生效，因此只能使用默认的分页对象
+   * */
+  private <E> List<E> queryChunks(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, List<BoundSql> chunks) throws SQLException {
+    if (rowBounds.getOffset() != RowBounds.NO_ROW_OFFSET || rowBounds.getLimit() != RowBounds.NO_ROW_LIMIT) {
+      throw new ExecutorException("Statement '" + ms.getId() + "' must be executed in chunks and does not support RowBounds.");
+    }
+    List<E> list = new ArrayList<E>();
+    for (BoundSql chunk : chunks) {
+      list.addAll(this.<E>doQuery(ms, parameter, rowBounds, resultHandler, chunk));
+    }
+    return list;
+  }
+
   /**
    * @param statementLog 用于打印日志的对象
    *    使用动态代理的方式为数据库连接的操作添加日志
    * */
   protected Connection getConnection(Log statementLog) throws SQLException {
-    Connection connection = transaction.getConnection();
+    return getConnection(transaction.getConnection(), statementLog);
+  }
+
+  /**
+   *  获取执行语句使用的数据库连接（带日志）。如果事务会按语句选择连接（例如读写分离），则由事务决定使用哪个连接
+   * */
+  protected Connection getConnection(MappedStatement ms) throws SQLException {
+    return getConnection(getTransactionConnection(ms), ms.getStatementLog());
+  }
+
+  /**
+   *  获取执行语句使用的事务连接（不带日志）
+   * */
+  protected Connection getTransactionConnection(MappedStatement ms) throws SQLException {
+    if (transaction instanceof RoutingTransaction) {
+      return ((RoutingTransaction) transaction).getConnection(ms);
+    }
+    return transaction.getConnection();
+  }
+
+  protected Connection getConnection(Connection connection, Log statementLog) {
     if (statementLog.isDebugEnabled()) {
       return ConnectionLogger.newInstance(connection, statementLog, queryStack);
     } else {
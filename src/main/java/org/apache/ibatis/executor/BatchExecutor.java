@@ -21,8 +21,12 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
@@ -34,10 +38,16 @@ import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.TempTable;
+import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.type.TypeHandlerRegistry;
 
 /**
  * @author Jeff Butler   批量执行器，
@@ -46,6 +56,12 @@ import org.apache.ibatis.transaction.Transaction;
  *    2. 设置参数，设置完成之后， 调用 addBatch(), 将参数集合添加到 PrepareStatment 对象中
  *    3. 重复第二步
  *    4. 调用 executeBatch() 方法执行批量执行，然后调用 clearBatch() 方法清除 PrepareStatement 对象中存储所有的参数集合
+ *
+ *  开启 batchGroupingEnabled 时，同一个刷新窗口内相同的 insert 语句即使不连续也共用一个批处理，
+ *    批处理按每个语句第一次出现的顺序执行，update | delete 语句之后的 insert 不会再加入它之前的批处理；
+ *  设置了 batchFlushSize | batchFlushMemoryKb 时，累计的行数或估算的参数内存达到阈值后自动执行批处理，
+ *    结果在下一次刷新时一起返回；
+ *  设置了 batchInsertRewriteSize 时，简单的 INSERT ... VALUES 语句的多组参数改写为多行 insert 执行（参见 MultiRowInsert）
  */
 public class BatchExecutor extends BaseExecutor {
 
@@ -64,43 +80,230 @@ public class BatchExecutor extends BaseExecutor {
    * */
   private MappedStatement currentStatement;
 
+  /**
+   *  分组模式下，当前刷新窗口内每个 insert 语句对应的批处理在 statementList 中的位置
+   * */
+  private final Map<BatchKey, Integer> batchIndexes = new HashMap<BatchKey, Integer>();
+
+  /**
+   *  与 statementList 一一对应，改写为多行 insert 的批处理（对应的 Statement 为 null），其他为 null
+   * */
+  private final List<MultiRowInsert> multiRowInsertList = new ArrayList<MultiRowInsert>();
+
+  /**
+   *  自动刷新时已经执行的批处理结果，下一次刷新时一起返回
+   * */
+  private List<BatchResult> flushedBatchResults = new ArrayList<BatchResult>();
+
+  /**
+   *  尚未执行的行数和估算的参数内存（字节）
+   * */
+  private int pendingRows;
+  private long pendingBytes;
+
+  /**
+   *  批处理中的语句使用的临时表 -> 语句（决定在哪个连接上清空），刷新之后清空
+   * */
+  private final Map<TempTable, MappedStatement> pendingTempTables = new LinkedHashMap<TempTable, MappedStatement>();
+
+  private final boolean batchGroupingEnabled;
+  private final int batchFlushSize;
+  private final long batchFlushBytes;
+  private final boolean batchRetainParameters;
+  private final int batchInsertRewriteSize;
+  private final int batchInsertRewriteMaxParameters;
+
   public BatchExecutor(Configuration configuration, Transaction transaction) {
     super(configuration, transaction);
+    this.batchGroupingEnabled = configuration.isBatchGroupingEnabled();
+    this.batchFlushSize = configuration.getBatchFlushSize();
+    this.batchFlushBytes = configuration.getBatchFlushMemoryKb() * 1024L;
+    this.batchRetainParameters = configuration.isBatchRetainParameters();
+    this.batchInsertRewriteSize = configuration.getBatchInsertRewriteSize();
+    this.batchInsertRewriteMaxParameters = configuration.getBatchInsertRewriteMaxParameters();
+  }
+
+  /**
+   *  临时表被后续的语句复用之前，先执行已经加入批处理的语句，它们可能引用了临时表中当前的内容
+   * */
+  @Override
+  protected void loadTempTables(MappedStatement ms, BoundSql boundSql) throws SQLException {
+    if (boundSql.getTempTables() != null) {
+      flushStatements();
+    }
+    super.loadTempTables(ms, boundSql);
+  }
+
+  /**
+   *  加入批处理的语句在刷新时才执行，它们使用的临时表在刷新之后再清空；查询立即执行，立即清空
+   * */
+  @Override
+  protected void clearTempTables(MappedStatement ms, List<TempTable> tempTables) {
+    if (tempTables == null || ms.getSqlCommandType() == SqlCommandType.SELECT) {
+      super.clearTempTables(ms, tempTables);
+      return;
+    }
+    for (TempTable tempTable : tempTables) {
+      pendingTempTables.put(tempTable, ms);
+    }
+  }
+
+  /**
+   *  每一块都加入批处理，与普通的更新一样在刷新时执行
+   * */
+  @Override
+  protected int doUpdateChunks(MappedStatement ms, Object parameterObject, List<BoundSql> chunks, boolean batch) throws SQLException {
+    for (BoundSql chunk : chunks) {
+      doUpdate(ms, parameterObject, chunk);
+    }
+    return BATCH_UPDATE_RETURN_VALUE;
   }
 
   /**
    *  执行 update | delete | insert 语句 的批处理（实际不执行）
    * */
   @Override
-  public int doUpdate(MappedStatement ms, Object parameterObject) throws SQLException {
+  public int doUpdate(MappedStatement ms, Object parameterObject, BoundSql chunk) throws SQLException {
     final Configuration configuration = ms.getConfiguration();
-    final StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObject, RowBounds.DEFAULT, null, null);
+    final StatementHandler handler = configuration.newStatementHandler(this, ms, parameterObject, RowBounds.DEFAULT, null, chunk);
     final BoundSql boundSql = handler.getBoundSql();
     //1. 获取当前执行进行预编译的 sql语句
     final String sql = boundSql.getSql();
     final Statement stmt;
-    //2. 如果当前执行的 sql语句和 最近一次执行的相同
-    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
-      int last = statementList.size() - 1;
-      stmt = statementList.get(last);
-      BatchResult batchResult = batchResultList.get(last);
-      batchResult.addParameterObject(parameterObject);
+    final BatchResult batchResult;
+    MultiRowInsert multiRowInsert = null;
+    //2. 如果当前执行的 sql语句和 最近一次执行的相同（或者分组模式下已经有相同的批处理）
+    int index = findBatch(ms, sql);
+    if (index >= 0) {
+      stmt = statementList.get(index);
+      batchResult = batchResultList.get(index);
+      multiRowInsert = multiRowInsertList.get(index);
     //3. 如果当前执行的 sql 语句和最近一次执行的不同，则构建新的对象添加到集合中
     } else {
-      Connection connection = getConnection(ms.getStatementLog());
-      stmt = handler.prepare(connection);
+      //3.1 简单的 INSERT ... VALUES 语句改写为多行 insert，执行时才创建 Statement
+      if (batchInsertRewriteSize > 1 && ms.getSqlCommandType() == SqlCommandType.INSERT) {
+        multiRowInsert = MultiRowInsert.forStatement(ms, boundSql, batchInsertRewriteSize, batchInsertRewriteMaxParameters);
+      }
+      if (multiRowInsert == null) {
+        Connection connection = getConnection(ms);
+        stmt = handler.prepare(connection);
+      } else {
+        stmt = null;
+      }
       currentSql = sql;
       currentStatement = ms;
       statementList.add(stmt);
-      batchResultList.add(new BatchResult(ms, sql, parameterObject));
+      multiRowInsertList.add(multiRowInsert);
+      batchResult = new BatchResult(ms, sql);
+      batchResultList.add(batchResult);
+      registerBatch(ms, sql, statementList.size() - 1);
+    }
+    //不需要主键生成器回填时，可以不保留参数对象
+    if (batchRetainParameters || !NoKeyGenerator.class.equals(ms.getKeyGenerator().getClass())) {
+      batchResult.addParameterObject(parameterObject);
+    }
+    if (multiRowInsert != null) {
+      //4. 多行 insert 收集参数，满行时加入批处理
+      multiRowInsert.addRow(this, boundSql, parameterObject);
+    } else {
+      //4. 为当前 sql 语句设置参数
+      handler.parameterize(stmt);
+      //5. 将设置的参数集合添加到 对应的 Statement 对象中
+      handler.batch(stmt);
+    }
+    //6. 达到阈值时自动执行批处理
+    pendingRows++;
+    if (batchFlushBytes > 0) {
+      pendingBytes += estimateRowSize(ms.getConfiguration(), boundSql, parameterObject);
+    }
+    if ((batchFlushSize > 0 && pendingRows >= batchFlushSize) || (batchFlushBytes > 0 && pendingBytes >= batchFlushBytes)) {
+      flushedBatchResults = doFlushStatements(false);
     }
-    //4. 为当前 sql 语句设置参数
-    handler.parameterize(stmt);
-    //5. 将设置的参数集合添加到 对应的 Statement 对象中
-    handler.batch(stmt);
     return BATCH_UPDATE_RETURN_VALUE;
   }
 
+  /**
+   *  查找可以加入的批处理
+   * @return 批处理在 statementList 中的位置，没有则返回 -1
+   * */
+  private int findBatch(MappedStatement ms, String sql) {
+    if (sql.equals(currentSql) && ms.equals(currentStatement)) {
+      return statementList.size() - 1;
+    }
+    if (batchGroupingEnabled && ms.getSqlCommandType() == SqlCommandType.INSERT) {
+      Integer index = batchIndexes.get(new BatchKey(ms, sql));
+      if (index != null) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   *  分组模式下记录新建的 insert 批处理；update | delete 语句可能依赖之前的 insert，之后的 insert 不能再加入它之前的批处理
+   * */
+  private void registerBatch(MappedStatement ms, String sql, int index) {
+    if (batchGroupingEnabled) {
+      if (ms.getSqlCommandType() == SqlCommandType.INSERT) {
+        batchIndexes.put(new BatchKey(ms, sql), index);
+      } else {
+        batchIndexes.clear();
+      }
+    }
+  }
+
+  /**
+   *  估算一行参数在驱动中占用的内存： 字符串和二进制按长度计算，其他值按固定大小计算
+   * */
+  private long estimateRowSize(Configuration configuration, BoundSql boundSql, Object parameterObject) {
+    long size = 64;
+    for (Object value : parameterValues(configuration, boundSql, parameterObject)) {
+      if (value instanceof CharSequence) {
+        size += 40 + 2L * ((CharSequence) value).length();
+      } else if (value instanceof byte[]) {
+        size += 16 + ((byte[]) value).length;
+      } else {
+        size += 24;
+      }
+    }
+    return size;
+  }
+
+  /**
+   *  按 DefaultParameterHandler 的规则取出每个参数映射对应的值，OUT 参数的值为 null
+   * */
+  static Object[] parameterValues(Configuration configuration, BoundSql boundSql, Object parameterObject) {
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    if (parameterMappings == null) {
+      return new Object[0];
+    }
+    Object[] values = new Object[parameterMappings.size()];
+    TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+    MetaObject metaObject = null;
+    for (int i = 0; i < values.length; i++) {
+      ParameterMapping parameterMapping = parameterMappings.get(i);
+      if (parameterMapping.getMode() == ParameterMode.OUT) {
+        continue;
+      }
+      String propertyName = parameterMapping.getProperty();
+      if (boundSql.hasPositionalValue(i)) {
+        values[i] = boundSql.getPositionalValue(i);
+      } else if (boundSql.hasAdditionalParameter(propertyName)) {
+        values[i] = boundSql.getAdditionalParameter(propertyName);
+      } else if (parameterObject == null) {
+        values[i] = null;
+      } else if (typeHandlerRegistry.hasTypeHandler(parameterObject.getClass())) {
+        values[i] = parameterObject;
+      } else {
+        if (metaObject == null) {
+          metaObject = configuration.newMetaObject(parameterObject);
+        }
+        values[i] = metaObject.getValue(propertyName);
+      }
+    }
+    return values;
+  }
+
   /**
    *  执行 select 语句
    * */
@@ -114,7 +317,7 @@ public class BatchExecutor extends BaseExecutor {
       //2. 执行查询过程
       Configuration configuration = ms.getConfiguration();
       StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameterObject, rowBounds, resultHandler, boundSql);
-      Connection connection = getConnection(ms.getStatementLog());
+      Connection connection = getConnection(ms);
       stmt = handler.prepare(connection);
       handler.parameterize(stmt);
       return handler.<E>query(stmt, resultHandler);
@@ -123,13 +326,34 @@ public class BatchExecutor extends BaseExecutor {
     }
   }
 
+  /**
+   *  执行 select 语句，返回游标： 先刷新批处理语句，Statement 在游标关闭时一同关闭
+   * */
+  @Override
+  protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    flushStatements();
+    Configuration configuration = ms.getConfiguration();
+    StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+    Connection connection = getConnection(ms);
+    Statement stmt = handler.prepare(connection);
+    try {
+      handler.parameterize(stmt);
+      stmt.closeOnCompletion();
+      return handler.<E>queryCursor(stmt);
+    } catch (SQLException e) {
+      closeStatement(stmt);
+      throw e;
+    }
+  }
+
   /**
    *  刷新进行批处理的所有 Statement 对象（真正的执行过程）
    * */
   @Override
   public List<BatchResult> doFlushStatements(boolean isRollback) throws SQLException {
     try {
-      List<BatchResult> results = new ArrayList<BatchResult>();
+      //自动刷新时已经执行的结果一起返回
+      List<BatchResult> results = new ArrayList<BatchResult>(flushedBatchResults);
       //1. 如果回滚，返回空集合， 并清空所有的批量处理的 Statement 对象
       if (isRollback) {
         return Collections.emptyList();
@@ -139,6 +363,13 @@ public class BatchExecutor extends BaseExecutor {
         Statement stmt = statementList.get(i);
         BatchResult batchResult = batchResultList.get(i);
         try {
+          //2.0 改写为多行 insert 的批处理，执行时按行展开更新行数并填充主键
+          MultiRowInsert multiRowInsert = multiRowInsertList.get(i);
+          if (multiRowInsert != null) {
+            batchResult.setUpdateCounts(multiRowInsert.execute(this));
+            results.add(batchResult);
+            continue;
+          }
           //2.1 调用executeBatch() 方法进行批量处理
           batchResult.setUpdateCounts(stmt.executeBatch());
           //2.2 如果有主键生成器，则执行对应的回调方法
@@ -161,9 +392,9 @@ public class BatchExecutor extends BaseExecutor {
               .append(i + 1)
               .append(")")
               .append(" failed.");
-          if (i > 0) {
+          if (!results.isEmpty()) {
             message.append(" ")
-                .append(i)
+                .append(results.size())
                 .append(" prior sub executor(s) completed successfully, but will be rolled back.");
           }
           throw new BatchExecutorException(message.toString(), e, results, batchResult);
@@ -176,9 +407,56 @@ public class BatchExecutor extends BaseExecutor {
       for (Statement stmt : statementList) {
         closeStatement(stmt);
       }
+      for (MultiRowInsert multiRowInsert : multiRowInsertList) {
+        if (multiRowInsert != null) {
+          multiRowInsert.close(this);
+        }
+      }
+      multiRowInsertList.clear();
       currentSql = null;
       statementList.clear();
       batchResultList.clear();
+      batchIndexes.clear();
+      flushedBatchResults = new ArrayList<BatchResult>();
+      pendingRows = 0;
+      pendingBytes = 0;
+      clearPendingTempTables();
+    }
+  }
+
+  private void clearPendingTempTables() {
+    if (!pendingTempTables.isEmpty()) {
+      for (Map.Entry<TempTable, MappedStatement> entry : pendingTempTables.entrySet()) {
+        super.clearTempTables(entry.getValue(), Collections.singletonList(entry.getKey()));
+      }
+      pendingTempTables.clear();
+    }
+  }
+
+  /**
+   *  分组模式下批处理的key： MappedStatement + sql
+   * */
+  private static final class BatchKey {
+    private final MappedStatement mappedStatement;
+    private final String sql;
+
+    BatchKey(MappedStatement mappedStatement, String sql) {
+      this.mappedStatement = mappedStatement;
+      this.sql = sql;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * mappedStatement.hashCode() + sql.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof BatchKey)) {
+        return false;
+      }
+      BatchKey that = (BatchKey) o;
+      return mappedStatement.equals(that.mappedStatement) && sql.equals(that.sql);
     }
   }
 
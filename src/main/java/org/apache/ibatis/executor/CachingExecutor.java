@@ -23,6 +23,8 @@ import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.loader.BatchLoadGroup;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ParameterMapping;
@@ -94,6 +96,15 @@ public class CachingExecutor implements Executor {
     return query(ms, parameterObject, rowBounds, resultHandler, key, boundSql);
   }
 
+  /**
+   *  游标查询不使用二级缓存，只根据 flushCache 清空缓存
+   * */
+  @Override
+  public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+    flushCacheIfRequired(ms);
+    return delegate.queryCursor(ms, parameter, rowBounds);
+  }
+
   /**
    *  执行 select 语句
    * */
@@ -169,6 +180,16 @@ public class CachingExecutor implements Executor {
     delegate.deferLoad(ms, resultObject, property, key, targetType);
   }
 
+  @Override
+  public void putLocalCache(MappedStatement ms, CacheKey key, List<Object> list) {
+    delegate.putLocalCache(ms, key, list);
+  }
+
+  @Override
+  public void registerBatchLoadGroup(BatchLoadGroup batchLoadGroup) {
+    delegate.registerBatchLoadGroup(batchLoadGroup);
+  }
+
   @Override
   public void clearLocalCache() {
     delegate.clearLocalCache();
@@ -82,8 +82,10 @@ public class ErrorContext {
 
   //------------------类似于备忘录模式，使得键值生成器的处理逻辑和当前执行隔离----------------------------
   public ErrorContext store() {
-    stored = this;
-    LOCAL.set(new ErrorContext());
+    //由新的上下文保存当前的上下文，recall 时在新的上下文上调用
+    ErrorContext newContext = new ErrorContext();
+    newContext.stored = this;
+    LOCAL.set(newContext);
     return LOCAL.get();
   }
 
@@ -111,6 +113,13 @@ public class ErrorContext {
     return this;
   }
 
+  /**
+   *  当前正在处理的对象的唯一标识（例如正在执行的语句 id），连接池的泄漏检测用它记录连接上执行过的语句
+   * */
+  public String getObject() {
+    return object;
+  }
+
   public ErrorContext message(String message) {
     this.message = message;
     return this;
@@ -21,6 +21,8 @@ import java.util.List;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.loader.BatchLoadGroup;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.reflection.MetaObject;
@@ -49,6 +51,9 @@ public interface Executor {
   //查询，带分页
   <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException;
 
+  //查询，返回游标，不使用一级缓存和二级缓存
+  <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException;
+
   //刷新批处理语句
   List<BatchResult> flushStatements() throws SQLException;
 
@@ -69,6 +74,12 @@ public interface Executor {
   //延迟加载
   void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key, Class<?> targetType);
 
+  //将查询结果放入sqlsession缓存（批量内嵌查询按 key 拆分后的结果）
+  void putLocalCache(MappedStatement ms, CacheKey key, List<Object> list);
+
+  //注册批量懒加载分组，执行器关闭时释放
+  void registerBatchLoadGroup(BatchLoadGroup batchLoadGroup);
+
   Transaction getTransaction();
 
   void close(boolean forceRollback);
@@ -0,0 +1,255 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.List;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.limiter.ConcurrencyLimiter;
+import org.apache.ibatis.executor.loader.BatchLoadGroup;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.Transaction;
+
+/**
+ *  并发限制执行器： 执行语句前从命名空间的并发限制器获取许可，执行后把执行时间（或者超时）反馈给限制器。
+ *    嵌套的语句使用最外层语句的许可；批处理的刷新和游标读取数据不受限制
+ */
+public class LimitingExecutor implements Executor {
+
+  private final Executor delegate;
+
+  /**
+   *  当前线程正在执行的受限语句的嵌套深度，大于 0 时不再获取许可。
+   *    selectKey 和同一线程中的延迟加载使用新建的执行器，所以按线程而不是按执行器记录
+   * */
+  private static final ThreadLocal<int[]> DEPTH = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+
+  public LimitingExecutor(Executor delegate) {
+    this.delegate = delegate;
+    delegate.setExecutorWrapper(this);
+  }
+
+  @Override
+  public int update(MappedStatement ms, Object parameter) throws SQLException {
+    final ConcurrencyLimiter limiter = acquire(ms);
+    if (limiter == null) {
+      return delegate.update(ms, parameter);
+    }
+    final long start = System.nanoTime();
+    boolean success = false;
+    boolean dropped = false;
+    try {
+      int result = delegate.update(ms, parameter);
+      success = true;
+      return result;
+    } catch (SQLException e) {
+      dropped = isOverload(e);
+      throw e;
+    } catch (RuntimeException e) {
+      dropped = isOverload(e);
+      throw e;
+    } finally {
+      release(limiter, start, success, dropped);
+    }
+  }
+
+  @Override
+  public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, CacheKey cacheKey, BoundSql boundSql) throws SQLException {
+    final ConcurrencyLimiter limiter = isLocalCacheHit(ms, resultHandler, cacheKey) ? null : acquire(ms);
+    if (limiter == null) {
+      return delegate.<E> query(ms, parameter, rowBounds, resultHandler, cacheKey, boundSql);
+    }
+    final long start = System.nanoTime();
+    boolean success = false;
+    boolean dropped = false;
+    try {
+      List<E> result = delegate.<E> query(ms, parameter, rowBounds, resultHandler, cacheKey, boundSql);
+      success = true;
+      return result;
+    } catch (SQLException e) {
+      dropped = isOverload(e);
+      throw e;
+    } catch (RuntimeException e) {
+      dropped = isOverload(e);
+      throw e;
+    } finally {
+      release(limiter, start, success, dropped);
+    }
+  }
+
+  /**
+   *  与 CachingExecutor 相同，先得到缓存 key，以便判断是否命中一级缓存
+   * */
+  @Override
+  public <E> List<E> query(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler) throws SQLException {
+    if (ms.getConcurrencyLimiter() == null) {
+      return delegate.<E> query(ms, parameter, rowBounds, resultHandler);
+    }
+    BoundSql boundSql = ms.getBoundSql(parameter);
+    CacheKey key = createCacheKey(ms, parameter, rowBounds, boundSql);
+    return query(ms, parameter, rowBounds, resultHandler, key, boundSql);
+  }
+
+  @Override
+  public <E> Cursor<E> queryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds) throws SQLException {
+    final ConcurrencyLimiter limiter = acquire(ms);
+    if (limiter == null) {
+      return delegate.<E> queryCursor(ms, parameter, rowBounds);
+    }
+    final long start = System.nanoTime();
+    boolean success = false;
+    boolean dropped = false;
+    try {
+      Cursor<E> result = delegate.<E> queryCursor(ms, parameter, rowBounds);
+      success = true;
+      return result;
+    } catch (SQLException e) {
+      dropped = isOverload(e);
+      throw e;
+    } catch (RuntimeException e) {
+      dropped = isOverload(e);
+      throw e;
+    } finally {
+      release(limiter, start, success, dropped);
+    }
+  }
+
+  /**
+   *  命中一级缓存的查询不访问数据库： 不占用许可，也不反馈执行时间，否则微秒级的执行时间会拉低最短执行时间，使限制值一直减小
+   * */
+  private boolean isLocalCacheHit(MappedStatement ms, ResultHandler resultHandler, CacheKey key) {
+    return ms.getConcurrencyLimiter() != null && resultHandler == null && !ms.isFlushCacheRequired() && delegate.isCached(ms, key);
+  }
+
+  /**
+   * @return 语句所在命名空间的并发限制器，没有配置或者是嵌套的语句时返回 null
+   * */
+  private ConcurrencyLimiter acquire(MappedStatement ms) {
+    final ConcurrencyLimiter limiter = ms.getConcurrencyLimiter();
+    if (limiter == null) {
+      return null;
+    }
+    final int[] depth = DEPTH.get();
+    if (depth[0] > 0) {
+      return null;
+    }
+    limiter.acquire();
+    depth[0]++;
+    return limiter;
+  }
+
+  private void release(ConcurrencyLimiter limiter, long start, boolean success, boolean dropped) {
+    DEPTH.get()[0]--;
+    if (success) {
+      limiter.onSuccess(System.nanoTime() - start);
+    } else if (dropped) {
+      limiter.onDropped();
+    } else {
+      limiter.onIgnored();
+    }
+  }
+
+  /**
+   *  超时、死锁、取不到连接（连接池抛出 SQLTransientConnectionException）等瞬时错误说明数据库已经过载
+   * */
+  private static boolean isOverload(Throwable t) {
+    while (t != null) {
+      if (t instanceof SQLTransientException) {
+        return true;
+      }
+      t = t.getCause();
+    }
+    return false;
+  }
+
+  @Override
+  public List<BatchResult> flushStatements() throws SQLException {
+    return delegate.flushStatements();
+  }
+
+  @Override
+  public void commit(boolean required) throws SQLException {
+    delegate.commit(required);
+  }
+
+  @Override
+  public void rollback(boolean required) throws SQLException {
+    delegate.rollback(required);
+  }
+
+  @Override
+  public CacheKey createCacheKey(MappedStatement ms, Object parameterObject, RowBounds rowBounds, BoundSql boundSql) {
+    return delegate.createCacheKey(ms, parameterObject, rowBounds, boundSql);
+  }
+
+  @Override
+  public boolean isCached(MappedStatement ms, CacheKey key) {
+    return delegate.isCached(ms, key);
+  }
+
+  @Override
+  public void clearLocalCache() {
+    delegate.clearLocalCache();
+  }
+
+  @Override
+  public void deferLoad(MappedStatement ms, MetaObject resultObject, String property, CacheKey key, Class<?> targetType) {
+    delegate.deferLoad(ms, resultObject, property, key, targetType);
+  }
+
+  @Override
+  public void putLocalCache(MappedStatement ms, CacheKey key, List<Object> list) {
+    delegate.putLocalCache(ms, key, list);
+  }
+
+  @Override
+  public void registerBatchLoadGroup(BatchLoadGroup batchLoadGroup) {
+    delegate.registerBatchLoadGroup(batchLoadGroup);
+  }
+
+  @Override
+  public Transaction getTransaction() {
+    return delegate.getTransaction();
+  }
+
+  @Override
+  public void close(boolean forceRollback) {
+    delegate.close(forceRollback);
+  }
+
+  @Override
+  public boolean isClosed() {
+    return delegate.isClosed();
+  }
+
+  @Override
+  public void setExecutorWrapper(Executor executor) {
+    delegate.setExecutorWrapper(executor);
+  }
+
+}
@@ -0,0 +1,354 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
+import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.keygen.NoKeyGenerator;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ *  多行 insert 改写： 将简单的 INSERT ... VALUES (...) 语句的多组参数合并为 VALUES (...),(...),... 语句，
+ *    执行后按行展开更新行数并填充自动生成的主键
+ */
+class MultiRowInsert {
+
+  private final MappedStatement mappedStatement;
+
+  /**
+   *  VALUES 之前的部分（包含 VALUES）和 VALUES 后面的一组参数，例如 (?, ?, ?)
+   * */
+  private final String prefix;
+  private final String valuesGroup;
+
+  /**
+   *  每条改写后的语句包含的行数
+   * */
+  private final int rowsPerStatement;
+
+  /**
+   *  包含 rowsPerStatement 行的语句，所有满行的语句共用一个批处理
+   * */
+  private Statement fullStatement;
+  private int fullStatementCount;
+
+  /**
+   *  还没有加入批处理的行
+   * */
+  private final List<BoundSql> pendingBoundSqls = new ArrayList<BoundSql>();
+  private final List<Object> pendingParameters = new ArrayList<Object>();
+
+  /**
+   *  需要填充主键时保存所有行的参数对象
+   * */
+  private final List<Object> keyParameters = new ArrayList<Object>();
+
+  private final List<Statement> executedStatements = new ArrayList<Statement>();
+
+  private MultiRowInsert(MappedStatement mappedStatement, String prefix, String valuesGroup, int rowsPerStatement) {
+    this.mappedStatement = mappedStatement;
+    this.prefix = prefix;
+    this.valuesGroup = valuesGroup;
+    this.rowsPerStatement = rowsPerStatement;
+  }
+
+  /**
+   *  判断语句是否可以改写，不能改写时返回 null
+   * @param maxRows 每条语句最多的行数
+   * @param maxParameters 每条语句最多的参数个数
+   * */
+  static MultiRowInsert forStatement(MappedStatement ms, BoundSql boundSql, int maxRows, int maxParameters) {
+    if (maxRows <= 1 || ms.getStatementType() != StatementType.PREPARED) {
+      return null;
+    }
+    final KeyGenerator keyGenerator = ms.getKeyGenerator();
+    if (!NoKeyGenerator.class.equals(keyGenerator.getClass()) && !Jdbc3KeyGenerator.class.equals(keyGenerator.getClass())) {
+      return null;
+    }
+    final List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    for (ParameterMapping parameterMapping : parameterMappings) {
+      if (parameterMapping.getMode() != ParameterMode.IN) {
+        return null;
+      }
+    }
+    final String sql = boundSql.getSql();
+    final int valuesEnd = findValuesKeyword(sql);
+    if (valuesEnd < 0) {
+      return null;
+    }
+    final int groupStart = skipWhitespace(sql, valuesEnd);
+    final int groupEnd = findGroupEnd(sql, groupStart);
+    if (groupEnd < 0) {
+      return null;
+    }
+    //VALUES 后只能有一组参数
+    int end = skipWhitespace(sql, groupEnd);
+    if (end < sql.length() && sql.charAt(end) == ';') {
+      end = skipWhitespace(sql, end + 1);
+    }
+    if (end != sql.length()) {
+      return null;
+    }
+    final String prefix = sql.substring(0, valuesEnd);
+    final String valuesGroup = sql.substring(groupStart, groupEnd);
+    if (countPlaceholders(prefix) != 0 || countPlaceholders(valuesGroup) != parameterMappings.size()) {
+      return null;
+    }
+    int rowsPerStatement = maxRows;
+    if (maxParameters > 0 && !parameterMappings.isEmpty()) {
+      rowsPerStatement = Math.min(rowsPerStatement, maxParameters / parameterMappings.size());
+    }
+    if (rowsPerStatement <= 1) {
+      return null;
+    }
+    return new MultiRowInsert(ms, prefix, valuesGroup, rowsPerStatement);
+  }
+
+  /**
+   *  添加一行，收集满 rowsPerStatement 行时加入批处理
+   * */
+  void addRow(BatchExecutor executor, BoundSql boundSql, Object parameterObject) throws SQLException {
+    pendingBoundSqls.add(boundSql);
+    pendingParameters.add(parameterObject);
+    if (Jdbc3KeyGenerator.class.equals(mappedStatement.getKeyGenerator().getClass())) {
+      keyParameters.add(parameterObject);
+    }
+    if (pendingBoundSqls.size() == rowsPerStatement) {
+      final StatementHandler handler = newStatementHandler(executor);
+      if (fullStatement == null) {
+        fullStatement = handler.prepare(executor.getConnection(mappedStatement));
+        executedStatements.add(fullStatement);
+      }
+      handler.parameterize(fullStatement);
+      handler.batch(fullStatement);
+      fullStatementCount++;
+      pendingBoundSqls.clear();
+      pendingParameters.clear();
+    }
+  }
+
+  /**
+   *  执行所有的行，返回每一行的更新行数；执行失败时抛出的 BatchUpdateException 中也是每一行的更新行数
+   * */
+  int[] execute(BatchExecutor executor) throws SQLException {
+    final int rowCount = fullStatementCount * rowsPerStatement + pendingBoundSqls.size();
+    final int[] updateCounts = new int[rowCount];
+    int row = 0;
+    if (fullStatement != null) {
+      try {
+        final int[] statementCounts = fullStatement.executeBatch();
+        for (int count : statementCounts) {
+          row = expand(updateCounts, row, rowsPerStatement, count);
+        }
+      } catch (BatchUpdateException e) {
+        //驱动返回的是每条多行语句的更新行数，展开为每一行的更新行数
+        final int[] statementCounts = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+        for (int count : statementCounts) {
+          row = expand(updateCounts, row, rowsPerStatement, count);
+        }
+        throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(updateCounts, row), e);
+      }
+      processKeys(fullStatement, 0, fullStatementCount * rowsPerStatement);
+    }
+    if (!pendingBoundSqls.isEmpty()) {
+      final int rows = pendingBoundSqls.size();
+      final StatementHandler handler = newStatementHandler(executor);
+      final Statement stmt = handler.prepare(executor.getConnection(mappedStatement));
+      executedStatements.add(stmt);
+      handler.parameterize(stmt);
+      //不调用 handler.update，主键由 processKeys 按行填充
+      try {
+        ((PreparedStatement) stmt).execute();
+        row = expand(updateCounts, row, rows, stmt.getUpdateCount());
+      } catch (SQLException e) {
+        throw new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), Arrays.copyOf(updateCounts, row), e);
+      }
+      processKeys(stmt, fullStatementCount * rowsPerStatement, rowCount);
+    }
+    return updateCounts;
+  }
+
+  void close(BatchExecutor executor) {
+    for (Statement stmt : executedStatements) {
+      executor.closeStatement(stmt);
+    }
+    executedStatements.clear();
+    fullStatement = null;
+  }
+
+  /**
+   *  多行语句只返回总的更新行数，每行插入一条时展开为 1，执行失败的语句展开为 EXECUTE_FAILED，否则为 SUCCESS_NO_INFO
+   * */
+  private static int expand(int[] updateCounts, int from, int rows, int count) {
+    final int rowCount = count == rows ? 1 : count == Statement.EXECUTE_FAILED ? Statement.EXECUTE_FAILED : Statement.SUCCESS_NO_INFO;
+    Arrays.fill(updateCounts, from, from + rows, rowCount);
+    return from + rows;
+  }
+
+  private void processKeys(Statement stmt, int from, int to) {
+    if (!keyParameters.isEmpty()) {
+      ((Jdbc3KeyGenerator) mappedStatement.getKeyGenerator()).processBatch(mappedStatement, stmt, keyParameters.subList(from, to));
+    }
+  }
+
+  /**
+   *  为还没有加入批处理的行构建改写后的语句： 每一行的参数使用单独的额外参数名，
+   *    参数值在这里按 DefaultParameterHandler 的规则取出，之后由 StatementHandler 设置参数
+   * */
+  private StatementHandler newStatementHandler(BatchExecutor executor) {
+    final Configuration configuration = mappedStatement.getConfiguration();
+    final int rows = pendingBoundSqls.size();
+    final StringBuilder rewritten = new StringBuilder(prefix.length() + rows * (valuesGroup.length() + 1));
+    rewritten.append(prefix).append(' ');
+    final List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>();
+    final List<Object> values = new ArrayList<Object>();
+    for (int r = 0; r < rows; r++) {
+      if (r > 0) {
+        rewritten.append(',');
+      }
+      rewritten.append(valuesGroup);
+      final BoundSql rowBoundSql = pendingBoundSqls.get(r);
+      final Object[] rowValues = BatchExecutor.parameterValues(configuration, rowBoundSql, pendingParameters.get(r));
+      final List<ParameterMapping> rowMappings = rowBoundSql.getParameterMappings();
+      for (int i = 0; i < rowMappings.size(); i++) {
+        final ParameterMapping mapping = rowMappings.get(i);
+        parameterMappings.add(new ParameterMapping.Builder(configuration, "_row" + r + "_" + i, mapping.getTypeHandler())
+            .javaType(mapping.getJavaType())
+            .jdbcType(mapping.getJdbcType())
+            .jdbcTypeName(mapping.getJdbcTypeName())
+            .numericScale(mapping.getNumericScale())
+            .build());
+        values.add(rowValues[i]);
+      }
+    }
+    final BoundSql boundSql = new BoundSql(configuration, rewritten.toString(), parameterMappings, pendingParameters.get(0));
+    for (int i = 0; i < parameterMappings.size(); i++) {
+      boundSql.setAdditionalParameter(parameterMappings.get(i).getProperty(), values.get(i));
+    }
+    return configuration.newStatementHandler(executor, mappedStatement, pendingParameters.get(0), RowBounds.DEFAULT, null, boundSql);
+  }
+
+  /**
+   *  查找 INSERT ... VALUES 中 VALUES 关键字的结束位置，语句不是 insert 或者包含 select 关键字时返回 -1
+   * */
+  private static int findValuesKeyword(String sql) {
+    final String lower = sql.toLowerCase(Locale.ENGLISH);
+    final int start = skipWhitespace(lower, 0);
+    if (!lower.startsWith("insert", start) || lastIndexOfKeyword(lower, "select") >= 0) {
+      return -1;
+    }
+    final int index = lastIndexOfKeyword(lower, "values");
+    return index < 0 ? -1 : index + "values".length();
+  }
+
+  /**
+   *  查找字符串和带引号的标识符之外，作为单独的词出现的关键字最后的位置，例如 selected_at 中的 select 不算
+   * */
+  private static int lastIndexOfKeyword(String lower, String keyword) {
+    int found = -1;
+    char quote = 0;
+    for (int i = 0; i < lower.length(); i++) {
+      final char c = lower.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+      } else if (lower.startsWith(keyword, i)
+          && (i == 0 || !Character.isJavaIdentifierPart(lower.charAt(i - 1)))
+          && (i + keyword.length() == lower.length() || !Character.isJavaIdentifierPart(lower.charAt(i + keyword.length())))) {
+        found = i;
+      }
+    }
+    return found;
+  }
+
+  /**
+   *  查找从 start 开始的括号组的结束位置（不包含），忽略字符串中的括号
+   * */
+  private static int findGroupEnd(String sql, int start) {
+    if (start >= sql.length() || sql.charAt(start) != '(') {
+      return -1;
+    }
+    int depth = 0;
+    char quote = 0;
+    for (int i = start; i < sql.length(); i++) {
+      final char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"') {
+        quote = c;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+        if (depth == 0) {
+          return i + 1;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   *  统计字符串之外的 ? 占位符数量
+   * */
+  private static int countPlaceholders(String sql) {
+    int count = 0;
+    char quote = 0;
+    for (int i = 0; i < sql.length(); i++) {
+      final char c = sql.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"') {
+        quote = c;
+      } else if (c == '?') {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static int skipWhitespace(String sql, int start) {
+    int i = start;
+    while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+}
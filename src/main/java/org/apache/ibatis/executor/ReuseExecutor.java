@@ -23,10 +23,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.executor.statement.StatementHandler;
-import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.session.Configuration;
@@ -47,15 +47,20 @@ public class ReuseExecutor extends BaseExecutor {
    * */
   private final Map<String, Statement> statementMap = new HashMap<String, Statement>();
 
+  /**
+   *  key: 进行预编译的sql 语句， value: 创建 Statement 对象的事务连接。读写分离时同一条 sql 可能发送到不同的连接
+   * */
+  private final Map<String, Connection> connectionMap = new HashMap<String, Connection>();
+
   public ReuseExecutor(Configuration configuration, Transaction transaction) {
     super(configuration, transaction);
   }
 
   @Override
-  public int doUpdate(MappedStatement ms, Object parameter) throws SQLException {
+  public int doUpdate(MappedStatement ms, Object parameter, BoundSql boundSql) throws SQLException {
     Configuration configuration = ms.getConfiguration();
-    StatementHandler handler = configuration.newStatementHandler(this, ms, parameter, RowBounds.DEFAULT, null, null);
-    Statement stmt = prepareStatement(handler, ms.getStatementLog());
+    StatementHandler handler = configuration.newStatementHandler(this, ms, parameter, RowBounds.DEFAULT, null, boundSql);
+    Statement stmt = prepareStatement(handler, ms);
     return handler.update(stmt);
   }
 
@@ -63,10 +68,21 @@ public class ReuseExecutor extends BaseExecutor {
   public <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql) throws SQLException {
     Configuration configuration = ms.getConfiguration();
     StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, resultHandler, boundSql);
-    Statement stmt = prepareStatement(handler, ms.getStatementLog());
+    Statement stmt = prepareStatement(handler, ms);
     return handler.<E>query(stmt, resultHandler);
   }
 
+  /**
+   *  Statement 由 statementMap 管理，游标关闭时只关闭结果集
+   * */
+  @Override
+  protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    Configuration configuration = ms.getConfiguration();
+    StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+    Statement stmt = prepareStatement(handler, ms);
+    return handler.<E>queryCursor(stmt);
+  }
+
   /**
    *  如果执行器为复用执行器，则刷新语句为 关闭缓存中的所有 Statement 对象
    * */
@@ -76,22 +92,24 @@ public class ReuseExecutor extends BaseExecutor {
       closeStatement(stmt);
     }
     statementMap.clear();
+    connectionMap.clear();
     return Collections.emptyList();
   }
 
-  private Statement prepareStatement(StatementHandler handler, Log statementLog) throws SQLException {
+  private Statement prepareStatement(StatementHandler handler, MappedStatement ms) throws SQLException {
     Statement stmt;
-    //1. 获取要执行的sql语句
+    //1. 获取要执行的sql语句和该语句使用的事务连接
     BoundSql boundSql = handler.getBoundSql();
     String sql = boundSql.getSql();
-    //2. 如果缓存中已经存在对应的 Statement 对象，则直接使用
-    if (hasStatementFor(sql)) {
+    Connection connection = getTransactionConnection(ms);
+    //2. 如果缓存中已经存在同一连接上对应的 Statement 对象，则直接使用
+    if (hasStatementFor(sql, connection)) {
       stmt = getStatement(sql);
     //3. 如果没有缓存，则开始构建 Statement 对象
     } else {
-      Connection connection = getConnection(statementLog);
-      stmt = handler.prepare(connection);
+      stmt = handler.prepare(getConnection(connection, ms.getStatementLog()));
       putStatement(sql, stmt);
+      connectionMap.put(sql, connection);
     }
     //4. 设置参数
     handler.parameterize(stmt);
@@ -100,11 +118,12 @@ public class ReuseExecutor extends BaseExecutor {
 
   /**
    * @param sql 要进行预编译的 sql 语句
+   * @param connection 本次执行使用的事务连接
    *     根据 sql语句 对应的 Statement 是否被缓存
    * */
-  private boolean hasStatementFor(String sql) {
+  private boolean hasStatementFor(String sql, Connection connection) {
     try {
-      return statementMap.keySet().contains(sql) && !statementMap.get(sql).getConnection().isClosed();
+      return statementMap.keySet().contains(sql) && connectionMap.get(sql) == connection && !statementMap.get(sql).getConnection().isClosed();
     } catch (SQLException e) {
       return false;
     }
@@ -114,8 +133,14 @@ public class ReuseExecutor extends BaseExecutor {
     return statementMap.get(s);
   }
 
+  /**
+   *  同一条 sql 换了连接时（读写分离），关闭原来连接上缓存的 Statement
+   * */
   private void putStatement(String sql, Statement stmt) {
-    statementMap.put(sql, stmt);
+    Statement previous = statementMap.put(sql, stmt);
+    if (previous != null && previous != stmt) {
+      closeStatement(previous);
+    }
   }
 
 }
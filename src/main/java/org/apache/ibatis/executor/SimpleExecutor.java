@@ -21,11 +21,11 @@ import java.sql.Statement;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.statement.StatementHandler;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.executor.statement.StatementHandler;
-import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.session.Configuration;
@@ -53,14 +53,14 @@ public class SimpleExecutor extends BaseExecutor {
    *    执行 update | insert | delete 语句
    * */
   @Override
-  public int doUpdate(MappedStatement ms, Object parameter) throws SQLException {
+  public int doUpdate(MappedStatement ms, Object parameter, BoundSql boundSql) throws SQLException {
     Statement stmt = null;
     try {
       Configuration configuration = ms.getConfiguration();
       //1. 构建语句处理器
-      StatementHandler handler = configuration.newStatementHandler(this, ms, parameter, RowBounds.DEFAULT, null, null);
+      StatementHandler handler = configuration.newStatementHandler(this, ms, parameter, RowBounds.DEFAULT, null, boundSql);
       //2. 准备要执行的 Statement 语句
-      stmt = prepareStatement(handler, ms.getStatementLog());
+      stmt = prepareStatement(handler, ms);
       //3. 执行更新
       return handler.update(stmt);
     } finally {
@@ -78,7 +78,7 @@ public class SimpleExecutor extends BaseExecutor {
       //1. 准备sql，预编译，设置参数
       Configuration configuration = ms.getConfiguration();
       StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, resultHandler, boundSql);
-      stmt = prepareStatement(handler, ms.getStatementLog());
+      stmt = prepareStatement(handler, ms);
       //2. 查询结果
       return handler.<E>query(stmt, resultHandler);
     } finally {
@@ -86,6 +86,23 @@ public class SimpleExecutor extends BaseExecutor {
     }
   }
 
+  /**
+   *  执行 select 语句，返回游标： Statement 在游标关闭(结果集关闭)时一同关闭
+   * */
+  @Override
+  protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+    Configuration configuration = ms.getConfiguration();
+    StatementHandler handler = configuration.newStatementHandler(wrapper, ms, parameter, rowBounds, null, boundSql);
+    Statement stmt = prepareStatement(handler, ms);
+    try {
+      stmt.closeOnCompletion();
+      return handler.<E>queryCursor(stmt);
+    } catch (SQLException e) {
+      closeStatement(stmt);
+      throw e;
+    }
+  }
+
   /**
    *  刷新（执行）未执行的sql语句， 因为只有批量处理执行器会有，所有返回空
    * */
@@ -98,10 +115,10 @@ public class SimpleExecutor extends BaseExecutor {
   /**
    *  准备要执行的sql语句： 获取连接、设置参数
    * */
-  private Statement prepareStatement(StatementHandler handler, Log statementLog) throws SQLException {
+  private Statement prepareStatement(StatementHandler handler, MappedStatement ms) throws SQLException {
     Statement stmt;
     //1. 通过反射，获取带日志的数据库连接
-    Connection connection = getConnection(statementLog);
+    Connection connection = getConnection(ms);
     //2. 通过语句处理器准备 Statement 对象
     stmt = handler.prepare(connection);
     //3. 通过语句处理器设置参数
@@ -0,0 +1,164 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.TempTable;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ *  临时表装载器： 执行语句之前将集合批量插入会话级的临时表，第一次使用时声明，之后清空再复用；语句执行完成后清空；支持 HSQLDB 和 Derby
+ */
+class TempTableLoader {
+
+  private static final String HSQLDB = "HSQL Database Engine";
+  private static final String DERBY = "Apache Derby";
+
+  /**
+   *  每执行一次批处理插入的行数
+   * */
+  private static final int ROWS_PER_BATCH = 1000;
+
+  private final Configuration configuration;
+
+  /**
+   *  当前会话中已经声明的临时表
+   * */
+  private final Set<String> declaredTables = new HashSet<String>();
+
+  /**
+   *  数据库产品名称，第一次装载时获取
+   * */
+  private String databaseProductName;
+
+  TempTableLoader(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  void load(Connection connection, List<TempTable> tempTables) throws SQLException {
+    for (TempTable tempTable : tempTables) {
+      prepareTable(connection, tempTable);
+      insertValues(connection, tempTable);
+    }
+  }
+
+  /**
+   *  语句执行完成后清空临时表，集合的内容不会留在归还到连接池的连接上。每个表都尝试清空，抛出第一个错误
+   * */
+  void clear(Connection connection, List<TempTable> tempTables) throws SQLException {
+    SQLException failure = null;
+    for (TempTable tempTable : tempTables) {
+      try {
+        execute(connection, "DELETE FROM " + tempTable.getQualifiedName());
+      } catch (SQLException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   *  回滚可能撤销了临时表的声明（Derby），之后第一次使用时重新声明
+   * */
+  void reset() {
+    declaredTables.clear();
+  }
+
+  /**
+   *  第一次使用时声明临时表，之后清空。从连接池取得的连接上可能已经声明过该表，此时声明失败，改为清空
+   * */
+  private void prepareTable(Connection connection, TempTable tempTable) throws SQLException {
+    final String clearSql = "DELETE FROM " + tempTable.getQualifiedName();
+    if (declaredTables.contains(tempTable.getName())) {
+      execute(connection, clearSql);
+      return;
+    }
+    try {
+      execute(connection, declareSql(connection, tempTable));
+    } catch (SQLException e) {
+      try {
+        execute(connection, clearSql);
+      } catch (SQLException ignored) {
+        throw e;
+      }
+    }
+    declaredTables.add(tempTable.getName());
+  }
+
+  private String declareSql(Connection connection, TempTable tempTable) throws SQLException {
+    if (databaseProductName == null) {
+      databaseProductName = connection.getMetaData().getDatabaseProductName();
+    }
+    final String column = "(" + TempTable.VALUE_COLUMN + " " + tempTable.getColumnType() + ")";
+    if (HSQLDB.equals(databaseProductName)) {
+      return "DECLARE LOCAL TEMPORARY TABLE " + tempTable.getName() + " " + column + " ON COMMIT PRESERVE ROWS";
+    } else if (DERBY.equals(databaseProductName)) {
+      return "DECLARE GLOBAL TEMPORARY TABLE " + tempTable.getQualifiedName() + " " + column + " ON COMMIT PRESERVE ROWS NOT LOGGED";
+    }
+    throw new ExecutorException("Temporary tables are not supported on " + databaseProductName + ", only on " + HSQLDB + " and " + DERBY + ".");
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private void insertValues(Connection connection, TempTable tempTable) throws SQLException {
+    final ParameterMapping parameterMapping = tempTable.getParameterMapping();
+    final TypeHandler typeHandler = parameterMapping.getTypeHandler();
+    final PreparedStatement ps = connection.prepareStatement(
+        "INSERT INTO " + tempTable.getQualifiedName() + " (" + TempTable.VALUE_COLUMN + ") VALUES (?)");
+    try {
+      int pending = 0;
+      for (Object value : tempTable.getValues()) {
+        JdbcType jdbcType = parameterMapping.getJdbcType();
+        if (value == null && jdbcType == null) {
+          jdbcType = configuration.getJdbcTypeForNull();
+        }
+        typeHandler.setParameter(ps, 1, value, jdbcType);
+        ps.addBatch();
+        if (++pending == ROWS_PER_BATCH) {
+          ps.executeBatch();
+          pending = 0;
+        }
+      }
+      if (pending > 0) {
+        ps.executeBatch();
+      }
+    } finally {
+      ps.close();
+    }
+  }
+
+  private static void execute(Connection connection, String sql) throws SQLException {
+    final Statement stmt = connection.createStatement();
+    try {
+      stmt.execute(sql);
+    } finally {
+      stmt.close();
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.limiter;
+
+import org.apache.ibatis.executor.ExecutorException;
+
+/**
+ *  命名空间的并发数已经达到限制，并且等待队列已满或者等待超时时抛出
+ */
+public class ConcurrencyLimitExceededException extends ExecutorException {
+
+  private static final long serialVersionUID = -2376102741457360134L;
+
+  public ConcurrencyLimitExceededException(String message) {
+    super(message);
+  }
+
+  public ConcurrencyLimitExceededException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+}
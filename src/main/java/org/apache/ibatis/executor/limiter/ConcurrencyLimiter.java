@@ -0,0 +1,265 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.limiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *  自适应的并发数限制： 执行时间接近最近的最短执行时间时增大限制值，变慢时按比例减小，超时失败时按固定比例减小。
+ *    超过限制的调用者在有界队列中最多等待 queueTimeout 毫秒
+ */
+public class ConcurrencyLimiter {
+
+  /**
+   *  短期平均执行时间超过长期平均值的这个倍数时才开始减小限制
+   * */
+  private static final double TOLERANCE = 1.5;
+
+  /**
+   *  每次调整时新的限制值所占的权重
+   * */
+  private static final double SMOOTHING = 0.2;
+
+  /**
+   *  语句超时时限制值乘以的比例
+   * */
+  private static final double BACKOFF_RATIO = 0.9;
+
+  /**
+   *  短期平均执行时间的样本窗口大小，以及重新统计最短执行时间的样本数
+   * */
+  private static final int SHORT_WINDOW = 10;
+  private static final int MIN_RTT_WINDOW = 500;
+
+  private final String id;
+  private final int minLimit;
+  private final int maxLimit;
+  private final int queueSize;
+  private final long queueTimeout;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition released = lock.newCondition();
+
+  /**
+   *  以下状态都由 lock 保护
+   * */
+  private double estimatedLimit;
+  private int limit;
+  private int inFlight;
+  private int waiting;
+  private double shortRtt;
+  private double minRtt;
+  private double windowMinRtt;
+  private int windowSamples;
+  private long rejectedCount;
+
+  /*
+   * @param id - the namespace the limiter belongs to
+   * @param initialLimit - the limit before any latency has been observed
+   * @param minLimit - the lowest limit
+   * @param maxLimit - the highest limit
+   * @param queueSize - the number of callers that may wait for a permit (0 rejects immediately)
+   * @param queueTimeout - the maximum time a caller waits for a permit, in milliseconds
+   */
+  public ConcurrencyLimiter(String id, int initialLimit, int minLimit, int maxLimit, int queueSize, long queueTimeout) {
+    if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException("Concurrency limit of " + id + " requires 1 <= minLimit <= initialLimit <= maxLimit, but was "
+          + minLimit + ", " + initialLimit + ", " + maxLimit + ".");
+    }
+    if (queueSize < 0 || queueTimeout < 0) {
+      throw new IllegalArgumentException("queueSize and queueTimeout of the concurrency limit of " + id + " must not be negative.");
+    }
+    this.id = id;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.queueSize = queueSize;
+    this.queueTimeout = queueTimeout;
+    this.estimatedLimit = initialLimit;
+    this.limit = initialLimit;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  /**
+   *  获取执行语句的许可，超过限制时排队等待，队列已满或者等待超时时抛出 ConcurrencyLimitExceededException
+   * */
+  public void acquire() {
+    lock.lock();
+    try {
+      if (inFlight < limit) {
+        inFlight++;
+        return;
+      }
+      if (waiting >= queueSize) {
+        rejectedCount++;
+        throw new ConcurrencyLimitExceededException("Concurrency limit of " + id + " exceeded: " + inFlight
+            + " statements in flight, limit " + limit + ", " + waiting + " callers waiting (queueSize " + queueSize + ").");
+      }
+      waiting++;
+      try {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+        while (inFlight >= limit) {
+          if (nanos <= 0) {
+            rejectedCount++;
+            passOnSignal();
+            throw new ConcurrencyLimitExceededException("Concurrency limit of " + id + " exceeded: waited " + queueTimeout
+                + " ms (queueTimeout) with " + inFlight + " statements in flight, limit " + limit + ".");
+          }
+          nanos = released.awaitNanos(nanos);
+        }
+        inFlight++;
+      } catch (InterruptedException e) {
+        passOnSignal();
+        Thread.currentThread().interrupt();
+        throw new ConcurrencyLimitExceededException("Interrupted while waiting for the concurrency limit of " + id + ".", e);
+      } finally {
+        waiting--;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   *  语句执行成功： 释放许可，并根据执行时间调整限制
+   *
+   * @param rttNanos 语句的执行时间（纳秒）
+   * */
+  public void onSuccess(long rttNanos) {
+    lock.lock();
+    try {
+      final double rtt = Math.max(rttNanos, 1);
+      shortRtt = shortRtt == 0 ? rtt : shortRtt + (rtt - shortRtt) / SHORT_WINDOW;
+      //最短执行时间作为没有负载时的基准，每个窗口重新统计一次，以适应数据或者执行计划的变化
+      windowMinRtt = windowMinRtt == 0 ? rtt : Math.min(windowMinRtt, rtt);
+      minRtt = minRtt == 0 ? rtt : Math.min(minRtt, rtt);
+      if (++windowSamples >= MIN_RTT_WINDOW) {
+        minRtt = windowMinRtt;
+        windowMinRtt = 0;
+        windowSamples = 0;
+      }
+      //并发数远低于限制时，执行时间不能说明数据库的容量，不调整
+      if (inFlight >= estimatedLimit / 2) {
+        final double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * minRtt / shortRtt));
+        final double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        setEstimatedLimit(estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+      }
+      release();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   *  语句超时： 释放许可，并按固定比例减小限制
+   * */
+  public void onDropped() {
+    lock.lock();
+    try {
+      setEstimatedLimit(estimatedLimit * BACKOFF_RATIO);
+      release();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   *  语句因为其他原因失败： 只释放许可，不调整限制
+   * */
+  public void onIgnored() {
+    lock.lock();
+    try {
+      release();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void setEstimatedLimit(double newLimit) {
+    estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    limit = (int) estimatedLimit;
+  }
+
+  /**
+   *  每个空出的许可只唤醒一个等待的线程，限制值增大时可能空出多个许可
+   * */
+  private void release() {
+    inFlight--;
+    for (int free = limit - inFlight, i = 0; i < free && i < waiting; i++) {
+      released.signal();
+    }
+  }
+
+  /**
+   *  等待的线程超时或者被中断时，它可能已经被唤醒，把唤醒转交给下一个等待的线程
+   * */
+  private void passOnSignal() {
+    if (inFlight < limit) {
+      released.signal();
+    }
+  }
+
+  public int getLimit() {
+    lock.lock();
+    try {
+      return limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getWaiting() {
+    lock.lock();
+    try {
+      return waiting;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getRejectedCount() {
+    lock.lock();
+    try {
+      return rejectedCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    lock.lock();
+    try {
+      return id + " (limit " + limit + ", in flight " + inFlight + ", waiting " + waiting + ", rejected " + rejectedCount + ")";
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
@@ -50,6 +50,11 @@ public abstract class AbstractEnhancedDeserializationProxy {
   private final Object reloadingPropertyLock;
   private boolean reloadingProperty;
 
+  /**
+   *  反序列化时未加载的属性都已经加载完成，之后的方法调用不再进入同步块
+   * */
+  private volatile boolean fullyLoaded;
+
   protected AbstractEnhancedDeserializationProxy(Class<?> type, Map<String, ResultLoaderMap.LoadPair> unloadedProperties,
           ObjectFactory objectFactory, List<Class<?>> constructorArgTypes, List<Object> constructorArgs) {
     this.type = type;
@@ -59,6 +64,7 @@ public abstract class AbstractEnhancedDeserializationProxy {
     this.constructorArgs = constructorArgs;
     this.reloadingPropertyLock = new Object();
     this.reloadingProperty = false;
+    this.fullyLoaded = unloadedProperties.isEmpty();
   }
 
   public final Object invoke(Object enhanced, Method method, Object[] args) throws Throwable {
@@ -74,6 +80,8 @@ public abstract class AbstractEnhancedDeserializationProxy {
 
         PropertyCopier.copyBeanProperties(type, enhanced, original);
         return this.newSerialStateHolder(original, unloadedProperties, objectFactory, constructorArgTypes, constructorArgs);
+      } else if (fullyLoaded) {
+        return enhanced;
       } else {
         synchronized (this.reloadingPropertyLock) {
           if (!FINALIZE_METHOD.equals(methodName) && PropertyNamer.isProperty(methodName) && !reloadingProperty) {
@@ -87,6 +95,7 @@ public abstract class AbstractEnhancedDeserializationProxy {
                   loadPair.load(enhanced);
                 } finally {
                   reloadingProperty = false;
+                  fullyLoaded = unloadedProperties.isEmpty();
                 }
               } else {
                 /* I'm not sure if this case can really happen or is just in tests -
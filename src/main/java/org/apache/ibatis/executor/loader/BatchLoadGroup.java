@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.reflection.MetaObject;
+
+/**
+ *  批量懒加载分组： 一次查询创建的所有对象的同一个批量加载属性，任一对象触发懒加载时，
+ *    尚未加载的兄弟对象通过一次内嵌查询一起加载；执行器关闭时释放分组
+ */
+public class BatchLoadGroup {
+
+  private final Executor executor;
+  private final BatchResultLoader batchResultLoader;
+  private final long creatorThreadId;
+
+  /**
+   *  尚未加载的兄弟对象
+   * */
+  private final List<Member> members = new ArrayList<Member>();
+
+  /**
+   *  尚未加载的兄弟对象的加载对，按引用判断是否属于分组
+   * */
+  private final Set<ResultLoaderMap.LoadPair> memberPairs = Collections.newSetFromMap(new IdentityHashMap<ResultLoaderMap.LoadPair, Boolean>());
+
+  private boolean closed;
+
+  /**
+   *  正在执行批量加载的线程，为兄弟对象赋值时不再触发它们的懒加载
+   * */
+  private volatile Thread loadingThread;
+
+  public BatchLoadGroup(BatchResultLoader batchResultLoader) {
+    this.executor = batchResultLoader.executor;
+    this.batchResultLoader = batchResultLoader;
+    this.creatorThreadId = Thread.currentThread().getId();
+  }
+
+  void addMember(ResultLoaderMap owner, ResultLoaderMap.LoadPair loadPair, MetaObject resultObject, Object key) {
+    if (!closed) {
+      //分组从空变为非空时注册到执行器，执行器关闭时释放
+      if (members.isEmpty()) {
+        executor.registerBatchLoadGroup(this);
+      }
+      members.add(new Member(owner, loadPair, resultObject, key));
+      memberPairs.add(loadPair);
+    }
+  }
+
+  /**
+   *  批量加载触发的加载对和所有尚未加载的兄弟对象
+   * @return 不能批量加载时返回 false，由加载对单独加载
+   * */
+  boolean load(ResultLoaderMap.LoadPair trigger) throws SQLException {
+    if (closed || executor.isClosed() || Thread.currentThread().getId() != creatorThreadId || !memberPairs.contains(trigger)) {
+      return false;
+    }
+    //1. 认领兄弟对象中尚未加载的加载对，加载对保留到赋值完成，其它线程读取这些属性时等待
+    final List<Member> claimed = new ArrayList<Member>();
+    for (Member member : members) {
+      if (member.owner.claimLoader(member.loadPair)) {
+        claimed.add(member);
+        batchResultLoader.addResultObject(member.resultObject, member.key);
+      }
+    }
+    members.clear();
+    memberPairs.clear();
+    //2. 一次查询加载所有兄弟对象
+    boolean loaded = false;
+    loadingThread = Thread.currentThread();
+    try {
+      batchResultLoader.load();
+      loaded = true;
+    } finally {
+      loadingThread = null;
+      //3. 删除已经赋值的加载对并唤醒等待的线程，加载失败时加载对保留，之后单独加载
+      for (Member member : claimed) {
+        member.owner.releaseLoader(member.loadPair, loaded);
+      }
+    }
+    return true;
+  }
+
+  boolean isLoadingOnCurrentThread() {
+    return loadingThread == Thread.currentThread();
+  }
+
+  public boolean isEmpty() {
+    return members.isEmpty();
+  }
+
+  /**
+   *  释放分组持有的兄弟对象，之后的懒加载由加载对单独加载
+   * */
+  public void close() {
+    closed = true;
+    members.clear();
+    memberPairs.clear();
+  }
+
+  private static class Member {
+    private final ResultLoaderMap owner;
+    private final ResultLoaderMap.LoadPair loadPair;
+    private final MetaObject resultObject;
+    private final Object key;
+
+    Member(ResultLoaderMap owner, ResultLoaderMap.LoadPair loadPair, MetaObject resultObject, Object key) {
+      this.owner = owner;
+      this.loadPair = loadPair;
+      this.resultObject = resultObject;
+      this.key = key;
+    }
+  }
+
+}
@@ -0,0 +1,280 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.ResultExtractor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaClass;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.defaults.DefaultSqlSession.StrictMap;
+
+/**
+ *  批量结果加载器： 以所有父对象的 key 组成的 List 为参数执行一次内嵌查询，再按 foreignColumn 将结果分发给各个父对象
+ */
+public class BatchResultLoader {
+
+  protected final Configuration configuration;
+  protected final Executor executor;
+
+  /**
+   *  内嵌查询，参数为 key 的集合
+   * */
+  protected final MappedStatement mappedStatement;
+
+  /**
+   *  父对象中需要赋值的属性名
+   * */
+  protected final String property;
+
+  /**
+   *  父对象中属性的类型
+   * */
+  protected final Class<?> targetType;
+
+  /**
+   *  内嵌查询结果中与 key 对应的列名
+   * */
+  protected final String foreignColumn;
+
+  protected final ResultExtractor resultExtractor;
+
+  /**
+   *  内嵌查询结果中与 foreignColumn 对应的属性名，延迟解析
+   * */
+  private String foreignProperty;
+
+  /**
+   *  等待加载的父对象和对应的 key
+   * */
+  private final List<MetaObject> resultObjects = new ArrayList<MetaObject>();
+  private final List<Object> keys = new ArrayList<Object>();
+
+  /**
+   *  key: 规范化后的 key, value: 第一次出现的原始 key
+   * */
+  private final Map<Object, Object> distinctKeys = new LinkedHashMap<Object, Object>();
+
+  public BatchResultLoader(Configuration configuration, Executor executor, MappedStatement mappedStatement, String property, Class<?> targetType, String foreignColumn) {
+    this.configuration = configuration;
+    this.executor = executor;
+    this.mappedStatement = mappedStatement;
+    this.property = property;
+    this.targetType = targetType;
+    this.foreignColumn = foreignColumn;
+    this.resultExtractor = new ResultExtractor(configuration, configuration.getObjectFactory());
+  }
+
+  /**
+   *  添加一个等待加载的父对象
+   * */
+  public void addResultObject(MetaObject resultObject, Object key) {
+    resultObjects.add(resultObject);
+    keys.add(key);
+    final Object normalizedKey = normalizeKey(key);
+    if (!distinctKeys.containsKey(normalizedKey)) {
+      distinctKeys.put(normalizedKey, key);
+    }
+  }
+
+  public boolean isEmpty() {
+    return resultObjects.isEmpty();
+  }
+
+  /**
+   *  按 batchFetchSize 分批执行内嵌查询，并为所有等待加载的父对象赋值
+   * */
+  public void load() throws SQLException {
+    if (isEmpty()) {
+      return;
+    }
+    try {
+      loadResultObjects();
+    } finally {
+      resultObjects.clear();
+      keys.clear();
+      distinctKeys.clear();
+    }
+  }
+
+  private void loadResultObjects() throws SQLException {
+    final Map<Object, List<Object>> rowsByKey = new HashMap<Object, List<Object>>();
+    final List<Object> originalKeys = new ArrayList<Object>(distinctKeys.values());
+    final int batchSize = configuration.getBatchFetchSize() > 0 ? configuration.getBatchFetchSize() : originalKeys.size();
+    for (int from = 0; from < originalKeys.size(); from += batchSize) {
+      final int to = Math.min(from + batchSize, originalKeys.size());
+      final List<Object> rows = selectList(wrapKeys(new ArrayList<Object>(originalKeys.subList(from, to))));
+      for (Object row : rows) {
+        final Object normalizedKey = normalizeKey(getForeignValue(row));
+        List<Object> keyRows = rowsByKey.get(normalizedKey);
+        if (keyRows == null) {
+          keyRows = new ArrayList<Object>();
+          rowsByKey.put(normalizedKey, keyRows);
+        }
+        keyRows.add(row);
+      }
+    }
+    //将每个 key 的结果放入一级缓存
+    for (Object normalizedKey : distinctKeys.keySet()) {
+      List<Object> keyRows = rowsByKey.get(normalizedKey);
+      if (keyRows == null) {
+        keyRows = new ArrayList<Object>();
+        rowsByKey.put(normalizedKey, keyRows);
+      }
+      executor.putLocalCache(mappedStatement, createCacheKey(configuration, mappedStatement, normalizedKey), keyRows);
+    }
+    //为父对象赋值
+    for (int i = 0; i < resultObjects.size(); i++) {
+      final List<Object> keyRows = rowsByKey.get(normalizeKey(keys.get(i)));
+      resultObjects.get(i).setValue(property, resultExtractor.extractObjectFromList(keyRows, targetType));
+    }
+  }
+
+  /**
+   *  以 key 的集合为参数执行内嵌查询
+   * */
+  protected List<Object> selectList(Object parameterObject) throws SQLException {
+    return executor.<Object> query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+  }
+
+  /**
+   *  获取子对象中 foreignColumn 对应的值
+   * */
+  private Object getForeignValue(Object row) {
+    if (row instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) row).entrySet()) {
+        if (foreignColumn.equalsIgnoreCase(String.valueOf(entry.getKey()))) {
+          return entry.getValue();
+        }
+      }
+      return null;
+    }
+    if (foreignProperty == null) {
+      foreignProperty = resolveForeignProperty(row.getClass());
+    }
+    final MetaObject metaRow = configuration.newMetaObject(row);
+    return metaRow.getValue(foreignProperty);
+  }
+
+  /**
+   *  先查找内嵌查询 ResultMap 中映射了 foreignColumn 的属性，再按自动映射的规则查找
+   * */
+  private String resolveForeignProperty(Class<?> rowType) {
+    for (ResultMap resultMap : mappedStatement.getResultMaps()) {
+      for (ResultMapping resultMapping : resultMap.getResultMappings()) {
+        if (foreignColumn.equalsIgnoreCase(resultMapping.getColumn()) && resultMapping.getProperty() != null) {
+          return resultMapping.getProperty();
+        }
+      }
+    }
+    final String foundProperty = MetaClass.forClass(rowType).findProperty(foreignColumn, configuration.isMapUnderscoreToCamelCase());
+    if (foundProperty == null) {
+      throw new ExecutorException("Could not find a property of " + rowType.getName() + " mapped to the foreign column '" + foreignColumn
+          + "' of the batched nested query '" + mappedStatement.getId() + "'.");
+    }
+    return foundProperty;
+  }
+
+  /**
+   *  内嵌查询的参数： 与 sqlSession 传入 List 参数时相同，可以使用 list 或者 collection 获取
+   * */
+  public static Object wrapKeys(List<Object> keys) {
+    StrictMap<Object> map = new StrictMap<Object>();
+    map.put("collection", keys);
+    map.put("list", keys);
+    return map;
+  }
+
+  /**
+   *  单个 key 的内嵌查询结果在一级缓存中的缓存key，由语句id 和规范化后的 key 组成，不需要为每个父对象生成 BoundSql
+   * */
+  public static CacheKey createCacheKey(Configuration configuration, MappedStatement mappedStatement, Object key) {
+    CacheKey cacheKey = new CacheKey();
+    cacheKey.update(mappedStatement.getId());
+    cacheKey.update(BatchResultLoader.class.getName());
+    cacheKey.update(normalizeKey(key));
+    if (configuration.getEnvironment() != null) {
+      cacheKey.update(configuration.getEnvironment().getId());
+    }
+    return cacheKey;
+  }
+
+  /**
+   *  判断内嵌查询能否以 key 的集合作为参数： 所有参数都必须来自 list/collection（例如 foreach 生成的参数），
+   *    只接受单个参数（例如 #{id}）的内嵌查询不能批量加载
+   * */
+  public static boolean acceptsKeys(MappedStatement mappedStatement, Object key) {
+    final BoundSql boundSql;
+    try {
+      boundSql = mappedStatement.getBoundSql(wrapKeys(Collections.singletonList(key)));
+    } catch (PersistenceException e) {
+      //动态 sql 中引用了 list/collection 之外的参数
+      return false;
+    }
+    int keyParameters = 0;
+    for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+      if (parameterMapping.getMode() == ParameterMode.OUT) {
+        continue;
+      }
+      final String property = parameterMapping.getProperty();
+      if (!isKeysProperty(property, "list") && !isKeysProperty(property, "collection") && !boundSql.hasAdditionalParameter(property)) {
+        return false;
+      }
+      keyParameters++;
+    }
+    return keyParameters > 0;
+  }
+
+  private static boolean isKeysProperty(String property, String name) {
+    return property.equals(name) || property.startsWith(name + "[") || property.startsWith(name + ".");
+  }
+
+  /**
+   *  父对象列值和子对象属性值的数字类型可能不同（例如 Integer 和 Long），数字统一转换为 BigDecimal 后再比较；
+   *    其它类型保持原样，不同类型的 key（例如 1 和 "1"）不会合并
+   * */
+  private static Object normalizeKey(Object key) {
+    if (key instanceof Number) {
+      try {
+        final BigDecimal decimal = new BigDecimal(key.toString());
+        return decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+      } catch (NumberFormatException e) {
+        return key;
+      }
+    }
+    return key;
+  }
+
+}
@@ -0,0 +1,120 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.reflection.ExceptionUtil;
+
+/**
+ *  延迟加载代理类缓存： 按 (被代理的类型, 构造器参数类型) 缓存代理类和实例化器，通过 ClassValue 保存，不会阻止类加载器被回收
+ */
+public class ProxyClassCache {
+
+  /**
+   *  绑定了代理类构造器的实例化器
+   * */
+  public interface Instantiator {
+    Object newInstance(Object[] constructorArgs, Object callback) throws Exception;
+  }
+
+  /**
+   *  生成代理类并创建实例化器，由具体的代理工厂（cglib | javassist）实现
+   * */
+  public interface InstantiatorFactory {
+    Instantiator create(Class<?> type, Class<?>[] constructorArgTypes) throws Exception;
+  }
+
+  private static final Class<?>[] NO_TYPES = new Class<?>[0];
+  private static final Object[] NO_ARGS = new Object[0];
+
+  /**
+   *  key: 被代理的类型, value: (key: 构造器参数类型, value: 实例化器)
+   * */
+  private final ClassValue<ConcurrentMap<ConstructorKey, Instantiator>> instantiators = new ClassValue<ConcurrentMap<ConstructorKey, Instantiator>>() {
+    @Override
+    protected ConcurrentMap<ConstructorKey, Instantiator> computeValue(Class<?> type) {
+      return new ConcurrentHashMap<ConstructorKey, Instantiator>();
+    }
+  };
+
+  private final InstantiatorFactory instantiatorFactory;
+
+  public ProxyClassCache(InstantiatorFactory instantiatorFactory) {
+    this.instantiatorFactory = instantiatorFactory;
+  }
+
+  /**
+   *  创建代理对象
+   * @param callback 代理对象的回调（增强方法）
+   * */
+  public Object newProxy(Class<?> type, List<Class<?>> constructorArgTypes, List<Object> constructorArgs, Object callback) {
+    final Class<?>[] typesArray = constructorArgTypes.isEmpty() ? NO_TYPES : constructorArgTypes.toArray(new Class<?>[constructorArgTypes.size()]);
+    final Object[] valuesArray = constructorArgs.isEmpty() ? NO_ARGS : constructorArgs.toArray(new Object[constructorArgs.size()]);
+    try {
+      return getInstantiator(type, typesArray).newInstance(valuesArray, callback);
+    } catch (ExecutorException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new ExecutorException("Error creating lazy proxy.  Cause: " + ExceptionUtil.unwrapThrowable(e), e);
+    }
+  }
+
+  private Instantiator getInstantiator(Class<?> type, Class<?>[] constructorArgTypes) throws Exception {
+    final ConcurrentMap<ConstructorKey, Instantiator> typeInstantiators = instantiators.get(type);
+    final ConstructorKey key = new ConstructorKey(constructorArgTypes);
+    Instantiator instantiator = typeInstantiators.get(key);
+    if (instantiator == null) {
+      instantiator = instantiatorFactory.create(type, constructorArgTypes);
+      final Instantiator existing = typeInstantiators.putIfAbsent(key, instantiator);
+      if (existing != null) {
+        instantiator = existing;
+      }
+    }
+    return instantiator;
+  }
+
+  private static final class ConstructorKey {
+    private final Class<?>[] constructorArgTypes;
+    private final int hashCode;
+
+    ConstructorKey(Class<?>[] constructorArgTypes) {
+      this.constructorArgTypes = constructorArgTypes;
+      this.hashCode = Arrays.hashCode(constructorArgTypes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ConstructorKey)) {
+        return false;
+      }
+      return Arrays.equals(constructorArgTypes, ((ConstructorKey) o).constructorArgTypes);
+    }
+  }
+
+}
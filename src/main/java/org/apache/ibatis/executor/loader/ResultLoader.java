@@ -69,7 +69,7 @@ public class ResultLoader {
   // 内嵌查询对应的缓存key
   protected final CacheKey cacheKey;
 
-  // 内嵌查询对应的绑定sql
+  // 内嵌查询对应的绑定sql，为 null 时在查询时生成
   protected final BoundSql boundSql;
 
   // 结果抽取器
@@ -114,7 +114,8 @@ public class ResultLoader {
     }
     //2. 通过执行器查询结果
     try {
-      return localExecutor.<E> query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, cacheKey, boundSql);
+      final BoundSql localBoundSql = boundSql != null ? boundSql : mappedStatement.getBoundSql(parameterObject);
+      return localExecutor.<E> query(mappedStatement, parameterObject, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER, cacheKey, localBoundSql);
     } finally {
       if (localExecutor != executor) {
         localExecutor.close(false);
@@ -27,8 +27,11 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.executor.BaseExecutor;
 import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.executor.ExecutorException;
@@ -55,7 +58,13 @@ public class ResultLoaderMap {
    *  加载对
    *   key: 属性名称， value: 加载对
    * */
-  private final Map<String, LoadPair> loaderMap = new HashMap<String, LoadPair>();
+  private final ConcurrentMap<String, LoadPair> loaderMap = new ConcurrentHashMap<String, LoadPair>();
+
+  /**
+   *  所有懒加载属性都已经加载完成（加载对的结果已经赋值）
+   *    代理对象通过该标志跳过同步块，直接调用原方法
+   * */
+  private volatile boolean fullyLoaded = true;
 
 
   public void addLoader(String property, MetaObject metaResultObject, ResultLoader resultLoader) {
@@ -66,6 +75,57 @@ public class ResultLoaderMap {
               " already exists in the result map. The leftmost property of all lazy loaded properties must be unique within a result map.");
     }
     loaderMap.put(upperFirst, new LoadPair(property, metaResultObject, resultLoader));
+    fullyLoaded = false;
+  }
+
+  /**
+   *  添加批量懒加载的加载对，并加入对应的批量懒加载分组
+   * @param key 当前对象对应的内嵌查询的 key
+   * */
+  public void addLoader(String property, MetaObject metaResultObject, ResultLoader resultLoader, BatchLoadGroup batchLoadGroup, Object key) {
+    addLoader(property, metaResultObject, resultLoader);
+    final LoadPair pair = loaderMap.get(getUppercaseFirstProperty(property));
+    pair.batchLoadGroup = batchLoadGroup;
+    batchLoadGroup.addMember(this, pair, metaResultObject, key);
+  }
+
+  /**
+   *  批量加载前认领兄弟对象的加载对，认领后加载对仍然保留，读取该属性的其它线程等待批量加载完成。
+   *    批量加载时由其它对象的线程调用，与代理对象使用同一个锁
+   * @return 加载对已经被加载或者已经被认领时返回 false
+   * */
+  synchronized boolean claimLoader(LoadPair pair) {
+    if (pair.batchLoading || loaderMap.get(getUppercaseFirstProperty(pair.property)) != pair) {
+      return false;
+    }
+    pair.batchLoading = true;
+    return true;
+  }
+
+  /**
+   *  批量加载结束后释放认领的加载对并唤醒等待的线程
+   * @param loaded 批量加载成功时删除加载对，否则保留，之后单独加载
+   * */
+  synchronized void releaseLoader(LoadPair pair, boolean loaded) {
+    pair.batchLoading = false;
+    if (loaded) {
+      loaderMap.remove(getUppercaseFirstProperty(pair.property), pair);
+      updateLoadedState();
+    }
+    notifyAll();
+  }
+
+  /**
+   *  加载对的结果赋值之后调用，如果已经没有未加载的属性，则打开代理对象的快速路径
+   * */
+  synchronized void updateLoadedState() {
+    if (loaderMap.isEmpty()) {
+      fullyLoaded = true;
+    }
+  }
+
+  public boolean isFullyLoaded() {
+    return fullyLoaded;
   }
 
   public final Map<String, LoadPair> getProperties() {
@@ -84,17 +144,48 @@ public class ResultLoaderMap {
     return loaderMap.containsKey(property.toUpperCase(Locale.ENGLISH));
   }
 
-  public boolean load(String property) throws SQLException {
-	//1. 先删除key，防止第二次查询数据库
-    LoadPair pair = loaderMap.remove(property.toUpperCase(Locale.ENGLISH));
-    //2. 从数据库中查询加载对指定的属性
-    if (pair != null) {
-      pair.load();
+  public synchronized boolean load(String property) throws SQLException {
+    final String key = property.toUpperCase(Locale.ENGLISH);
+    LoadPair pair = loaderMap.get(key);
+    //1. 加载对已经被批量加载认领： 批量加载的线程正在为该属性赋值时直接返回，其它线程等待赋值完成
+    while (pair != null && pair.batchLoading) {
+      if (pair.batchLoadGroup.isLoadingOnCurrentThread()) {
+        return false;
+      }
+      awaitBatchLoad(property);
+      pair = loaderMap.get(key);
+      if (pair == null) {
+        return true;
+      }
+    }
+    if (pair == null) {
+      return false;
+    }
+    //2. 属于批量懒加载分组时和兄弟对象一起加载
+    if (pair.batchLoadGroup != null && pair.batchLoadGroup.load(pair)) {
+      return true;
+    }
+    //3. 先删除key，再从数据库中查询加载对指定的属性
+    if (loaderMap.remove(key, pair)) {
+      try {
+        pair.load();
+      } finally {
+        updateLoadedState();
+      }
       return true;
     }
     return false;
   }
 
+  private void awaitBatchLoad(String property) {
+    try {
+      wait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExecutorException("Interrupted while waiting for the batch load of property '" + property + "'.", e);
+    }
+  }
+
   /**
    *  加载给结果加载器里的所有加载对
    * */
@@ -134,6 +225,14 @@ public class ResultLoaderMap {
      * 加载懒加载的属性的结果加载器
      */
     private transient ResultLoader resultLoader;
+    /**
+     * 所属的批量懒加载分组，没有时为 null
+     */
+    private transient BatchLoadGroup batchLoadGroup;
+    /**
+     * 已经被批量加载认领，等待赋值（由所属 ResultLoaderMap 的锁保护）
+     */
+    private transient boolean batchLoading;
 
     private transient Log log;
     /**
@@ -310,7 +409,7 @@ public class ResultLoaderMap {
     }
 
     @Override
-    protected int doUpdate(MappedStatement ms, Object parameter) throws SQLException {
+    protected int doUpdate(MappedStatement ms, Object parameter, BoundSql boundSql) throws SQLException {
       throw new UnsupportedOperationException("Not supported.");
     }
 
@@ -323,5 +422,10 @@ public class ResultLoaderMap {
     protected <E> List<E> doQuery(MappedStatement ms, Object parameter, RowBounds rowBounds, ResultHandler resultHandler, BoundSql boundSql) throws SQLException {
       throw new UnsupportedOperationException("Not supported.");
     }
+
+    @Override
+    protected <E> Cursor<E> doQueryCursor(MappedStatement ms, Object parameter, RowBounds rowBounds, BoundSql boundSql) throws SQLException {
+      throw new UnsupportedOperationException("Not supported.");
+    }
   }
 }
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.executor.loader.cglib;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +37,7 @@ import org.apache.ibatis.reflection.property.PropertyCopier;
 import org.apache.ibatis.reflection.property.PropertyNamer;
 import org.apache.ibatis.executor.loader.AbstractEnhancedDeserializationProxy;
 import org.apache.ibatis.executor.loader.AbstractSerialStateHolder;
+import org.apache.ibatis.executor.loader.ProxyClassCache;
 import org.apache.ibatis.executor.loader.ProxyFactory;
 import org.apache.ibatis.executor.loader.ResultLoaderMap;
 import org.apache.ibatis.executor.loader.WriteReplaceInterface;
@@ -94,31 +96,46 @@ public class CglibProxyFactory implements ProxyFactory {
    * @param constructorArgs 所使用的构造参数
    * */
   static Object crateProxy(Class<?> type, Callback callback, List<Class<?>> constructorArgTypes, List<Object> constructorArgs) {
-    //1. 设置 Enhancer 的基本属性
-	Enhancer enhancer = new Enhancer();
-    enhancer.setCallback(callback);
-    enhancer.setSuperclass(type);
-    try {
-      type.getDeclaredMethod(WRITE_REPLACE_METHOD);
-      // ObjectOutputStream will call writeReplace of objects returned by writeReplace
-      log.debug(WRITE_REPLACE_METHOD + " method was found on bean " + type + ", make sure it returns this");
-    } catch (NoSuchMethodException e) {
-      enhancer.setInterfaces(new Class[]{WriteReplaceInterface.class});
-    } catch (SecurityException e) {
-      // nothing to do here
-    }
-    //2. 返回代理对象
-    Object enhanced = null;
-    if (constructorArgTypes.isEmpty()) {
-      enhanced = enhancer.create();
-    } else {
-      Class<?>[] typesArray = constructorArgTypes.toArray(new Class[constructorArgTypes.size()]);
-      Object[] valuesArray = constructorArgs.toArray(new Object[constructorArgs.size()]);
-      enhanced = enhancer.create(typesArray, valuesArray);
-    }
-    return enhanced;
+    return PROXY_CLASS_CACHE.newProxy(type, constructorArgTypes, constructorArgs, callback);
   }
 
+  /**
+   *  按 (类型, 构造器参数类型) 缓存的代理类，实例化时通过 registerCallbacks 绑定回调函数
+   * */
+  private static final ProxyClassCache PROXY_CLASS_CACHE = new ProxyClassCache(new ProxyClassCache.InstantiatorFactory() {
+    @Override
+    public ProxyClassCache.Instantiator create(Class<?> type, Class<?>[] constructorArgTypes) throws Exception {
+      //1. 设置 Enhancer 的基本属性
+      Enhancer enhancer = new Enhancer();
+      enhancer.setCallbackType(MethodInterceptor.class);
+      enhancer.setSuperclass(type);
+      try {
+        type.getDeclaredMethod(WRITE_REPLACE_METHOD);
+        // ObjectOutputStream will call writeReplace of objects returned by writeReplace
+        log.debug(WRITE_REPLACE_METHOD + " method was found on bean " + type + ", make sure it returns this");
+      } catch (NoSuchMethodException e) {
+        enhancer.setInterfaces(new Class<?>[]{WriteReplaceInterface.class});
+      } catch (SecurityException e) {
+        // nothing to do here
+      }
+      //2. 生成代理类，绑定构造器
+      final Class<?> proxyClass = enhancer.createClass();
+      final Constructor<?> constructor = proxyClass.getDeclaredConstructor(constructorArgTypes);
+      constructor.setAccessible(true);
+      return new ProxyClassCache.Instantiator() {
+        @Override
+        public Object newInstance(Object[] constructorArgs, Object callback) throws Exception {
+          Enhancer.registerCallbacks(proxyClass, new Callback[] { (Callback) callback });
+          try {
+            return constructor.newInstance(constructorArgs);
+          } finally {
+            Enhancer.registerCallbacks(proxyClass, null);
+          }
+        }
+      };
+    }
+  });
+
 
   private static class EnhancedResultObjectProxyImpl implements MethodInterceptor {
 
@@ -159,6 +176,10 @@ public class CglibProxyFactory implements ProxyFactory {
     public Object intercept(Object enhanced, Method method, Object[] args, MethodProxy methodProxy) throws Throwable {
       final String methodName = method.getName();
       try {
+        //0. 所有懒加载属性都已经加载完成时，不再进入同步块
+        if (lazyLoader.isFullyLoaded() && !WRITE_REPLACE_METHOD.equals(methodName)) {
+          return methodProxy.invokeSuper(enhanced, args);
+        }
         synchronized (lazyLoader) {
           //1. 如果调用的是 reriteReplace() 方法（方法返回值为实际序列化的对象）
           if (WRITE_REPLACE_METHOD.equals(methodName)) {
@@ -15,6 +15,7 @@
  */
 package org.apache.ibatis.executor.loader.javassist;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +36,7 @@ import org.apache.ibatis.reflection.property.PropertyNamer;
 import org.apache.ibatis.executor.ExecutorException;
 import org.apache.ibatis.executor.loader.AbstractEnhancedDeserializationProxy;
 import org.apache.ibatis.executor.loader.AbstractSerialStateHolder;
+import org.apache.ibatis.executor.loader.ProxyClassCache;
 import org.apache.ibatis.executor.loader.ResultLoaderMap;
 import org.apache.ibatis.executor.loader.WriteReplaceInterface;
 import org.apache.ibatis.io.Resources;
@@ -81,31 +83,41 @@ public class JavassistProxyFactory implements org.apache.ibatis.executor.loader.
   }
 
   static Object crateProxy(Class<?> type, MethodHandler callback, List<Class<?>> constructorArgTypes, List<Object> constructorArgs) {
+    return PROXY_CLASS_CACHE.newProxy(type, constructorArgTypes, constructorArgs, callback);
+  }
 
-    ProxyFactory enhancer = new ProxyFactory();
-    enhancer.setSuperclass(type);
+  /**
+   *  按 (类型, 构造器参数类型) 缓存的代理类
+   * */
+  private static final ProxyClassCache PROXY_CLASS_CACHE = new ProxyClassCache(new ProxyClassCache.InstantiatorFactory() {
+    @Override
+    public ProxyClassCache.Instantiator create(Class<?> type, Class<?>[] constructorArgTypes) throws Exception {
+      ProxyFactory enhancer = new ProxyFactory();
+      enhancer.setSuperclass(type);
 
-    try {
-      type.getDeclaredMethod(WRITE_REPLACE_METHOD);
-      // ObjectOutputStream will call writeReplace of objects returned by writeReplace
-      log.debug(WRITE_REPLACE_METHOD + " method was found on bean " + type + ", make sure it returns this");
-    } catch (NoSuchMethodException e) {
-      enhancer.setInterfaces(new Class[]{WriteReplaceInterface.class});
-    } catch (SecurityException e) {
-      // nothing to do here
-    }
+      try {
+        type.getDeclaredMethod(WRITE_REPLACE_METHOD);
+        // ObjectOutputStream will call writeReplace of objects returned by writeReplace
+        log.debug(WRITE_REPLACE_METHOD + " method was found on bean " + type + ", make sure it returns this");
+      } catch (NoSuchMethodException e) {
+        enhancer.setInterfaces(new Class<?>[]{WriteReplaceInterface.class});
+      } catch (SecurityException e) {
+        // nothing to do here
+      }
 
-    Object enhanced = null;
-    Class<?>[] typesArray = constructorArgTypes.toArray(new Class[constructorArgTypes.size()]);
-    Object[] valuesArray = constructorArgs.toArray(new Object[constructorArgs.size()]);
-    try {
-      enhanced = enhancer.create(typesArray, valuesArray);
-    } catch (Exception e) {
-      throw new ExecutorException("Error creating lazy proxy.  Cause: " + e, e);
+      final Class<?> proxyClass = enhancer.createClass();
+      final Constructor<?> constructor = proxyClass.getDeclaredConstructor(constructorArgTypes);
+      constructor.setAccessible(true);
+      return new ProxyClassCache.Instantiator() {
+        @Override
+        public Object newInstance(Object[] constructorArgs, Object callback) throws Exception {
+          final Object enhanced = constructor.newInstance(constructorArgs);
+          ((Proxy) enhanced).setHandler((MethodHandler) callback);
+          return enhanced;
+        }
+      };
     }
-    ((Proxy) enhanced).setHandler(callback);
-    return enhanced;
-  }
+  });
 
   private static class EnhancedResultObjectProxyImpl implements MethodHandler {
 
@@ -139,6 +151,10 @@ public class JavassistProxyFactory implements org.apache.ibatis.executor.loader.
     public Object invoke(Object enhanced, Method method, Method methodProxy, Object[] args) throws Throwable {
       final String methodName = method.getName();
       try {
+        //所有懒加载属性都已经加载完成时，不再进入同步块
+        if (lazyLoader.isFullyLoaded() && !WRITE_REPLACE_METHOD.equals(methodName)) {
+          return methodProxy.invoke(enhanced, args);
+        }
         synchronized (lazyLoader) {
           if (WRITE_REPLACE_METHOD.equals(methodName)) {
             Object original = null;
@@ -0,0 +1,215 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaClass;
+import org.apache.ibatis.reflection.ReflectionException;
+import org.apache.ibatis.reflection.Reflector;
+import org.apache.ibatis.reflection.invoker.Invoker;
+import org.apache.ibatis.reflection.wrapper.DefaultObjectWrapperFactory;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.TypeHandler;
+import org.apache.ibatis.type.TypeHandlerRegistry;
+
+/**
+ *  编译后的行映射器： 同一个 ResultMap、列布局和列名前缀只解析一次，之后每一行按列索引读取并直接调用 set 方法赋值。
+ *    不支持的映射（鉴别器、内嵌查询、嵌套属性等）返回 null，由 DefaultResultSetHandler 处理
+ */
+public class CompiledRowMapper {
+
+  /**
+   *  按顺序执行的列 ==> 属性 赋值步骤，自动映射的步骤在前，手动映射的步骤在后
+   * */
+  private final ColumnSetter[] setters;
+
+  private final boolean callSettersOnNulls;
+
+  private CompiledRowMapper(List<ColumnSetter> setters, boolean callSettersOnNulls) {
+    this.setters = setters.toArray(new ColumnSetter[setters.size()]);
+    this.callSettersOnNulls = callSettersOnNulls;
+  }
+
+  /**
+   *  编译行映射器，如果该 ResultMap 不能编译则返回 null
+   * @param autoMapping 是否进行自动映射
+   * */
+  public static CompiledRowMapper compile(Configuration configuration, ResultSetWrapper rsw, ResultMap resultMap, String columnPrefix, boolean autoMapping)
+      throws SQLException {
+    final Class<?> type = resultMap.getType();
+    if (resultMap.getDiscriminator() != null
+        || !(configuration.getObjectWrapperFactory() instanceof DefaultObjectWrapperFactory)
+        || Map.class.isAssignableFrom(type)
+        || Collection.class.isAssignableFrom(type)) {
+      return null;
+    }
+    final Reflector reflector = Reflector.forClass(type);
+    final List<ColumnSetter> propertySetters = compilePropertyMappings(rsw, resultMap, reflector, columnPrefix);
+    if (propertySetters == null) {
+      return null;
+    }
+    final List<ColumnSetter> setters = new ArrayList<ColumnSetter>();
+    if (autoMapping && !compileAutomaticMappings(configuration, rsw, resultMap, reflector, columnPrefix, setters)) {
+      return null;
+    }
+    setters.addAll(propertySetters);
+    return new CompiledRowMapper(setters, configuration.isCallSettersOnNulls());
+  }
+
+  /**
+   *  对应 DefaultResultSetHandler#applyPropertyMappings
+   * */
+  private static List<ColumnSetter> compilePropertyMappings(ResultSetWrapper rsw, ResultMap resultMap, Reflector reflector, String columnPrefix)
+      throws SQLException {
+    final List<String> mappedColumnNames = rsw.getMappedColumnNames(resultMap, columnPrefix);
+    final List<ColumnSetter> setters = new ArrayList<ColumnSetter>();
+    for (ResultMapping propertyMapping : resultMap.getPropertyResultMappings()) {
+      if (propertyMapping.getNestedQueryId() != null || propertyMapping.getResultSet() != null || propertyMapping.isCompositeResult()) {
+        return null;
+      }
+      // 内嵌的 ResultMap 由 applyNestedResultMappings 处理，这里忽略
+      if (propertyMapping.getNestedResultMapId() != null) {
+        continue;
+      }
+      final String column = prependPrefix(propertyMapping.getColumn(), columnPrefix);
+      final String property = propertyMapping.getProperty();
+      if (column == null || property == null || !mappedColumnNames.contains(column.toUpperCase(Locale.ENGLISH))) {
+        continue;
+      }
+      if (!isSimpleProperty(property) || !reflector.hasSetter(property)) {
+        return null;
+      }
+      setters.add(new ColumnSetter(column, rsw.getColumnIndex(column), propertyMapping.getTypeHandler(), property,
+          reflector.getSetInvoker(property), reflector.getSetterType(property).isPrimitive()));
+    }
+    return setters;
+  }
+
+  /**
+   *  对应 DefaultResultSetHandler#applyAutomaticMappings
+   * @return 列对应的是嵌套属性或者没有 set 方法的属性时返回 false，由 DefaultResultSetHandler 处理
+   * */
+  private static boolean compileAutomaticMappings(Configuration configuration, ResultSetWrapper rsw, ResultMap resultMap, Reflector reflector,
+      String columnPrefix, List<ColumnSetter> setters) throws SQLException {
+    final TypeHandlerRegistry typeHandlerRegistry = configuration.getTypeHandlerRegistry();
+    final MetaClass metaClass = MetaClass.forClass(resultMap.getType());
+    for (String columnName : rsw.getUnmappedColumnNames(resultMap, columnPrefix)) {
+      String propertyName = columnName;
+      if (columnPrefix != null && !columnPrefix.isEmpty()) {
+        if (columnName.toUpperCase(Locale.ENGLISH).startsWith(columnPrefix)) {
+          propertyName = columnName.substring(columnPrefix.length());
+        } else {
+          continue;
+        }
+      }
+      final String property = metaClass.findProperty(propertyName, configuration.isMapUnderscoreToCamelCase());
+      if (property == null) {
+        continue;
+      }
+      if (!isSimpleProperty(property) || !reflector.hasSetter(property)) {
+        return false;
+      }
+      final Class<?> propertyType = reflector.getSetterType(property);
+      if (typeHandlerRegistry.hasTypeHandler(propertyType)) {
+        setters.add(new ColumnSetter(columnName, rsw.getColumnIndex(columnName), rsw.getTypeHandler(propertyType, columnName), property,
+            reflector.getSetInvoker(property), propertyType.isPrimitive()));
+      }
+    }
+    return true;
+  }
+
+  /**
+   *  将结果集当前行的值赋值到结果对象中
+   * @return 是否找到了值
+   * */
+  public boolean apply(ResultSet rs, Object resultObject) throws SQLException {
+    boolean foundValues = false;
+    for (ColumnSetter setter : setters) {
+      final Object value = setter.getValue(rs);
+      // issue #377, call setter on nulls
+      if (value != null || callSettersOnNulls) {
+        if (value != null || !setter.primitive) {
+          setter.set(resultObject, value);
+        }
+        foundValues = true;
+      }
+    }
+    return foundValues;
+  }
+
+  private static boolean isSimpleProperty(String property) {
+    return property.indexOf('.') < 0 && property.indexOf('[') < 0;
+  }
+
+  private static String prependPrefix(String columnName, String prefix) {
+    if (columnName == null || columnName.length() == 0 || prefix == null || prefix.length() == 0) {
+      return columnName;
+    }
+    return prefix + columnName;
+  }
+
+  /**
+   *  一个 列 ==> 属性 的赋值步骤
+   * */
+  private static class ColumnSetter {
+    private final String column;
+    /**
+     *  列索引（从 1 开始），如果结果集中找不到该列为 -1
+     * */
+    private final int columnIndex;
+    private final TypeHandler<?> typeHandler;
+    private final String property;
+    private final Invoker setInvoker;
+    private final boolean primitive;
+    /**
+     *  内置的类型处理器（BaseTypeHandler）才按列索引读取，自定义的类型处理器仍然按列名读取
+     * */
+    private final boolean readByIndex;
+
+    ColumnSetter(String column, int columnIndex, TypeHandler<?> typeHandler, String property, Invoker setInvoker, boolean primitive) {
+      this.column = column;
+      this.columnIndex = columnIndex;
+      this.typeHandler = typeHandler;
+      this.property = property;
+      this.setInvoker = setInvoker;
+      this.primitive = primitive;
+      this.readByIndex = columnIndex > 0 && typeHandler instanceof BaseTypeHandler;
+    }
+
+    Object getValue(ResultSet rs) throws SQLException {
+      return readByIndex ? typeHandler.getResult(rs, columnIndex) : typeHandler.getResult(rs, column);
+    }
+
+    void set(Object resultObject, Object value) {
+      try {
+        setInvoker.invoke(resultObject, new Object[] { value });
+      } catch (Throwable t) {
+        throw new ReflectionException("Could not set property '" + property + "' of '" + resultObject.getClass() + "' with value '" + value + "' Cause: " + t.toString(), t);
+      }
+    }
+  }
+
+}
@@ -21,8 +21,10 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -32,9 +34,13 @@ import org.apache.ibatis.reflection.MetaClass;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.reflection.factory.ObjectFactory;
 import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.defaults.DefaultCursor;
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.loader.BatchLoadGroup;
+import org.apache.ibatis.executor.loader.BatchResultLoader;
 import org.apache.ibatis.executor.loader.ResultLoader;
 import org.apache.ibatis.executor.loader.ResultLoaderMap;
 import org.apache.ibatis.executor.parameter.ParameterHandler;
@@ -70,6 +76,11 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   private static final Object NO_VALUE = new Object();
 
+  /**
+   *  batchFetchSize 不限制时，游标每次处理的结果对象数
+   * */
+  private static final int DEFAULT_CURSOR_BATCH_FETCH_SIZE = 100;
+
   /**
    *  当前 sqlSession 的执行器
    * */
@@ -140,6 +151,46 @@ public class DefaultResultSetHandler implements ResultSetHandler {
    * */
   private final Map<CacheKey, List<PendingRelation>> pendingRelations = new HashMap<CacheKey, List<PendingRelation>>();
 
+  /**
+   *  resultOrdered 时上一次调用 handleRowValues 尚未保存的父对象（游标逐条处理时跨调用保留）
+   * */
+  private Object previousRowValue;
+
+  /**
+   *  key: 内嵌查询id + 属性名 + foreignColumn, value: 批量加载（fetchType="batch"）的结果加载器，每次 handleRowValues 结束时统一加载
+   * */
+  private final Map<String, BatchResultLoader> batchResultLoaders = new LinkedHashMap<String, BatchResultLoader>();
+
+  /**
+   *  key: 内嵌查询id + 属性名 + foreignColumn, value: 批量懒加载分组，同一次查询创建的兄弟对象属于同一个分组
+   * */
+  private final Map<String, BatchLoadGroup> batchLoadGroups = new HashMap<String, BatchLoadGroup>();
+
+  /**
+   *  本次 handleRowValues 中等待批量加载的父对象，父对象被丢弃（没有映射到任何值）时一起删除
+   * */
+  private final List<PendingBatchLoad> pendingBatchLoads = new ArrayList<PendingBatchLoad>();
+
+  /**
+   *  key: 内嵌查询id, value: 内嵌查询能否以 key 的集合作为参数
+   * */
+  private final Map<String, Boolean> keyListNestedQueries = new HashMap<String, Boolean>();
+
+  /**
+   *  等待批量加载的父对象和对应的 key
+   * */
+  private static class PendingBatchLoad {
+    private final BatchResultLoader batchResultLoader;
+    private final MetaObject resultObject;
+    private final Object key;
+
+    PendingBatchLoad(BatchResultLoader batchResultLoader, MetaObject resultObject, Object key) {
+      this.batchResultLoader = batchResultLoader;
+      this.resultObject = resultObject;
+      this.key = key;
+    }
+  }
+
   /**
    *   挂起的关联： 用来保存多结果集的关联关系
    * */
@@ -192,7 +243,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
       final String resultMapId = parameterMapping.getResultMapId();
       final ResultMap resultMap = configuration.getResultMap(resultMapId);
       final DefaultResultHandler resultHandler = new DefaultResultHandler(objectFactory);
-      final ResultSetWrapper rsw = new ResultSetWrapper(rs, configuration);
+      final ResultSetWrapper rsw = new ResultSetWrapper(rs, configuration, mappedStatement);
       handleRowValues(rsw, resultMap, resultHandler, new RowBounds(), null);
       metaParam.setValue(parameterMapping.getProperty(), resultHandler.getResultList());
     } finally {
@@ -251,6 +302,30 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return collapseSingleResultList(multipleResults);
   }
 
+  /**
+   *  通过 stmt 获取结果集，返回游标对象，由游标逐条处理记录
+   * */
+  @Override
+  public <E> Cursor<E> handleCursorResultSets(Statement stmt) throws SQLException {
+    ErrorContext.instance().activity("handling cursor results").object(mappedStatement.getId());
+
+    ResultSetWrapper rsw = getFirstResultSet(stmt);
+
+    List<ResultMap> resultMaps = mappedStatement.getResultMaps();
+
+    int resultMapCount = resultMaps.size();
+    validateResultMapsCount(rsw, resultMapCount);
+    //1. 游标只支持单个 ResultMap
+    if (resultMapCount != 1) {
+      throw new ExecutorException("Cursor results cannot be mapped to multiple resultMaps");
+    }
+
+    ResultMap resultMap = resultMaps.get(0);
+    //2. 内嵌 ResultMap 只有在 resultOrdered 时才能确定父对象已经处理完成
+    ensureOrderedCursorResults(resultMap);
+    return new DefaultCursor<E>(this, resultMap, rsw, rowBounds);
+  }
+
   /**
    *  获取 执行stmt 语句返回的结果集的结果集包装器
    * */
@@ -269,7 +344,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         }
       }
     }
-    return rs != null ? new ResultSetWrapper(rs, configuration) : null;
+    return rs != null ? new ResultSetWrapper(rs, configuration, mappedStatement) : null;
   }
 
   /**
@@ -282,7 +357,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         // Crazy Standard JDBC way of determining if there are more results
         if (!((!stmt.getMoreResults()) && (stmt.getUpdateCount() == -1))) {
           ResultSet rs = stmt.getResultSet();
-          return rs != null ? new ResultSetWrapper(rs, configuration) : null;
+          return rs != null ? new ResultSetWrapper(rs, configuration, mappedStatement) : null;
         }
       }
     } catch (Exception e) {
@@ -305,6 +380,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
 
   private void cleanUpAfterHandlingResultSet() {
     nestedResultObjects.clear();
+    previousRowValue = null;
     ancestorColumnPrefix.clear();
   }
 
@@ -356,7 +432,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   /*
   *  处理结果集对象，由结果处理器处理处理结果
   * */
-  private void handleRowValues(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
+  public void handleRowValues(ResultSetWrapper rsw, ResultMap resultMap, ResultHandler resultHandler, RowBounds rowBounds, ResultMapping parentMapping) throws SQLException {
 
     //1. 如果该 ResultMap 包括内嵌结果集
     if (resultMap.hasNestedResultMaps()) {
@@ -367,8 +443,18 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     } else {
       handleRowValuesForSimpleResultMap(rsw, resultMap, resultHandler, rowBounds, parentMapping);
     }
+    //3. 批量加载本次收集的内嵌查询
+    loadBatchResults();
   }  
 
+  private void ensureOrderedCursorResults(ResultMap resultMap) {
+    if (resultMap.hasNestedResultMaps() && configuration.isSafeResultHandlerEnabled() && !mappedStatement.isResultOrdered()) {
+      throw new ExecutorException("Mapped Statements with nested result mappings cannot be safely used with a Cursor. "
+          + "Use safeResultHandlerEnabled=false setting to bypass this check "
+          + "or ensure your statement returns ordered data and set resultOrdered=true on it.");
+    }
+  }
+
   private void ensureNoRowBounds() {
     if (configuration.isSafeRowBoundsEnabled() && rowBounds != null && (rowBounds.getLimit() < RowBounds.NO_ROW_LIMIT || rowBounds.getOffset() > RowBounds.NO_ROW_OFFSET)) {
       throw new ExecutorException("Mapped Statements with nested result mappings cannot be safely constrained by RowBounds. "
@@ -456,25 +542,50 @@ public class DefaultResultSetHandler implements ResultSetHandler {
   private Object getRowValue(ResultSetWrapper rsw, ResultMap resultMap) throws SQLException {
     //1. 初始化延迟加载器
     final ResultLoaderMap lazyLoader = new ResultLoaderMap();
+    final int pendingBatchLoadMark = pendingBatchLoads.size();
     //2. 初始化结果对象
     Object resultObject = createResultObject(rsw, resultMap, lazyLoader, null);
     //3. 如果复杂对象，一般复杂类型是没有类型处理器的，除非我们自定义
     if (resultObject != null && !typeHandlerRegistry.hasTypeHandler(resultMap.getType())) {
-      final MetaObject metaObject = configuration.newMetaObject(resultObject);
       boolean foundValues = !resultMap.getConstructorResultMappings().isEmpty();
-      //3.1 如果指定了自动映射，则进行自动映射
-      if (shouldApplyAutomaticMappings(resultMap, false)) {        
-    	foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, null) || foundValues;
+      final boolean autoMapping = shouldApplyAutomaticMappings(resultMap, false);
+      final CompiledRowMapper rowMapper = getCompiledRowMapper(rsw, resultMap, null, autoMapping);
+      //3.1 如果可以使用编译后的行映射器，则直接按列索引取值并赋值
+      if (rowMapper != null) {
+        foundValues = rowMapper.apply(rsw.getResultSet(), resultObject) || foundValues;
+      } else {
+        final MetaObject metaObject = configuration.newMetaObject(resultObject);
+        //3.2 如果指定了自动映射，则进行自动映射
+        if (autoMapping) {
+          foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, null) || foundValues;
+        }
+        //3.3 对在 ResultMap 中指定手动映射的列赋值到结果对象的字段中
+        foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, null) || foundValues;
       }
-      //3.2 对在 ResultMap 中指定手动映射的列赋值到结果对象的字段中
-      foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, null) || foundValues;
       foundValues = lazyLoader.size() > 0 || foundValues;
       resultObject = foundValues ? resultObject : null;
+      discardPendingBatchLoads(resultObject, pendingBatchLoadMark);
       return resultObject;
     }
     return resultObject;
   }
 
+  /**
+   *  如果开启了 compiledRowMappingEnabled，获取编译后的行映射器；不能编译时返回 null，按原来的方式处理
+   *    编译结果缓存在结果集的列布局中，随列布局一起按 MappedStatement 缓存，数量有上限
+   * */
+  private CompiledRowMapper getCompiledRowMapper(ResultSetWrapper rsw, ResultMap resultMap, String columnPrefix, boolean autoMapping) throws SQLException {
+    if (!configuration.isCompiledRowMappingEnabled()) {
+      return null;
+    }
+    if (rsw.hasCompiledRowMapper(resultMap, columnPrefix, autoMapping)) {
+      return rsw.getCompiledRowMapper(resultMap, columnPrefix, autoMapping);
+    }
+    final CompiledRowMapper rowMapper = CompiledRowMapper.compile(configuration, rsw, resultMap, columnPrefix, autoMapping);
+    rsw.putCompiledRowMapper(resultMap, columnPrefix, autoMapping, rowMapper);
+    return rowMapper;
+  }
+
   /**
    *  判断当前对当前的ResultMap指定的java类型是否应该进行自动映射
    * */
@@ -835,8 +946,12 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     final MappedStatement nestedQuery = configuration.getMappedStatement(nestedQueryId);
     //2. 获取内嵌查询所需要的参数类型
     final Class<?> nestedQueryParameterType = nestedQuery.getParameterMap().getType();
-    //3. 获取内嵌查询所有的参数对象
-    final Object nestedQueryParameterObject = prepareParameterForNestedQuery(rs, constructorMapping, nestedQueryParameterType, columnPrefix);
+    //3. 获取内嵌查询所有的参数对象，构造器参数在创建对象时就需要，批量加载的内嵌查询只能传入单个 key 的集合
+    Object nestedQueryParameterObject = prepareParameterForNestedQuery(rs, constructorMapping, nestedQueryParameterType, columnPrefix);
+    if (nestedQueryParameterObject != null && constructorMapping.isBatch() && !constructorMapping.isCompositeResult()
+        && acceptsKeys(nestedQuery, nestedQueryParameterObject)) {
+      nestedQueryParameterObject = BatchResultLoader.wrapKeys(Collections.singletonList(nestedQueryParameterObject));
+    }
     Object value = null;
     if (nestedQueryParameterObject != null) {
       //4. 准备 sql、缓存key、返回值类型等等
@@ -865,14 +980,30 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     //2. 为内嵌查询准备参数
     final Object nestedQueryParameterObject = prepareParameterForNestedQuery(rs, propertyMapping, nestedQueryParameterType, columnPrefix);
     Object value = NO_VALUE;
-    if (nestedQueryParameterObject != null) {
+    //3. 批量加载的内嵌查询，以单个 key 的集合作为懒加载的参数；不能接受 key 集合的内嵌查询按原来的方式逐行加载
+    if (nestedQueryParameterObject != null && propertyMapping.isBatch() && !propertyMapping.isCompositeResult()
+        && acceptsKeys(nestedQuery, nestedQueryParameterObject)) {
+      final CacheKey key = BatchResultLoader.createCacheKey(configuration, nestedQuery, nestedQueryParameterObject);
+      final Class<?> targetType = propertyMapping.getJavaType();
+      if (executor.isCached(nestedQuery, key)) {
+        executor.deferLoad(nestedQuery, metaResultObject, property, key, targetType);
+      //3.1 批量懒加载：加入兄弟对象的分组，任一对象触发时一起加载，单独加载时才生成 BoundSql
+      } else if (propertyMapping.isLazy()) {
+        final Object keyParameterObject = BatchResultLoader.wrapKeys(Collections.singletonList(nestedQueryParameterObject));
+        final ResultLoader resultLoader = new ResultLoader(configuration, executor, nestedQuery, keyParameterObject, targetType, key, null);
+        lazyLoader.addLoader(property, metaResultObject, resultLoader, getBatchLoadGroup(nestedQuery, propertyMapping), nestedQueryParameterObject);
+      //3.2 只收集 key，在 handleRowValues 结束时统一加载
+      } else {
+        pendingBatchLoads.add(new PendingBatchLoad(getBatchResultLoader(nestedQuery, propertyMapping), metaResultObject, nestedQueryParameterObject));
+      }
+    } else if (nestedQueryParameterObject != null) {
       final BoundSql nestedBoundSql = nestedQuery.getBoundSql(nestedQueryParameterObject);
       final CacheKey key = executor.createCacheKey(nestedQuery, nestedQueryParameterObject, RowBounds.DEFAULT, nestedBoundSql);
       final Class<?> targetType = propertyMapping.getJavaType();
-      //3. 如果该查询已经被缓存
+      //4. 如果该查询已经被缓存
       if (executor.isCached(nestedQuery, key)) {
         executor.deferLoad(nestedQuery, metaResultObject, property, key, targetType);
-      //4. 否则，构建结果加载器加载对应的结果
+      //5. 否则，构建结果加载器加载对应的结果
       } else {
         final ResultLoader resultLoader = new ResultLoader(configuration, executor, nestedQuery, nestedQueryParameterObject, targetType, key, nestedBoundSql);
         if (propertyMapping.isLazy()) {
@@ -885,6 +1016,111 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     return value;
   }
 
+  /**
+   *  获取内嵌查询对应的批量结果加载器，没有指定 foreignColumn 时与 column 相同
+   * */
+  private BatchResultLoader getBatchResultLoader(MappedStatement nestedQuery, ResultMapping propertyMapping) {
+    final String loaderKey = getBatchLoaderKey(nestedQuery, propertyMapping);
+    BatchResultLoader batchResultLoader = batchResultLoaders.get(loaderKey);
+    if (batchResultLoader == null) {
+      batchResultLoader = newBatchResultLoader(nestedQuery, propertyMapping);
+      batchResultLoaders.put(loaderKey, batchResultLoader);
+    }
+    return batchResultLoader;
+  }
+
+  /**
+   *  获取内嵌查询对应的批量懒加载分组
+   * */
+  private BatchLoadGroup getBatchLoadGroup(MappedStatement nestedQuery, ResultMapping propertyMapping) {
+    final String loaderKey = getBatchLoaderKey(nestedQuery, propertyMapping);
+    BatchLoadGroup batchLoadGroup = batchLoadGroups.get(loaderKey);
+    if (batchLoadGroup == null) {
+      batchLoadGroup = new BatchLoadGroup(newBatchResultLoader(nestedQuery, propertyMapping));
+      batchLoadGroups.put(loaderKey, batchLoadGroup);
+    }
+    return batchLoadGroup;
+  }
+
+  private BatchResultLoader newBatchResultLoader(MappedStatement nestedQuery, ResultMapping propertyMapping) {
+    return new BatchResultLoader(configuration, executor, nestedQuery, propertyMapping.getProperty(), propertyMapping.getJavaType(), getForeignColumn(propertyMapping));
+  }
+
+  private String getBatchLoaderKey(MappedStatement nestedQuery, ResultMapping propertyMapping) {
+    return nestedQuery.getId() + ":" + propertyMapping.getProperty() + ":" + getForeignColumn(propertyMapping);
+  }
+
+  private String getForeignColumn(ResultMapping propertyMapping) {
+    return propertyMapping.getForeignColumn() != null ? propertyMapping.getForeignColumn() : propertyMapping.getColumn();
+  }
+
+  /**
+   *  执行所有等待中的批量内嵌查询
+   * */
+  private void loadBatchResults() throws SQLException {
+    for (PendingBatchLoad pendingBatchLoad : pendingBatchLoads) {
+      pendingBatchLoad.batchResultLoader.addResultObject(pendingBatchLoad.resultObject, pendingBatchLoad.key);
+    }
+    pendingBatchLoads.clear();
+    for (BatchResultLoader batchResultLoader : batchResultLoaders.values()) {
+      batchResultLoader.load();
+    }
+  }
+
+  /**
+   *  父对象被丢弃时，删除处理该行时收集的批量加载
+   * */
+  private void discardPendingBatchLoads(Object resultObject, int mark) {
+    if (resultObject == null && pendingBatchLoads.size() > mark) {
+      pendingBatchLoads.subList(mark, pendingBatchLoads.size()).clear();
+    }
+  }
+
+  /**
+   *  内嵌查询能否以 key 的集合作为参数，每个内嵌查询只判断一次
+   * */
+  private boolean acceptsKeys(MappedStatement nestedQuery, Object key) {
+    Boolean accepts = keyListNestedQueries.get(nestedQuery.getId());
+    if (accepts == null) {
+      accepts = BatchResultLoader.acceptsKeys(nestedQuery, key);
+      keyListNestedQueries.put(nestedQuery.getId(), accepts);
+    }
+    return accepts;
+  }
+
+  /**
+   *  游标每次处理的结果对象数： 包含非懒加载的批量内嵌查询时一次处理 batchFetchSize 个对象，使内嵌查询按批执行
+   * */
+  public int getCursorFetchSize(ResultMap resultMap) {
+    if (!hasEagerBatchNestedQueries(resultMap, new HashSet<String>())) {
+      return 1;
+    }
+    return configuration.getBatchFetchSize() > 0 ? configuration.getBatchFetchSize() : DEFAULT_CURSOR_BATCH_FETCH_SIZE;
+  }
+
+  private boolean hasEagerBatchNestedQueries(ResultMap resultMap, Set<String> visitedResultMaps) {
+    if (!visitedResultMaps.add(resultMap.getId())) {
+      return false;
+    }
+    for (ResultMapping resultMapping : resultMap.getPropertyResultMappings()) {
+      if (resultMapping.getNestedQueryId() != null && resultMapping.isBatch() && !resultMapping.isLazy()) {
+        return true;
+      }
+      if (resultMapping.getNestedResultMapId() != null
+          && hasEagerBatchNestedQueries(configuration.getResultMap(resultMapping.getNestedResultMapId()), visitedResultMaps)) {
+        return true;
+      }
+    }
+    if (resultMap.getDiscriminator() != null) {
+      for (String caseResultMapId : resultMap.getDiscriminator().getDiscriminatorMap().values()) {
+        if (hasEagerBatchNestedQueries(configuration.getResultMap(caseResultMapId), visitedResultMaps)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   /**
    *  为内嵌查询准备参数，返回内嵌查询需要的参数
    * */
@@ -998,7 +1234,8 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     final DefaultResultContext resultContext = new DefaultResultContext();
     //1. 移动光标到 分页对象 RowBounds 指定的偏移量上
     skipRows(rsw.getResultSet(), rowBounds);
-    Object rowValue = null;
+    //游标逐条处理时，继续使用上一次调用未保存的父对象
+    Object rowValue = previousRowValue;
     //2. 如果已解析的记录数还没有超过 分页对象指定的页大小，且光标之后还有记录
     while (shouldProcessMoreRows(resultContext, rowBounds) && rsw.getResultSet().next()) {
       final ResultMap discriminatedResultMap = resolveDiscriminatedResultMap(rsw.getResultSet(), resultMap, null);
@@ -1022,6 +1259,9 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     }
     if (rowValue != null && mappedStatement.isResultOrdered() && shouldProcessMoreRows(resultContext, rowBounds)) {
       storeObject(resultHandler, resultContext, rowValue, parentMapping, rsw.getResultSet());
+      previousRowValue = null;
+    } else if (mappedStatement.isResultOrdered()) {
+      previousRowValue = rowValue;
     }
   }
   
@@ -1049,16 +1289,23 @@ public class DefaultResultSetHandler implements ResultSetHandler {
     //2.
     } else {
       final ResultLoaderMap lazyLoader = new ResultLoaderMap();
+      final int pendingBatchLoadMark = pendingBatchLoads.size();
       //2.1 初始化当前 ResultMap 对应的结果对象
       resultObject = createResultObject(rsw, resultMap, lazyLoader, columnPrefix);
       if (resultObject != null && !typeHandlerRegistry.hasTypeHandler(resultMap.getType())) {
         final MetaObject metaObject = configuration.newMetaObject(resultObject);
         boolean foundValues = !resultMap.getConstructorResultMappings().isEmpty();
         //2.2 进行自动映射和手动映射处理
-        if (shouldApplyAutomaticMappings(resultMap, true)) {
-          foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, columnPrefix) || foundValues;
-        }        
-        foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, columnPrefix) || foundValues;
+        final boolean autoMapping = shouldApplyAutomaticMappings(resultMap, true);
+        final CompiledRowMapper rowMapper = getCompiledRowMapper(rsw, resultMap, columnPrefix, autoMapping);
+        if (rowMapper != null) {
+          foundValues = rowMapper.apply(rsw.getResultSet(), resultObject) || foundValues;
+        } else {
+          if (autoMapping) {
+            foundValues = applyAutomaticMappings(rsw, resultMap, metaObject, columnPrefix) || foundValues;
+          }
+          foundValues = applyPropertyMappings(rsw, resultMap, metaObject, lazyLoader, columnPrefix) || foundValues;
+        }
         //2.3 将 absolutekey 和 对应的结果对象的对应关系存放到 map 中
         putAncestor(absoluteKey, resultObject, resultMapId, columnPrefix);
         //2.4 处理内嵌的 ResultMap
@@ -1066,6 +1313,7 @@ public class DefaultResultSetHandler implements ResultSetHandler {
         ancestorObjects.remove(absoluteKey);
         foundValues = lazyLoader.size() > 0 || foundValues;
         resultObject = foundValues ? resultObject : null;
+        discardPendingBatchLoads(resultObject, pendingBatchLoadMark);
       }
       if (combinedKey != CacheKey.NULL_CACHE_KEY) {
         nestedResultObjects.put(combinedKey, resultObject);
@@ -0,0 +1,101 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.TypeHandler;
+
+/**
+ *  结果集的列布局分析结果： 列名、jdbcType、java类型以及已映射/未映射的列名和类型处理器，
+ *    按列布局的指纹缓存在 MappedStatement 中
+ */
+public class ResultSetLayout {
+
+  /**
+   *  每个 MappedStatement 最多缓存的列布局数量
+   * */
+  public static final int MAX_LAYOUTS_PER_STATEMENT = 16;
+
+  final List<String> columnNames;
+  final List<String> classNames;
+  final List<JdbcType> jdbcTypes;
+
+  /**
+   *  key: 列名, value: [ key: 对应的字段类型， value: 类型处理器实例]
+   * */
+  final Map<String, Map<Class<?>, TypeHandler<?>>> typeHandlerMap = new ConcurrentHashMap<String, Map<Class<?>, TypeHandler<?>>>();
+
+  /**
+   *  key: mapKey, value: 在 ResultMap 被指定映射的列名的集合
+   * */
+  final Map<String, List<String>> mappedColumnNamesMap = new ConcurrentHashMap<String, List<String>>();
+
+  /**
+   *  key: mapkey, vlaue: 在 ResultMap 未指定映射的列名的集合
+   * */
+  final Map<String, List<String>> unMappedColumnNamesMap = new ConcurrentHashMap<String, List<String>>();
+
+  /**
+   *  key: mapKey + 是否自动映射, value: 编译后的行映射器（只缓存能编译的）
+   *    列布局按 MappedStatement 缓存且有数量上限，所以行映射器的数量同样有上限
+   * */
+  final Map<String, CompiledRowMapper> compiledRowMappers = new ConcurrentHashMap<String, CompiledRowMapper>();
+
+  /**
+   *  列布局的指纹：依次为每一列的列名和 jdbcType
+   * */
+  private final CacheKey fingerprint;
+
+  ResultSetLayout(ResultSetMetaData metaData, List<String> columnNames, List<Integer> columnTypes, CacheKey fingerprint) throws SQLException {
+    final int columnCount = columnNames.size();
+    final List<String> classNames = new ArrayList<String>(columnCount);
+    final List<JdbcType> jdbcTypes = new ArrayList<JdbcType>(columnCount);
+    for (int i = 1; i <= columnCount; i++) {
+      jdbcTypes.add(JdbcType.forCode(columnTypes.get(i - 1)));
+      classNames.add(metaData.getColumnClassName(i));
+    }
+    this.columnNames = Collections.unmodifiableList(new ArrayList<String>(columnNames));
+    this.classNames = Collections.unmodifiableList(classNames);
+    this.jdbcTypes = Collections.unmodifiableList(jdbcTypes);
+    this.fingerprint = fingerprint;
+  }
+
+  /**
+   *  由列数、列名和 jdbcType 构建列布局的指纹，不需要读取 getColumnClassName
+   * */
+  static CacheKey fingerprint(List<String> columnNames, List<Integer> columnTypes) {
+    final CacheKey fingerprint = new CacheKey();
+    for (int i = 0; i < columnNames.size(); i++) {
+      fingerprint.update(columnNames.get(i));
+      fingerprint.update(columnTypes.get(i));
+    }
+    return fingerprint;
+  }
+
+  public CacheKey getFingerprint() {
+    return fingerprint;
+  }
+
+}
@@ -19,14 +19,17 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.MappedStatement;
 import org.apache.ibatis.mapping.ResultMap;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.type.JdbcType;
@@ -39,7 +42,7 @@ import org.apache.ibatis.type.UnknownTypeHandler;
  *
  *  结果集包装器： 用于方便的获取结果集 todo lisilu
  */
-class ResultSetWrapper {
+public class ResultSetWrapper {
 
   /**
    *  Statement 执行结果
@@ -51,47 +54,64 @@ class ResultSetWrapper {
    * */
   private final TypeHandlerRegistry typeHandlerRegistry;
 
+  /**
+   *  结果集的列布局分析结果： 列名、jdbcType、java类型、已映射/未映射列名、类型处理器
+   *    如果能获取到 MappedStatement，则同一列布局的结果集会共用同一个分析结果
+   * */
+  private final ResultSetLayout layout;
+
   /**
    *  结果集的所有列名
    * */
-  private final List<String> columnNames = new ArrayList<String>();
+  private final List<String> columnNames;
 
   /**
    *  结果集的所有列的jdbc类型对应的 java类型的全限定名
    * */
-  private final List<String> classNames = new ArrayList<String>();
+  private final List<String> classNames;
 
   /**
    *  结果集的所有列的 jdbcType
    * */
-  private final List<JdbcType> jdbcTypes = new ArrayList<JdbcType>();
+  private final List<JdbcType> jdbcTypes;
 
   /**
-   *  key: 列名, value: [ key: 对应的字段类型， value: 类型处理器实例]
-   * */
-  private final Map<String, Map<Class<?>, TypeHandler<?>>> typeHandlerMap = new HashMap<String, Map<Class<?>, TypeHandler<?>>>();
-  //被映射到的列名的集合，resultMap, columns
-  /**
-   *  key: mapKey, value: 在 ResultMap 被指定映射的列名的集合
-   * */
-  private Map<String, List<String>> mappedColumnNamesMap = new HashMap<String, List<String>>();
-  //未被映射到的列名的集合
-  /**
-   *  key: mapkey, vlaue: 在 ResultMap 未指定映射的列名的集合
+   *  key: mapKey + 是否自动映射, value: 编译后的行映射器（不能编译时为 null）
    * */
-  private Map<String, List<String>> unMappedColumnNamesMap = new HashMap<String, List<String>>();
+  private final Map<String, CompiledRowMapper> compiledRowMappers = new HashMap<String, CompiledRowMapper>();
 
   public ResultSetWrapper(ResultSet rs, Configuration configuration) throws SQLException {
+    this(rs, configuration, null);
+  }
+
+  /**
+   *  只读取列数、列名和 jdbcType 计算列布局指纹，如果 MappedStatement 中已经缓存了该列布局的分析结果则直接复用，
+   *    否则读取其余的元数据创建新的分析结果并缓存
+   * */
+  public ResultSetWrapper(ResultSet rs, Configuration configuration, MappedStatement mappedStatement) throws SQLException {
     super();
     this.typeHandlerRegistry = configuration.getTypeHandlerRegistry();
     this.resultSet = rs;
     final ResultSetMetaData metaData = rs.getMetaData();
     final int columnCount = metaData.getColumnCount();
+    final List<String> columnNames = new ArrayList<String>(columnCount);
+    final List<Integer> columnTypes = new ArrayList<Integer>(columnCount);
     for (int i = 1; i <= columnCount; i++) {
       columnNames.add(configuration.isUseColumnLabel() ? metaData.getColumnLabel(i) : metaData.getColumnName(i));
-      jdbcTypes.add(JdbcType.forCode(metaData.getColumnType(i)));
-      classNames.add(metaData.getColumnClassName(i));
+      columnTypes.add(metaData.getColumnType(i));
     }
+    final CacheKey fingerprint = ResultSetLayout.fingerprint(columnNames, columnTypes);
+    ResultSetLayout layout = mappedStatement == null ? null : mappedStatement.getResultSetLayout(fingerprint);
+    if (layout == null) {
+      layout = new ResultSetLayout(metaData, columnNames, columnTypes, fingerprint);
+      if (mappedStatement != null) {
+        mappedStatement.putResultSetLayout(layout);
+      }
+    }
+    this.layout = layout;
+    this.columnNames = layout.columnNames;
+    this.classNames = layout.classNames;
+    this.jdbcTypes = layout.jdbcTypes;
   }
 
   public ResultSet getResultSet() {
@@ -103,7 +123,41 @@ class ResultSetWrapper {
   }
 
   public List<String> getClassNames() {
-    return Collections.unmodifiableList(classNames);
+    return classNames;
+  }
+
+  /**
+   *  获取列名对应的列索引（从 1 开始，忽略大小写），找不到返回 -1
+   * */
+  public int getColumnIndex(String columnName) {
+    for (int i = 0; i < columnNames.size(); i++) {
+      if (columnNames.get(i).equalsIgnoreCase(columnName)) {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  public boolean hasCompiledRowMapper(ResultMap resultMap, String columnPrefix, boolean autoMapping) {
+    final String key = getMapKey(resultMap, columnPrefix) + ":" + autoMapping;
+    return compiledRowMappers.containsKey(key) || layout.compiledRowMappers.containsKey(key);
+  }
+
+  public CompiledRowMapper getCompiledRowMapper(ResultMap resultMap, String columnPrefix, boolean autoMapping) {
+    final String key = getMapKey(resultMap, columnPrefix) + ":" + autoMapping;
+    final CompiledRowMapper rowMapper = layout.compiledRowMappers.get(key);
+    return rowMapper != null ? rowMapper : compiledRowMappers.get(key);
+  }
+
+  /**
+   *  能编译的行映射器同时缓存到列布局中，同一个 MappedStatement 之后返回相同列布局的执行可以直接复用
+   * */
+  public void putCompiledRowMapper(ResultMap resultMap, String columnPrefix, boolean autoMapping, CompiledRowMapper rowMapper) {
+    final String key = getMapKey(resultMap, columnPrefix) + ":" + autoMapping;
+    compiledRowMappers.put(key, rowMapper);
+    if (rowMapper != null) {
+      layout.compiledRowMappers.put(key, rowMapper);
+    }
   }
 
   /**
@@ -117,11 +171,11 @@ class ResultSetWrapper {
    */
   public TypeHandler<?> getTypeHandler(Class<?> propertyType, String columnName) {
     TypeHandler<?> handler = null;
-    Map<Class<?>, TypeHandler<?>> columnHandlers = typeHandlerMap.get(columnName);
+    Map<Class<?>, TypeHandler<?>> columnHandlers = layout.typeHandlerMap.get(columnName);
     if (columnHandlers == null) {
-      columnHandlers = new HashMap<Class<?>, TypeHandler<?>>();
-      typeHandlerMap.put(columnName, columnHandlers);
-    } else {
+      columnHandlers = new ConcurrentHashMap<Class<?>, TypeHandler<?>>();
+      layout.typeHandlerMap.put(columnName, columnHandlers);
+    } else if (propertyType != null) {
       handler = columnHandlers.get(propertyType);
     }
     if (handler == null) {
@@ -143,7 +197,9 @@ class ResultSetWrapper {
       if (handler == null || handler instanceof UnknownTypeHandler) {
         handler = new ObjectTypeHandler();
       }
-      columnHandlers.put(propertyType, handler);
+      if (propertyType != null) {
+        columnHandlers.put(propertyType, handler);
+      }
     }
     return handler;
   }
@@ -174,18 +230,18 @@ class ResultSetWrapper {
       }
     }
     //2. 将未被映射和已被映射列名放到map中返回
-    mappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), mappedColumnNames);
-    unMappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), unmappedColumnNames);
+    layout.mappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), mappedColumnNames);
+    layout.unMappedColumnNamesMap.put(getMapKey(resultMap, columnPrefix), unmappedColumnNames);
   }
 
   /**
    *  获取ResultSet的所有列中，返回在 ResultMap 指定映射的列名
    * */
   public List<String> getMappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-    List<String> mappedColumnNames = mappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
+    List<String> mappedColumnNames = layout.mappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
     if (mappedColumnNames == null) {
       loadMappedAndUnmappedColumnNames(resultMap, columnPrefix);
-      mappedColumnNames = mappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
+      mappedColumnNames = layout.mappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
     }
     return mappedColumnNames;
   }
@@ -194,10 +250,10 @@ class ResultSetWrapper {
    *  获取ResultSet的所有列中，没有在 ResultMap中指定映射的列名
    * */
   public List<String> getUnmappedColumnNames(ResultMap resultMap, String columnPrefix) throws SQLException {
-    List<String> unMappedColumnNames = unMappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
+    List<String> unMappedColumnNames = layout.unMappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
     if (unMappedColumnNames == null) {
       loadMappedAndUnmappedColumnNames(resultMap, columnPrefix);
-      unMappedColumnNames = unMappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
+      unMappedColumnNames = layout.unMappedColumnNamesMap.get(getMapKey(resultMap, columnPrefix));
     }
     return unMappedColumnNames;
   }
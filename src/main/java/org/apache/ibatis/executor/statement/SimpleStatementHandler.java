@@ -21,6 +21,8 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
 
+import org.apache.ibatis.cursor.Cursor;
+
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -88,6 +90,16 @@ public class SimpleStatementHandler extends BaseStatementHandler {
     return resultSetHandler.<E>handleResultSets(statement);
   }
 
+  /**
+   *  执行 select 语句，返回游标
+   * */
+  @Override
+  public <E> Cursor<E> queryCursor(Statement statement) throws SQLException {
+    String sql = boundSql.getSql();
+    statement.execute(sql);
+    return resultSetHandler.<E>handleCursorResultSets(statement);
+  }
+
   /**
    *  调用 connection.createStatement() 初始化Statement对象
    * */
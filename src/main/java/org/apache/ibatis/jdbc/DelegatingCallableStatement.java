@@ -0,0 +1,613 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.jdbc;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Map;
+
+/**
+ *  委托模式的 CallableStatement： 继承的方法转发给 getDelegate()，CallableStatement 声明的方法转发给 getCallableDelegate()
+ */
+public abstract class DelegatingCallableStatement extends DelegatingPreparedStatement implements CallableStatement {
+
+  /**
+   *  获取 CallableStatement 的方法所委托的语句，被包装的不是 CallableStatement 时子类应当抛出 SQLException
+   * */
+  protected abstract CallableStatement getCallableDelegate() throws SQLException;
+
+  @Override
+  public void registerOutParameter(int parameterIndex, int sqlType) throws SQLException {
+    getCallableDelegate().registerOutParameter(parameterIndex, sqlType);
+  }
+
+  @Override
+  public void registerOutParameter(int parameterIndex, int sqlType, int scale) throws SQLException {
+    getCallableDelegate().registerOutParameter(parameterIndex, sqlType, scale);
+  }
+
+  @Override
+  public boolean wasNull() throws SQLException {
+    return getCallableDelegate().wasNull();
+  }
+
+  @Override
+  public String getString(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getString(parameterIndex);
+  }
+
+  @Override
+  public boolean getBoolean(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getBoolean(parameterIndex);
+  }
+
+  @Override
+  public byte getByte(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getByte(parameterIndex);
+  }
+
+  @Override
+  public short getShort(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getShort(parameterIndex);
+  }
+
+  @Override
+  public int getInt(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getInt(parameterIndex);
+  }
+
+  @Override
+  public long getLong(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getLong(parameterIndex);
+  }
+
+  @Override
+  public float getFloat(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getFloat(parameterIndex);
+  }
+
+  @Override
+  public double getDouble(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getDouble(parameterIndex);
+  }
+
+  @Deprecated
+  @Override
+  public BigDecimal getBigDecimal(int parameterIndex, int scale) throws SQLException {
+    return getCallableDelegate().getBigDecimal(parameterIndex, scale);
+  }
+
+  @Override
+  public byte[] getBytes(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getBytes(parameterIndex);
+  }
+
+  @Override
+  public Date getDate(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getDate(parameterIndex);
+  }
+
+  @Override
+  public Time getTime(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getTime(parameterIndex);
+  }
+
+  @Override
+  public Timestamp getTimestamp(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getTimestamp(parameterIndex);
+  }
+
+  @Override
+  public Object getObject(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getObject(parameterIndex);
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getBigDecimal(parameterIndex);
+  }
+
+  @Override
+  public Object getObject(int parameterIndex, Map<String, Class<?>> map) throws SQLException {
+    return getCallableDelegate().getObject(parameterIndex, map);
+  }
+
+  @Override
+  public Ref getRef(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getRef(parameterIndex);
+  }
+
+  @Override
+  public Blob getBlob(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getBlob(parameterIndex);
+  }
+
+  @Override
+  public Clob getClob(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getClob(parameterIndex);
+  }
+
+  @Override
+  public Array getArray(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getArray(parameterIndex);
+  }
+
+  @Override
+  public Date getDate(int parameterIndex, Calendar cal) throws SQLException {
+    return getCallableDelegate().getDate(parameterIndex, cal);
+  }
+
+  @Override
+  public Time getTime(int parameterIndex, Calendar cal) throws SQLException {
+    return getCallableDelegate().getTime(parameterIndex, cal);
+  }
+
+  @Override
+  public Timestamp getTimestamp(int parameterIndex, Calendar cal) throws SQLException {
+    return getCallableDelegate().getTimestamp(parameterIndex, cal);
+  }
+
+  @Override
+  public void registerOutParameter(int parameterIndex, int sqlType, String typeName) throws SQLException {
+    getCallableDelegate().registerOutParameter(parameterIndex, sqlType, typeName);
+  }
+
+  @Override
+  public void registerOutParameter(String parameterName, int sqlType) throws SQLException {
+    getCallableDelegate().registerOutParameter(parameterName, sqlType);
+  }
+
+  @Override
+  public void registerOutParameter(String parameterName, int sqlType, int scale) throws SQLException {
+    getCallableDelegate().registerOutParameter(parameterName, sqlType, scale);
+  }
+
+  @Override
+  public void registerOutParameter(String parameterName, int sqlType, String typeName) throws SQLException {
+    getCallableDelegate().registerOutParameter(parameterName, sqlType, typeName);
+  }
+
+  @Override
+  public URL getURL(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getURL(parameterIndex);
+  }
+
+  @Override
+  public void setURL(String parameterName, URL val) throws SQLException {
+    getCallableDelegate().setURL(parameterName, val);
+  }
+
+  @Override
+  public void setNull(String parameterName, int sqlType) throws SQLException {
+    getCallableDelegate().setNull(parameterName, sqlType);
+  }
+
+  @Override
+  public void setBoolean(String parameterName, boolean x) throws SQLException {
+    getCallableDelegate().setBoolean(parameterName, x);
+  }
+
+  @Override
+  public void setByte(String parameterName, byte x) throws SQLException {
+    getCallableDelegate().setByte(parameterName, x);
+  }
+
+  @Override
+  public void setShort(String parameterName, short x) throws SQLException {
+    getCallableDelegate().setShort(parameterName, x);
+  }
+
+  @Override
+  public void setInt(String parameterName, int x) throws SQLException {
+    getCallableDelegate().setInt(parameterName, x);
+  }
+
+  @Override
+  public void setLong(String parameterName, long x) throws SQLException {
+    getCallableDelegate().setLong(parameterName, x);
+  }
+
+  @Override
+  public void setFloat(String parameterName, float x) throws SQLException {
+    getCallableDelegate().setFloat(parameterName, x);
+  }
+
+  @Override
+  public void setDouble(String parameterName, double x) throws SQLException {
+    getCallableDelegate().setDouble(parameterName, x);
+  }
+
+  @Override
+  public void setBigDecimal(String parameterName, BigDecimal x) throws SQLException {
+    getCallableDelegate().setBigDecimal(parameterName, x);
+  }
+
+  @Override
+  public void setString(String parameterName, String x) throws SQLException {
+    getCallableDelegate().setString(parameterName, x);
+  }
+
+  @Override
+  public void setBytes(String parameterName, byte[] x) throws SQLException {
+    getCallableDelegate().setBytes(parameterName, x);
+  }
+
+  @Override
+  public void setDate(String parameterName, Date x) throws SQLException {
+    getCallableDelegate().setDate(parameterName, x);
+  }
+
+  @Override
+  public void setTime(String parameterName, Time x) throws SQLException {
+    getCallableDelegate().setTime(parameterName, x);
+  }
+
+  @Override
+  public void setTimestamp(String parameterName, Timestamp x) throws SQLException {
+    getCallableDelegate().setTimestamp(parameterName, x);
+  }
+
+  @Override
+  public void setAsciiStream(String parameterName, InputStream x, int length) throws SQLException {
+    getCallableDelegate().setAsciiStream(parameterName, x, length);
+  }
+
+  @Override
+  public void setBinaryStream(String parameterName, InputStream x, int length) throws SQLException {
+    getCallableDelegate().setBinaryStream(parameterName, x, length);
+  }
+
+  @Override
+  public void setObject(String parameterName, Object x, int targetSqlType, int scale) throws SQLException {
+    getCallableDelegate().setObject(parameterName, x, targetSqlType, scale);
+  }
+
+  @Override
+  public void setObject(String parameterName, Object x, int targetSqlType) throws SQLException {
+    getCallableDelegate().setObject(parameterName, x, targetSqlType);
+  }
+
+  @Override
+  public void setObject(String parameterName, Object x) throws SQLException {
+    getCallableDelegate().setObject(parameterName, x);
+  }
+
+  @Override
+  public void setCharacterStream(String parameterName, Reader reader, int length) throws SQLException {
+    getCallableDelegate().setCharacterStream(parameterName, reader, length);
+  }
+
+  @Override
+  public void setDate(String parameterName, Date x, Calendar cal) throws SQLException {
+    getCallableDelegate().setDate(parameterName, x, cal);
+  }
+
+  @Override
+  public void setTime(String parameterName, Time x, Calendar cal) throws SQLException {
+    getCallableDelegate().setTime(parameterName, x, cal);
+  }
+
+  @Override
+  public void setTimestamp(String parameterName, Timestamp x, Calendar cal) throws SQLException {
+    getCallableDelegate().setTimestamp(parameterName, x, cal);
+  }
+
+  @Override
+  public void setNull(String parameterName, int sqlType, String typeName) throws SQLException {
+    getCallableDelegate().setNull(parameterName, sqlType, typeName);
+  }
+
+  @Override
+  public String getString(String parameterName) throws SQLException {
+    return getCallableDelegate().getString(parameterName);
+  }
+
+  @Override
+  public boolean getBoolean(String parameterName) throws SQLException {
+    return getCallableDelegate().getBoolean(parameterName);
+  }
+
+  @Override
+  public byte getByte(String parameterName) throws SQLException {
+    return getCallableDelegate().getByte(parameterName);
+  }
+
+  @Override
+  public short getShort(String parameterName) throws SQLException {
+    return getCallableDelegate().getShort(parameterName);
+  }
+
+  @Override
+  public int getInt(String parameterName) throws SQLException {
+    return getCallableDelegate().getInt(parameterName);
+  }
+
+  @Override
+  public long getLong(String parameterName) throws SQLException {
+    return getCallableDelegate().getLong(parameterName);
+  }
+
+  @Override
+  public float getFloat(String parameterName) throws SQLException {
+    return getCallableDelegate().getFloat(parameterName);
+  }
+
+  @Override
+  public double getDouble(String parameterName) throws SQLException {
+    return getCallableDelegate().getDouble(parameterName);
+  }
+
+  @Override
+  public byte[] getBytes(String parameterName) throws SQLException {
+    return getCallableDelegate().getBytes(parameterName);
+  }
+
+  @Override
+  public Date getDate(String parameterName) throws SQLException {
+    return getCallableDelegate().getDate(parameterName);
+  }
+
+  @Override
+  public Time getTime(String parameterName) throws SQLException {
+    return getCallableDelegate().getTime(parameterName);
+  }
+
+  @Override
+  public Timestamp getTimestamp(String parameterName) throws SQLException {
+    return getCallableDelegate().getTimestamp(parameterName);
+  }
+
+  @Override
+  public Object getObject(String parameterName) throws SQLException {
+    return getCallableDelegate().getObject(parameterName);
+  }
+
+  @Override
+  public BigDecimal getBigDecimal(String parameterName) throws SQLException {
+    return getCallableDelegate().getBigDecimal(parameterName);
+  }
+
+  @Override
+  public Object getObject(String parameterName, Map<String, Class<?>> map) throws SQLException {
+    return getCallableDelegate().getObject(parameterName, map);
+  }
+
+  @Override
+  public Ref getRef(String parameterName) throws SQLException {
+    return getCallableDelegate().getRef(parameterName);
+  }
+
+  @Override
+  public Blob getBlob(String parameterName) throws SQLException {
+    return getCallableDelegate().getBlob(parameterName);
+  }
+
+  @Override
+  public Clob getClob(String parameterName) throws SQLException {
+    return getCallableDelegate().getClob(parameterName);
+  }
+
+  @Override
+  public Array getArray(String parameterName) throws SQLException {
+    return getCallableDelegate().getArray(parameterName);
+  }
+
+  @Override
+  public Date getDate(String parameterName, Calendar cal) throws SQLException {
+    return getCallableDelegate().getDate(parameterName, cal);
+  }
+
+  @Override
+  public Time getTime(String parameterName, Calendar cal) throws SQLException {
+    return getCallableDelegate().getTime(parameterName, cal);
+  }
+
+  @Override
+  public Timestamp getTimestamp(String parameterName, Calendar cal) throws SQLException {
+    return getCallableDelegate().getTimestamp(parameterName, cal);
+  }
+
+  @Override
+  public URL getURL(String parameterName) throws SQLException {
+    return getCallableDelegate().getURL(parameterName);
+  }
+
+  @Override
+  public RowId getRowId(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getRowId(parameterIndex);
+  }
+
+  @Override
+  public RowId getRowId(String parameterName) throws SQLException {
+    return getCallableDelegate().getRowId(parameterName);
+  }
+
+  @Override
+  public void setRowId(String parameterName, RowId x) throws SQLException {
+    getCallableDelegate().setRowId(parameterName, x);
+  }
+
+  @Override
+  public void setNString(String parameterName, String value) throws SQLException {
+    getCallableDelegate().setNString(parameterName, value);
+  }
+
+  @Override
+  public void setNCharacterStream(String parameterName, Reader value, long length) throws SQLException {
+    getCallableDelegate().setNCharacterStream(parameterName, value, length);
+  }
+
+  @Override
+  public void setNClob(String parameterName, NClob value) throws SQLException {
+    getCallableDelegate().setNClob(parameterName, value);
+  }
+
+  @Override
+  public void setClob(String parameterName, Reader reader, long length) throws SQLException {
+    getCallableDelegate().setClob(parameterName, reader, length);
+  }
+
+  @Override
+  public void setBlob(String parameterName, InputStream inputStream, long length) throws SQLException {
+    getCallableDelegate().setBlob(parameterName, inputStream, length);
+  }
+
+  @Override
+  public void setNClob(String parameterName, Reader reader, long length) throws SQLException {
+    getCallableDelegate().setNClob(parameterName, reader, length);
+  }
+
+  @Override
+  public NClob getNClob(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getNClob(parameterIndex);
+  }
+
+  @Override
+  public NClob getNClob(String parameterName) throws SQLException {
+    return getCallableDelegate().getNClob(parameterName);
+  }
+
+  @Override
+  public void setSQLXML(String parameterName, SQLXML xmlObject) throws SQLException {
+    getCallableDelegate().setSQLXML(parameterName, xmlObject);
+  }
+
+  @Override
+  public SQLXML getSQLXML(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getSQLXML(parameterIndex);
+  }
+
+  @Override
+  public SQLXML getSQLXML(String parameterName) throws SQLException {
+    return getCallableDelegate().getSQLXML(parameterName);
+  }
+
+  @Override
+  public String getNString(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getNString(parameterIndex);
+  }
+
+  @Override
+  public String getNString(String parameterName) throws SQLException {
+    return getCallableDelegate().getNString(parameterName);
+  }
+
+  @Override
+  public Reader getNCharacterStream(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getNCharacterStream(parameterIndex);
+  }
+
+  @Override
+  public Reader getNCharacterStream(String parameterName) throws SQLException {
+    return getCallableDelegate().getNCharacterStream(parameterName);
+  }
+
+  @Override
+  public Reader getCharacterStream(int parameterIndex) throws SQLException {
+    return getCallableDelegate().getCharacterStream(parameterIndex);
+  }
+
+  @Override
+  public Reader getCharacterStream(String parameterName) throws SQLException {
+    return getCallableDelegate().getCharacterStream(parameterName);
+  }
+
+  @Override
+  public void setBlob(String parameterName, Blob x) throws SQLException {
+    getCallableDelegate().setBlob(parameterName, x);
+  }
+
+  @Override
+  public void setClob(String parameterName, Clob x) throws SQLException {
+    getCallableDelegate().setClob(parameterName, x);
+  }
+
+  @Override
+  public void setAsciiStream(String parameterName, InputStream x, long length) throws SQLException {
+    getCallableDelegate().setAsciiStream(parameterName, x, length);
+  }
+
+  @Override
+  public void setBinaryStream(String parameterName, InputStream x, long length) throws SQLException {
+    getCallableDelegate().setBinaryStream(parameterName, x, length);
+  }
+
+  @Override
+  public void setCharacterStream(String parameterName, Reader reader, long length) throws SQLException {
+    getCallableDelegate().setCharacterStream(parameterName, reader, length);
+  }
+
+  @Override
+  public void setAsciiStream(String parameterName, InputStream x) throws SQLException {
+    getCallableDelegate().setAsciiStream(parameterName, x);
+  }
+
+  @Override
+  public void setBinaryStream(String parameterName, InputStream x) throws SQLException {
+    getCallableDelegate().setBinaryStream(parameterName, x);
+  }
+
+  @Override
+  public void setCharacterStream(String parameterName, Reader reader) throws SQLException {
+    getCallableDelegate().setCharacterStream(parameterName, reader);
+  }
+
+  @Override
+  public void setNCharacterStream(String parameterName, Reader value) throws SQLException {
+    getCallableDelegate().setNCharacterStream(parameterName, value);
+  }
+
+  @Override
+  public void setClob(String parameterName, Reader reader) throws SQLException {
+    getCallableDelegate().setClob(parameterName, reader);
+  }
+
+  @Override
+  public void setBlob(String parameterName, InputStream inputStream) throws SQLException {
+    getCallableDelegate().setBlob(parameterName, inputStream);
+  }
+
+  @Override
+  public void setNClob(String parameterName, Reader reader) throws SQLException {
+    getCallableDelegate().setNClob(parameterName, reader);
+  }
+
+  // @Override only valid jdk7+
+  public <T> T getObject(int parameterIndex, Class<T> type) throws SQLException {
+    return getCallableDelegate().getObject(parameterIndex, type);
+  }
+
+  // @Override only valid jdk7+
+  public <T> T getObject(String parameterName, Class<T> type) throws SQLException {
+    return getCallableDelegate().getObject(parameterName, type);
+  }
+
+}
@@ -0,0 +1,297 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+
+/**
+ *  委托模式的 Statement： 所有方法（包括 JDBC 4.2 的 executeLargeUpdate 等）都转发给 getDelegate()，子类只需要覆盖要拦截的方法
+ */
+public abstract class DelegatingStatement implements Statement {
+
+  /**
+   *  获取被委托的语句，每次调用都会先调用这个方法，子类可以在这里检查语句是否仍然可用
+   * */
+  protected abstract Statement getDelegate() throws SQLException;
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    return getDelegate().unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || getDelegate().isWrapperFor(iface);
+  }
+
+  @Override
+  public ResultSet executeQuery(String sql) throws SQLException {
+    return getDelegate().executeQuery(sql);
+  }
+
+  @Override
+  public int executeUpdate(String sql) throws SQLException {
+    return getDelegate().executeUpdate(sql);
+  }
+
+  @Override
+  public void close() throws SQLException {
+    getDelegate().close();
+  }
+
+  @Override
+  public int getMaxFieldSize() throws SQLException {
+    return getDelegate().getMaxFieldSize();
+  }
+
+  @Override
+  public void setMaxFieldSize(int max) throws SQLException {
+    getDelegate().setMaxFieldSize(max);
+  }
+
+  @Override
+  public int getMaxRows() throws SQLException {
+    return getDelegate().getMaxRows();
+  }
+
+  @Override
+  public void setMaxRows(int max) throws SQLException {
+    getDelegate().setMaxRows(max);
+  }
+
+  @Override
+  public void setEscapeProcessing(boolean enable) throws SQLException {
+    getDelegate().setEscapeProcessing(enable);
+  }
+
+  @Override
+  public int getQueryTimeout() throws SQLException {
+    return getDelegate().getQueryTimeout();
+  }
+
+  @Override
+  public void setQueryTimeout(int seconds) throws SQLException {
+    getDelegate().setQueryTimeout(seconds);
+  }
+
+  @Override
+  public void cancel() throws SQLException {
+    getDelegate().cancel();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return getDelegate().getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    getDelegate().clearWarnings();
+  }
+
+  @Override
+  public void setCursorName(String name) throws SQLException {
+    getDelegate().setCursorName(name);
+  }
+
+  @Override
+  public boolean execute(String sql) throws SQLException {
+    return getDelegate().execute(sql);
+  }
+
+  @Override
+  public ResultSet getResultSet() throws SQLException {
+    return getDelegate().getResultSet();
+  }
+
+  @Override
+  public int getUpdateCount() throws SQLException {
+    return getDelegate().getUpdateCount();
+  }
+
+  @Override
+  public boolean getMoreResults() throws SQLException {
+    return getDelegate().getMoreResults();
+  }
+
+  @Override
+  public void setFetchDirection(int direction) throws SQLException {
+    getDelegate().setFetchDirection(direction);
+  }
+
+  @Override
+  public int getFetchDirection() throws SQLException {
+    return getDelegate().getFetchDirection();
+  }
+
+  @Override
+  public void setFetchSize(int rows) throws SQLException {
+    getDelegate().setFetchSize(rows);
+  }
+
+  @Override
+  public int getFetchSize() throws SQLException {
+    return getDelegate().getFetchSize();
+  }
+
+  @Override
+  public int getResultSetConcurrency() throws SQLException {
+    return getDelegate().getResultSetConcurrency();
+  }
+
+  @Override
+  public int getResultSetType() throws SQLException {
+    return getDelegate().getResultSetType();
+  }
+
+  @Override
+  public void addBatch(String sql) throws SQLException {
+    getDelegate().addBatch(sql);
+  }
+
+  @Override
+  public void clearBatch() throws SQLException {
+    getDelegate().clearBatch();
+  }
+
+  @Override
+  public int[] executeBatch() throws SQLException {
+    return getDelegate().executeBatch();
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return getDelegate().getConnection();
+  }
+
+  @Override
+  public boolean getMoreResults(int current) throws SQLException {
+    return getDelegate().getMoreResults(current);
+  }
+
+  @Override
+  public ResultSet getGeneratedKeys() throws SQLException {
+    return getDelegate().getGeneratedKeys();
+  }
+
+  @Override
+  public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+    return getDelegate().executeUpdate(sql, autoGeneratedKeys);
+  }
+
+  @Override
+  public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+    return getDelegate().executeUpdate(sql, columnIndexes);
+  }
+
+  @Override
+  public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+    return getDelegate().executeUpdate(sql, columnNames);
+  }
+
+  @Override
+  public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+    return getDelegate().execute(sql, autoGeneratedKeys);
+  }
+
+  @Override
+  public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+    return getDelegate().execute(sql, columnIndexes);
+  }
+
+  @Override
+  public boolean execute(String sql, String[] columnNames) throws SQLException {
+    return getDelegate().execute(sql, columnNames);
+  }
+
+  @Override
+  public int getResultSetHoldability() throws SQLException {
+    return getDelegate().getResultSetHoldability();
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return getDelegate().isClosed();
+  }
+
+  @Override
+  public void setPoolable(boolean poolable) throws SQLException {
+    getDelegate().setPoolable(poolable);
+  }
+
+  @Override
+  public boolean isPoolable() throws SQLException {
+    return getDelegate().isPoolable();
+  }
+
+  // @Override only valid jdk7+
+  public void closeOnCompletion() throws SQLException {
+    getDelegate().closeOnCompletion();
+  }
+
+  // @Override only valid jdk7+
+  public boolean isCloseOnCompletion() throws SQLException {
+    return getDelegate().isCloseOnCompletion();
+  }
+
+  // @Override only valid jdk8+
+  public long getLargeUpdateCount() throws SQLException {
+    return getDelegate().getLargeUpdateCount();
+  }
+
+  // @Override only valid jdk8+
+  public void setLargeMaxRows(long max) throws SQLException {
+    getDelegate().setLargeMaxRows(max);
+  }
+
+  // @Override only valid jdk8+
+  public long getLargeMaxRows() throws SQLException {
+    return getDelegate().getLargeMaxRows();
+  }
+
+  // @Override only valid jdk8+
+  public long[] executeLargeBatch() throws SQLException {
+    return getDelegate().executeLargeBatch();
+  }
+
+  // @Override only valid jdk8+
+  public long executeLargeUpdate(String sql) throws SQLException {
+    return getDelegate().executeLargeUpdate(sql);
+  }
+
+  // @Override only valid jdk8+
+  public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+    return getDelegate().executeLargeUpdate(sql, autoGeneratedKeys);
+  }
+
+  // @Override only valid jdk8+
+  public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+    return getDelegate().executeLargeUpdate(sql, columnIndexes);
+  }
+
+  // @Override only valid jdk8+
+  public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+    return getDelegate().executeLargeUpdate(sql, columnNames);
+  }
+
+}
@@ -15,67 +15,36 @@
  */
 package org.apache.ibatis.logging.jdbc;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.sql.Statement;
 
-import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.jdbc.DelegatingConnection;
 import org.apache.ibatis.logging.Log;
-import org.apache.ibatis.reflection.ExceptionUtil;
 
 /**
- *  主要是通过代理模式，给connection方法的添加日志打印功能
+ *  通过委托模式，给connection方法的添加日志打印功能
  *   1. 如果开启日志， 则在预编译时，打印预编译的sql语句
- *   2. 调用方法获取 PreparedStatement、Statement 对象时，返回对应的增加了日志功能的动态代理对象
+ *   2. 调用方法获取 PreparedStatement、Statement 对象时，返回对应的增加了日志功能的包装对象
  * @author Clinton Begin
  * @author Eduardo Macarron
  *
  */
-public final class ConnectionLogger extends BaseJdbcLogger implements InvocationHandler {
+public final class ConnectionLogger extends BaseJdbcLogger {
 
-  private Connection connection;
+  private final Connection connection;
+
+  /**
+   *  交给调用者的包装连接
+   * */
+  private final Connection loggingConnection;
 
   private ConnectionLogger(Connection conn, Log statementLog, int queryStack) {
     super(statementLog, queryStack);
     this.connection = conn;
-  }
-
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] params)
-      throws Throwable {
-    try {
-      //1. 如果方法的声明对象是 Object，则直接执行
-      if (Object.class.equals(method.getDeclaringClass())) {
-        return method.invoke(this, params);
-      }
-      //---------如果为 数据库连接 Connetion 对象的方法，则通过动态代理添加日志----
-      if ("prepareStatement".equals(method.getName())) {
-        if (isDebugEnabled()) {
-          debug(" Preparing: " + removeBreakingWhitespace((String) params[0]), true);
-        }        
-        PreparedStatement stmt = (PreparedStatement) method.invoke(connection, params);
-        stmt = PreparedStatementLogger.newInstance(stmt, statementLog, queryStack);
-        return stmt;
-      } else if ("prepareCall".equals(method.getName())) {
-        if (isDebugEnabled()) {
-          debug(" Preparing: " + removeBreakingWhitespace((String) params[0]), true);
-        }        
-        PreparedStatement stmt = (PreparedStatement) method.invoke(connection, params);
-        stmt = PreparedStatementLogger.newInstance(stmt, statementLog, queryStack);
-        return stmt;
-      } else if ("createStatement".equals(method.getName())) {
-        Statement stmt = (Statement) method.invoke(connection, params);
-        stmt = StatementLogger.newInstance(stmt, statementLog, queryStack);
-        return stmt;
-      } else {
-        return method.invoke(connection, params);
-      }
-    } catch (Throwable t) {
-      throw ExceptionUtil.unwrapThrowable(t);
-    }
+    this.loggingConnection = new LoggingConnection();
   }
 
   /*
@@ -85,9 +54,7 @@ public final class ConnectionLogger extends BaseJdbcLogger implements Invocation
    * @return - the connection with logging
    */
   public static Connection newInstance(Connection conn, Log statementLog, int queryStack) {
-    InvocationHandler handler = new ConnectionLogger(conn, statementLog, queryStack);
-    ClassLoader cl = Connection.class.getClassLoader();
-    return (Connection) Proxy.newProxyInstance(cl, new Class[]{Connection.class}, handler);
+    return new ConnectionLogger(conn, statementLog, queryStack).loggingConnection;
   }
 
   /*
@@ -99,4 +66,102 @@ public final class ConnectionLogger extends BaseJdbcLogger implements Invocation
     return connection;
   }
 
+  private void logPreparing(String sql) {
+    if (isDebugEnabled()) {
+      debug(" Preparing: " + removeBreakingWhitespace(sql), true);
+    }
+  }
+
+  private PreparedStatement wrap(PreparedStatement stmt) {
+    return PreparedStatementLogger.newInstance(stmt, statementLog, queryStack);
+  }
+
+  private CallableStatement wrap(CallableStatement stmt) {
+    return (CallableStatement) PreparedStatementLogger.newInstance(stmt, statementLog, queryStack);
+  }
+
+  private Statement wrap(Statement stmt) {
+    return StatementLogger.newInstance(stmt, statementLog, queryStack);
+  }
+
+  /**
+   *  预编译时打印sql，创建的语句对象都包装为带日志功能的对象，其他方法直接转发给真正的连接
+   * */
+  private final class LoggingConnection extends DelegatingConnection {
+
+    @Override
+    protected Connection getDelegate() {
+      return connection;
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+      return wrap(connection.createStatement());
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+      return wrap(connection.createStatement(resultSetType, resultSetConcurrency));
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+      return wrap(connection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+      logPreparing(sql);
+      return wrap(connection.prepareStatement(sql));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+      logPreparing(sql);
+      return wrap(connection.prepareStatement(sql, resultSetType, resultSetConcurrency));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+      logPreparing(sql);
+      return wrap(connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+      logPreparing(sql);
+      return wrap(connection.prepareStatement(sql, autoGeneratedKeys));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+      logPreparing(sql);
+      return wrap(connection.prepareStatement(sql, columnIndexes));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+      logPreparing(sql);
+      return wrap(connection.prepareStatement(sql, columnNames));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+      logPreparing(sql);
+      return wrap(connection.prepareCall(sql));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+      logPreparing(sql);
+      return wrap(connection.prepareCall(sql, resultSetType, resultSetConcurrency));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+      logPreparing(sql);
+      return wrap(connection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+    }
+  }
+
 }
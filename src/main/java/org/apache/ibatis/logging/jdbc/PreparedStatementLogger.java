@@ -15,77 +15,54 @@
  */
 package org.apache.ibatis.logging.jdbc;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Array;
+import java.sql.Blob;
 import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
 
-import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.jdbc.DelegatingCallableStatement;
 import org.apache.ibatis.logging.Log;
-import org.apache.ibatis.reflection.ExceptionUtil;
 
 /**
- * PreparedStatement proxy to add logging
+ * PreparedStatement wrapper to add logging
  * 
  * @author Clinton Begin
  * @author Eduardo Macarron
  *
- *  使用动态代理的方式为 PreparedStatement 对象添加日志
+ *  使用委托模式为 PreparedStatement 对象添加日志
  *  1. 如果开启日志，则调用执行方法之前，会打印为预编译参数设置的所有值
- *  2. 通过方法获取 ResultSet 对象时，返回具有日志功能的 ResultSet 动态代理对象
+ *  2. 通过方法获取 ResultSet 对象时，返回具有日志功能的 ResultSet 包装对象
+ *  返回的包装对象同时实现了 CallableStatement，被包装的语句是 CallableStatement 时可以调用存储过程的方法
  */
-public final class PreparedStatementLogger extends BaseJdbcLogger implements InvocationHandler {
+public final class PreparedStatementLogger extends BaseJdbcLogger {
 
-  private PreparedStatement statement;
+  private final PreparedStatement statement;
+
+  /**
+   *  被包装的语句是 CallableStatement 时不为 null
+   * */
+  private final CallableStatement callableStatement;
+
+  /**
+   *  交给调用者的包装语句
+   * */
+  private final PreparedStatement loggingStatement;
 
   private PreparedStatementLogger(PreparedStatement stmt, Log statementLog, int queryStack) {
     super(statementLog, queryStack);
     this.statement = stmt;
-  }
-
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] params) throws Throwable {
-    try {
-      //1. 如果方法的声明对象是Object，则直接执行
-      if (Object.class.equals(method.getDeclaringClass())) {
-        return method.invoke(this, params);
-      }
-      //2. 如果执行的方法为 执行sql语句的方法
-      if (EXECUTE_METHODS.contains(method.getName())) {
-        if (isDebugEnabled()) {
-          debug("Parameters: " + getParameterValueString(), true);
-        }
-        clearColumnInfo();
-        if ("executeQuery".equals(method.getName())) {
-          ResultSet rs = (ResultSet) method.invoke(statement, params);
-          return rs == null ? null : ResultSetLogger.newInstance(rs, statementLog, queryStack);
-        } else {
-          return method.invoke(statement, params);
-        }
-      } else if (SET_METHODS.contains(method.getName())) {
-        if ("setNull".equals(method.getName())) {
-          setColumn(params[0], null);
-        } else {
-          setColumn(params[0], params[1]);
-        }
-        return method.invoke(statement, params);
-      } else if ("getResultSet".equals(method.getName())) {
-        ResultSet rs = (ResultSet) method.invoke(statement, params);
-        return rs == null ? null : ResultSetLogger.newInstance(rs, statementLog, queryStack);
-      } else if ("getUpdateCount".equals(method.getName())) {
-        int updateCount = (Integer) method.invoke(statement, params);
-        if (updateCount != -1) {
-          debug("   Updates: " + updateCount, false);
-        }
-        return updateCount;
-      } else {
-        return method.invoke(statement, params);
-      }
-    } catch (Throwable t) {
-      throw ExceptionUtil.unwrapThrowable(t);
-    }
+    this.callableStatement = stmt instanceof CallableStatement ? (CallableStatement) stmt : null;
+    this.loggingStatement = new LoggingPreparedStatement();
   }
 
   /*
@@ -93,12 +70,10 @@ public final class PreparedStatementLogger extends BaseJdbcLogger implements Inv
    *
    * @param stmt - the statement
    * @param sql  - the sql statement
-   * @return - the proxy
+   * @return - the wrapper
    */
   public static PreparedStatement newInstance(PreparedStatement stmt, Log statementLog, int queryStack) {
-    InvocationHandler handler = new PreparedStatementLogger(stmt, statementLog, queryStack);
-    ClassLoader cl = PreparedStatement.class.getClassLoader();
-    return (PreparedStatement) Proxy.newProxyInstance(cl, new Class[]{PreparedStatement.class, CallableStatement.class}, handler);
+    return new PreparedStatementLogger(stmt, statementLog, queryStack).loggingStatement;
   }
 
   /*
@@ -110,4 +85,573 @@ public final class PreparedStatementLogger extends BaseJdbcLogger implements Inv
     return statement;
   }
 
+  /**
+   *  执行之前打印为预编译参数设置的所有值
+   * */
+  private void beforeExecute() {
+    if (isDebugEnabled()) {
+      debug("Parameters: " + getParameterValueString(), true);
+    }
+    clearColumnInfo();
+  }
+
+  private ResultSet wrap(ResultSet rs) {
+    return rs == null ? null : ResultSetLogger.newInstance(rs, statementLog, queryStack);
+  }
+
+  /**
+   *  记录设置的参数（包括存储过程按名称设置的参数），执行时打印参数，返回的结果集包装为带日志功能的对象，其他方法直接转发给真正的语句
+   * */
+  private final class LoggingPreparedStatement extends DelegatingCallableStatement {
+
+    @Override
+    protected PreparedStatement getDelegate() {
+      return statement;
+    }
+
+    @Override
+    protected CallableStatement getCallableDelegate() throws SQLException {
+      if (callableStatement == null) {
+        throw new SQLException("Error accessing " + statement + ". Statement is not a CallableStatement.");
+      }
+      return callableStatement;
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+      beforeExecute();
+      return wrap(statement.executeQuery());
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+      beforeExecute();
+      return wrap(statement.executeQuery(sql));
+    }
+
+    @Override
+    public int executeUpdate() throws SQLException {
+      beforeExecute();
+      return statement.executeUpdate();
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+      beforeExecute();
+      return statement.executeUpdate(sql);
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+      beforeExecute();
+      return statement.executeUpdate(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+      beforeExecute();
+      return statement.executeUpdate(sql, columnIndexes);
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+      beforeExecute();
+      return statement.executeUpdate(sql, columnNames);
+    }
+
+    @Override
+    public boolean execute() throws SQLException {
+      beforeExecute();
+      return statement.execute();
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+      beforeExecute();
+      return statement.execute(sql);
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+      beforeExecute();
+      return statement.execute(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+      beforeExecute();
+      return statement.execute(sql, columnIndexes);
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+      beforeExecute();
+      return statement.execute(sql, columnNames);
+    }
+
+    @Override
+    public void addBatch() throws SQLException {
+      beforeExecute();
+      statement.addBatch();
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+      beforeExecute();
+      statement.addBatch(sql);
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+      return wrap(statement.getResultSet());
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+      int updateCount = statement.getUpdateCount();
+      if (updateCount != -1) {
+        debug("   Updates: " + updateCount, false);
+      }
+      return updateCount;
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType) throws SQLException {
+      setColumn(parameterIndex, null);
+      statement.setNull(parameterIndex, sqlType);
+    }
+
+    @Override
+    public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setBoolean(parameterIndex, x);
+    }
+
+    @Override
+    public void setByte(int parameterIndex, byte x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setByte(parameterIndex, x);
+    }
+
+    @Override
+    public void setShort(int parameterIndex, short x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setShort(parameterIndex, x);
+    }
+
+    @Override
+    public void setInt(int parameterIndex, int x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setInt(parameterIndex, x);
+    }
+
+    @Override
+    public void setLong(int parameterIndex, long x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setLong(parameterIndex, x);
+    }
+
+    @Override
+    public void setFloat(int parameterIndex, float x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setFloat(parameterIndex, x);
+    }
+
+    @Override
+    public void setDouble(int parameterIndex, double x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setDouble(parameterIndex, x);
+    }
+
+    @Override
+    public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setBigDecimal(parameterIndex, x);
+    }
+
+    @Override
+    public void setString(int parameterIndex, String x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setString(parameterIndex, x);
+    }
+
+    @Override
+    public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setBytes(parameterIndex, x);
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setDate(parameterIndex, x);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setTime(parameterIndex, x);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setTimestamp(parameterIndex, x);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setAsciiStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setBinaryStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setObject(parameterIndex, x, targetSqlType);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setObject(parameterIndex, x);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
+      setColumn(parameterIndex, reader);
+      statement.setCharacterStream(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, Blob x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setBlob(parameterIndex, x);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Clob x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setClob(parameterIndex, x);
+    }
+
+    @Override
+    public void setArray(int parameterIndex, Array x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setArray(parameterIndex, x);
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setDate(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setTime(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setTimestamp(parameterIndex, x, cal);
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+      setColumn(parameterIndex, null);
+      statement.setNull(parameterIndex, sqlType, typeName);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+      setColumn(parameterIndex, reader);
+      statement.setClob(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException {
+      setColumn(parameterIndex, inputStream);
+      statement.setBlob(parameterIndex, inputStream, length);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setAsciiStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setBinaryStream(parameterIndex, x, length);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+      setColumn(parameterIndex, reader);
+      statement.setCharacterStream(parameterIndex, reader, length);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setAsciiStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+      setColumn(parameterIndex, x);
+      statement.setBinaryStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+      setColumn(parameterIndex, reader);
+      statement.setCharacterStream(parameterIndex, reader);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader) throws SQLException {
+      setColumn(parameterIndex, reader);
+      statement.setClob(parameterIndex, reader);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+      setColumn(parameterIndex, inputStream);
+      statement.setBlob(parameterIndex, inputStream);
+    }
+
+    @Override
+    public void setNull(String parameterName, int sqlType) throws SQLException {
+      setColumn(parameterName, null);
+      getCallableDelegate().setNull(parameterName, sqlType);
+    }
+
+    @Override
+    public void setBoolean(String parameterName, boolean x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setBoolean(parameterName, x);
+    }
+
+    @Override
+    public void setByte(String parameterName, byte x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setByte(parameterName, x);
+    }
+
+    @Override
+    public void setShort(String parameterName, short x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setShort(parameterName, x);
+    }
+
+    @Override
+    public void setInt(String parameterName, int x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setInt(parameterName, x);
+    }
+
+    @Override
+    public void setLong(String parameterName, long x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setLong(parameterName, x);
+    }
+
+    @Override
+    public void setFloat(String parameterName, float x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setFloat(parameterName, x);
+    }
+
+    @Override
+    public void setDouble(String parameterName, double x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setDouble(parameterName, x);
+    }
+
+    @Override
+    public void setBigDecimal(String parameterName, BigDecimal x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setBigDecimal(parameterName, x);
+    }
+
+    @Override
+    public void setString(String parameterName, String x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setString(parameterName, x);
+    }
+
+    @Override
+    public void setBytes(String parameterName, byte[] x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setBytes(parameterName, x);
+    }
+
+    @Override
+    public void setDate(String parameterName, Date x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setDate(parameterName, x);
+    }
+
+    @Override
+    public void setTime(String parameterName, Time x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setTime(parameterName, x);
+    }
+
+    @Override
+    public void setTimestamp(String parameterName, Timestamp x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setTimestamp(parameterName, x);
+    }
+
+    @Override
+    public void setAsciiStream(String parameterName, InputStream x, int length) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setAsciiStream(parameterName, x, length);
+    }
+
+    @Override
+    public void setBinaryStream(String parameterName, InputStream x, int length) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setBinaryStream(parameterName, x, length);
+    }
+
+    @Override
+    public void setObject(String parameterName, Object x, int targetSqlType, int scale) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setObject(parameterName, x, targetSqlType, scale);
+    }
+
+    @Override
+    public void setObject(String parameterName, Object x, int targetSqlType) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setObject(parameterName, x, targetSqlType);
+    }
+
+    @Override
+    public void setObject(String parameterName, Object x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setObject(parameterName, x);
+    }
+
+    @Override
+    public void setCharacterStream(String parameterName, Reader reader, int length) throws SQLException {
+      setColumn(parameterName, reader);
+      getCallableDelegate().setCharacterStream(parameterName, reader, length);
+    }
+
+    @Override
+    public void setDate(String parameterName, Date x, Calendar cal) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setDate(parameterName, x, cal);
+    }
+
+    @Override
+    public void setTime(String parameterName, Time x, Calendar cal) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setTime(parameterName, x, cal);
+    }
+
+    @Override
+    public void setTimestamp(String parameterName, Timestamp x, Calendar cal) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setTimestamp(parameterName, x, cal);
+    }
+
+    @Override
+    public void setNull(String parameterName, int sqlType, String typeName) throws SQLException {
+      setColumn(parameterName, null);
+      getCallableDelegate().setNull(parameterName, sqlType, typeName);
+    }
+
+    @Override
+    public void setClob(String parameterName, Reader reader, long length) throws SQLException {
+      setColumn(parameterName, reader);
+      getCallableDelegate().setClob(parameterName, reader, length);
+    }
+
+    @Override
+    public void setBlob(String parameterName, InputStream inputStream, long length) throws SQLException {
+      setColumn(parameterName, inputStream);
+      getCallableDelegate().setBlob(parameterName, inputStream, length);
+    }
+
+    @Override
+    public void setBlob(String parameterName, Blob x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setBlob(parameterName, x);
+    }
+
+    @Override
+    public void setClob(String parameterName, Clob x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setClob(parameterName, x);
+    }
+
+    @Override
+    public void setAsciiStream(String parameterName, InputStream x, long length) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setAsciiStream(parameterName, x, length);
+    }
+
+    @Override
+    public void setBinaryStream(String parameterName, InputStream x, long length) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setBinaryStream(parameterName, x, length);
+    }
+
+    @Override
+    public void setCharacterStream(String parameterName, Reader reader, long length) throws SQLException {
+      setColumn(parameterName, reader);
+      getCallableDelegate().setCharacterStream(parameterName, reader, length);
+    }
+
+    @Override
+    public void setAsciiStream(String parameterName, InputStream x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setAsciiStream(parameterName, x);
+    }
+
+    @Override
+    public void setBinaryStream(String parameterName, InputStream x) throws SQLException {
+      setColumn(parameterName, x);
+      getCallableDelegate().setBinaryStream(parameterName, x);
+    }
+
+    @Override
+    public void setCharacterStream(String parameterName, Reader reader) throws SQLException {
+      setColumn(parameterName, reader);
+      getCallableDelegate().setCharacterStream(parameterName, reader);
+    }
+
+    @Override
+    public void setClob(String parameterName, Reader reader) throws SQLException {
+      setColumn(parameterName, reader);
+      getCallableDelegate().setClob(parameterName, reader);
+    }
+
+    @Override
+    public void setBlob(String parameterName, InputStream inputStream) throws SQLException {
+      setColumn(parameterName, inputStream);
+      getCallableDelegate().setBlob(parameterName, inputStream);
+    }
+  }
+
 }
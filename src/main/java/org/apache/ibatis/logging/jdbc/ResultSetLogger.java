@@ -15,9 +15,6 @@
  */
 package org.apache.ibatis.logging.jdbc;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -25,18 +22,17 @@ import java.sql.Types;
 import java.util.HashSet;
 import java.util.Set;
 
-import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.jdbc.DelegatingResultSet;
 import org.apache.ibatis.logging.Log;
-import org.apache.ibatis.reflection.ExceptionUtil;
 
 /**
- * ResultSet proxy to add logging
+ * ResultSet wrapper to add logging
  * 
  * @author Clinton Begin
  * @author Eduardo Macarron
  * 
  */
-public final class ResultSetLogger extends BaseJdbcLogger implements InvocationHandler {
+public final class ResultSetLogger extends BaseJdbcLogger {
 
   /**
    *  所有的二进制类型
@@ -44,7 +40,12 @@ public final class ResultSetLogger extends BaseJdbcLogger implements InvocationH
   private static Set<Integer> BLOB_TYPES = new HashSet<Integer>();
   private boolean first = true;
   private int rows = 0;
-  private ResultSet rs;
+  private final ResultSet rs;
+
+  /**
+   *  交给调用者的包装结果集
+   * */
+  private final ResultSet loggingResultSet;
 
   /**
    *  用于记录第几列为 blob 类型
@@ -65,37 +66,29 @@ public final class ResultSetLogger extends BaseJdbcLogger implements InvocationH
   private ResultSetLogger(ResultSet rs, Log statementLog, int queryStack) {
     super(statementLog, queryStack);
     this.rs = rs;
+    this.loggingResultSet = new LoggingResultSet();
   }
 
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] params) throws Throwable {
-    try {
-      if (Object.class.equals(method.getDeclaringClass())) {
-        return method.invoke(this, params);
-      }    
-      Object o = method.invoke(rs, params);
-      // 如果调用的方法为 next() 方法
-      if ("next".equals(method.getName())) {
-        if (((Boolean) o)) {
-          rows++;
-          if (isTraceEnabled()) {
-            ResultSetMetaData rsmd = rs.getMetaData();
-            final int columnCount = rsmd.getColumnCount();
-            if (first) {
-              first = false;
-              printColumnHeaders(rsmd, columnCount);
-            }
-            printColumnValues(columnCount);
-          }
-        } else {
-          debug("     Total: " + rows, false);
+  /**
+   *  调用 next() 之后打印这一行的值，读取完时打印总行数
+   * */
+  private boolean next() throws SQLException {
+    boolean hasNext = rs.next();
+    if (hasNext) {
+      rows++;
+      if (isTraceEnabled()) {
+        ResultSetMetaData rsmd = rs.getMetaData();
+        final int columnCount = rsmd.getColumnCount();
+        if (first) {
+          first = false;
+          printColumnHeaders(rsmd, columnCount);
         }
+        printColumnValues(columnCount);
       }
-      clearColumnInfo();
-      return o;
-    } catch (Throwable t) {
-      throw ExceptionUtil.unwrapThrowable(t);
+    } else {
+      debug("     Total: " + rows, false);
     }
+    return hasNext;
   }
 
   /**
@@ -150,9 +143,7 @@ public final class ResultSetLogger extends BaseJdbcLogger implements InvocationH
    * @return - the ResultSet with logging
    */
   public static ResultSet newInstance(ResultSet rs, Log statementLog, int queryStack) {
-    InvocationHandler handler = new ResultSetLogger(rs, statementLog, queryStack);
-    ClassLoader cl = ResultSet.class.getClassLoader();
-    return (ResultSet) Proxy.newProxyInstance(cl, new Class[]{ResultSet.class}, handler);
+    return new ResultSetLogger(rs, statementLog, queryStack).loggingResultSet;
   }
 
   /*
@@ -164,4 +155,17 @@ public final class ResultSetLogger extends BaseJdbcLogger implements InvocationH
     return rs;
   }
 
+  private final class LoggingResultSet extends DelegatingResultSet {
+
+    @Override
+    protected ResultSet getDelegate() {
+      return rs;
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+      return ResultSetLogger.this.next();
+    }
+  }
+
 }
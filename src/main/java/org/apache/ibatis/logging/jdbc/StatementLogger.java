@@ -15,78 +15,47 @@
  */
 package org.apache.ibatis.logging.jdbc;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 
-import org.apache.ibatis.reflection.ExceptionUtil;
+import org.apache.ibatis.jdbc.DelegatingStatement;
 import org.apache.ibatis.logging.Log;
-import org.apache.ibatis.reflection.ExceptionUtil;
 
 /**
- * Statement proxy to add logging
+ * Statement wrapper to add logging
  * 
  * @author Clinton Begin
  * @author Eduardo Macarron
  *
- *   使用动态代理的方式为 Statement 对象添加日志
+ *   使用委托模式为 Statement 对象添加日志
  *    1. 如果开启日志，则调用执行方法之前，会打印为执行的sql语句
- *    2. 通过方法获取 ResultSet 对象时，返回具有日志功能的 ResultSet 动态代理对象
+ *    2. 通过方法获取 ResultSet 对象时，返回具有日志功能的 ResultSet 包装对象
  * 
  */
-public final class StatementLogger extends BaseJdbcLogger implements InvocationHandler {
+public final class StatementLogger extends BaseJdbcLogger {
 
-  private Statement statement;
+  private final Statement statement;
+
+  /**
+   *  交给调用者的包装语句
+   * */
+  private final Statement loggingStatement;
 
   private StatementLogger(Statement stmt, Log statementLog, int queryStack) {
     super(statementLog, queryStack);
     this.statement = stmt;
-  }
-
-  @Override
-  public Object invoke(Object proxy, Method method, Object[] params) throws Throwable {
-    try {
-      if (Object.class.equals(method.getDeclaringClass())) {
-        return method.invoke(this, params);
-      }    
-      if (EXECUTE_METHODS.contains(method.getName())) {
-        if (isDebugEnabled()) {
-          debug(" Executing: " + removeBreakingWhitespace((String) params[0]), true);
-        }
-        if ("executeQuery".equals(method.getName())) {
-          ResultSet rs = (ResultSet) method.invoke(statement, params);
-          return rs == null ? null : ResultSetLogger.newInstance(rs, statementLog, queryStack);
-        } else {
-          return method.invoke(statement, params);
-        }
-      } else if ("getResultSet".equals(method.getName())) {
-        ResultSet rs = (ResultSet) method.invoke(statement, params);
-        return rs == null ? null : ResultSetLogger.newInstance(rs, statementLog, queryStack);
-      } else if ("equals".equals(method.getName())) {
-        Object ps = params[0];
-        return ps instanceof Proxy && proxy == ps;
-      } else if ("hashCode".equals(method.getName())) {
-        return proxy.hashCode();
-      } else {
-        return method.invoke(statement, params);
-      }
-    } catch (Throwable t) {
-      throw ExceptionUtil.unwrapThrowable(t);
-    }
+    this.loggingStatement = new LoggingStatement();
   }
 
   /*
    * Creates a logging version of a Statement
    *
    * @param stmt - the statement
-   * @return - the proxy
+   * @return - the wrapper
    */
   public static Statement newInstance(Statement stmt, Log statementLog, int queryStack) {
-    InvocationHandler handler = new StatementLogger(stmt, statementLog, queryStack);
-    ClassLoader cl = Statement.class.getClassLoader();
-    return (Statement) Proxy.newProxyInstance(cl, new Class[]{Statement.class}, handler);
+    return new StatementLogger(stmt, statementLog, queryStack).loggingStatement;
   }
 
   /*
@@ -98,4 +67,90 @@ public final class StatementLogger extends BaseJdbcLogger implements InvocationH
     return statement;
   }
 
+  private void logExecuting(String sql) {
+    if (isDebugEnabled()) {
+      debug(" Executing: " + removeBreakingWhitespace(sql), true);
+    }
+  }
+
+  private ResultSet wrap(ResultSet rs) {
+    return rs == null ? null : ResultSetLogger.newInstance(rs, statementLog, queryStack);
+  }
+
+  /**
+   *  执行方法打印sql，返回的结果集包装为带日志功能的对象，其他方法直接转发给真正的语句
+   * */
+  private final class LoggingStatement extends DelegatingStatement {
+
+    @Override
+    protected Statement getDelegate() {
+      return statement;
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+      logExecuting(sql);
+      return wrap(statement.executeQuery(sql));
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+      logExecuting(sql);
+      return statement.executeUpdate(sql);
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+      logExecuting(sql);
+      return statement.executeUpdate(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+      logExecuting(sql);
+      return statement.executeUpdate(sql, columnIndexes);
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+      logExecuting(sql);
+      return statement.executeUpdate(sql, columnNames);
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+      logExecuting(sql);
+      return statement.execute(sql);
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+      logExecuting(sql);
+      return statement.execute(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+      logExecuting(sql);
+      return statement.execute(sql, columnIndexes);
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+      logExecuting(sql);
+      return statement.execute(sql, columnNames);
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+      logExecuting(sql);
+      statement.addBatch(sql);
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+      return wrap(statement.getResultSet());
+    }
+  }
+
 }
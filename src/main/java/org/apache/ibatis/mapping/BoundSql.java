@@ -15,6 +15,8 @@
  */
 package org.apache.ibatis.mapping;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +43,8 @@ import org.apache.ibatis.session.Configuration;
  */
 public class BoundSql {
 
+  private static final Object NO_VALUE = new Object();
+
   /**
    *  可以将进行预编译的sql语句
    * */
@@ -66,6 +70,26 @@ public class BoundSql {
    * */
   private MetaObject metaParameters;
 
+  /**
+   *  按位置绑定的参数值，下标与 parameterMappings 相同，不是按位置绑定的为 NO_VALUE；没有按位置绑定的参数时为 null
+   * */
+  private Object[] positionalValues;
+
+  /**
+   *  foreach 的集合超过 chunkSize 时按块生成的所有绑定sql（第一个为当前对象），不分块时为 null
+   * */
+  private List<BoundSql> chunks;
+
+  /**
+   *  分块执行的 update | delete 是否作为一个 JDBC 批处理执行
+   * */
+  private boolean chunkBatch;
+
+  /**
+   *  执行之前需要装载的临时表，没有时为 null
+   * */
+  private List<TempTable> tempTables;
+
   public BoundSql(Configuration configuration, String sql, List<ParameterMapping> parameterMappings, Object parameterObject) {
     this.sql = sql;
     this.parameterMappings = parameterMappings;
@@ -97,4 +121,53 @@ public class BoundSql {
   public Object getAdditionalParameter(String name) {
     return metaParameters.getValue(name);
   }
+
+  /**
+   *  第 index 个参数映射是否按位置绑定了值（例如 positional 的 foreach），这样的值优先于按属性名查找的值
+   * */
+  public boolean hasPositionalValue(int index) {
+    return positionalValues != null && positionalValues[index] != NO_VALUE;
+  }
+
+  public Object getPositionalValue(int index) {
+    return positionalValues[index];
+  }
+
+  public void setPositionalValue(int index, Object value) {
+    if (positionalValues == null) {
+      positionalValues = new Object[parameterMappings.size()];
+      Arrays.fill(positionalValues, NO_VALUE);
+    }
+    positionalValues[index] = value;
+  }
+
+  /**
+   *  语句需要按块执行时返回所有块的绑定sql（第一个为当前对象），执行器依次执行每一块并合并结果；否则返回 null
+   * */
+  public List<BoundSql> getChunks() {
+    return chunks;
+  }
+
+  public boolean isChunkBatch() {
+    return chunkBatch;
+  }
+
+  public void setChunks(List<BoundSql> chunks, boolean chunkBatch) {
+    this.chunks = chunks;
+    this.chunkBatch = chunkBatch;
+  }
+
+  /**
+   *  返回执行之前需要由执行器装载的临时表，没有时返回 null
+   * */
+  public List<TempTable> getTempTables() {
+    return tempTables;
+  }
+
+  public void addTempTable(TempTable tempTable) {
+    if (tempTables == null) {
+      tempTables = new ArrayList<TempTable>();
+    }
+    tempTables.add(tempTable);
+  }
 }
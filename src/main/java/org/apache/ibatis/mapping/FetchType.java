@@ -19,5 +19,5 @@ package org.apache.ibatis.mapping;
  * @author Eduardo Macarron
  */
 public enum FetchType {
-  LAZY, EAGER, DEFAULT
+  LAZY, EAGER, DEFAULT, BATCH
 }
@@ -18,6 +18,8 @@ package org.apache.ibatis.mapping;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -25,6 +27,9 @@ import org.apache.ibatis.executor.keygen.NoKeyGenerator;
 import org.apache.ibatis.scripting.LanguageDriver;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.limiter.ConcurrencyLimiter;
+import org.apache.ibatis.executor.resultset.ResultSetLayout;
 import org.apache.ibatis.executor.keygen.Jdbc3KeyGenerator;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
 import org.apache.ibatis.executor.keygen.NoKeyGenerator;
@@ -121,6 +126,21 @@ public final class MappedStatement {
    * */
   private String[] resultSets;
 
+  /**
+   *  读写分离时语句的路由方式
+   * */
+  private RouteType route;
+
+  /**
+   *  语句所在命名空间的并发限制器，没有配置时为 null
+   * */
+  private ConcurrencyLimiter concurrencyLimiter;
+
+  /**
+   *  key: 结果集列布局的指纹, value: 该列布局的分析结果，在多次执行之间共享
+   * */
+  private final Map<CacheKey, ResultSetLayout> resultSetLayouts = new ConcurrentHashMap<CacheKey, ResultSetLayout>();
+
   MappedStatement() {
     // constructor disabled
   }
@@ -144,6 +164,7 @@ public final class MappedStatement {
       }
       mappedStatement.statementLog = LogFactory.getLog(logId);
       mappedStatement.lang = configuration.getDefaultScriptingLanuageInstance();
+      mappedStatement.route = RouteType.DEFAULT;
     }
 
     public Builder resource(String resource) {
@@ -237,6 +258,16 @@ public final class MappedStatement {
       mappedStatement.resultSets = delimitedStringtoArray(resultSet);
       return this;
     }
+
+    public Builder route(RouteType route) {
+      mappedStatement.route = route;
+      return this;
+    }
+
+    public Builder concurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+      mappedStatement.concurrencyLimiter = concurrencyLimiter;
+      return this;
+    }
     
     public MappedStatement build() {
       assert mappedStatement.configuration != null;
@@ -339,13 +370,41 @@ public final class MappedStatement {
   public String[] getResulSets() {
     return resultSets;
   }
+
+  public RouteType getRoute() {
+    return route;
+  }
+
+  public ConcurrencyLimiter getConcurrencyLimiter() {
+    return concurrencyLimiter;
+  }
+
+  public ResultSetLayout getResultSetLayout(CacheKey fingerprint) {
+    return resultSetLayouts.get(fingerprint);
+  }
+
+  /**
+   *  缓存结果集的列布局分析结果，超过上限后不再缓存新的列布局（例如 select * 的表结构频繁变化时）
+   * */
+  public void putResultSetLayout(ResultSetLayout layout) {
+    if (resultSetLayouts.size() < ResultSetLayout.MAX_LAYOUTS_PER_STATEMENT) {
+      resultSetLayouts.put(layout.getFingerprint(), layout);
+    }
+  }
   
   public BoundSql getBoundSql(Object parameterObject) {
     //1. 通过sql源获取绑定sql
     BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
     List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
     if (parameterMappings == null || parameterMappings.isEmpty()) {
+      List<TempTable> tempTables = boundSql.getTempTables();
       boundSql = new BoundSql(configuration, boundSql.getSql(), parameterMap.getParameterMappings(), parameterObject);
+      // 集合全部通过临时表引用时，sql 中可以没有参数
+      if (tempTables != null) {
+        for (TempTable tempTable : tempTables) {
+          boundSql.addTempTable(tempTable);
+        }
+      }
     }
 
     // check for nested result maps in parameter mappings (issue #30)
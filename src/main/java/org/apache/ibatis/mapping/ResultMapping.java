@@ -100,6 +100,11 @@ public class ResultMapping {
    * */
   private boolean lazy;
 
+  /**
+   *  内嵌查询是否批量加载：收集所有父对象的列值，一次（按 batchFetchSize 分批）执行内嵌查询，再按 foreignColumn 分发给各个父对象
+   * */
+  private boolean batch;
+
   ResultMapping() {
   }
 
@@ -185,6 +190,11 @@ public class ResultMapping {
       resultMapping.lazy = lazy;
       return this;
     }
+
+    public Builder batch(boolean batch) {
+      resultMapping.batch = batch;
+      return this;
+    }
     
     public ResultMapping build() {
       //1. 修改集合为不可更改
@@ -312,6 +322,14 @@ public class ResultMapping {
   public void setLazy(boolean lazy) {
     this.lazy = lazy;
   }
+
+  public boolean isBatch() {
+    return batch;
+  }
+
+  public void setBatch(boolean batch) {
+    this.batch = batch;
+  }
   
   @Override
   public boolean equals(Object o) {
@@ -0,0 +1,24 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+/**
+ *  读写分离时语句的路由方式： DEFAULT 写操作之前的查询发送到从库，PRIMARY 总是发送到主库，REPLICA 查询总是发送到从库。
+ *    非查询语句总是发送到主库
+ */
+public enum RouteType {
+  DEFAULT, PRIMARY, REPLICA
+}
@@ -0,0 +1,81 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.mapping;
+
+import java.util.List;
+
+/**
+ *  临时表参数： foreach 的集合由执行器插入会话级的临时表，sql 中通过 select VAL from SESSION.表名 引用
+ */
+public class TempTable {
+
+  /**
+   *  临时表所在的模式，HSQLDB 和 Derby 的临时表都通过 SESSION 访问
+   * */
+  public static final String SCHEMA = "SESSION";
+
+  /**
+   *  存放值的列名
+   * */
+  public static final String VALUE_COLUMN = "VAL";
+
+  /**
+   *  表名（不含模式）
+   * */
+  private final String name;
+
+  /**
+   *  值所在列的 sql 类型，例如 BIGINT
+   * */
+  private final String columnType;
+
+  /**
+   *  插入值时使用的参数映射（类型处理器、jdbcType）
+   * */
+  private final ParameterMapping parameterMapping;
+
+  /**
+   *  要插入的值
+   * */
+  private final List<Object> values;
+
+  public TempTable(String name, String columnType, ParameterMapping parameterMapping, List<Object> values) {
+    this.name = name;
+    this.columnType = columnType;
+    this.parameterMapping = parameterMapping;
+    this.values = values;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getQualifiedName() {
+    return SCHEMA + "." + name;
+  }
+
+  public String getColumnType() {
+    return columnType;
+  }
+
+  public ParameterMapping getParameterMapping() {
+    return parameterMapping;
+  }
+
+  public List<Object> getValues() {
+    return values;
+  }
+}
@@ -75,8 +75,11 @@ public class DefaultParameterHandler implements ParameterHandler {
         if (parameterMapping.getMode() != ParameterMode.OUT) {
           Object value;
           String propertyName = parameterMapping.getProperty();
+          //0. 如果按位置绑定了值（positional 的 foreach），直接使用
+          if (boundSql.hasPositionalValue(i)) {
+            value = boundSql.getPositionalValue(i);
           //1. 如果额外参数(bind)中包含该属性，则从额外参数中获取属性对应的值
-          if (boundSql.hasAdditionalParameter(propertyName)) { // issue #448 ask first for additional params
+          } else if (boundSql.hasAdditionalParameter(propertyName)) { // issue #448 ask first for additional params
             value = boundSql.getAdditionalParameter(propertyName);
           //2. 如果传入的参数对象为空，则值为空
           } else if (parameterObject == null) {
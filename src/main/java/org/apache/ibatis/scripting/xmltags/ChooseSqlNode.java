@@ -58,4 +58,12 @@ public class ChooseSqlNode implements SqlNode {
     //3. 否则，返回false
     return false;
   }
+
+  List<SqlNode> getIfSqlNodes() {
+    return ifSqlNodes;
+  }
+
+  SqlNode getDefaultSqlNode() {
+    return defaultSqlNode;
+  }
 }
@@ -0,0 +1,551 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.apache.ibatis.builder.SqlSourceBuilder;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.parsing.GenericTokenParser;
+import org.apache.ibatis.parsing.TokenHandler;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ *  编译后的动态SQL源： 静态文本中的 #{} 已经解析完成，每次调用只需要判断分支、展开 foreach、替换 ${}
+ */
+public class CompiledSqlSource implements SqlSource {
+
+  private static final List<Parameter> NO_PARAMETERS = Collections.emptyList();
+
+  private final Configuration configuration;
+
+  /**
+   *  用于构建参数映射，只读，可以在多个线程之间共享
+   * */
+  private final SqlSourceBuilder sqlSourceBuilder;
+
+  /**
+   *  编译后的根片段
+   * */
+  private final Segment root;
+
+  /**
+   *  foreach 片段的数量，每个 foreach 片段在一次调用中都有自己的迭代序号
+   * */
+  private final int forEachCount;
+
+  CompiledSqlSource(Configuration configuration, Segment root, int forEachCount) {
+    this.configuration = configuration;
+    this.sqlSourceBuilder = new SqlSourceBuilder(configuration);
+    this.root = root;
+    this.forEachCount = forEachCount;
+  }
+
+  @Override
+  public BoundSql getBoundSql(Object parameterObject) {
+    //1. 与 DynamicSqlSource 一样，通过参数对象构建动态上下文，用于表达式求值和保存绑定的参数
+    DynamicContext context = new DynamicContext(configuration, parameterObject);
+    Invocation invocation = new Invocation(context, forEachCount);
+    RootSink sink = new RootSink();
+    //2. 执行片段树，拼接sql语句，记录参数
+    root.apply(invocation, sink);
+    //3. 根据最终的绑定解析参数映射
+    Class<?> parameterType = parameterObject == null ? Object.class : parameterObject.getClass();
+    MetaObject metaBindings = configuration.newMetaObject(context.getBindings());
+    List<ParameterMapping> parameterMappings = new ArrayList<ParameterMapping>(sink.parameters.size());
+    for (Parameter parameter : sink.parameters) {
+      parameterMappings.add(parameter.resolve(sqlSourceBuilder, parameterType, metaBindings));
+    }
+    BoundSql boundSql = new BoundSql(configuration, sink.getSql(), parameterMappings, parameterObject);
+    for (Map.Entry<String, Object> entry : context.getBindings().entrySet()) {
+      boundSql.setAdditionalParameter(entry.getKey(), entry.getValue());
+    }
+    return boundSql;
+  }
+
+  /**
+   *  一次调用的状态：动态上下文和每个 foreach 片段当前迭代的唯一序号
+   * */
+  static final class Invocation {
+    final DynamicContext context;
+    final int[] uniqueNumbers;
+
+    Invocation(DynamicContext context, int forEachCount) {
+      this.context = context;
+      this.uniqueNumbers = new int[forEachCount];
+    }
+  }
+
+  //-------------------------------------------- sinks --------------------------------------------
+
+  /**
+   *  sql 的接收者，对应 DynamicContext 及其装饰类的 appendSql
+   * */
+  abstract static class Sink {
+    abstract void append(String sql, List<Parameter> parameters);
+  }
+
+  /**
+   *  对应 DynamicContext 本身：每次拼接后追加一个空格
+   * */
+  static final class RootSink extends Sink {
+    private final StringBuilder sql = new StringBuilder();
+    private final List<Parameter> parameters = new ArrayList<Parameter>();
+
+    @Override
+    void append(String text, List<Parameter> textParameters) {
+      sql.append(text);
+      sql.append(" ");
+      parameters.addAll(textParameters);
+    }
+
+    String getSql() {
+      return sql.toString().trim();
+    }
+  }
+
+  /**
+   *  对应 TrimSqlNode.FilteredDynamicContext：先缓存内部节点的sql，最后统一添加前后缀
+   * */
+  static final class TrimSink extends Sink {
+    private final Sink delegate;
+    private final StringBuilder buffer = new StringBuilder();
+    private final List<Parameter> parameters = new ArrayList<Parameter>();
+
+    TrimSink(Sink delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    void append(String text, List<Parameter> textParameters) {
+      buffer.append(text);
+      parameters.addAll(textParameters);
+    }
+
+    void applyAll(TrimSqlNode node) {
+      delegate.append(node.trim(buffer), parameters);
+    }
+  }
+
+  /**
+   *  对应 ForEachSqlNode.PrefixedContext：在第一段非空的sql之前拼接分隔符
+   * */
+  static final class PrefixSink extends Sink {
+    private final Sink delegate;
+    private final String prefix;
+    private boolean prefixApplied;
+
+    PrefixSink(Sink delegate, String prefix) {
+      this.delegate = delegate;
+      this.prefix = prefix;
+    }
+
+    @Override
+    void append(String text, List<Parameter> textParameters) {
+      if (!prefixApplied && text != null && text.trim().length() > 0) {
+        delegate.append(prefix, NO_PARAMETERS);
+        prefixApplied = true;
+      }
+      delegate.append(text, textParameters);
+    }
+
+    boolean isPrefixApplied() {
+      return prefixApplied;
+    }
+  }
+
+  //-------------------------------------------- parameters --------------------------------------------
+
+  /**
+   *  sql 中的一个 "?"，在调用结束时解析成参数映射
+   * */
+  abstract static class Parameter {
+    abstract ParameterMapping resolve(SqlSourceBuilder builder, Class<?> parameterType, MetaObject metaBindings);
+  }
+
+  /**
+   *  静态文本中的 #{} 占位符，编译时已经解析完成。
+   *  如果属性不可能来自动态上下文的绑定，参数映射只取决于参数类型，按参数类型缓存
+   * */
+  static final class StaticParameter extends Parameter {
+    final String content;
+    final Map<String, String> propertiesMap;
+    final boolean bound;
+    private final ConcurrentMap<Class<?>, ParameterMapping> cache = new ConcurrentHashMap<Class<?>, ParameterMapping>();
+
+    StaticParameter(String content, Map<String, String> propertiesMap, boolean bound) {
+      this.content = content;
+      this.propertiesMap = propertiesMap;
+      this.bound = bound;
+    }
+
+    @Override
+    ParameterMapping resolve(SqlSourceBuilder builder, Class<?> parameterType, MetaObject metaBindings) {
+      if (bound) {
+        return builder.buildParameterMapping(propertiesMap.get("property"), propertiesMap, content, parameterType, metaBindings);
+      }
+      ParameterMapping parameterMapping = cache.get(parameterType);
+      if (parameterMapping == null) {
+        parameterMapping = builder.buildParameterMapping(propertiesMap.get("property"), propertiesMap, content, parameterType, metaBindings);
+        cache.putIfAbsent(parameterType, parameterMapping);
+      }
+      return parameterMapping;
+    }
+  }
+
+  /**
+   *  foreach 内部引用 item 或 index 的占位符，属性名在每次迭代时改写为 __frch_item_N
+   * */
+  static final class ItemParameter extends Parameter {
+    private final StaticParameter template;
+    private final String property;
+
+    ItemParameter(StaticParameter template, String property) {
+      this.template = template;
+      this.property = property;
+    }
+
+    @Override
+    ParameterMapping resolve(SqlSourceBuilder builder, Class<?> parameterType, MetaObject metaBindings) {
+      return builder.buildParameterMapping(property, template.propertiesMap, template.content, parameterType, metaBindings);
+    }
+  }
+
+  /**
+   *  ${} 替换后才出现的占位符，每次调用都需要解析
+   * */
+  static final class DynamicParameter extends Parameter {
+    private final String content;
+
+    DynamicParameter(String content) {
+      this.content = content;
+    }
+
+    @Override
+    ParameterMapping resolve(SqlSourceBuilder builder, Class<?> parameterType, MetaObject metaBindings) {
+      return builder.buildParameterMapping(content, parameterType, metaBindings);
+    }
+  }
+
+  //-------------------------------------------- segments --------------------------------------------
+
+  /**
+   *  编译后的 SqlNode
+   * */
+  abstract static class Segment {
+    abstract boolean apply(Invocation invocation, Sink sink);
+  }
+
+  /**
+   *  静态文本中的一个占位符：如果位于 foreach 内部并引用了 item 或 index，则记录改写所需的信息
+   * */
+  static final class Placeholder {
+    final StaticParameter parameter;
+
+    /**
+     *  改写该占位符的 foreach 片段序号，-1 表示不需要改写
+     * */
+    final int forEach;
+
+    /**
+     *  改写后的属性名为 propertyPrefix + 迭代序号 + propertySuffix
+     * */
+    final String propertyPrefix;
+    final String propertySuffix;
+
+    Placeholder(StaticParameter parameter, int forEach, String propertyPrefix, String propertySuffix) {
+      this.parameter = parameter;
+      this.forEach = forEach;
+      this.propertyPrefix = propertyPrefix;
+      this.propertySuffix = propertySuffix;
+    }
+  }
+
+  /**
+   *  对应 StaticTextSqlNode：#{} 已经替换为 "?"
+   * */
+  static final class StaticSegment extends Segment {
+    private final String sql;
+    private final Placeholder[] placeholders;
+    private final List<Parameter> parameters;
+
+    StaticSegment(String sql, Placeholder[] placeholders) {
+      this.sql = sql;
+      this.placeholders = placeholders;
+      boolean rewritten = false;
+      List<Parameter> list = new ArrayList<Parameter>(placeholders.length);
+      for (Placeholder placeholder : placeholders) {
+        rewritten |= placeholder.forEach >= 0;
+        list.add(placeholder.parameter);
+      }
+      this.parameters = rewritten ? null : Collections.unmodifiableList(list);
+    }
+
+    @Override
+    boolean apply(Invocation invocation, Sink sink) {
+      if (parameters != null) {
+        sink.append(sql, parameters);
+        return true;
+      }
+      List<Parameter> list = new ArrayList<Parameter>(placeholders.length);
+      for (Placeholder placeholder : placeholders) {
+        if (placeholder.forEach < 0) {
+          list.add(placeholder.parameter);
+        } else {
+          String property = placeholder.propertyPrefix + invocation.uniqueNumbers[placeholder.forEach] + placeholder.propertySuffix;
+          list.add(new ItemParameter(placeholder.parameter, property));
+        }
+      }
+      sink.append(sql, list);
+      return true;
+    }
+  }
+
+  /**
+   *  对应 TextSqlNode：先替换 ${}，再解析替换后文本中的 #{}，并按外层 foreach 改写 item 和 index
+   * */
+  static final class TextSegment extends Segment {
+    private final TextSqlNode node;
+
+    /**
+     *  包含该节点的 foreach 片段，由内到外
+     * */
+    private final ForEachSegment[] scope;
+
+    TextSegment(TextSqlNode node, ForEachSegment[] scope) {
+      this.node = node;
+      this.scope = scope;
+    }
+
+    @Override
+    boolean apply(final Invocation invocation, Sink sink) {
+      String text = node.substitute(invocation.context);
+      final List<Parameter> parameters = new ArrayList<Parameter>();
+      GenericTokenParser parser = new GenericTokenParser("#{", "}", new TokenHandler() {
+        @Override
+        public String handleToken(String content) {
+          for (ForEachSegment forEach : scope) {
+            content = forEach.rewrite(content, invocation.uniqueNumbers[forEach.ordinal]);
+          }
+          parameters.add(new DynamicParameter(content));
+          return "?";
+        }
+      });
+      sink.append(parser.parse(text), parameters);
+      return true;
+    }
+  }
+
+  /**
+   *  对应 MixedSqlNode
+   * */
+  static final class MixedSegment extends Segment {
+    private final Segment[] contents;
+
+    MixedSegment(Segment[] contents) {
+      this.contents = contents;
+    }
+
+    @Override
+    boolean apply(Invocation invocation, Sink sink) {
+      for (Segment segment : contents) {
+        segment.apply(invocation, sink);
+      }
+      return true;
+    }
+  }
+
+  /**
+   *  对应 IfSqlNode 以及 <when/>
+   * */
+  static final class IfSegment extends Segment {
+    private final ExpressionEvaluator evaluator = new ExpressionEvaluator();
+    private final Expression test;
+    private final Segment contents;
+
+    IfSegment(Expression test, Segment contents) {
+      this.test = test;
+      this.contents = contents;
+    }
+
+    @Override
+    boolean apply(Invocation invocation, Sink sink) {
+      if (evaluator.evaluateBoolean(test, invocation.context.getBindings())) {
+        contents.apply(invocation, sink);
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   *  对应 ChooseSqlNode
+   * */
+  static final class ChooseSegment extends Segment {
+    private final Segment[] whenSegments;
+    private final Segment otherwiseSegment;
+
+    ChooseSegment(Segment[] whenSegments, Segment otherwiseSegment) {
+      this.whenSegments = whenSegments;
+      this.otherwiseSegment = otherwiseSegment;
+    }
+
+    @Override
+    boolean apply(Invocation invocation, Sink sink) {
+      for (Segment segment : whenSegments) {
+        if (segment.apply(invocation, sink)) {
+          return true;
+        }
+      }
+      if (otherwiseSegment != null) {
+        otherwiseSegment.apply(invocation, sink);
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   *  对应 VarDeclSqlNode：只操作动态上下文的绑定，直接委托给原节点
+   * */
+  static final class BindSegment extends Segment {
+    private final VarDeclSqlNode node;
+
+    BindSegment(VarDeclSqlNode node) {
+      this.node = node;
+    }
+
+    @Override
+    boolean apply(Invocation invocation, Sink sink) {
+      return node.apply(invocation.context);
+    }
+  }
+
+  /**
+   *  对应 TrimSqlNode、WhereSqlNode 和 SetSqlNode
+   * */
+  static final class TrimSegment extends Segment {
+    private final TrimSqlNode node;
+    private final Segment contents;
+
+    TrimSegment(TrimSqlNode node, Segment contents) {
+      this.node = node;
+      this.contents = contents;
+    }
+
+    @Override
+    boolean apply(Invocation invocation, Sink sink) {
+      TrimSink trimSink = new TrimSink(sink);
+      boolean result = contents.apply(invocation, trimSink);
+      trimSink.applyAll(node);
+      return result;
+    }
+  }
+
+  /**
+   *  对应 ForEachSqlNode：绑定 item 和 index 的方式与原节点相同，但占位符的改写在编译时已经确定
+   * */
+  static final class ForEachSegment extends Segment {
+    private final ExpressionEvaluator evaluator = new ExpressionEvaluator();
+    private final ForEachSqlNode node;
+    final int ordinal;
+    final Pattern itemPattern;
+    final Pattern indexPattern;
+    private Segment contents;
+
+    ForEachSegment(ForEachSqlNode node, int ordinal) {
+      this.node = node;
+      this.ordinal = ordinal;
+      this.itemPattern = Pattern.compile("^\\s*" + node.getItem() + "(?![^.,:\\s])");
+      this.indexPattern = node.getIndex() == null ? null : Pattern.compile("^\\s*" + node.getIndex() + "(?![^.,:\\s])");
+    }
+
+    void setContents(Segment contents) {
+      this.contents = contents;
+    }
+
+    String getItem() {
+      return node.getItem();
+    }
+
+    String getIndex() {
+      return node.getIndex();
+    }
+
+    /**
+     *  与 ForEachSqlNode.FilteredDynamicContext 相同的改写规则
+     * */
+    String rewrite(String content, int uniqueNumber) {
+      String newContent = itemPattern.matcher(content).replaceFirst(ForEachSqlNode.itemizeItem(node.getItem(), uniqueNumber));
+      if (indexPattern != null && newContent.equals(content)) {
+        newContent = indexPattern.matcher(content).replaceFirst(ForEachSqlNode.itemizeItem(node.getIndex(), uniqueNumber));
+      }
+      return newContent;
+    }
+
+    @Override
+    boolean apply(Invocation invocation, Sink sink) {
+      DynamicContext context = invocation.context;
+      final Iterable<?> iterable = evaluator.evaluateIterable(node.getCompiledCollectionExpression(), context.getBindings());
+      if (!iterable.iterator().hasNext()) {
+        return true;
+      }
+      boolean first = true;
+      if (node.getOpen() != null) {
+        sink.append(node.getOpen(), NO_PARAMETERS);
+      }
+      int i = 0;
+      for (Object o : iterable) {
+        PrefixSink prefixSink;
+        if (first || node.getSeparator() == null) {
+          prefixSink = new PrefixSink(sink, "");
+        } else {
+          prefixSink = new PrefixSink(sink, node.getSeparator());
+        }
+        int uniqueNumber = context.getUniqueNumber();
+        if (o instanceof Map.Entry) {
+          @SuppressWarnings("unchecked")
+          Map.Entry<Object, Object> mapEntry = (Map.Entry<Object, Object>) o;
+          node.applyIndex(context, mapEntry.getKey(), uniqueNumber);
+          node.applyItem(context, mapEntry.getValue(), uniqueNumber);
+        } else {
+          node.applyIndex(context, i, uniqueNumber);
+          node.applyItem(context, o, uniqueNumber);
+        }
+        invocation.uniqueNumbers[ordinal] = uniqueNumber;
+        contents.apply(invocation, prefixSink);
+        if (first) {
+          first = !prefixSink.isPrefixApplied();
+        }
+        i++;
+      }
+      if (node.getClose() != null) {
+        sink.append(node.getClose(), NO_PARAMETERS);
+      }
+      return true;
+    }
+  }
+
+}
@@ -15,7 +15,9 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import ognl.OgnlContext;
@@ -23,7 +25,8 @@ import ognl.OgnlException;
 import ognl.OgnlRuntime;
 import ognl.PropertyAccessor;
 
-import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.TempTable;
 import org.apache.ibatis.reflection.MetaObject;
 import org.apache.ibatis.session.Configuration;
 
@@ -61,6 +64,27 @@ public class DynamicContext {
    * */
   private int uniqueNumber = 0;
 
+  /**
+   *  分支签名：记录执行过程中 if 的真假、foreach 的迭代以及 ${} 替换后的文本，签名相同的调用生成的sql相同。
+   *  为 null 时不记录
+   * */
+  private StringBuilder branchSignature;
+
+  /**
+   *  按位置绑定的参数（positional 的 foreach），没有时为 null
+   * */
+  private PositionalParameters positionalParameters;
+
+  /**
+   *  分块执行的 foreach（chunkSize）当前要生成的分块，没有时为 null
+   * */
+  private ChunkWindow chunkWindow;
+
+  /**
+   *  通过临时表引用的集合（foreach 的 tempTableThreshold），没有时为 null
+   * */
+  private List<TempTable> tempTables;
+
   /**
    *  统一参数的访问方式:用 Map 接口访问数据.
    *  根据传入的参数类型，构造ContextMap时， 使用不同的构造函数
@@ -105,6 +129,88 @@ public class DynamicContext {
     return uniqueNumber++;
   }
 
+  /**
+   *  开始记录分支签名
+   * */
+  void recordBranchSignature() {
+    branchSignature = new StringBuilder();
+  }
+
+  /**
+   *  返回分支签名，没有开始记录时返回 null。装饰类需要返回被装饰的上下文的签名
+   * */
+  StringBuilder getBranchSignature() {
+    return branchSignature;
+  }
+
+  /**
+   *  返回按位置绑定的参数，第一次调用时创建。装饰类需要返回被装饰的上下文的参数
+   * */
+  PositionalParameters getPositionalParameters() {
+    if (positionalParameters == null) {
+      positionalParameters = new PositionalParameters();
+    }
+    return positionalParameters;
+  }
+
+  boolean hasPositionalParameters() {
+    return positionalParameters != null;
+  }
+
+  /**
+   *  返回分块窗口，第一次调用时创建（第 0 块）。装饰类需要返回被装饰的上下文的窗口
+   * */
+  ChunkWindow getChunkWindow() {
+    if (chunkWindow == null) {
+      chunkWindow = new ChunkWindow();
+    }
+    return chunkWindow;
+  }
+
+  boolean hasChunkWindow() {
+    return chunkWindow != null;
+  }
+
+  /**
+   *  返回通过临时表引用的集合，第一次调用时创建。装饰类需要返回被装饰的上下文的集合
+   * */
+  List<TempTable> getTempTables() {
+    if (tempTables == null) {
+      tempTables = new ArrayList<TempTable>();
+    }
+    return tempTables;
+  }
+
+  boolean hasTempTables() {
+    return tempTables != null;
+  }
+
+  /**
+   *  按位置绑定的参数：sql 中每个 #{?} 占位符依次对应的参数映射和值，值直接取自集合，不放入 bindings
+   * */
+  static final class PositionalParameters {
+    final List<ParameterMapping> mappings = new ArrayList<ParameterMapping>();
+    final List<Object> values = new ArrayList<Object>();
+
+    void add(ParameterMapping mapping, Object value) {
+      mappings.add(mapping);
+      values.add(value);
+    }
+  }
+
+
+  /**
+   *  分块窗口：一条语句中最多一个 foreach 的集合超过 chunkSize，该 foreach 只迭代第 chunk 块的元素，并记录总的块数
+   * */
+  static final class ChunkWindow {
+    int chunk;
+    ForEachSqlNode owner;
+    int chunkCount;
+    boolean batch;
+    boolean applied;
+    List<?> elements;
+  }
+
 
   static class ContextMap extends HashMap<String, Object> {
     private static final long serialVersionUID = 2977601501966151582L;
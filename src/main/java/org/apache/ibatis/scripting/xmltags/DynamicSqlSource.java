@@ -15,11 +15,22 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.ibatis.builder.BuilderException;
 import org.apache.ibatis.builder.SqlSourceBuilder;
 import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
 import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.mapping.TempTable;
+import org.apache.ibatis.reflection.property.PropertyTokenizer;
+import org.apache.ibatis.reflection.wrapper.DefaultObjectWrapperFactory;
+import org.apache.ibatis.reflection.wrapper.ObjectWrapper;
 import org.apache.ibatis.session.Configuration;
 
 /**
@@ -27,7 +38,8 @@ import org.apache.ibatis.session.Configuration;
  */
 /**
  * 动态SQL源码
- * 
+ *   每次调用都会记录分支签名（if 的真假、foreach 的迭代、${} 替换后的文本）。参数类型和签名相同的调用生成的sql相同，
+ *   因此解析好的sql和参数映射会缓存在有界的缓存中（dynamicSqlShapeCacheSize），命中后只需要重新绑定参数的值
  */
 public class DynamicSqlSource implements SqlSource {
 
@@ -41,9 +53,66 @@ public class DynamicSqlSource implements SqlSource {
    * */
   private SqlNode rootSqlNode;
 
+  /**
+   *  缓存的最大形状数量，0 表示不缓存
+   * */
+  private final int shapeCacheSize;
+
+  /**
+   *  参数类型和分支签名 -> 解析好的sql和参数映射。按访问顺序排序，超过 shapeCacheSize 时淘汰最久没有使用的形状，
+   *    避免先出现的少见形状占满缓存后，常用的形状再也进不了缓存
+   * */
+  private final Map<ShapeKey, Shape> shapes;
+
+  /**
+   *  是否包含指定了 chunkSize 的 foreach
+   * */
+  private final boolean chunked;
+
+  /**
+   *  是否包含指定了 tempTableThreshold 的 foreach
+   * */
+  private final boolean tempTables;
+
+  private static final int[] NO_POSITIONS = new int[0];
+
   public DynamicSqlSource(Configuration configuration, SqlNode rootSqlNode) {
     this.configuration = configuration;
     this.rootSqlNode = rootSqlNode;
+    // 自定义的 SqlNode 可能根据参数的值生成不同的sql，无法用分支签名区分
+    this.shapeCacheSize = isDeterministic(rootSqlNode) ? configuration.getDynamicSqlShapeCacheSize() : 0;
+    this.shapes = Collections.synchronizedMap(new LinkedHashMap<ShapeKey, Shape>(16, .75F, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<ShapeKey, Shape> eldest) {
+        return size() > shapeCacheSize;
+      }
+    });
+    List<ForEachSqlNode> forEachNodes = new ArrayList<ForEachSqlNode>();
+    collectForEachNodes(rootSqlNode, forEachNodes);
+    boolean chunked = false;
+    boolean tempTables = false;
+    for (ForEachSqlNode forEach : forEachNodes) {
+      chunked |= forEach.isChunked();
+      tempTables |= forEach.usesTempTable();
+    }
+    this.chunked = chunked;
+    this.tempTables = tempTables;
+  }
+
+  /**
+   *  是否可能按块生成多个绑定sql（见 {@link BoundSql#getChunks()}）
+   * */
+  public boolean isChunked() {
+    return chunked;
+  }
+
+  /**
+   *  是否可能通过临时表引用集合（见 {@link BoundSql#getTempTables()}）
+   * */
+  public boolean usesTempTables() {
+    return tempTables;
   }
 
 
@@ -52,20 +121,261 @@ public class DynamicSqlSource implements SqlSource {
    * */
   @Override
   public BoundSql getBoundSql(Object parameterObject) {
+    boolean cacheShapes = shapeCacheSize > 0 && configuration.getObjectWrapperFactory() instanceof DefaultObjectWrapperFactory;
     //1. 通过参数对象构建动态上下文
-    DynamicContext context = new DynamicContext(configuration, parameterObject);
+    DynamicContext context = newContext(parameterObject, cacheShapes);
     //2. 根据传入的所有参数对象解析所有的动态sql语句 和 ${}占位符
     rootSqlNode.apply(context);
-    SqlSourceBuilder sqlSourceParser = new SqlSourceBuilder(configuration);
-    Class<?> parameterType = parameterObject == null ? Object.class : parameterObject.getClass();
-    //3. 根据 sql源构建器解析 sql 获取静态的sql源
-    SqlSource sqlSource = sqlSourceParser.parse(context.getSql(), parameterType, context.getBindings());
-    //4. 根据该静态sql源获取其绑定sql对象
-    BoundSql boundSql = sqlSource.getBoundSql(parameterObject);
-    for (Map.Entry<String, Object> entry : context.getBindings().entrySet()) {
+    BoundSql boundSql = toBoundSql(context, parameterObject, cacheShapes);
+    //5. foreach 的集合超过 chunkSize 时，上面生成的是第一块，依次生成其余的块
+    if (context.hasChunkWindow()) {
+      DynamicContext.ChunkWindow window = context.getChunkWindow();
+      List<BoundSql> chunks = new ArrayList<BoundSql>(window.chunkCount);
+      chunks.add(boundSql);
+      for (int chunk = 1; chunk < window.chunkCount; chunk++) {
+        DynamicContext chunkContext = newContext(parameterObject, cacheShapes);
+        chunkContext.getChunkWindow().chunk = chunk;
+        chunkContext.getChunkWindow().elements = window.elements;
+        rootSqlNode.apply(chunkContext);
+        if (chunkContext.getChunkWindow().chunkCount != window.chunkCount) {
+          throw new BuilderException("The collection of a <foreach> with a chunkSize changed while its chunks were generated.");
+        }
+        chunks.add(toBoundSql(chunkContext, parameterObject, cacheShapes));
+      }
+      boundSql.setChunks(chunks, window.batch);
+    }
+    return boundSql;
+  }
+
+  private DynamicContext newContext(Object parameterObject, boolean cacheShapes) {
+    DynamicContext context = new DynamicContext(configuration, parameterObject);
+    if (cacheShapes) {
+      context.recordBranchSignature();
+    }
+    return context;
+  }
+
+  /**
+   *  将动态上下文中生成的sql解析为绑定sql对象
+   * */
+  private BoundSql toBoundSql(DynamicContext context, Object parameterObject, boolean cacheShapes) {
+    Map<String, Object> bindings = context.getBindings();
+    //positional 的 foreach 按位置绑定的参数
+    DynamicContext.PositionalParameters positional = context.hasPositionalParameters() ? context.getPositionalParameters() : null;
+    BoundSql boundSql = null;
+    ShapeKey key = null;
+    if (cacheShapes) {
+      //2.1 相同形状的sql已经解析过，直接使用缓存的sql和参数映射
+      key = new ShapeKey(parameterObject == null ? null : parameterObject.getClass(), context.getBranchSignature().toString());
+      Shape shape = shapes.get(key);
+      if (shape != null && shape.matches(bindings, positional)) {
+        boundSql = new BoundSql(configuration, shape.sql, shape.parameterMappings, parameterObject);
+        setPositionalValues(boundSql, shape.positions, positional);
+      }
+    }
+    if (boundSql == null) {
+      SqlSourceBuilder sqlSourceParser = new SqlSourceBuilder(configuration);
+      Class<?> parameterType = parameterObject == null ? Object.class : parameterObject.getClass();
+      //3. 根据 sql源构建器解析 sql 获取静态的sql源，#{?} 依次使用按位置绑定的参数映射
+      int[] positions = positional == null ? NO_POSITIONS : new int[positional.mappings.size()];
+      SqlSource sqlSource = sqlSourceParser.parse(context.getSql(), parameterType, bindings,
+          positional == null ? null : positional.mappings, positions);
+      //4. 根据该静态sql源获取其绑定sql对象
+      boundSql = sqlSource.getBoundSql(parameterObject);
+      setPositionalValues(boundSql, positions, positional);
+      if (cacheShapes) {
+        Shape shape = Shape.of(boundSql, bindings, positions);
+        if (shape != null) {
+          shapes.put(key, shape);
+        }
+      }
+    }
+    for (Map.Entry<String, Object> entry : bindings.entrySet()) {
       boundSql.setAdditionalParameter(entry.getKey(), entry.getValue());
     }
+    if (context.hasTempTables()) {
+      for (TempTable tempTable : context.getTempTables()) {
+        boundSql.addTempTable(tempTable);
+      }
+    }
     return boundSql;
   }
 
+  private static void setPositionalValues(BoundSql boundSql, int[] positions, DynamicContext.PositionalParameters positional) {
+    for (int i = 0; i < positions.length; i++) {
+      boundSql.setPositionalValue(positions[i], positional.values.get(i));
+    }
+  }
+
+  private static void collectForEachNodes(SqlNode node, List<ForEachSqlNode> forEachNodes) {
+    if (node instanceof ForEachSqlNode) {
+      forEachNodes.add((ForEachSqlNode) node);
+      collectForEachNodes(((ForEachSqlNode) node).getContents(), forEachNodes);
+    } else if (node instanceof MixedSqlNode) {
+      for (SqlNode child : ((MixedSqlNode) node).getContents()) {
+        collectForEachNodes(child, forEachNodes);
+      }
+    } else if (node instanceof IfSqlNode) {
+      collectForEachNodes(((IfSqlNode) node).getContents(), forEachNodes);
+    } else if (node instanceof ChooseSqlNode) {
+      for (SqlNode child : ((ChooseSqlNode) node).getIfSqlNodes()) {
+        collectForEachNodes(child, forEachNodes);
+      }
+      collectForEachNodes(((ChooseSqlNode) node).getDefaultSqlNode(), forEachNodes);
+    } else if (node instanceof TrimSqlNode) {
+      collectForEachNodes(((TrimSqlNode) node).getContents(), forEachNodes);
+    }
+  }
+
+  /**
+   *  是否只包含 XMLScriptBuilder 创建的节点，这些节点生成的sql完全由分支签名决定
+   * */
+  private static boolean isDeterministic(SqlNode node) {
+    if (node == null) {
+      return true;
+    }
+    Class<?> type = node.getClass();
+    if (type == MixedSqlNode.class) {
+      for (SqlNode child : ((MixedSqlNode) node).getContents()) {
+        if (!isDeterministic(child)) {
+          return false;
+        }
+      }
+      return true;
+    } else if (type == IfSqlNode.class) {
+      return isDeterministic(((IfSqlNode) node).getContents());
+    } else if (type == ChooseSqlNode.class) {
+      for (SqlNode child : ((ChooseSqlNode) node).getIfSqlNodes()) {
+        if (!isDeterministic(child)) {
+          return false;
+        }
+      }
+      return isDeterministic(((ChooseSqlNode) node).getDefaultSqlNode());
+    } else if (type == TrimSqlNode.class || type == WhereSqlNode.class || type == SetSqlNode.class) {
+      return isDeterministic(((TrimSqlNode) node).getContents());
+    } else if (type == ForEachSqlNode.class) {
+      return isDeterministic(((ForEachSqlNode) node).getContents());
+    }
+    return type == StaticTextSqlNode.class || type == TextSqlNode.class || type == VarDeclSqlNode.class;
+  }
+
+  /**
+   *  缓存的键：参数类型和分支签名
+   * */
+  private static final class ShapeKey {
+    private final Class<?> parameterType;
+    private final String signature;
+    private final int hashCode;
+
+    ShapeKey(Class<?> parameterType, String signature) {
+      this.parameterType = parameterType;
+      this.signature = signature;
+      this.hashCode = 31 * (parameterType == null ? 0 : parameterType.hashCode()) + signature.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ShapeKey)) {
+        return false;
+      }
+      ShapeKey other = (ShapeKey) o;
+      return parameterType == other.parameterType && signature.equals(other.signature);
+    }
+  }
+
+  /**
+   *  解析好的sql和参数映射。
+   *  参数映射的类型除了参数类型之外，还取决于动态上下文中绑定的值（foreach 的元素、bind 的值等）的类型，
+   *  因此记录每个参数映射所依赖的绑定及其类型，命中缓存时需要再次检查。
+   *  按位置绑定的参数映射由 foreach 按值的类型选择，命中缓存时检查是否为同一个参数映射
+   * */
+  private static final class Shape {
+    private static final Object NOT_BOUND = new Object();
+
+    private final String sql;
+    private final List<ParameterMapping> parameterMappings;
+    private final String[] guardNames;
+    private final Object[] guardTypes;
+    private final int[] positions;
+
+    private Shape(String sql, List<ParameterMapping> parameterMappings, String[] guardNames, Object[] guardTypes, int[] positions) {
+      this.sql = sql;
+      this.parameterMappings = parameterMappings;
+      this.guardNames = guardNames;
+      this.guardTypes = guardTypes;
+      this.positions = positions;
+    }
+
+    /**
+     *  参数映射的类型无法只由绑定值的类型决定时（多级属性、下标、Map 或集合中的值）返回 null，不缓存
+     * */
+    static Shape of(BoundSql boundSql, Map<String, Object> bindings, int[] positions) {
+      List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+      String[] guardNames = new String[parameterMappings.size()];
+      Object[] guardTypes = new Object[parameterMappings.size()];
+      for (int i = 0; i < guardNames.length; i++) {
+        if (boundSql.hasPositionalValue(i)) {
+          continue;
+        }
+        String property = parameterMappings.get(i).getProperty();
+        if (property == null || property.indexOf('[') >= 0) {
+          return null;
+        }
+        PropertyTokenizer prop = new PropertyTokenizer(property);
+        String name = prop.getName();
+        guardNames[i] = name;
+        if (!bindings.containsKey(name)) {
+          // 类型只取决于参数类型
+          guardTypes[i] = NOT_BOUND;
+        } else if (!prop.hasNext()) {
+          // 类型为绑定值的类型
+          guardTypes[i] = typeOf(bindings.get(name));
+        } else {
+          // 类型为绑定值（JavaBean）的属性的声明类型
+          Object value = bindings.get(name);
+          if (prop.getChildren().indexOf('.') >= 0 || value instanceof Map || value instanceof Collection
+              || value instanceof ObjectWrapper || (value != null && value.getClass().isArray())) {
+            return null;
+          }
+          guardTypes[i] = typeOf(value);
+        }
+      }
+      return new Shape(boundSql.getSql(), parameterMappings, guardNames, guardTypes, positions);
+    }
+
+    boolean matches(Map<String, Object> bindings, DynamicContext.PositionalParameters positional) {
+      int positionalCount = positional == null ? 0 : positional.mappings.size();
+      if (positions.length != positionalCount) {
+        return false;
+      }
+      for (int i = 0; i < positionalCount; i++) {
+        if (parameterMappings.get(positions[i]) != positional.mappings.get(i)) {
+          return false;
+        }
+      }
+      for (int i = 0; i < guardNames.length; i++) {
+        Object expected = guardTypes[i];
+        if (guardNames[i] == null) {
+          continue;
+        } else if (expected == NOT_BOUND) {
+          if (bindings.containsKey(guardNames[i])) {
+            return false;
+          }
+        } else if (!bindings.containsKey(guardNames[i]) || typeOf(bindings.get(guardNames[i])) != expected) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static Class<?> typeOf(Object value) {
+      return value == null ? null : value.getClass();
+    }
+  }
+
 }
@@ -0,0 +1,111 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import org.apache.ibatis.builder.BuilderException;
+
+/**
+ *  预编译的 test、bind 和 collection 表达式： 常用的语法由内置的求值器计算，其他表达式以及内置求值器不支持的值交给 OGNL
+ */
+public abstract class Expression {
+
+  private final String text;
+
+  Expression(String text) {
+    this.text = text;
+  }
+
+  /**
+   *  编译表达式，不在内置语法范围内的表达式返回由 OGNL 求值的表达式
+   * */
+  public static Expression compile(String text) {
+    final ExpressionParser.Node node = ExpressionParser.parse(text);
+    if (node == null) {
+      return new OgnlExpression(text);
+    }
+    return new BuiltInExpression(text, node);
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  /**
+   *  是否由内置的求值器计算
+   * */
+  public abstract boolean isBuiltIn();
+
+  /**
+   *  计算表达式的值
+   *
+   * @param root 用于获取表达式对应的值的对象， 通常为 DynamicContext 的 bindings
+   * */
+  public abstract Object getValue(Object root);
+
+  @Override
+  public String toString() {
+    return text;
+  }
+
+  private static class OgnlExpression extends Expression {
+
+    OgnlExpression(String text) {
+      super(text);
+    }
+
+    @Override
+    public boolean isBuiltIn() {
+      return false;
+    }
+
+    @Override
+    public Object getValue(Object root) {
+      return OgnlCache.getValue(getText(), root);
+    }
+  }
+
+  private static class BuiltInExpression extends Expression {
+
+    private final ExpressionParser.Node node;
+
+    BuiltInExpression(String text, ExpressionParser.Node node) {
+      super(text);
+      this.node = node;
+    }
+
+    @Override
+    public boolean isBuiltIn() {
+      return true;
+    }
+
+    @Override
+    public Object getValue(Object root) {
+      try {
+        return node.getValue(root);
+      } catch (ExpressionParser.MethodFailedException e) {
+        //属性或方法抛出的异常与 OGNL 一样包装为 BuilderException，不再调用一次
+        throw new BuilderException("Error evaluating expression '" + getText() + "'. Cause: " + e, e.getCause());
+      } catch (RuntimeException e) {
+        //只有内置求值器不支持的值（例如 null 的属性）交给 OGNL 重新计算，其他异常（例如 Map.get 抛出的）直接抛出
+        if (e != ExpressionParser.FALLBACK) {
+          throw e;
+        }
+        return OgnlCache.getValue(getText(), root);
+      }
+    }
+  }
+
+}
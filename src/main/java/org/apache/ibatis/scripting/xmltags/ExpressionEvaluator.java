@@ -37,6 +37,17 @@ public class ExpressionEvaluator {
   public boolean evaluateBoolean(String expression, Object parameterObject) {
     //1. 获取表达式的值
     Object value = OgnlCache.getValue(expression, parameterObject);
+    return booleanValue(value);
+  }
+
+  /**
+   *  解析预编译表达式返回的布尔值
+   * */
+  public boolean evaluateBoolean(Expression expression, Object parameterObject) {
+    return booleanValue(expression.getValue(parameterObject));
+  }
+
+  private boolean booleanValue(Object value) {
     //2. 如果为布尔类型，进行类型转换
     if (value instanceof Boolean) {
       return (Boolean) value;
@@ -55,6 +66,17 @@ public class ExpressionEvaluator {
   public Iterable<?> evaluateIterable(String expression, Object parameterObject) {
     //1. 获取表达式的值
     Object value = OgnlCache.getValue(expression, parameterObject);
+    return iterableValue(expression, value);
+  }
+
+  /**
+   *  解析预编译表达式，获取集合
+   * */
+  public Iterable<?> evaluateIterable(Expression expression, Object parameterObject) {
+    return iterableValue(expression.getText(), expression.getValue(parameterObject));
+  }
+
+  private Iterable<?> iterableValue(String expression, Object value) {
     //2. 如果为null, 抛出异常
     if (value == null) {
       throw new BuilderException("The expression '" + expression + "' evaluated to a null value.");
@@ -0,0 +1,694 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ibatis.scripting.xmltags.DynamicContext.ContextMap;
+
+/**
+ *  内置表达式的解析器，只解析下面的 OGNL 子集，其他语法返回 null，由 OGNL 处理
+ *
+ * <pre>
+ * or         := and (('or' | '||') and)*
+ * and        := equality (('and' | '&amp;&amp;') equality)*
+ * equality   := relational (('==' | 'eq' | '!=' | 'neq') relational)*
+ * relational := additive (('&lt;' | 'lt' | '&lt;=' | 'lte' | '&gt;' | 'gt' | '&gt;=' | 'gte') additive)*
+ * additive   := unary ('+' unary)*
+ * unary      := ('!' | 'not') unary | primary
+ * primary    := literal | '(' or ')' | name ('.' name ('(' ')')?)*
+ * </pre>
+ */
+final class ExpressionParser {
+
+  /**
+   *  交给 OGNL 计算的信号，不需要堆栈。只在语法或值的类型不受支持时抛出，用户代码抛出的异常不会转成该信号
+   * */
+  static final RuntimeException FALLBACK = new Signal("Expression evaluated by OGNL");
+
+  /**
+   *  OGNL 的关键字，不能作为属性名
+   * */
+  private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+      "or", "and", "not", "eq", "neq", "lt", "lte", "gt", "gte", "in", "instanceof", "new",
+      "bor", "xor", "band", "shl", "shr", "ushr", "null", "true", "false"));
+
+  /**
+   *  OGNL 对 Map 特殊处理的属性名
+   * */
+  private static final Set<String> MAP_PROPERTIES = new HashSet<String>(Arrays.asList(
+      "size", "keys", "keySet", "values", "isEmpty"));
+
+  private static final RuntimeException UNSUPPORTED = new Signal("Unsupported expression");
+
+  private final String text;
+  private int pos;
+
+  private ExpressionParser(String text) {
+    this.text = text;
+  }
+
+  /**
+   *  解析表达式，不在内置语法范围内时返回 null
+   * */
+  static Node parse(String text) {
+    if (text == null) {
+      return null;
+    }
+    final ExpressionParser parser = new ExpressionParser(text);
+    try {
+      final Node node = parser.parseOr();
+      parser.skipSpaces();
+      return parser.pos == text.length() ? node : null;
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  private Node parseOr() {
+    Node node = parseAnd();
+    while (acceptSymbol("||") || acceptWord("or")) {
+      node = new OrNode(node, parseAnd());
+    }
+    return node;
+  }
+
+  private Node parseAnd() {
+    Node node = parseEquality();
+    while (acceptSymbol("&&") || acceptWord("and")) {
+      node = new AndNode(node, parseEquality());
+    }
+    return node;
+  }
+
+  private Node parseEquality() {
+    Node node = parseRelational();
+    while (true) {
+      if (acceptSymbol("==") || acceptWord("eq")) {
+        node = new CompareNode(CompareNode.EQ, node, parseRelational());
+      } else if (acceptSymbol("!=") || acceptWord("neq")) {
+        node = new CompareNode(CompareNode.NEQ, node, parseRelational());
+      } else {
+        return node;
+      }
+    }
+  }
+
+  private Node parseRelational() {
+    Node node = parseAdditive();
+    while (true) {
+      if (acceptSymbol("<=") || acceptWord("lte")) {
+        node = new CompareNode(CompareNode.LTE, node, parseAdditive());
+      } else if (acceptSymbol(">=") || acceptWord("gte")) {
+        node = new CompareNode(CompareNode.GTE, node, parseAdditive());
+      } else if (acceptOperator('<') || acceptWord("lt")) {
+        node = new CompareNode(CompareNode.LT, node, parseAdditive());
+      } else if (acceptOperator('>') || acceptWord("gt")) {
+        node = new CompareNode(CompareNode.GT, node, parseAdditive());
+      } else {
+        return node;
+      }
+    }
+  }
+
+  private Node parseAdditive() {
+    Node node = parseUnary();
+    while (acceptOperator('+')) {
+      node = new AddNode(node, parseUnary());
+    }
+    return node;
+  }
+
+  private Node parseUnary() {
+    if (acceptOperator('!') || acceptWord("not")) {
+      return new NotNode(parseUnary());
+    }
+    return parsePrimary();
+  }
+
+  private Node parsePrimary() {
+    skipSpaces();
+    if (pos >= text.length()) {
+      throw UNSUPPORTED;
+    }
+    final char c = text.charAt(pos);
+    if (c == '(') {
+      pos++;
+      final Node node = parseOr();
+      if (!acceptSymbol(")")) {
+        throw UNSUPPORTED;
+      }
+      return node;
+    }
+    if (c == '\'' || c == '"') {
+      return new LiteralNode(parseString(c));
+    }
+    if (c >= '0' && c <= '9') {
+      return new LiteralNode(parseNumber());
+    }
+    final String name = parseName();
+    if ("null".equals(name)) {
+      return new LiteralNode(null);
+    } else if ("true".equals(name)) {
+      return new LiteralNode(Boolean.TRUE);
+    } else if ("false".equals(name)) {
+      return new LiteralNode(Boolean.FALSE);
+    } else if (KEYWORDS.contains(name) || next() == '(') {
+      throw UNSUPPORTED;
+    }
+    Node node = new RootPropertyNode(name);
+    while (next() == '.') {
+      pos++;
+      final String member = parseName();
+      if (KEYWORDS.contains(member)) {
+        throw UNSUPPORTED;
+      }
+      if (next() == '(') {
+        pos++;
+        if (!acceptSymbol(")")) {
+          throw UNSUPPORTED;
+        }
+        node = new MethodNode(node, member);
+      } else {
+        node = new PropertyNode(node, member);
+      }
+    }
+    return node;
+  }
+
+  /**
+   *  'x' 为 Character，其他为 String；含转义字符的交给 OGNL
+   * */
+  private Object parseString(char quote) {
+    final int end = text.indexOf(quote, pos + 1);
+    if (end < 0) {
+      throw UNSUPPORTED;
+    }
+    final String value = text.substring(pos + 1, end);
+    if (value.indexOf('\\') >= 0) {
+      throw UNSUPPORTED;
+    }
+    pos = end + 1;
+    if (quote == '\'' && value.length() == 1) {
+      return Character.valueOf(value.charAt(0));
+    }
+    return value;
+  }
+
+  /**
+   *  只支持十进制的 int、带 L 后缀的 long 和不带指数的 double，其他写法（八进制、十六进制、其他后缀）交给 OGNL
+   * */
+  private Object parseNumber() {
+    final int start = pos;
+    while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+      pos++;
+    }
+    if (text.charAt(start) == '0' && pos - start > 1) {
+      throw UNSUPPORTED;
+    }
+    Object value;
+    if (pos + 1 < text.length() && text.charAt(pos) == '.' && Character.isDigit(text.charAt(pos + 1))) {
+      pos++;
+      while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+        pos++;
+      }
+      value = Double.valueOf(text.substring(start, pos));
+    } else if (pos < text.length() && (text.charAt(pos) == 'L' || text.charAt(pos) == 'l')) {
+      value = Long.valueOf(text.substring(start, pos));
+      pos++;
+    } else {
+      value = Integer.valueOf(text.substring(start, pos));
+    }
+    if (pos < text.length() && (Character.isJavaIdentifierPart(text.charAt(pos)) || text.charAt(pos) == '.')) {
+      throw UNSUPPORTED;
+    }
+    return value;
+  }
+
+  private String parseName() {
+    skipSpaces();
+    final int start = pos;
+    if (pos >= text.length() || !Character.isJavaIdentifierStart(text.charAt(pos))) {
+      throw UNSUPPORTED;
+    }
+    pos++;
+    while (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos))) {
+      pos++;
+    }
+    return text.substring(start, pos);
+  }
+
+  private char next() {
+    skipSpaces();
+    return pos < text.length() ? text.charAt(pos) : 0;
+  }
+
+  private void skipSpaces() {
+    while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+      pos++;
+    }
+  }
+
+  private boolean acceptSymbol(String symbol) {
+    skipSpaces();
+    if (text.startsWith(symbol, pos)) {
+      pos += symbol.length();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   *  单字符运算符，不能是 != 、&lt;= 之类双字符运算符的开头
+   * */
+  private boolean acceptOperator(char operator) {
+    skipSpaces();
+    if (pos < text.length() && text.charAt(pos) == operator
+        && (pos + 1 >= text.length() || text.charAt(pos + 1) != '=')) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private boolean acceptWord(String word) {
+    skipSpaces();
+    final int end = pos + word.length();
+    if (text.startsWith(word, pos) && (end >= text.length() || !Character.isJavaIdentifierPart(text.charAt(end)))) {
+      pos = end;
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * OGNL 的布尔值转换：null 为 false，数值和字符不为 0 时为 true，其他对象为 true
+   */
+  static boolean booleanValue(Object value) {
+    if (value == null) {
+      return false;
+    }
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    if (value instanceof Character) {
+      return (Character) value != 0;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue() != 0;
+    }
+    return true;
+  }
+
+  /**
+   *  表达式的语法树节点
+   * */
+  abstract static class Node {
+    abstract Object getValue(Object root);
+  }
+
+  static class LiteralNode extends Node {
+    private final Object value;
+
+    LiteralNode(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      return value;
+    }
+  }
+
+  /**
+   *  OGNL 的 and 和 or 返回操作数本身，而不是布尔值
+   * */
+  static class AndNode extends Node {
+    private final Node left;
+    private final Node right;
+
+    AndNode(Node left, Node right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      final Object value = left.getValue(root);
+      return booleanValue(value) ? right.getValue(root) : value;
+    }
+  }
+
+  static class OrNode extends Node {
+    private final Node left;
+    private final Node right;
+
+    OrNode(Node left, Node right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      final Object value = left.getValue(root);
+      return booleanValue(value) ? value : right.getValue(root);
+    }
+  }
+
+  static class NotNode extends Node {
+    private final Node operand;
+
+    NotNode(Node operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      return booleanValue(operand.getValue(root)) ? Boolean.FALSE : Boolean.TRUE;
+    }
+  }
+
+  /**
+   *  只比较同类的值：整数、浮点数、字符串、布尔值、字符，以及与 null 判等；
+   *    其他组合 OGNL 会做类型转换（例如把字符串转为数字），交给 OGNL
+   * */
+  static class CompareNode extends Node {
+    static final int EQ = 0;
+    static final int NEQ = 1;
+    static final int LT = 2;
+    static final int LTE = 3;
+    static final int GT = 4;
+    static final int GTE = 5;
+
+    private final int operator;
+    private final Node left;
+    private final Node right;
+
+    CompareNode(int operator, Node left, Node right) {
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      final Object l = left.getValue(root);
+      final Object r = right.getValue(root);
+      switch (operator) {
+        case EQ:
+          return equal(l, r) ? Boolean.TRUE : Boolean.FALSE;
+        case NEQ:
+          return equal(l, r) ? Boolean.FALSE : Boolean.TRUE;
+        case LT:
+          return compare(l, r) < 0 ? Boolean.TRUE : Boolean.FALSE;
+        case LTE:
+          return compare(l, r) > 0 ? Boolean.FALSE : Boolean.TRUE;
+        case GT:
+          return compare(l, r) > 0 ? Boolean.TRUE : Boolean.FALSE;
+        default:
+          return compare(l, r) < 0 ? Boolean.FALSE : Boolean.TRUE;
+      }
+    }
+
+    private static boolean equal(Object l, Object r) {
+      if (l == null || r == null) {
+        return l == r;
+      }
+      return compare(l, r) == 0;
+    }
+
+    private static int compare(Object l, Object r) {
+      if (isIntegral(l) && isIntegral(r)) {
+        final long lv = ((Number) l).longValue();
+        final long rv = ((Number) r).longValue();
+        return lv == rv ? 0 : (lv < rv ? -1 : 1);
+      }
+      if ((isIntegral(l) || isFloating(l)) && (isIntegral(r) || isFloating(r))) {
+        //与 OGNL 一致：NaN 与任何值比较都视为大于
+        final double lv = ((Number) l).doubleValue();
+        final double rv = ((Number) r).doubleValue();
+        return lv == rv ? 0 : (lv < rv ? -1 : 1);
+      }
+      if ((l instanceof String && r instanceof String)
+          || (l instanceof Boolean && r instanceof Boolean)
+          || (l instanceof Character && r instanceof Character)) {
+        @SuppressWarnings("unchecked")
+        final int result = ((Comparable<Object>) l).compareTo(r);
+        return result == 0 ? 0 : (result < 0 ? -1 : 1);
+      }
+      throw FALLBACK;
+    }
+
+    private static boolean isIntegral(Object value) {
+      return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
+    private static boolean isFloating(Object value) {
+      return value instanceof Double || value instanceof Float;
+    }
+  }
+
+  /**
+   *  只支持有一边为字符串的拼接，数值相加和 null 交给 OGNL
+   * */
+  static class AddNode extends Node {
+    private final Node left;
+    private final Node right;
+
+    AddNode(Node left, Node right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      final Object l = left.getValue(root);
+      final Object r = right.getValue(root);
+      if (l == null || r == null || !(l instanceof String || r instanceof String)) {
+        throw FALLBACK;
+      }
+      return String.valueOf(l).concat(String.valueOf(r));
+    }
+  }
+
+  /**
+   *  根属性：按 DynamicContext.ContextAccessor 的方式从 bindings 中查找
+   * */
+  static class RootPropertyNode extends Node {
+    private final PropertyNode property;
+
+    RootPropertyNode(String name) {
+      this.property = new PropertyNode(null, name);
+    }
+
+    @Override
+    Object getValue(Object root) {
+      if (root instanceof ContextMap) {
+        final ContextMap bindings = (ContextMap) root;
+        final Object value = bindings.get(property.name);
+        if (value != null) {
+          return value;
+        }
+        final Object parameterObject = bindings.get(DynamicContext.PARAMETER_OBJECT_KEY);
+        if (parameterObject instanceof Map) {
+          return ((Map<?, ?>) parameterObject).get(property.name);
+        }
+        return null;
+      }
+      return property.getProperty(root);
+    }
+  }
+
+  static class PropertyNode extends Node {
+    private final Node target;
+    private final String name;
+    private final String getterName;
+    private final String isName;
+    private volatile Accessor accessor;
+
+    PropertyNode(Node target, String name) {
+      this.target = target;
+      this.name = name;
+      final String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+      this.getterName = "get" + capitalized;
+      this.isName = "is" + capitalized;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      return getProperty(target.getValue(root));
+    }
+
+    Object getProperty(Object object) {
+      if (object == null || object instanceof ContextMap || object instanceof Collection
+          || object instanceof Iterator || object instanceof Enumeration || object.getClass().isArray()) {
+        throw FALLBACK;
+      }
+      if (object instanceof Map) {
+        if (MAP_PROPERTIES.contains(name)) {
+          throw FALLBACK;
+        }
+        return ((Map<?, ?>) object).get(name);
+      }
+      Accessor current = accessor;
+      if (current == null || current.type != object.getClass()) {
+        current = new Accessor(object.getClass(), findGetter(object.getClass()));
+        accessor = current;
+      }
+      return current.invoke(object);
+    }
+
+    /**
+     *  只有唯一的 getX 或者返回 boolean 的 isX 时使用，否则（例如只有公共字段）交给 OGNL
+     * */
+    private Method findGetter(Class<?> type) {
+      final Method getter = findMethod(type, getterName);
+      final Method is = findMethod(type, isName);
+      if (getter != null && is == null && getter.getReturnType() != void.class) {
+        return getter;
+      }
+      if (is != null && getter == null && is.getReturnType() == boolean.class) {
+        return is;
+      }
+      return null;
+    }
+  }
+
+  static class MethodNode extends Node {
+    private final Node target;
+    private final String name;
+    private volatile Accessor accessor;
+
+    MethodNode(Node target, String name) {
+      this.target = target;
+      this.name = name;
+    }
+
+    @Override
+    Object getValue(Object root) {
+      final Object object = target.getValue(root);
+      if (object == null) {
+        throw FALLBACK;
+      }
+      Accessor current = accessor;
+      if (current == null || current.type != object.getClass()) {
+        current = new Accessor(object.getClass(), findMethod(object.getClass(), name));
+        accessor = current;
+      }
+      return current.invoke(object);
+    }
+  }
+
+  /**
+   *  按调用位置缓存的访问方法，类型变化时重新查找
+   * */
+  static class Accessor {
+    private final Class<?> type;
+    private final Method method;
+
+    Accessor(Class<?> type, Method method) {
+      this.type = type;
+      this.method = method;
+    }
+
+    Object invoke(Object object) {
+      if (method == null) {
+        throw FALLBACK;
+      }
+      try {
+        return method.invoke(object);
+      } catch (IllegalAccessException e) {
+        throw FALLBACK;
+      } catch (InvocationTargetException e) {
+        throw new MethodFailedException(method, e.getCause());
+      }
+    }
+  }
+
+  /**
+   *  属性或方法本身抛出的异常，不交给 OGNL 重新调用
+   * */
+  static class MethodFailedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    MethodFailedException(Method method, Throwable cause) {
+      super("Method \"" + method.getName() + "\" of " + method.getDeclaringClass().getName() + " failed: " + cause, cause);
+    }
+  }
+
+  private static class Signal extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Signal(String message) {
+      super(message);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
+  /**
+   *  查找公共的无参方法。声明的类不是公共类时（例如 Arrays.asList 返回的内部类），
+   *    改为查找公共父类或接口中声明的同名方法，找不到时返回 null，交给 OGNL
+   * */
+  static Method findMethod(Class<?> type, String name) {
+    final Method method;
+    try {
+      method = type.getMethod(name);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+    if (Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+      return method;
+    }
+    return findPublicMethod(type, name);
+  }
+
+  private static Method findPublicMethod(Class<?> type, String name) {
+    if (type == null) {
+      return null;
+    }
+    if (Modifier.isPublic(type.getModifiers())) {
+      try {
+        final Method method = type.getMethod(name);
+        if (Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+          return method;
+        }
+      } catch (NoSuchMethodException e) {
+        return null;
+      }
+    }
+    for (Class<?> interfaceType : type.getInterfaces()) {
+      final Method method = findPublicMethod(interfaceType, name);
+      if (method != null) {
+        return method;
+      }
+    }
+    return findPublicMethod(type.getSuperclass(), name);
+  }
+
+}
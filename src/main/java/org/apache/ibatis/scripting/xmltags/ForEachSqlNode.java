@@ -15,10 +15,25 @@
  */
 package org.apache.ibatis.scripting.xmltags;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.SqlSourceBuilder;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.TempTable;
 import org.apache.ibatis.parsing.GenericTokenParser;
 import org.apache.ibatis.parsing.TokenHandler;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.wrapper.DefaultObjectWrapperFactory;
 import org.apache.ibatis.session.Configuration;
 
 /**
@@ -41,6 +56,11 @@ public class ForEachSqlNode implements SqlNode {
    * */
   private String collectionExpression;
 
+  /**
+   *  预编译的集合表达式
+   * */
+  private Expression compiledCollectionExpression;
+
   /**
    *  该<forEach/> 内部节点
    * */
@@ -76,9 +96,83 @@ public class ForEachSqlNode implements SqlNode {
    * */
   private Configuration configuration;
 
+  /**
+   *  positional 模式下预先解析好的内部文本，普通模式为 null
+   * */
+  private PositionalText[] positionalTexts;
+
+  /**
+   *  每块最多的元素个数，集合超过时由执行器分块执行语句；0 表示不分块
+   * */
+  private int chunkSize;
+
+  /**
+   *  分块执行的 update | delete 是否作为一个 JDBC 批处理执行
+   * */
+  private boolean chunkBatch;
+
+  /**
+   *  按桶补齐时每个桶的元素个数（升序），为 POWER_OF_TWO 时补齐到 2 的幂；不补齐时为 null
+   * */
+  private int[] paddingSteps;
+
+  /**
+   *  补齐的元素为 null（Map 的 key 和 value 都为 null），否则重复最后一个元素
+   * */
+  private boolean padWithNull;
+
+  private static final int[] POWER_OF_TWO = new int[0];
+
+  /**
+   *  集合的元素不少于该值时，通过临时表引用集合；0 表示不使用临时表
+   * */
+  private int tempTableThreshold;
+
+  /**
+   *  临时表存放值的列的 sql 类型，为 null 时根据值的类型推断
+   * */
+  private String tempTableColumnType;
+
+  /**
+   *  临时表模式下内部唯一的 #{item} 占位符
+   * */
+  private PositionalReference tempTableReference;
+
   public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator) {
+    this(configuration, contents, collectionExpression, index, item, open, close, separator, false);
+  }
+
+  public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator, boolean positional) {
+    this(configuration, contents, collectionExpression, index, item, open, close, separator, positional, 0, false);
+  }
+
+  public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator,
+      boolean positional, int chunkSize, boolean chunkBatch) {
+    this(configuration, contents, collectionExpression, index, item, open, close, separator, positional, chunkSize, chunkBatch, null, null);
+  }
+
+  public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator,
+      boolean positional, int chunkSize, boolean chunkBatch, String padding, String padWith) {
+    this(configuration, contents, collectionExpression, index, item, open, close, separator, positional, chunkSize, chunkBatch, padding, padWith, 0, null);
+  }
+
+  /**
+   * @param positional 为 true 时内部的 #{item}、#{item.property} 和 #{index} 按位置直接绑定集合中的值，
+   *   不改写为 #{__frch_item_N}，也不向动态上下文中绑定每个元素。此时内部只能是不含 ${} 的文本
+   * @param chunkSize 大于 0 时，集合的元素超过 chunkSize 的语句按块生成多个绑定sql，由执行器在同一个连接上依次执行
+   * @param chunkBatch 分块执行的 update | delete 是否作为一个 JDBC 批处理执行
+   * @param padding 将元素个数补齐到桶的大小，使不同长度的集合生成相同的sql："powerOfTwo" 补齐到 2 的幂，
+   *   或者升序的桶大小如 "10,50,100"（超过最大的桶时补齐到它的倍数）；为 null 时不补齐
+   * @param padWith 补齐的元素："last" 重复最后一个元素（默认），"null" 绑定 null
+   * @param tempTableThreshold 大于 0 时，集合的元素不少于该值的语句不展开集合，而是生成 open + select VAL from SESSION.临时表 + close，
+   *   由执行器在执行之前将值批量插入临时表。此时内部只能是一个 #{item} 或 #{item.property} 占位符
+   * @param tempTableColumnType 临时表存放值的列的 sql 类型，为 null 时根据值的类型推断
+   * */
+  public ForEachSqlNode(Configuration configuration, SqlNode contents, String collectionExpression, String index, String item, String open, String close, String separator,
+      boolean positional, int chunkSize, boolean chunkBatch, String padding, String padWith, int tempTableThreshold, String tempTableColumnType) {
     this.evaluator = new ExpressionEvaluator();
     this.collectionExpression = collectionExpression;
+    this.compiledCollectionExpression = Expression.compile(collectionExpression);
     this.contents = contents;
     this.open = open;
     this.close = close;
@@ -86,6 +180,31 @@ public class ForEachSqlNode implements SqlNode {
     this.index = index;
     this.item = item;
     this.configuration = configuration;
+    if (positional) {
+      this.positionalTexts = compilePositionalTexts(contents, "positional=\"true\"");
+    }
+    if (chunkSize < 0) {
+      throw new BuilderException("<foreach> over '" + collectionExpression + "' has a negative chunkSize " + chunkSize + ".");
+    }
+    this.chunkSize = chunkSize;
+    this.chunkBatch = chunkBatch;
+    this.paddingSteps = parsePadding(padding);
+    if (padWith == null || "last".equals(padWith)) {
+      this.padWithNull = false;
+    } else if ("null".equals(padWith)) {
+      this.padWithNull = true;
+    } else {
+      throw new BuilderException("<foreach> over '" + collectionExpression + "' has an invalid padWith '" + padWith + "', expected 'last' or 'null'.");
+    }
+    if (tempTableThreshold < 0 || (tempTableThreshold > 0 && chunkSize > 0)) {
+      throw new BuilderException("<foreach> over '" + collectionExpression + "' needs a positive tempTableThreshold without a chunkSize, but found "
+          + tempTableThreshold + " and " + chunkSize + ".");
+    }
+    this.tempTableThreshold = tempTableThreshold;
+    this.tempTableColumnType = tempTableColumnType;
+    if (tempTableThreshold > 0) {
+      this.tempTableReference = compileTempTableReference(contents);
+    }
   }
 
   /**
@@ -102,15 +221,56 @@ public class ForEachSqlNode implements SqlNode {
   public boolean apply(DynamicContext context) {
     Map<String, Object> bindings = context.getBindings();
     //1. 解析表达式获取集合
-    final Iterable<?> iterable = evaluator.evaluateIterable(collectionExpression, bindings);
+    Iterable<?> iterable = evaluator.evaluateIterable(compiledCollectionExpression, bindings);
+    //足够大的集合通过临时表引用
+    if (tempTableThreshold > 0) {
+      final Collection<?> collection = toCollection(iterable);
+      if (collection.size() >= tempTableThreshold) {
+        applyTempTable(context, collection);
+        return true;
+      }
+      iterable = collection;
+    }
+    //分块执行时只迭代当前块的元素 [start, start + chunkSize)，各块共用第一块复制的元素列表
+    int start = 0;
+    if (chunkSize > 0) {
+      final Collection<?> collection = toCollection(iterable);
+      if (collection.size() > chunkSize) {
+        final DynamicContext.ChunkWindow window = context.getChunkWindow();
+        openChunkWindow(window, collection.size());
+        if (window.elements == null) {
+          window.elements = collection instanceof List ? (List<?>) collection : new ArrayList<Object>(collection);
+        }
+        start = window.chunk * chunkSize;
+        iterable = window.elements.subList(start, Math.min(start + chunkSize, window.elements.size()));
+      } else {
+        iterable = collection;
+      }
+    }
+    //按桶补齐当前迭代的元素个数，补齐的元素追加在末尾
+    if (paddingSteps != null) {
+      final Collection<?> collection = toCollection(iterable);
+      final int count = collection.size();
+      if (count > 0) {
+        final int padded = chunkSize > 0 ? Math.min(bucketSize(count), chunkSize) : bucketSize(count);
+        if (padded > count) {
+          iterable = pad(collection, padded - count);
+        }
+      }
+    }
+    //记录分支签名：内部节点记录了签名的迭代之后记录 '+'，结束时记录迭代次数和 '.'
+    final StringBuilder signature = context.getBranchSignature();
     //2. 如果为空，则直接返回
     if (!iterable.iterator().hasNext()) {
+      if (signature != null) {
+        signature.append("0.");
+      }
       return true;
     }
     boolean first = true;
     //3. 拼接开始标记
     applyOpen(context);
-    int i = 0;
+    int i = start;
     //4. 遍历集合（<forEach/> 标签所使用的）中的所有元素
     for (Object o : iterable) {
       DynamicContext oldContext = context;
@@ -122,6 +282,26 @@ public class ForEachSqlNode implements SqlNode {
       } else {
           context = new PrefixedContext(context, "");
       }
+      //4.2 positional 模式：拼接预先解析好的文本，按位置记录参数映射和值
+      if (positionalTexts != null) {
+        final Object indexValue = o instanceof Map.Entry ? ((Map.Entry<?, ?>) o).getKey() : i;
+        final Object itemValue = o instanceof Map.Entry ? ((Map.Entry<?, ?>) o).getValue() : o;
+        final DynamicContext.PositionalParameters positionalParameters = context.getPositionalParameters();
+        for (PositionalText text : positionalTexts) {
+          context.appendSql(text.sql);
+          for (PositionalReference reference : text.references) {
+            final Object element = reference.isIndex ? indexValue : itemValue;
+            final Object value = reference.getValue(element);
+            positionalParameters.add(reference.getMapping(element, value), value);
+          }
+        }
+        if (first) {
+          first = !((PrefixedContext) context).isPrefixApplied();
+        }
+        context = oldContext;
+        i++;
+        continue;
+      }
       //4.2 获取唯一标识符
       int uniqueNumber = context.getUniqueNumber();
       // Issue #709
@@ -136,7 +316,11 @@ public class ForEachSqlNode implements SqlNode {
         applyItem(context, o, uniqueNumber);
       }
       //4.4
+      final int signatureLength = signature == null ? 0 : signature.length();
       contents.apply(new FilteredDynamicContext(configuration, context, index, item, uniqueNumber));
+      if (signature != null && signature.length() > signatureLength) {
+        signature.append('+');
+      }
       if (first) {
         first = !((PrefixedContext) context).isPrefixApplied();
       }
@@ -145,6 +329,9 @@ public class ForEachSqlNode implements SqlNode {
     }
 	//5. 拼装结束记号
     applyClose(context);
+    if (signature != null) {
+      signature.append(i - start).append('.');
+    }
     return true;
   }
 
@@ -155,7 +342,7 @@ public class ForEachSqlNode implements SqlNode {
    *   1.  用于向Ognl中绑定指定的 index 对应的值。
    *   2.  用于根据指定的index生成唯一的属性名，并和值绑定在Ognl中
    * */
-  private void applyIndex(DynamicContext context, Object o, int i) {
+  void applyIndex(DynamicContext context, Object o, int i) {
     if (index != null) {
       context.bind(index, o);
       context.bind(itemizeItem(index, i), o);
@@ -167,7 +354,7 @@ public class ForEachSqlNode implements SqlNode {
    * @param o 如果集合为map，则为value，否则为集合中的元素
    * @param i 唯一数字
    * */
-  private void applyItem(DynamicContext context, Object o, int i) {
+  void applyItem(DynamicContext context, Object o, int i) {
     if (item != null) {
       context.bind(item, o);
       context.bind(itemizeItem(item, i), o);
@@ -195,10 +382,321 @@ public class ForEachSqlNode implements SqlNode {
    *  用于生成唯一的属性名称，用于拼装 sql语句时保证属性名称唯一
    *   _frch_item_i
    * */
-  private static String itemizeItem(String item, int i) {
+  static String itemizeItem(String item, int i) {
     return new StringBuilder(ITEM_PREFIX).append(item).append("_").append(i).toString();
   }
 
+  /**
+   *  记录要装载到临时表的值，拼接引用临时表的子查询。同一条语句中的第 N 个临时表名为 MYBATIS_TMP_列类型_N
+   * */
+  private void applyTempTable(DynamicContext context, Collection<?> collection) {
+    final List<Object> values = new ArrayList<Object>(collection.size());
+    Object sampleElement = null;
+    Object sampleValue = null;
+    for (Object o : collection) {
+      final Object element = o instanceof Map.Entry ? ((Map.Entry<?, ?>) o).getValue() : o;
+      final Object value = tempTableReference.getValue(element);
+      if (sampleValue == null && value != null) {
+        sampleElement = element;
+        sampleValue = value;
+      }
+      values.add(value);
+    }
+    final String columnType = tempTableColumnType != null ? tempTableColumnType : columnTypeOf(sampleValue);
+    final List<TempTable> tempTables = context.getTempTables();
+    final String name = "MYBATIS_TMP_" + columnType.toUpperCase(Locale.ENGLISH).replaceAll("[^A-Z0-9]", "_") + "_" + tempTables.size();
+    tempTables.add(new TempTable(name, columnType, tempTableReference.getMapping(sampleElement, sampleValue), values));
+    applyOpen(context);
+    context.appendSql("select " + TempTable.VALUE_COLUMN + " from " + TempTable.SCHEMA + "." + name);
+    applyClose(context);
+    final StringBuilder signature = context.getBranchSignature();
+    if (signature != null) {
+      signature.append('t').append(name).append('.');
+    }
+  }
+
+  private String columnTypeOf(Object value) {
+    if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return "INTEGER";
+    } else if (value instanceof Long) {
+      return "BIGINT";
+    } else if (value instanceof String) {
+      return "VARCHAR(4000)";
+    }
+    throw new BuilderException("Cannot infer the temporary table column type of <foreach> over '" + collectionExpression + "' from "
+        + (value == null ? "null values" : value.getClass().getName()) + ", please set tempTableColumnType.");
+  }
+
+  private static Collection<?> toCollection(Iterable<?> iterable) {
+    if (iterable instanceof Collection) {
+      return (Collection<?>) iterable;
+    }
+    final List<Object> list = new ArrayList<Object>();
+    for (Object o : iterable) {
+      list.add(o);
+    }
+    return list;
+  }
+
+  /**
+   *  记录分块的 foreach 和总的块数
+   * */
+  private void openChunkWindow(DynamicContext.ChunkWindow window, int size) {
+    final int chunkCount = (size + chunkSize - 1) / chunkSize;
+    if (window.owner == null) {
+      window.owner = this;
+      window.chunkCount = chunkCount;
+      window.batch = chunkBatch;
+    } else if (window.owner != this || window.applied) {
+      throw new BuilderException("Only one <foreach> with a chunkSize may exceed it in a statement, but '" + collectionExpression
+          + "' has " + size + " elements while another collection is already being chunked.");
+    }
+    window.applied = true;
+  }
+
+  /**
+   *  元素个数 count 所在的桶的大小
+   * */
+  int bucketSize(int count) {
+    if (paddingSteps == POWER_OF_TWO) {
+      final int highest = Integer.highestOneBit(count);
+      return highest == count || highest == 1 << 30 ? count : highest << 1;
+    }
+    for (int step : paddingSteps) {
+      if (step >= count) {
+        return step;
+      }
+    }
+    final int largest = paddingSteps[paddingSteps.length - 1];
+    final long multiple = (count + (long) largest - 1) / largest * largest;
+    return multiple > Integer.MAX_VALUE ? count : (int) multiple;
+  }
+
+  private List<Object> pad(Collection<?> collection, int padding) {
+    final List<Object> list = new ArrayList<Object>(collection.size() + padding);
+    list.addAll(collection);
+    final Object last = list.get(list.size() - 1);
+    final Object element;
+    if (!padWithNull) {
+      element = last;
+    } else if (last instanceof Map.Entry) {
+      element = new AbstractMap.SimpleImmutableEntry<Object, Object>(null, null);
+    } else {
+      element = null;
+    }
+    for (int i = 0; i < padding; i++) {
+      list.add(element);
+    }
+    return list;
+  }
+
+  private int[] parsePadding(String padding) {
+    if (padding == null) {
+      return null;
+    } else if ("powerOfTwo".equals(padding)) {
+      return POWER_OF_TWO;
+    }
+    final String[] values = padding.split(",");
+    final int[] steps = new int[values.length];
+    try {
+      for (int i = 0; i < steps.length; i++) {
+        steps[i] = Integer.parseInt(values[i].trim());
+        if (steps[i] <= 0 || (i > 0 && steps[i] <= steps[i - 1])) {
+          throw new NumberFormatException();
+        }
+      }
+    } catch (NumberFormatException e) {
+      throw new BuilderException("<foreach> over '" + collectionExpression + "' has an invalid padding '" + padding
+          + "', expected 'powerOfTwo' or ascending positive sizes such as '10,50,100'.");
+    }
+    return steps;
+  }
+
+  Expression getCompiledCollectionExpression() {
+    return compiledCollectionExpression;
+  }
+
+  SqlNode getContents() {
+    return contents;
+  }
+
+  boolean isPositional() {
+    return positionalTexts != null;
+  }
+
+  boolean isChunked() {
+    return chunkSize > 0;
+  }
+
+  boolean isPadded() {
+    return paddingSteps != null;
+  }
+
+  boolean usesTempTable() {
+    return tempTableThreshold > 0;
+  }
+
+  /**
+   *  解析 positional 模式的内部文本：引用 item 或 index 的占位符替换为 #{?}，其他占位符保持不变
+   * @param mode 出错时说明是哪个属性要求这样的内部文本
+   * */
+  private PositionalText[] compilePositionalTexts(SqlNode node, String mode) {
+    final List<SqlNode> children = node instanceof MixedSqlNode ? ((MixedSqlNode) node).getContents() : Collections.singletonList(node);
+    final SqlSourceBuilder builder = new SqlSourceBuilder(configuration);
+    final PositionalText[] texts = new PositionalText[children.size()];
+    for (int t = 0; t < texts.length; t++) {
+      if (!(children.get(t) instanceof StaticTextSqlNode)) {
+        throw new BuilderException("<foreach " + mode + "> over '" + collectionExpression
+            + "' may only contain text with #{} placeholders, but found " + children.get(t).getClass().getSimpleName() + ".");
+      }
+      final List<PositionalReference> references = new ArrayList<PositionalReference>();
+      GenericTokenParser parser = new GenericTokenParser("#{", "}", new TokenHandler() {
+        @Override
+        public String handleToken(String content) {
+          final Map<String, String> propertiesMap = builder.parseParameterMapping(content);
+          final String property = propertiesMap.get("property");
+          final String variable = property == null ? null : referencedVariable(property);
+          if (variable == null) {
+            return "#{" + content + "}";
+          }
+          final String subProperty = property.length() > variable.length() ? property.substring(variable.length() + 1) : null;
+          if (subProperty != null && (property.charAt(variable.length()) != '.' || subProperty.indexOf('.') >= 0 || subProperty.indexOf('[') >= 0)) {
+            throw new BuilderException("<foreach " + mode + "> over '" + collectionExpression
+                + "' only supports #{" + variable + "} and #{" + variable + ".property}, but found #{" + content + "}.");
+          }
+          references.add(new PositionalReference(configuration, builder, variable, variable.equals(index), subProperty, propertiesMap, content));
+          return "#{" + SqlSourceBuilder.POSITIONAL_PARAMETER + "}";
+        }
+      });
+      texts[t] = new PositionalText(parser.parse(((StaticTextSqlNode) children.get(t)).getText()), references);
+    }
+    return texts;
+  }
+
+  /**
+   *  临时表模式的内部只能是一个引用 item 的占位符
+   * */
+  private PositionalReference compileTempTableReference(SqlNode node) {
+    final PositionalText[] texts = compilePositionalTexts(node, "tempTableThreshold");
+    if (texts.length != 1 || texts[0].references.length != 1 || texts[0].references[0].isIndex
+        || !texts[0].sql.trim().equals("#{" + SqlSourceBuilder.POSITIONAL_PARAMETER + "}")) {
+      throw new BuilderException("<foreach tempTableThreshold> over '" + collectionExpression + "' must contain exactly one #{"
+          + item + "} or #{" + item + ".property} placeholder.");
+    }
+    return texts[0].references[0];
+  }
+
+  /**
+   *  属性引用的是 item 还是 index，都不是时返回 null
+   * */
+  private String referencedVariable(String property) {
+    if (item != null && property.startsWith(item) && (property.length() == item.length() || !Character.isJavaIdentifierPart(property.charAt(item.length())))) {
+      return item;
+    }
+    if (index != null && property.startsWith(index) && (property.length() == index.length() || !Character.isJavaIdentifierPart(property.charAt(index.length())))) {
+      return index;
+    }
+    return null;
+  }
+
+  String getOpen() {
+    return open;
+  }
+
+  String getClose() {
+    return close;
+  }
+
+  String getSeparator() {
+    return separator;
+  }
+
+  String getItem() {
+    return item;
+  }
+
+  String getIndex() {
+    return index;
+  }
+
+  /**
+   *  positional 模式下的一段内部文本： 引用 item 或 index 的占位符已经替换为 #{?}
+   * */
+  private static final class PositionalText {
+    private final String sql;
+    private final PositionalReference[] references;
+
+    PositionalText(String sql, List<PositionalReference> references) {
+      this.sql = sql;
+      this.references = references.toArray(new PositionalReference[references.size()]);
+    }
+  }
+
+  /**
+   *  positional 模式下引用 item 或 index 的一个占位符。
+   *  参数映射与普通模式下 #{__frch_item_N} 的相同，只取决于值的类型（有子属性时取决于元素的类型），按类型缓存
+   * */
+  private static final class PositionalReference {
+    private static final Class<?> NULL_KEY = Void.class;
+
+    private final Configuration configuration;
+    private final SqlSourceBuilder builder;
+    private final String variable;
+    private final boolean isIndex;
+    private final String subProperty;
+    private final Map<String, String> propertiesMap;
+    private final String content;
+    private final ConcurrentMap<Class<?>, ParameterMapping> mappings = new ConcurrentHashMap<Class<?>, ParameterMapping>();
+
+    PositionalReference(Configuration configuration, SqlSourceBuilder builder, String variable, boolean isIndex,
+        String subProperty, Map<String, String> propertiesMap, String content) {
+      this.configuration = configuration;
+      this.builder = builder;
+      this.variable = variable;
+      this.isIndex = isIndex;
+      this.subProperty = subProperty;
+      this.propertiesMap = propertiesMap;
+      this.content = content;
+    }
+
+    /**
+     * @param element item 或 index 的值
+     * @return 占位符的值，即 element 本身或者它的子属性
+     * */
+    Object getValue(Object element) {
+      if (subProperty == null || element == null) {
+        return subProperty == null ? element : null;
+      }
+      return configuration.newMetaObject(element).getValue(subProperty);
+    }
+
+    ParameterMapping getMapping(Object element, Object value) {
+      if (!(configuration.getObjectWrapperFactory() instanceof DefaultObjectWrapperFactory)) {
+        return buildMapping(element);
+      }
+      final Class<?> key;
+      if (subProperty != null && element != null && !(element instanceof Map)) {
+        key = element.getClass();
+      } else {
+        key = value == null ? NULL_KEY : value.getClass();
+      }
+      ParameterMapping mapping = mappings.get(key);
+      if (mapping == null) {
+        mapping = buildMapping(element);
+        mappings.putIfAbsent(key, mapping);
+      }
+      return mapping;
+    }
+
+    private ParameterMapping buildMapping(Object element) {
+      final Map<String, Object> bindings = new HashMap<String, Object>();
+      bindings.put(variable, element);
+      final MetaObject metaBindings = configuration.newMetaObject(bindings);
+      final String property = subProperty == null ? variable : variable + "." + subProperty;
+      return builder.buildParameterMapping(property, propertiesMap, content, Object.class, metaBindings);
+    }
+  }
+
   /**
    *  过滤动态上下文，用于将<forEach/> 标签内部的
    * */
@@ -269,6 +767,26 @@ public class ForEachSqlNode implements SqlNode {
       return delegate.getUniqueNumber();
     }
 
+    @Override
+    StringBuilder getBranchSignature() {
+      return delegate.getBranchSignature();
+    }
+
+    @Override
+    PositionalParameters getPositionalParameters() {
+      return delegate.getPositionalParameters();
+    }
+
+    @Override
+    ChunkWindow getChunkWindow() {
+      return delegate.getChunkWindow();
+    }
+
+    @Override
+    List<TempTable> getTempTables() {
+      return delegate.getTempTables();
+    }
+
   }
 
 
@@ -331,6 +849,26 @@ public class ForEachSqlNode implements SqlNode {
     public int getUniqueNumber() {
       return delegate.getUniqueNumber();
     }
+
+    @Override
+    StringBuilder getBranchSignature() {
+      return delegate.getBranchSignature();
+    }
+
+    @Override
+    PositionalParameters getPositionalParameters() {
+      return delegate.getPositionalParameters();
+    }
+
+    @Override
+    ChunkWindow getChunkWindow() {
+      return delegate.getChunkWindow();
+    }
+
+    @Override
+    List<TempTable> getTempTables() {
+      return delegate.getTempTables();
+    }
   }
 
 }
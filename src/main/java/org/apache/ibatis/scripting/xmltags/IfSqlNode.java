@@ -33,6 +33,11 @@ public class IfSqlNode implements SqlNode {
    * */
   private String test;
 
+  /**
+   *  预编译的 test 表达式
+   * */
+  private Expression testExpression;
+
   /**
    *  内部的sqlNode节点
    * */
@@ -40,6 +45,7 @@ public class IfSqlNode implements SqlNode {
 
   public IfSqlNode(SqlNode contents, String test) {
     this.test = test;
+    this.testExpression = Expression.compile(test);
     this.contents = contents;
     this.evaluator = new ExpressionEvaluator();
   }
@@ -47,11 +53,24 @@ public class IfSqlNode implements SqlNode {
   @Override
   public boolean apply(DynamicContext context) {
     //1. 如果 test 表达式结果为真，则将内部sql代码添加到动态上下文中
-    if (evaluator.evaluateBoolean(test, context.getBindings())) {
+    boolean taken = evaluator.evaluateBoolean(testExpression, context.getBindings());
+    StringBuilder signature = context.getBranchSignature();
+    if (signature != null) {
+      signature.append(taken ? 'T' : 'F');
+    }
+    if (taken) {
       contents.apply(context);
       return true;
     }
     return false;
   }
 
+  Expression getTestExpression() {
+    return testExpression;
+  }
+
+  SqlNode getContents() {
+    return contents;
+  }
+
 }
@@ -39,4 +39,8 @@ public class MixedSqlNode implements SqlNode {
     }
     return true;
   }
+
+  List<SqlNode> getContents() {
+    return contents;
+  }
 }
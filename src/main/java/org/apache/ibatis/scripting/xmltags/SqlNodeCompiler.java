@@ -0,0 +1,339 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.builder.SqlSourceBuilder;
+import org.apache.ibatis.parsing.GenericTokenParser;
+import org.apache.ibatis.parsing.TokenHandler;
+import org.apache.ibatis.reflection.property.PropertyTokenizer;
+import org.apache.ibatis.scripting.xmltags.CompiledSqlSource.BindSegment;
+import org.apache.ibatis.scripting.xmltags.CompiledSqlSource.ChooseSegment;
+import org.apache.ibatis.scripting.xmltags.CompiledSqlSource.ForEachSegment;
+import org.apache.ibatis.scripting.xmltags.CompiledSqlSource.IfSegment;
+import org.apache.ibatis.scripting.xmltags.CompiledSqlSource.MixedSegment;
+import org.apache.ibatis.scripting.xmltags.CompiledSqlSource.Placeholder;
+import org.apache.ibatis.scripting.xmltags.CompiledSqlSource.Segment;
+import org.apache.ibatis.scripting.xmltags.CompiledSqlSource.StaticParameter;
+import org.apache.ibatis.scripting.xmltags.CompiledSqlSource.StaticSegment;
+import org.apache.ibatis.scripting.xmltags.CompiledSqlSource.TextSegment;
+import org.apache.ibatis.scripting.xmltags.CompiledSqlSource.TrimSegment;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ *  SqlNode 编译器： 加载映射文件时将动态 SqlNode 树编译成 CompiledSqlSource，
+ *    无法保证与 DynamicSqlSource 结果完全一致的树返回 null。非线程安全
+ */
+public class SqlNodeCompiler {
+
+  private static final ForEachSegment[] NO_SCOPE = new ForEachSegment[0];
+
+  private final Configuration configuration;
+  private final SqlSourceBuilder sqlSourceBuilder;
+
+  /**
+   *  执行时可能出现在动态上下文绑定中的名称，引用这些名称的占位符不能按参数类型缓存参数映射
+   * */
+  private final Set<String> boundNames = new HashSet<String>();
+
+  /**
+   *  为 true 时所有的占位符都在每次调用时解析（自定义的 ObjectWrapper 接管了动态上下文的绑定）
+   * */
+  private boolean resolveAllPerCall;
+
+  private int forEachCount;
+
+  public SqlNodeCompiler(Configuration configuration) {
+    this.configuration = configuration;
+    this.sqlSourceBuilder = new SqlSourceBuilder(configuration);
+  }
+
+  /**
+   *  编译 SqlNode 树，无法编译时返回 null
+   * */
+  public CompiledSqlSource compile(SqlNode rootSqlNode) {
+    boundNames.add(DynamicContext.PARAMETER_OBJECT_KEY);
+    boundNames.add(DynamicContext.DATABASE_ID_KEY);
+    if (!collectBoundNames(rootSqlNode)) {
+      return null;
+    }
+    resolveAllPerCall = configuration.getObjectWrapperFactory().hasWrapperFor(new DynamicContext(configuration, null).getBindings());
+    Segment root = compileNode(rootSqlNode, NO_SCOPE);
+    if (root == null) {
+      return null;
+    }
+    return new CompiledSqlSource(configuration, root, forEachCount);
+  }
+
+  /**
+   *  第一遍：收集 <bind/>、<foreach/> 以及 ${} 会绑定到动态上下文中的名称
+   * */
+  private boolean collectBoundNames(SqlNode node) {
+    if (node == null) {
+      return true;
+    }
+    Class<?> type = node.getClass();
+    if (type == MixedSqlNode.class) {
+      for (SqlNode child : ((MixedSqlNode) node).getContents()) {
+        if (!collectBoundNames(child)) {
+          return false;
+        }
+      }
+      return true;
+    } else if (type == StaticTextSqlNode.class) {
+      return true;
+    } else if (type == TextSqlNode.class) {
+      // TextSqlNode 会在参数为空或简单类型时绑定 value
+      boundNames.add("value");
+      return true;
+    } else if (type == IfSqlNode.class) {
+      return collectBoundNames(((IfSqlNode) node).getContents());
+    } else if (type == ChooseSqlNode.class) {
+      ChooseSqlNode choose = (ChooseSqlNode) node;
+      for (SqlNode child : choose.getIfSqlNodes()) {
+        if (!collectBoundNames(child)) {
+          return false;
+        }
+      }
+      return collectBoundNames(choose.getDefaultSqlNode());
+    } else if (isTrimNode(type)) {
+      return collectBoundNames(((TrimSqlNode) node).getContents());
+    } else if (type == ForEachSqlNode.class) {
+      ForEachSqlNode forEach = (ForEachSqlNode) node;
+      String item = forEach.getItem();
+      String index = forEach.getIndex();
+      // 改写后的属性名以 __frch_ 开头，这样的 item 名称会让改写结果依赖于迭代序号
+      if (item == null || item.startsWith(ForEachSqlNode.ITEM_PREFIX)
+          || (index != null && index.startsWith(ForEachSqlNode.ITEM_PREFIX))) {
+        return false;
+      }
+      boundNames.add(item);
+      if (index != null) {
+        boundNames.add(index);
+      }
+      return collectBoundNames(forEach.getContents());
+    } else if (type == VarDeclSqlNode.class) {
+      boundNames.add(((VarDeclSqlNode) node).getName());
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   *  第二遍：编译节点，scope 为包含该节点的 foreach 片段（由内到外）
+   * */
+  private Segment compileNode(SqlNode node, ForEachSegment[] scope) {
+    Class<?> type = node.getClass();
+    if (type == MixedSqlNode.class) {
+      List<SqlNode> contents = ((MixedSqlNode) node).getContents();
+      Segment[] segments = new Segment[contents.size()];
+      for (int i = 0; i < segments.length; i++) {
+        segments[i] = compileNode(contents.get(i), scope);
+        if (segments[i] == null) {
+          return null;
+        }
+      }
+      return new MixedSegment(segments);
+    } else if (type == StaticTextSqlNode.class) {
+      return compileText(((StaticTextSqlNode) node).getText(), scope);
+    } else if (type == TextSqlNode.class) {
+      if (scope.length > 0 && containsEscapedPlaceholder(((TextSqlNode) node).getText())) {
+        return null;
+      }
+      return new TextSegment((TextSqlNode) node, scope);
+    } else if (type == IfSqlNode.class) {
+      IfSqlNode ifSqlNode = (IfSqlNode) node;
+      Segment contents = compileNode(ifSqlNode.getContents(), scope);
+      return contents == null ? null : new IfSegment(ifSqlNode.getTestExpression(), contents);
+    } else if (type == ChooseSqlNode.class) {
+      return compileChoose((ChooseSqlNode) node, scope);
+    } else if (isTrimNode(type)) {
+      return compileTrim((TrimSqlNode) node, scope);
+    } else if (type == ForEachSqlNode.class) {
+      return compileForEach((ForEachSqlNode) node, scope);
+    } else if (type == VarDeclSqlNode.class) {
+      return new BindSegment((VarDeclSqlNode) node);
+    }
+    return null;
+  }
+
+  private Segment compileChoose(ChooseSqlNode choose, ForEachSegment[] scope) {
+    List<SqlNode> whenSqlNodes = choose.getIfSqlNodes();
+    Segment[] whenSegments = new Segment[whenSqlNodes.size()];
+    for (int i = 0; i < whenSegments.length; i++) {
+      whenSegments[i] = compileNode(whenSqlNodes.get(i), scope);
+      if (whenSegments[i] == null) {
+        return null;
+      }
+    }
+    Segment otherwiseSegment = null;
+    if (choose.getDefaultSqlNode() != null) {
+      otherwiseSegment = compileNode(choose.getDefaultSqlNode(), scope);
+      if (otherwiseSegment == null) {
+        return null;
+      }
+    }
+    return new ChooseSegment(whenSegments, otherwiseSegment);
+  }
+
+  private Segment compileTrim(TrimSqlNode trim, ForEachSegment[] scope) {
+    // 前后缀中的 #{} 会被 DynamicSqlSource 当作占位符；覆盖的开头或结尾如果包含占位符字符，比较的结果可能不同
+    if (containsPlaceholder(trim.getPrefix()) || containsPlaceholder(trim.getSuffix())
+        || !isPlainOverrides(trim.getPrefixesToOverride()) || !isPlainOverrides(trim.getSuffixesToOverride())) {
+      return null;
+    }
+    Segment contents = compileNode(trim.getContents(), scope);
+    return contents == null ? null : new TrimSegment(trim, contents);
+  }
+
+  private Segment compileForEach(ForEachSqlNode forEach, ForEachSegment[] scope) {
+    // positional 的 foreach 按位置绑定参数，指定了 chunkSize 的 foreach 按块生成绑定sql，指定了 padding 的 foreach 补齐元素，
+    // 指定了 tempTableThreshold 的 foreach 通过临时表引用集合，交给 DynamicSqlSource
+    if (forEach.isPositional() || forEach.isChunked() || forEach.isPadded() || forEach.usesTempTable()) {
+      return null;
+    }
+    if (containsPlaceholder(forEach.getOpen()) || containsPlaceholder(forEach.getClose())
+        || containsPlaceholder(forEach.getSeparator())) {
+      return null;
+    }
+    ForEachSegment segment;
+    try {
+      segment = new ForEachSegment(forEach, forEachCount);
+    } catch (PatternSyntaxException e) {
+      return null;
+    }
+    forEachCount++;
+    ForEachSegment[] innerScope = new ForEachSegment[scope.length + 1];
+    innerScope[0] = segment;
+    System.arraycopy(scope, 0, innerScope, 1, scope.length);
+    Segment contents = compileNode(forEach.getContents(), innerScope);
+    if (contents == null) {
+      return null;
+    }
+    segment.setContents(contents);
+    return segment;
+  }
+
+  /**
+   *  将静态文本中的 #{} 替换为 "?"，并预先解析每个占位符
+   * */
+  private Segment compileText(String text, final ForEachSegment[] scope) {
+    // foreach 内部的文本会被 DynamicSqlSource 解析两次，转义的 #{ 在第二次解析时会变成占位符
+    if (scope.length > 0 && containsEscapedPlaceholder(text)) {
+      return null;
+    }
+    final List<Placeholder> placeholders = new ArrayList<Placeholder>();
+    final boolean[] supported = { true };
+    GenericTokenParser parser = new GenericTokenParser("#{", "}", new TokenHandler() {
+      @Override
+      public String handleToken(String content) {
+        Placeholder placeholder = compilePlaceholder(content, scope);
+        if (placeholder == null) {
+          supported[0] = false;
+        } else {
+          placeholders.add(placeholder);
+        }
+        return "?";
+      }
+    });
+    String sql = parser.parse(text);
+    // 未闭合的 #{ 在 DynamicSqlSource 中可能与后面的节点拼接后才闭合
+    if (!supported[0] || sql.contains("#{")) {
+      return null;
+    }
+    return new StaticSegment(sql, placeholders.toArray(new Placeholder[placeholders.size()]));
+  }
+
+  private Placeholder compilePlaceholder(String content, ForEachSegment[] scope) {
+    try {
+      for (ForEachSegment forEach : scope) {
+        String name = null;
+        Matcher matcher = forEach.itemPattern.matcher(content);
+        if (matcher.find()) {
+          name = forEach.getItem();
+        } else if (forEach.indexPattern != null) {
+          matcher = forEach.indexPattern.matcher(content);
+          if (matcher.find()) {
+            name = forEach.getIndex();
+          }
+        }
+        if (name != null) {
+          // 以迭代序号 0 为样本解析改写后的占位符，属性名中只有序号部分会随迭代变化
+          String propertyPrefix = ForEachSqlNode.ITEM_PREFIX + name + "_";
+          String sample = propertyPrefix + "0";
+          String sampleContent = sample + content.substring(matcher.end());
+          Map<String, String> propertiesMap = sqlSourceBuilder.parseParameterMapping(sampleContent);
+          String property = propertiesMap.get("property");
+          if (property == null || !property.startsWith(sample)) {
+            return null;
+          }
+          StaticParameter parameter = new StaticParameter(sampleContent, propertiesMap, true);
+          return new Placeholder(parameter, forEach.ordinal, propertyPrefix, property.substring(sample.length()));
+        }
+      }
+      Map<String, String> propertiesMap = sqlSourceBuilder.parseParameterMapping(content);
+      StaticParameter parameter = new StaticParameter(content, propertiesMap, resolveAllPerCall || isBound(propertiesMap.get("property")));
+      return new Placeholder(parameter, -1, null, null);
+    } catch (BuilderException e) {
+      // 解析错误留到执行时由 DynamicSqlSource 抛出
+      return null;
+    }
+  }
+
+  /**
+   *  属性是否可能从动态上下文的绑定中取值
+   * */
+  private boolean isBound(String property) {
+    if (property == null) {
+      return true;
+    }
+    PropertyTokenizer prop = new PropertyTokenizer(property);
+    return boundNames.contains(prop.getName()) || boundNames.contains(prop.getIndexedName())
+        || prop.getName().startsWith(ForEachSqlNode.ITEM_PREFIX);
+  }
+
+  private static boolean isTrimNode(Class<?> type) {
+    return type == TrimSqlNode.class || type == WhereSqlNode.class || type == SetSqlNode.class;
+  }
+
+  private static boolean containsPlaceholder(String text) {
+    return text != null && text.contains("#{");
+  }
+
+  private static boolean containsEscapedPlaceholder(String text) {
+    return text != null && text.contains("\\#{");
+  }
+
+  private static boolean isPlainOverrides(List<String> overrides) {
+    if (overrides != null) {
+      for (String override : overrides) {
+        if (override.indexOf('#') >= 0 || override.indexOf('?') >= 0 || override.indexOf('}') >= 0) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+}
@@ -38,4 +38,8 @@ public class StaticTextSqlNode implements SqlNode {
     return true;
   }
 
+  String getText() {
+    return text;
+  }
+
 }
\ No newline at end of file
@@ -59,10 +59,27 @@ public class TextSqlNode implements SqlNode {
    * */
   @Override
   public boolean apply(DynamicContext context) {
-    GenericTokenParser parser = createParser(new BindingTokenParser(context, injectionFilter));
-    context.appendSql(parser.parse(text));
+    String sql = substitute(context);
+    //记录替换后的文本，带上长度以免与后面的签名混淆
+    StringBuilder signature = context.getBranchSignature();
+    if (signature != null) {
+      signature.append('$').append(sql.length()).append(':').append(sql);
+    }
+    context.appendSql(sql);
     return true;
   }
+
+  /**
+   *  替换 ${} 之间的内容，返回替换后的文本（不拼接到动态上下文中）
+   * */
+  String substitute(DynamicContext context) {
+    GenericTokenParser parser = createParser(new BindingTokenParser(context, injectionFilter));
+    return parser.parse(text);
+  }
+
+  String getText() {
+    return text;
+  }
   
   private GenericTokenParser createParser(TokenHandler handler) {
     return new GenericTokenParser("${", "}", handler);
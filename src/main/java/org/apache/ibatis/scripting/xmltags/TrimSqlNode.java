@@ -22,6 +22,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
 
+import org.apache.ibatis.mapping.TempTable;
 import org.apache.ibatis.session.Configuration;
 
 /**
@@ -97,6 +98,79 @@ public class TrimSqlNode implements SqlNode {
     return Collections.emptyList();
   }
 
+  /**
+   *  处理的完成逻辑：对内部节点返回的sql语句去除指定的开头和结尾，并添加前后缀
+   * */
+  String trim(CharSequence contentsSql) {
+    StringBuilder sql = new StringBuilder(contentsSql.toString().trim());
+    String trimmedUppercaseSql = sql.toString().toUpperCase(Locale.ENGLISH);
+    if (trimmedUppercaseSql.length() > 0) {
+      applyPrefix(sql, trimmedUppercaseSql);
+      applySuffix(sql, trimmedUppercaseSql);
+    }
+    return sql.toString();
+  }
+
+  /**
+   *  添加前缀，并去除指定的开头
+   * */
+  private void applyPrefix(StringBuilder sql, String trimmedUppercaseSql) {
+    //1. 移除指定的开头
+    if (prefixesToOverride != null) {
+      for (String toRemove : prefixesToOverride) {
+        if (trimmedUppercaseSql.startsWith(toRemove)) {
+          sql.delete(0, toRemove.trim().length());
+          break;
+        }
+      }
+    }
+    //2. 添加前缀
+    if (prefix != null) {
+      sql.insert(0, " ");
+      sql.insert(0, prefix);
+    }
+  }
+
+  /**
+   *  添加后缀，并去除指定的结尾
+   * */
+  private void applySuffix(StringBuilder sql, String trimmedUppercaseSql) {
+    if (suffixesToOverride != null) {
+      for (String toRemove : suffixesToOverride) {
+        if (trimmedUppercaseSql.endsWith(toRemove) || trimmedUppercaseSql.endsWith(toRemove.trim())) {
+          int start = sql.length() - toRemove.trim().length();
+          int end = sql.length();
+          sql.delete(start, end);
+          break;
+        }
+      }
+    }
+    if (suffix != null) {
+      sql.append(" ");
+      sql.append(suffix);
+    }
+  }
+
+  SqlNode getContents() {
+    return contents;
+  }
+
+  String getPrefix() {
+    return prefix;
+  }
+
+  String getSuffix() {
+    return suffix;
+  }
+
+  List<String> getPrefixesToOverride() {
+    return prefixesToOverride;
+  }
+
+  List<String> getSuffixesToOverride() {
+    return suffixesToOverride;
+  }
+
   /**
    *  使用装饰者模式：添加前后缀，去除子句的指定的开头或结尾
    * */
@@ -106,16 +180,6 @@ public class TrimSqlNode implements SqlNode {
      * */
     private DynamicContext delegate;
 
-    /**
-     *  是否已经处理了前缀
-     * */
-    private boolean prefixApplied;
-
-    /**
-     *  是否已经处理了后缀
-     * */
-    private boolean suffixApplied;
-
     /**
      *  记录该<trim/>子节点返回的，待预编译的sql语句
      * */
@@ -124,8 +188,6 @@ public class TrimSqlNode implements SqlNode {
     public FilteredDynamicContext(DynamicContext delegate) {
       super(configuration, null);
       this.delegate = delegate;
-      this.prefixApplied = false;
-      this.suffixApplied = false;
       this.sqlBuffer = new StringBuilder();
     }
 
@@ -133,13 +195,7 @@ public class TrimSqlNode implements SqlNode {
      *  处理的完成逻辑
      * */
     public void applyAll() {
-      sqlBuffer = new StringBuilder(sqlBuffer.toString().trim());
-      String trimmedUppercaseSql = sqlBuffer.toString().toUpperCase(Locale.ENGLISH);
-      if (trimmedUppercaseSql.length() > 0) {
-        applyPrefix(sqlBuffer, trimmedUppercaseSql);
-        applySuffix(sqlBuffer, trimmedUppercaseSql);
-      }
-      delegate.appendSql(sqlBuffer.toString());
+      delegate.appendSql(trim(sqlBuffer));
     }
 
     @Override
@@ -158,59 +214,33 @@ public class TrimSqlNode implements SqlNode {
     }
 
     @Override
-    public void appendSql(String sql) {
-      sqlBuffer.append(sql);
+    StringBuilder getBranchSignature() {
+      return delegate.getBranchSignature();
     }
 
     @Override
-    public String getSql() {
-      return delegate.getSql();
+    PositionalParameters getPositionalParameters() {
+      return delegate.getPositionalParameters();
     }
 
-    /**
-     *  添加前缀，并去除指定的开头
-     * */
-    private void applyPrefix(StringBuilder sql, String trimmedUppercaseSql) {
-      if (!prefixApplied) {
-        prefixApplied = true;
-        //1. 移除指定的开头
-        if (prefixesToOverride != null) {
-          for (String toRemove : prefixesToOverride) {
-            if (trimmedUppercaseSql.startsWith(toRemove)) {
-              sql.delete(0, toRemove.trim().length());
-              break;
-            }
-          }
-        }
-        //2. 添加前缀
-        if (prefix != null) {
-          sql.insert(0, " ");
-          sql.insert(0, prefix);
-        }
-      }
+    @Override
+    ChunkWindow getChunkWindow() {
+      return delegate.getChunkWindow();
     }
 
-    /**
-     *  添加后缀，并去除指定的结尾
-     * */
-    private void applySuffix(StringBuilder sql, String trimmedUppercaseSql) {
-      if (!suffixApplied) {
-        suffixApplied = true;
-        if (suffixesToOverride != null) {
-          for (String toRemove : suffixesToOverride) {
-            if (trimmedUppercaseSql.endsWith(toRemove) || trimmedUppercaseSql.endsWith(toRemove.trim())) {
-              int start = sql.length() - toRemove.trim().length();
-              int end = sql.length();
-              sql.delete(start, end);
-              break;
-            }
-          }
-        }
-        if (suffix != null) {
-          sql.append(" ");
-          sql.append(suffix);
-        }
-      }
+    @Override
+    List<TempTable> getTempTables() {
+      return delegate.getTempTables();
+    }
+
+    @Override
+    public void appendSql(String sql) {
+      sqlBuffer.append(sql);
+    }
+
+    @Override
+    public String getSql() {
+      return delegate.getSql();
     }
 
   }
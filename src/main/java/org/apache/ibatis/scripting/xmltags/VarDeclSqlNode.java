@@ -31,16 +31,30 @@ public class VarDeclSqlNode implements SqlNode {
    * */
   private final String expression;
 
+  /**
+   *  预编译的表达式
+   * */
+  private final Expression compiledExpression;
+
   public VarDeclSqlNode(String var, String exp) {
     name = var;
     expression = exp;
+    compiledExpression = Expression.compile(exp);
   }
 
   @Override
   public boolean apply(DynamicContext context) {
-    final Object value = OgnlCache.getValue(expression, context.getBindings());
+    final Object value = compiledExpression.getValue(context.getBindings());
     context.bind(name, value);
     return true;
   }
 
+  String getName() {
+    return name;
+  }
+
+  String getExpression() {
+    return expression;
+  }
+
 }
@@ -73,7 +73,13 @@ public class XMLScriptBuilder extends BaseBuilder {
     SqlSource sqlSource = null;
     //2. 如果为动态（如果内部包含动态sql或者${}就是动态的），则创建DynamicSqlSource 动态sql源
     if (isDynamic) {
-      sqlSource = new DynamicSqlSource(configuration, rootSqlNode);
+      //2.1 开启了动态sql编译时，尝试编译，无法编译的sql语句继续使用 DynamicSqlSource
+      if (configuration.isCompiledDynamicSqlEnabled()) {
+        sqlSource = new SqlNodeCompiler(configuration).compile(rootSqlNode);
+      }
+      if (sqlSource == null) {
+        sqlSource = new DynamicSqlSource(configuration, rootSqlNode);
+      }
     //3. 如果为静态，则创建 RawSqlSource 原始 sql源
     } else {
       sqlSource = new RawSqlSource(configuration, rootSqlNode, parameterType);
@@ -250,8 +256,16 @@ public class XMLScriptBuilder extends BaseBuilder {
       String open = nodeToHandle.getStringAttribute("open");
       String close = nodeToHandle.getStringAttribute("close");
       String separator = nodeToHandle.getStringAttribute("separator");
+      boolean positional = nodeToHandle.getBooleanAttribute("positional", false);
+      int chunkSize = nodeToHandle.getIntAttribute("chunkSize", 0);
+      boolean chunkBatch = nodeToHandle.getBooleanAttribute("chunkBatch", false);
+      String padding = nodeToHandle.getStringAttribute("padding");
+      String padWith = nodeToHandle.getStringAttribute("padWith");
+      int tempTableThreshold = nodeToHandle.getIntAttribute("tempTableThreshold", 0);
+      String tempTableColumnType = nodeToHandle.getStringAttribute("tempTableColumnType");
       //3. 构建 ForEachSqlNode，并添加到集合中
-      ForEachSqlNode forEachSqlNode = new ForEachSqlNode(configuration, mixedSqlNode, collection, index, item, open, close, separator);
+      ForEachSqlNode forEachSqlNode = new ForEachSqlNode(configuration, mixedSqlNode, collection, index, item, open, close, separator,
+          positional, chunkSize, chunkBatch, padding, padWith, tempTableThreshold, tempTableColumnType);
       targetContents.add(forEachSqlNode);
     }
   }
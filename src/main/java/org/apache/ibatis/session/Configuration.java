@@ -27,6 +27,8 @@ import java.util.Set;
 
 import org.apache.ibatis.datasource.jndi.JndiDataSourceFactory;
 import org.apache.ibatis.datasource.pooled.PooledDataSourceFactory;
+import org.apache.ibatis.datasource.routing.MultiHostPooledDataSourceFactory;
+import org.apache.ibatis.datasource.routing.ReadWriteRoutingDataSourceFactory;
 import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.*;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
@@ -68,9 +70,11 @@ import org.apache.ibatis.datasource.unpooled.UnpooledDataSourceFactory;
 import org.apache.ibatis.executor.BatchExecutor;
 import org.apache.ibatis.executor.CachingExecutor;
 import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.LimitingExecutor;
 import org.apache.ibatis.executor.ReuseExecutor;
 import org.apache.ibatis.executor.SimpleExecutor;
 import org.apache.ibatis.executor.keygen.KeyGenerator;
+import org.apache.ibatis.executor.limiter.ConcurrencyLimiter;
 import org.apache.ibatis.executor.loader.ProxyFactory;
 import org.apache.ibatis.executor.loader.cglib.CglibProxyFactory;
 import org.apache.ibatis.executor.loader.javassist.JavassistProxyFactory;
@@ -137,12 +141,23 @@ public class Configuration {
   protected boolean useColumnLabel = true;
   protected boolean cacheEnabled = true;
   protected boolean callSettersOnNulls = false;
+  protected boolean compiledRowMappingEnabled = false;
+  protected boolean compiledDynamicSqlEnabled = false;
+  protected int dynamicSqlShapeCacheSize = 64;
   protected String logPrefix;
   protected Class <? extends Log> logImpl;
   protected LocalCacheScope localCacheScope = LocalCacheScope.SESSION;
   protected JdbcType jdbcTypeForNull = JdbcType.OTHER;
   protected Set<String> lazyLoadTriggerMethods = new HashSet<String>(Arrays.asList(new String[] { "equals", "clone", "hashCode", "toString" }));
   protected Integer defaultStatementTimeout;
+  protected int batchFetchSize = 100;
+  protected boolean batchLazyLoadingEnabled = false;
+  protected boolean batchGroupingEnabled = false;
+  protected int batchFlushSize = 0;
+  protected int batchFlushMemoryKb = 0;
+  protected boolean batchRetainParameters = true;
+  protected int batchInsertRewriteSize = 0;
+  protected int batchInsertRewriteMaxParameters = 2000;
   protected ExecutorType defaultExecutorType = ExecutorType.SIMPLE;
   protected AutoMappingBehavior autoMappingBehavior = AutoMappingBehavior.PARTIAL;
   //---------以上都是<settings>节点-------
@@ -209,6 +224,10 @@ public class Configuration {
    *  key: mapper文件的命名空间 value: 所使用的缓存对象
    * */
   protected final Map<String, Cache> caches = new StrictMap<Cache>("Caches collection");
+  /**
+   *  key: mapper文件的命名空间 value: 该命名空间的并发限制器
+   * */
+  protected final Map<String, ConcurrencyLimiter> concurrencyLimiters = new StrictMap<ConcurrencyLimiter>("Concurrency limiters collection");
   //结果映射,存在Map里
   /**
    *  key: resultMap的唯一标识, 可以通过<resultMap/>节点的id属性的值设值
@@ -265,6 +284,8 @@ public class Configuration {
     typeAliasRegistry.registerAlias("JNDI", JndiDataSourceFactory.class);
     typeAliasRegistry.registerAlias("POOLED", PooledDataSourceFactory.class);
     typeAliasRegistry.registerAlias("UNPOOLED", UnpooledDataSourceFactory.class);
+    typeAliasRegistry.registerAlias("READ_WRITE", ReadWriteRoutingDataSourceFactory.class);
+    typeAliasRegistry.registerAlias("MULTI_HOST", MultiHostPooledDataSourceFactory.class);
 
     typeAliasRegistry.registerAlias("PERPETUAL", PerpetualCache.class);
     typeAliasRegistry.registerAlias("FIFO", FifoCache.class);
@@ -320,6 +341,94 @@ public class Configuration {
     this.callSettersOnNulls = callSettersOnNulls;
   }
 
+  public boolean isCompiledRowMappingEnabled() {
+    return compiledRowMappingEnabled;
+  }
+
+  public void setCompiledRowMappingEnabled(boolean compiledRowMappingEnabled) {
+    this.compiledRowMappingEnabled = compiledRowMappingEnabled;
+  }
+
+  public boolean isCompiledDynamicSqlEnabled() {
+    return compiledDynamicSqlEnabled;
+  }
+
+  public void setCompiledDynamicSqlEnabled(boolean compiledDynamicSqlEnabled) {
+    this.compiledDynamicSqlEnabled = compiledDynamicSqlEnabled;
+  }
+
+  public int getDynamicSqlShapeCacheSize() {
+    return dynamicSqlShapeCacheSize;
+  }
+
+  public void setDynamicSqlShapeCacheSize(int dynamicSqlShapeCacheSize) {
+    this.dynamicSqlShapeCacheSize = dynamicSqlShapeCacheSize;
+  }
+
+  public int getBatchFetchSize() {
+    return batchFetchSize;
+  }
+
+  public void setBatchFetchSize(int batchFetchSize) {
+    this.batchFetchSize = batchFetchSize;
+  }
+
+  public boolean isBatchLazyLoadingEnabled() {
+    return batchLazyLoadingEnabled;
+  }
+
+  public void setBatchLazyLoadingEnabled(boolean batchLazyLoadingEnabled) {
+    this.batchLazyLoadingEnabled = batchLazyLoadingEnabled;
+  }
+
+  public boolean isBatchGroupingEnabled() {
+    return batchGroupingEnabled;
+  }
+
+  public void setBatchGroupingEnabled(boolean batchGroupingEnabled) {
+    this.batchGroupingEnabled = batchGroupingEnabled;
+  }
+
+  public int getBatchFlushSize() {
+    return batchFlushSize;
+  }
+
+  public void setBatchFlushSize(int batchFlushSize) {
+    this.batchFlushSize = batchFlushSize;
+  }
+
+  public int getBatchFlushMemoryKb() {
+    return batchFlushMemoryKb;
+  }
+
+  public void setBatchFlushMemoryKb(int batchFlushMemoryKb) {
+    this.batchFlushMemoryKb = batchFlushMemoryKb;
+  }
+
+  public boolean isBatchRetainParameters() {
+    return batchRetainParameters;
+  }
+
+  public void setBatchRetainParameters(boolean batchRetainParameters) {
+    this.batchRetainParameters = batchRetainParameters;
+  }
+
+  public int getBatchInsertRewriteSize() {
+    return batchInsertRewriteSize;
+  }
+
+  public void setBatchInsertRewriteSize(int batchInsertRewriteSize) {
+    this.batchInsertRewriteSize = batchInsertRewriteSize;
+  }
+
+  public int getBatchInsertRewriteMaxParameters() {
+    return batchInsertRewriteMaxParameters;
+  }
+
+  public void setBatchInsertRewriteMaxParameters(int batchInsertRewriteMaxParameters) {
+    this.batchInsertRewriteMaxParameters = batchInsertRewriteMaxParameters;
+  }
+
   public String getDatabaseId() {
     return databaseId;
   }
@@ -601,6 +710,10 @@ public class Configuration {
     } else {
       executor = new SimpleExecutor(this, transaction);
     }
+    //如果有命名空间配置了并发限制，执行语句前先获取许可（在二级缓存之内，命中二级缓存的查询不占用许可）
+    if (!concurrencyLimiters.isEmpty()) {
+      executor = new LimitingExecutor(executor);
+    }
     //3. 如果全局性的开启缓存，则使用装饰者模式为执行器增加缓存的功能
     if (cacheEnabled) {
       executor = new CachingExecutor(executor);
@@ -650,6 +763,22 @@ public class Configuration {
     return caches.containsKey(id);
   }
 
+  public void addConcurrencyLimiter(ConcurrencyLimiter limiter) {
+    concurrencyLimiters.put(limiter.getId(), limiter);
+  }
+
+  public Collection<ConcurrencyLimiter> getConcurrencyLimiters() {
+    return concurrencyLimiters.values();
+  }
+
+  public ConcurrencyLimiter getConcurrencyLimiter(String namespace) {
+    return concurrencyLimiters.get(namespace);
+  }
+
+  public boolean hasConcurrencyLimiter(String namespace) {
+    return concurrencyLimiters.containsKey(namespace);
+  }
+
   public void addResultMap(ResultMap rm) {
     resultMaps.put(rm.getId(), rm);
     checkLocallyForDiscriminatedNestedResultMaps(rm);
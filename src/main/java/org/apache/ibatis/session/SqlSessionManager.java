@@ -25,6 +25,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.defaults.DefaultCursor;
 import org.apache.ibatis.executor.BatchResult;
 import org.apache.ibatis.reflection.ExceptionUtil;
 import org.apache.ibatis.executor.BatchResult;
@@ -186,6 +188,48 @@ public class SqlSessionManager implements SqlSessionFactory, SqlSession {
     return sqlSessionProxy.<K, V> selectMap(statement, parameter, mapKey, rowBounds);
   }
 
+  @Override
+  public <T> Cursor<T> selectCursor(String statement) {
+    return selectCursor(statement, null);
+  }
+
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+    return selectCursor(statement, parameter, RowBounds.DEFAULT);
+  }
+
+  /**
+   *  没有受管理的 session 时不能像其他方法一样调用后立即关闭自动打开的 session，
+   *    自动打开的 session 在游标关闭或读完时才关闭
+   * */
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+    final SqlSession sqlSession = localSqlSession.get();
+    if (sqlSession != null) {
+      return sqlSession.<T> selectCursor(statement, parameter, rowBounds);
+    }
+    final SqlSession autoSqlSession = openSession();
+    boolean success = false;
+    try {
+      final Cursor<T> cursor = autoSqlSession.<T> selectCursor(statement, parameter, rowBounds);
+      if (!(cursor instanceof DefaultCursor)) {
+        throw new SqlSessionException("Error:  Cannot open a cursor.  No managed session is started.");
+      }
+      ((DefaultCursor<T>) cursor).addCloseListener(new Runnable() {
+        @Override
+        public void run() {
+          autoSqlSession.close();
+        }
+      });
+      success = true;
+      return cursor;
+    } finally {
+      if (!success) {
+        autoSqlSession.close();
+      }
+    }
+  }
+
   @Override
   public <E> List<E> selectList(String statement) {
     return sqlSessionProxy.<E> selectList(statement);
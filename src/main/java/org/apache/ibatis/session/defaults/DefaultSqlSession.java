@@ -17,11 +17,14 @@ package org.apache.ibatis.session.defaults;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.cursor.defaults.DefaultCursor;
 import org.apache.ibatis.exceptions.ExceptionFactory;
 import org.apache.ibatis.exceptions.TooManyResultsException;
 import org.apache.ibatis.executor.BatchResult;
@@ -71,6 +74,11 @@ public class DefaultSqlSession implements SqlSession {
    *  是否有脏数据
    * */
   private boolean dirty;
+
+  /**
+   *  当前 sqlSession 打开的游标，关闭 sqlSession 时一并关闭
+   * */
+  private List<Cursor<?>> cursorList;
   
   public DefaultSqlSession(Configuration configuration, Executor executor, boolean autoCommit) {
     this.configuration = configuration;
@@ -137,6 +145,33 @@ public class DefaultSqlSession implements SqlSession {
     return mapResultHandler.getMappedResults();
   }
 
+  @Override
+  public <T> Cursor<T> selectCursor(String statement) {
+    return selectCursor(statement, null);
+  }
+
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+    return selectCursor(statement, parameter, RowBounds.DEFAULT);
+  }
+
+  /**
+   *  以游标的方式查询记录
+   * */
+  @Override
+  public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+    try {
+      MappedStatement ms = configuration.getMappedStatement(statement);
+      Cursor<T> cursor = executor.queryCursor(ms, wrapCollection(parameter), rowBounds);
+      registerCursor(cursor);
+      return cursor;
+    } catch (Exception e) {
+      throw ExceptionFactory.wrapException("Error querying database.  Cause: " + e, e);
+    } finally {
+      ErrorContext.instance().reset();
+    }
+  }
+
   @Override
   public <E> List<E> selectList(String statement) {
     return this.selectList(statement, null);
@@ -289,7 +324,8 @@ public class DefaultSqlSession implements SqlSession {
   @Override
   public void close() {
     try {
-      //转而用执行器来close
+      //先关闭所有打开的游标，再转而用执行器来close
+      closeCursors();
       executor.close(isCommitOrRollbackRequired(false));
       //每次close之后，dirty标志设为false
       dirty = false;
@@ -298,6 +334,34 @@ public class DefaultSqlSession implements SqlSession {
     }
   }
 
+  private void closeCursors() {
+    if (cursorList != null && cursorList.size() != 0) {
+      // 关闭的游标会从 cursorList 中移除
+      for (Cursor<?> cursor : new ArrayList<Cursor<?>>(cursorList)) {
+        cursor.close();
+      }
+      cursorList.clear();
+    }
+  }
+
+  /**
+   *  登记打开的游标，session 关闭时一起关闭；游标提前关闭或读完时取消登记
+   * */
+  private <T> void registerCursor(final Cursor<T> cursor) {
+    if (cursorList == null) {
+      cursorList = new ArrayList<Cursor<?>>();
+    }
+    cursorList.add(cursor);
+    if (cursor instanceof DefaultCursor) {
+      ((DefaultCursor<T>) cursor).addCloseListener(new Runnable() {
+        @Override
+        public void run() {
+          cursorList.remove(cursor);
+        }
+      });
+    }
+  }
+
   @Override
   public Configuration getConfiguration() {
     return configuration;
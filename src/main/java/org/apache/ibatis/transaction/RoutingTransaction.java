@@ -0,0 +1,36 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.transaction;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.ibatis.mapping.MappedStatement;
+
+/**
+ *  按语句选择数据库连接的事务（例如读写分离），执行器执行语句前通过 getConnection(MappedStatement) 获取连接
+ */
+public interface RoutingTransaction extends Transaction {
+
+  /**
+   * Retrieve the database connection the given statement should run on.
+   * @param ms statement about to be executed
+   * @return DataBase connection
+   * @throws SQLException
+   */
+  Connection getConnection(MappedStatement ms) throws SQLException;
+
+}
@@ -20,6 +20,7 @@ import java.util.Properties;
 
 import javax.sql.DataSource;
 
+import org.apache.ibatis.datasource.routing.ReadWriteRoutingDataSource;
 import org.apache.ibatis.session.TransactionIsolationLevel;
 import org.apache.ibatis.transaction.Transaction;
 import org.apache.ibatis.transaction.TransactionFactory;
@@ -40,6 +41,10 @@ public class JdbcTransactionFactory implements TransactionFactory {
 
   @Override
   public Transaction newTransaction(DataSource ds, TransactionIsolationLevel level, boolean autoCommit) {
+    //读写分离数据源使用按语句选择主库或者从库连接的事务
+    if (ds instanceof ReadWriteRoutingDataSource) {
+      return new ReadWriteRoutingTransaction((ReadWriteRoutingDataSource) ds, level, autoCommit);
+    }
     return new JdbcTransaction(ds, level, autoCommit);
   }
 }
@@ -0,0 +1,145 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.transaction.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.ibatis.datasource.routing.ReadWriteRoutingDataSource;
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.LogFactory;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.RouteType;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.apache.ibatis.transaction.RoutingTransaction;
+
+/**
+ *  读写分离的 Jdbc事务： 写操作之前的查询在从库连接上执行，写操作以及之后的语句在主库连接上执行。
+ *    两个连接都延迟获取，提交、回滚、关闭时同时作用于两个连接
+ */
+public class ReadWriteRoutingTransaction implements RoutingTransaction {
+
+  private static final Log log = LogFactory.getLog(ReadWriteRoutingTransaction.class);
+
+  protected final ReadWriteRoutingDataSource dataSource;
+  protected final TransactionIsolationLevel level;
+  protected final boolean autoCommit;
+
+  /**
+   *  主库事务
+   * */
+  protected final JdbcTransaction primary;
+
+  /**
+   *  从库事务和使用的从库，第一次需要从库连接时选择
+   * */
+  protected JdbcTransaction replica;
+  protected ReadWriteRoutingDataSource.Replica replicaNode;
+
+  /**
+   *  当前事务中是否已经发生了写操作
+   * */
+  protected boolean written;
+
+  public ReadWriteRoutingTransaction(ReadWriteRoutingDataSource dataSource, TransactionIsolationLevel level, boolean autoCommit) {
+    this.dataSource = dataSource;
+    this.level = level;
+    this.autoCommit = autoCommit;
+    this.primary = new JdbcTransaction(dataSource.getPrimary(), level, autoCommit);
+  }
+
+  /**
+   *  不知道连接的用途（例如 SqlSession.getConnection()），按写操作处理
+   * */
+  @Override
+  public Connection getConnection() throws SQLException {
+    written = true;
+    return primary.getConnection();
+  }
+
+  @Override
+  public Connection getConnection(MappedStatement ms) throws SQLException {
+    if (ms.getSqlCommandType() != SqlCommandType.SELECT) {
+      written = true;
+      return primary.getConnection();
+    }
+    final RouteType route = ms.getRoute();
+    if (route == RouteType.REPLICA || (route != RouteType.PRIMARY && !written)) {
+      final Connection connection = getReplicaConnection();
+      if (connection != null) {
+        return connection;
+      }
+    }
+    return primary.getConnection();
+  }
+
+  /**
+   * @return 没有从库时返回 null
+   * */
+  protected Connection getReplicaConnection() throws SQLException {
+    if (replica == null) {
+      replicaNode = dataSource.acquireReplica();
+      if (replicaNode == null) {
+        return null;
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Routing reads to replica " + replicaNode);
+      }
+      replica = new JdbcTransaction(replicaNode.getDataSource(), level, autoCommit);
+    }
+    return replica.getConnection();
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    primary.commit();
+    if (replica != null) {
+      replica.commit();
+    }
+    written = false;
+  }
+
+  @Override
+  public void rollback() throws SQLException {
+    try {
+      primary.rollback();
+    } finally {
+      if (replica != null) {
+        replica.rollback();
+      }
+    }
+    written = false;
+  }
+
+  @Override
+  public void close() throws SQLException {
+    try {
+      primary.close();
+    } finally {
+      if (replica != null) {
+        try {
+          replica.close();
+        } finally {
+          dataSource.releaseReplica(replicaNode);
+          replica = null;
+          replicaNode = null;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,729 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * A scriptable in-memory JDBC backend for tests that check what the framework sends to the database.
+ * Statements are answered by the first responder whose SQL fragment is contained in the statement text,
+ * and every execution is recorded in {@link #getLog()} as {@code "<sql> <parameters>"}.
+ * Connections are available through {@link #getConnection()} or, for the pooled data sources,
+ * through the driver class {@link #DRIVER} and {@link #getUrl()}.
+ */
+public class FakeDatabase implements DataSource {
+
+  public static final String DRIVER = FakeDriver.class.getName();
+
+  private static final String URL_PREFIX = "jdbc:fake:";
+
+  private static final Map<String, FakeDatabase> databases = new ConcurrentHashMap<String, FakeDatabase>();
+
+  public interface Responder {
+    Result respond(String sql, List<Object> parameters) throws SQLException;
+  }
+
+  /**
+   * The answer to one execution: either rows or an update count, plus optional generated keys.
+   */
+  public static class Result {
+    private final String[] columns;
+    private final List<Object[]> rows;
+    private final int updateCount;
+    private Result keys;
+
+    private Result(String[] columns, List<Object[]> rows, int updateCount) {
+      this.columns = columns;
+      this.rows = rows;
+      this.updateCount = updateCount;
+    }
+
+    public Result withKeys(Result keys) {
+      this.keys = keys;
+      return this;
+    }
+
+    public boolean isQuery() {
+      return columns != null;
+    }
+  }
+
+  private final String name;
+  private final Map<String, Responder> responders = Collections.synchronizedMap(new LinkedHashMap<String, Responder>());
+  private final List<String> log = new CopyOnWriteArrayList<String>();
+  private final List<Connection> openConnections = new CopyOnWriteArrayList<Connection>();
+
+  public final AtomicInteger connectionsOpened = new AtomicInteger();
+  public final AtomicInteger statementsPrepared = new AtomicInteger();
+  public final AtomicInteger statementsClosed = new AtomicInteger();
+  public final AtomicInteger commits = new AtomicInteger();
+  public final AtomicInteger rollbacks = new AtomicInteger();
+
+  private volatile boolean down;
+  private volatile long connectDelay;
+  private volatile Runnable rollbackListener;
+  private volatile SQLException rollbackFailure;
+  private volatile String productName = "Fake";
+
+  private FakeDatabase(String name) {
+    this.name = name;
+  }
+
+  public static FakeDatabase create(String name) {
+    FakeDatabase database = new FakeDatabase(name);
+    databases.put(name, database);
+    return database;
+  }
+
+  public static Result rows(String[] columns, Object[]... rows) {
+    return new Result(columns, new ArrayList<Object[]>(Arrays.asList(rows)), -1);
+  }
+
+  public static Result rows(String[] columns, List<Object[]> rows) {
+    return new Result(columns, rows, -1);
+  }
+
+  public static Result updateCount(int count) {
+    return new Result(null, null, count);
+  }
+
+  public FakeDatabase on(String sqlFragment, Responder responder) {
+    responders.put(sqlFragment, responder);
+    return this;
+  }
+
+  public FakeDatabase on(String sqlFragment, final Result result) {
+    return on(sqlFragment, new Responder() {
+      @Override
+      public Result respond(String sql, List<Object> parameters) {
+        return result;
+      }
+    });
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getUrl() {
+    return URL_PREFIX + name;
+  }
+
+  public List<String> getLog() {
+    return log;
+  }
+
+  public List<Connection> getOpenConnections() {
+    return openConnections;
+  }
+
+  /**
+   * A database that is down refuses new connections and fails every call on the existing ones.
+   */
+  public void setDown(boolean down) {
+    this.down = down;
+  }
+
+  public void setConnectDelay(long connectDelay) {
+    this.connectDelay = connectDelay;
+  }
+
+  /**
+   * Runs before every rollback, on the rolling back thread.
+   */
+  public void setRollbackListener(Runnable rollbackListener) {
+    this.rollbackListener = rollbackListener;
+  }
+
+  /**
+   * Makes every rollback fail with the given exception; {@code null} lets them succeed again.
+   */
+  public void setRollbackFailure(SQLException rollbackFailure) {
+    this.rollbackFailure = rollbackFailure;
+  }
+
+  /**
+   * The name reported by {@link DatabaseMetaData#getDatabaseProductName()}.
+   */
+  public void setProductName(String productName) {
+    this.productName = productName;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    checkUp();
+    if (connectDelay > 0) {
+      sleep(connectDelay);
+    }
+    connectionsOpened.incrementAndGet();
+    Connection connection = proxy(Connection.class, new ConnectionHandler());
+    openConnections.add(connection);
+    return connection;
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return getConnection();
+  }
+
+  @Override
+  public PrintWriter getLogWriter() {
+    return null;
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) {
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) {
+  }
+
+  @Override
+  public int getLoginTimeout() {
+    return 0;
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    throw new SQLFeatureNotSupportedException();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    throw new SQLException("not a wrapper");
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) {
+    return false;
+  }
+
+  private void checkUp() throws SQLException {
+    if (down) {
+      throw new SQLException("database " + name + " is down", "08001");
+    }
+  }
+
+  private Result execute(String sql, List<Object> parameters) throws SQLException {
+    checkUp();
+    log.add(sql + " " + parameters);
+    Responder responder = null;
+    synchronized (responders) {
+      for (Map.Entry<String, Responder> entry : responders.entrySet()) {
+        if (sql.contains(entry.getKey())) {
+          responder = entry.getValue();
+          break;
+        }
+      }
+    }
+    if (responder == null) {
+      return updateCount(0);
+    }
+    return responder.respond(sql, parameters);
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return (T) Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class<?>[] { type }, handler);
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    } else if (type == short.class) {
+      return (short) 0;
+    } else if (type == byte.class) {
+      return (byte) 0;
+    } else if (type == double.class) {
+      return 0d;
+    } else if (type == float.class) {
+      return 0f;
+    }
+    return null;
+  }
+
+  /**
+   * Handles the methods every JDBC object has, and keeps the value of plain setters so the getters return it.
+   */
+  private abstract class Handler implements InvocationHandler {
+    protected final Map<String, Object> attributes = new HashMap<String, Object>();
+    protected boolean closed;
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      final String methodName = method.getName();
+      if ("toString".equals(methodName)) {
+        return getClass().getSimpleName() + "@" + name + "#" + System.identityHashCode(proxy);
+      } else if ("hashCode".equals(methodName)) {
+        return System.identityHashCode(proxy);
+      } else if ("equals".equals(methodName)) {
+        return proxy == args[0];
+      } else if ("isClosed".equals(methodName)) {
+        return closed;
+      } else if ("isWrapperFor".equals(methodName)) {
+        return false;
+      }
+      try {
+        return handle(proxy, method, methodName, args == null ? new Object[0] : args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    protected abstract Object handle(Object proxy, Method method, String methodName, Object[] args) throws Throwable;
+
+    protected Object attribute(Method method, String methodName, Object[] args) {
+      if (methodName.startsWith("set") && args.length == 1) {
+        attributes.put(methodName.substring(3), args[0]);
+        return null;
+      }
+      String key = methodName.startsWith("get") ? methodName.substring(3) : methodName.startsWith("is") ? methodName.substring(2) : null;
+      if (key != null && args.length == 0 && attributes.containsKey(key)) {
+        return attributes.get(key);
+      }
+      return defaultValue(method.getReturnType());
+    }
+  }
+
+  private class ConnectionHandler extends Handler {
+
+    ConnectionHandler() {
+      attributes.put("AutoCommit", true);
+      attributes.put("TransactionIsolation", Connection.TRANSACTION_READ_COMMITTED);
+    }
+
+    @Override
+    protected Object handle(Object proxy, Method method, String methodName, Object[] args) throws Throwable {
+      if ("close".equals(methodName)) {
+        if (!closed) {
+          closed = true;
+          openConnections.remove(proxy);
+        }
+        return null;
+      } else if ("isValid".equals(methodName)) {
+        return !closed && !down;
+      }
+      checkUp();
+      if (closed) {
+        throw new SQLException("connection is closed");
+      }
+      if ("prepareStatement".equals(methodName)) {
+        statementsPrepared.incrementAndGet();
+        return proxy(PreparedStatement.class, new StatementHandler((Connection) proxy, (String) args[0], args));
+      } else if ("prepareCall".equals(methodName)) {
+        statementsPrepared.incrementAndGet();
+        return proxy(CallableStatement.class, new StatementHandler((Connection) proxy, (String) args[0], args));
+      } else if ("createStatement".equals(methodName)) {
+        return proxy(Statement.class, new StatementHandler((Connection) proxy, null, args));
+      } else if ("commit".equals(methodName)) {
+        commits.incrementAndGet();
+        return null;
+      } else if ("rollback".equals(methodName)) {
+        Runnable listener = rollbackListener;
+        if (listener != null) {
+          listener.run();
+        }
+        SQLException failure = rollbackFailure;
+        if (failure != null) {
+          throw failure;
+        }
+        rollbacks.incrementAndGet();
+        return null;
+      } else if ("getMetaData".equals(methodName)) {
+        return proxy(DatabaseMetaData.class, new MetaDataHandler((Connection) proxy));
+      }
+      return attribute(method, methodName, args);
+    }
+  }
+
+  private class MetaDataHandler extends Handler {
+    private final Connection connection;
+
+    MetaDataHandler(Connection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    protected Object handle(Object proxy, Method method, String methodName, Object[] args) {
+      if ("getDatabaseProductName".equals(methodName)) {
+        return productName;
+      } else if ("getURL".equals(methodName)) {
+        return getUrl();
+      } else if ("getConnection".equals(methodName)) {
+        return connection;
+      }
+      return defaultValue(method.getReturnType());
+    }
+  }
+
+  private class StatementHandler extends Handler {
+    private final Connection connection;
+    private final String sql;
+    private final boolean returnGeneratedKeys;
+    private final Map<Integer, Object> parameters = new TreeMap<Integer, Object>();
+    private final Map<String, Object> namedParameters = new TreeMap<String, Object>();
+    private final List<Object> batch = new ArrayList<Object>();
+    private Statement self;
+    private ResultSet resultSet;
+    private ResultSet generatedKeys;
+    private int updateCount = -1;
+
+    StatementHandler(Connection connection, String sql, Object[] args) {
+      this.connection = connection;
+      this.sql = sql;
+      this.returnGeneratedKeys = args.length == 2 && (args[1] instanceof String[] || args[1] instanceof int[]
+          || Integer.valueOf(Statement.RETURN_GENERATED_KEYS).equals(args[1]));
+      attributes.put("FetchDirection", ResultSet.FETCH_FORWARD);
+      attributes.put("EscapeProcessing", true);
+      attributes.put("Poolable", sql != null);
+      attributes.put("MaxFieldSize", 0);
+    }
+
+    private List<Object> currentParameters() {
+      List<Object> values = new ArrayList<Object>(parameters.values());
+      if (!namedParameters.isEmpty()) {
+        values.add(new TreeMap<String, Object>(namedParameters));
+      }
+      return values;
+    }
+
+    @Override
+    protected Object handle(Object proxy, Method method, String methodName, Object[] args) throws Throwable {
+      final Class<?>[] parameterTypes = method.getParameterTypes();
+      self = (Statement) proxy;
+      if ("close".equals(methodName)) {
+        if (!closed) {
+          closed = true;
+          statementsClosed.incrementAndGet();
+        }
+        return null;
+      }
+      if (closed) {
+        throw new SQLException("statement is closed");
+      }
+      checkUp();
+      if ("getConnection".equals(methodName)) {
+        return connection;
+      } else if ("closeOnCompletion".equals(methodName)) {
+        attributes.put("CloseOnCompletion", true);
+        return null;
+      } else if (methodName.startsWith("set") && args.length >= 2 && parameterTypes[0] == int.class) {
+        parameters.put((Integer) args[0], methodName.equals("setNull") ? null : args[1]);
+        return null;
+      } else if (methodName.startsWith("set") && args.length >= 2 && parameterTypes[0] == String.class) {
+        namedParameters.put((String) args[0], methodName.equals("setNull") ? null : args[1]);
+        return null;
+      } else if ("registerOutParameter".equals(methodName)) {
+        return null;
+      } else if ("clearParameters".equals(methodName)) {
+        parameters.clear();
+        namedParameters.clear();
+        return null;
+      } else if ("addBatch".equals(methodName)) {
+        batch.add(args.length == 1 ? args[0] : currentParameters());
+        return null;
+      } else if ("clearBatch".equals(methodName)) {
+        batch.clear();
+        return null;
+      } else if ("executeBatch".equals(methodName)) {
+        List<Object> entries = new ArrayList<Object>(batch);
+        batch.clear();
+        int[] counts = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+          Object entry = entries.get(i);
+          @SuppressWarnings("unchecked")
+          Result result = entry instanceof String ? run((String) entry, Collections.emptyList()) : run(sql, (List<Object>) entry);
+          counts[i] = result.updateCount;
+        }
+        return counts;
+      } else if (methodName.startsWith("execute")) {
+        String statementSql = args.length > 0 ? (String) args[0] : sql;
+        Result result = run(statementSql, currentParameters());
+        if (methodName.equals("executeQuery")) {
+          return resultSet;
+        } else if (methodName.equals("executeUpdate")) {
+          return updateCount;
+        }
+        return result.isQuery();
+      } else if ("getResultSet".equals(methodName)) {
+        ResultSet current = resultSet;
+        resultSet = null;
+        return current;
+      } else if ("getUpdateCount".equals(methodName)) {
+        int current = updateCount;
+        updateCount = -1;
+        return current;
+      } else if ("getMoreResults".equals(methodName)) {
+        resultSet = null;
+        updateCount = -1;
+        return false;
+      } else if ("getGeneratedKeys".equals(methodName)) {
+        return generatedKeys != null ? generatedKeys : newResultSet(rows(new String[0]), self);
+      } else if (methodName.startsWith("get") && args.length == 1 && (parameterTypes[0] == int.class || parameterTypes[0] == String.class)) {
+        // out parameters of a callable statement
+        return defaultValue(method.getReturnType());
+      }
+      return attribute(method, methodName, args);
+    }
+
+    private Result run(String statementSql, List<Object> values) throws SQLException {
+      Result result = execute(statementSql, values);
+      resultSet = result.isQuery() ? newResultSet(result, self) : null;
+      updateCount = result.isQuery() ? -1 : result.updateCount;
+      if (returnGeneratedKeys && result.keys != null) {
+        generatedKeys = newResultSet(result.keys, self);
+      }
+      return result;
+    }
+  }
+
+  private ResultSet newResultSet(Result result, Statement statement) {
+    return proxy(ResultSet.class, new ResultSetHandler(result, statement));
+  }
+
+  private class ResultSetHandler extends Handler {
+    private final Result result;
+    private final Statement statement;
+    private int row = -1;
+    private boolean wasNull;
+
+    ResultSetHandler(Result result, Statement statement) {
+      this.result = result;
+      this.statement = statement;
+    }
+
+    @Override
+    protected Object handle(Object proxy, Method method, String methodName, Object[] args) throws Throwable {
+      if ("close".equals(methodName)) {
+        closed = true;
+        return null;
+      }
+      if (closed) {
+        throw new SQLException("result set is closed");
+      }
+      if ("next".equals(methodName)) {
+        row++;
+        return row < result.rows.size();
+      } else if ("getMetaData".equals(methodName)) {
+        return proxy(ResultSetMetaData.class, new ResultSetMetaDataHandler(result));
+      } else if ("getType".equals(methodName)) {
+        return ResultSet.TYPE_FORWARD_ONLY;
+      } else if ("getStatement".equals(methodName)) {
+        return statement;
+      } else if ("wasNull".equals(methodName)) {
+        return wasNull;
+      } else if (methodName.startsWith("get") && args.length >= 1) {
+        Object value = result.rows.get(row)[columnIndex(args[0])];
+        wasNull = value == null;
+        return convert(value, method.getReturnType());
+      }
+      return attribute(method, methodName, args);
+    }
+
+    private int columnIndex(Object column) throws SQLException {
+      if (column instanceof Integer) {
+        return (Integer) column - 1;
+      }
+      for (int i = 0; i < result.columns.length; i++) {
+        if (result.columns[i].equalsIgnoreCase((String) column)) {
+          return i;
+        }
+      }
+      throw new SQLException("no column " + column);
+    }
+  }
+
+  private static Object convert(Object value, Class<?> type) {
+    if (value == null) {
+      return defaultValue(type);
+    } else if (type == Object.class || type.isInstance(value)) {
+      return value;
+    } else if (type == String.class) {
+      return value.toString();
+    } else if (value instanceof Number) {
+      Number number = (Number) value;
+      if (type == int.class || type == Integer.class) {
+        return number.intValue();
+      } else if (type == long.class || type == Long.class) {
+        return number.longValue();
+      } else if (type == short.class) {
+        return number.shortValue();
+      } else if (type == byte.class) {
+        return number.byteValue();
+      } else if (type == double.class) {
+        return number.doubleValue();
+      } else if (type == float.class) {
+        return number.floatValue();
+      } else if (type == BigDecimal.class) {
+        return new BigDecimal(number.toString());
+      } else if (type == boolean.class) {
+        return number.intValue() != 0;
+      }
+    }
+    return value;
+  }
+
+  private static class ResultSetMetaDataHandler implements InvocationHandler {
+    private final Result result;
+
+    ResultSetMetaDataHandler(Result result) {
+      this.result = result;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      final String methodName = method.getName();
+      if ("getColumnCount".equals(methodName)) {
+        return result.columns.length;
+      } else if ("getColumnLabel".equals(methodName) || "getColumnName".equals(methodName)) {
+        return result.columns[(Integer) args[0] - 1];
+      } else if ("getColumnType".equals(methodName)) {
+        return sqlType(sample((Integer) args[0] - 1));
+      } else if ("getColumnClassName".equals(methodName)) {
+        Object value = sample((Integer) args[0] - 1);
+        return value == null ? Object.class.getName() : value.getClass().getName();
+      }
+      return defaultValue(method.getReturnType());
+    }
+
+    private Object sample(int column) {
+      for (Object[] row : result.rows) {
+        if (row[column] != null) {
+          return row[column];
+        }
+      }
+      return null;
+    }
+
+    private static int sqlType(Object value) {
+      if (value instanceof Integer) {
+        return Types.INTEGER;
+      } else if (value instanceof Long) {
+        return Types.BIGINT;
+      } else if (value instanceof String) {
+        return Types.VARCHAR;
+      } else if (value instanceof Boolean) {
+        return Types.BOOLEAN;
+      } else if (value instanceof BigDecimal) {
+        return Types.DECIMAL;
+      }
+      return Types.OTHER;
+    }
+  }
+
+  /**
+   * Registered with DriverManager through UnpooledDataSource. Accepts the {@code jdbc:fake:<name>} urls
+   * of the databases created by {@link FakeDatabase#create(String)}.
+   */
+  public static class FakeDriver implements Driver {
+
+    static {
+      try {
+        DriverManager.registerDriver(new FakeDriver());
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+      if (!acceptsURL(url)) {
+        return null;
+      }
+      FakeDatabase database = databases.get(url.substring(URL_PREFIX.length()));
+      if (database == null) {
+        throw new SQLException("no database at " + url, "08001");
+      }
+      return database.getConnection();
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+      return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+      return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+      return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+      return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+      return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+      throw new SQLFeatureNotSupportedException();
+    }
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.cursor.defaults;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.ibatis.FakeDatabase;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DefaultCursorTest {
+
+  private static final String SELECT_NAMES = NameMapper.class.getName() + ".selectNames";
+
+  private FakeDatabase database;
+  private DefaultSqlSessionFactory sqlSessionFactory;
+  private SqlSession sqlSession;
+
+  @BeforeEach
+  void setUp() {
+    database = FakeDatabase.create("cursor");
+    database.on("select name", FakeDatabase.rows(new String[] { "name" },
+        new Object[] { "a" }, new Object[] { "b" }, new Object[] { "c" }));
+    database.on("select id, tag", FakeDatabase.rows(new String[] { "ID", "TAG" },
+        new Object[] { 1, "x" }, new Object[] { 1, "y" }, new Object[] { 2, "z" }));
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), database));
+    configuration.addMapper(NameMapper.class);
+    addSelectPosts(configuration);
+    sqlSessionFactory = new DefaultSqlSessionFactory(configuration);
+    sqlSession = sqlSessionFactory.openSession();
+  }
+
+  @AfterEach
+  void tearDown() {
+    sqlSession.close();
+  }
+
+  @Test
+  void shouldIterateAllRowsAndBecomeConsumed() {
+    Cursor<String> cursor = sqlSession.selectCursor(SELECT_NAMES);
+    assertEquals(-1, cursor.getCurrentIndex());
+    assertFalse(cursor.isOpen());
+    assertFalse(cursor.isConsumed());
+
+    List<String> names = new ArrayList<String>();
+    for (String name : cursor) {
+      names.add(name);
+    }
+    assertEquals(Arrays.asList("a", "b", "c"), names);
+    assertEquals(2, cursor.getCurrentIndex());
+    assertFalse(cursor.isOpen());
+    assertTrue(cursor.isConsumed());
+  }
+
+  @Test
+  void shouldReportPositionAfterPartialRead() {
+    Cursor<String> cursor = sqlSession.selectCursor(SELECT_NAMES);
+    Iterator<String> iterator = cursor.iterator();
+    assertEquals("a", iterator.next());
+    assertEquals("b", iterator.next());
+    assertEquals(1, cursor.getCurrentIndex());
+    assertTrue(cursor.isOpen());
+    assertFalse(cursor.isConsumed());
+
+    assertEquals("c", iterator.next());
+    // the end of the result set is only known once the next row is asked for
+    assertFalse(iterator.hasNext());
+    assertEquals(2, cursor.getCurrentIndex());
+    assertTrue(cursor.isConsumed());
+  }
+
+  @Test
+  void shouldStopIteratingOnceClosed() throws Exception {
+    Cursor<String> cursor = sqlSession.selectCursor(SELECT_NAMES);
+    Iterator<String> iterator = cursor.iterator();
+    assertEquals("a", iterator.next());
+    cursor.close();
+    assertFalse(iterator.hasNext());
+    assertFalse(cursor.isOpen());
+    assertFalse(cursor.isConsumed());
+    assertEquals(0, cursor.getCurrentIndex());
+  }
+
+  @Test
+  void shouldReturnNothingWhenClosedBeforeReading() throws Exception {
+    Cursor<String> cursor = sqlSession.selectCursor(SELECT_NAMES);
+    cursor.close();
+    assertFalse(cursor.iterator().hasNext());
+    assertEquals(-1, cursor.getCurrentIndex());
+    assertFalse(cursor.isConsumed());
+  }
+
+  @Test
+  void shouldCountTheOffsetInTheCurrentIndex() {
+    Cursor<String> cursor = sqlSession.selectCursor(SELECT_NAMES, null, new RowBounds(1, 1));
+    List<String> names = new ArrayList<String>();
+    for (String name : cursor) {
+      names.add(name);
+    }
+    assertEquals(Arrays.asList("b"), names);
+    assertEquals(1, cursor.getCurrentIndex());
+    assertTrue(cursor.isConsumed());
+  }
+
+  @Test
+  void shouldOpenOnlyOneIterator() {
+    final Cursor<String> cursor = sqlSession.selectCursor(SELECT_NAMES);
+    cursor.iterator();
+    assertThrows(IllegalStateException.class, () -> cursor.iterator());
+  }
+
+  @Test
+  void shouldReturnCursorFromMapperMethod() {
+    Cursor<String> cursor = sqlSession.getMapper(NameMapper.class).selectNames();
+    Iterator<String> iterator = cursor.iterator();
+    assertEquals("a", iterator.next());
+    assertEquals(0, cursor.getCurrentIndex());
+    assertTrue(cursor.isOpen());
+  }
+
+  @Test
+  void shouldYieldOneCompletedParentAtATimeWhenResultOrdered() {
+    Cursor<Post> cursor = sqlSession.selectCursor("selectPosts");
+    Iterator<Post> iterator = cursor.iterator();
+    Post first = iterator.next();
+    assertEquals(1, first.getId());
+    assertEquals(Arrays.asList("x", "y"), first.getTagNames());
+    assertEquals(0, cursor.getCurrentIndex());
+    assertFalse(cursor.isConsumed());
+
+    Post second = iterator.next();
+    assertEquals(2, second.getId());
+    assertEquals(Arrays.asList("z"), second.getTagNames());
+    assertFalse(iterator.hasNext());
+    assertEquals(1, cursor.getCurrentIndex());
+    assertTrue(cursor.isConsumed());
+  }
+
+  @Test
+  void shouldCloseTheStatementWhenConsumed() {
+    Cursor<String> cursor = sqlSession.selectCursor(SELECT_NAMES);
+    int closed = database.statementsClosed.get();
+    for (Iterator<String> iterator = cursor.iterator(); iterator.hasNext();) {
+      iterator.next();
+    }
+    assertEquals(closed + 1, database.statementsClosed.get());
+  }
+
+  @Test
+  void shouldKeepTheAutomaticSessionOpenUntilTheCursorIsConsumed() {
+    SqlSessionManager manager = SqlSessionManager.newInstance(sqlSessionFactory);
+    Cursor<String> cursor = manager.getMapper(NameMapper.class).selectNames();
+    assertEquals(1, database.getOpenConnections().size());
+
+    List<String> names = new ArrayList<String>();
+    for (String name : cursor) {
+      names.add(name);
+    }
+    assertEquals(Arrays.asList("a", "b", "c"), names);
+    assertEquals(0, database.getOpenConnections().size());
+  }
+
+  @Test
+  void shouldCloseTheAutomaticSessionWhenTheCursorIsClosed() throws Exception {
+    SqlSessionManager manager = SqlSessionManager.newInstance(sqlSessionFactory);
+    Cursor<String> cursor = manager.selectCursor(SELECT_NAMES);
+    assertEquals("a", cursor.iterator().next());
+    assertEquals(1, database.getOpenConnections().size());
+
+    cursor.close();
+    assertEquals(0, database.getOpenConnections().size());
+  }
+
+  @Test
+  void shouldLeaveTheManagedSessionOpenWhenTheCursorIsClosed() throws Exception {
+    SqlSessionManager manager = SqlSessionManager.newInstance(sqlSessionFactory);
+    manager.startManagedSession();
+    try {
+      Cursor<String> cursor = manager.selectCursor(SELECT_NAMES);
+      cursor.close();
+      assertEquals(1, database.getOpenConnections().size());
+      assertEquals(Arrays.asList("a", "b", "c"), manager.<String> selectList(SELECT_NAMES));
+    } finally {
+      manager.close();
+    }
+    assertEquals(0, database.getOpenConnections().size());
+  }
+
+  private static void addSelectPosts(Configuration configuration) {
+    ResultMap tagMap = new ResultMap.Builder(configuration, "tagMap", Tag.class, Collections.singletonList(
+        new ResultMapping.Builder(configuration, "name", "TAG", String.class).build())).build();
+    configuration.addResultMap(tagMap);
+    List<ResultMapping> postMappings = new ArrayList<ResultMapping>();
+    postMappings.add(new ResultMapping.Builder(configuration, "id", "ID", int.class)
+        .flags(Collections.singletonList(ResultFlag.ID)).build());
+    postMappings.add(new ResultMapping.Builder(configuration, "tags").javaType(List.class).nestedResultMapId("tagMap").build());
+    ResultMap postMap = new ResultMap.Builder(configuration, "postMap", Post.class, postMappings).build();
+    configuration.addResultMap(postMap);
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, "selectPosts",
+        new StaticSqlSource(configuration, "select id, tag from posts order by id"), SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(postMap)).resultOrdered(true).build());
+  }
+
+  interface NameMapper {
+
+    @Select("select name from users")
+    Cursor<String> selectNames();
+  }
+
+  public static class Post {
+
+    private int id;
+    private List<Tag> tags;
+
+    public int getId() {
+      return id;
+    }
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public List<Tag> getTags() {
+      return tags;
+    }
+
+    public void setTags(List<Tag> tags) {
+      this.tags = tags;
+    }
+
+    List<String> getTagNames() {
+      List<String> names = new ArrayList<String>();
+      for (Tag tag : tags) {
+        names.add(tag.getName());
+      }
+      return names;
+    }
+  }
+
+  public static class Tag {
+
+    private String name;
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class ConnectionBagTest {
+
+  @Test
+  void shouldHandAnUnreservedEntryToAWaiterThatHasNotStartedPolling() throws Exception {
+    final ConnectionBag bag = new ConnectionBag();
+    final ConnectionBag.Entry entry = new ConnectionBag.Entry();
+    assertTrue(bag.reserve(1));
+    bag.add(entry);
+    bag.requite(entry);
+    // busy connections behind the idle one keep the waiter scanning after it has passed the entry
+    for (int i = 0; i < 20000; i++) {
+      assertTrue(bag.reserve(Integer.MAX_VALUE));
+      bag.add(new ConnectionBag.Entry());
+    }
+    for (int i = 0; i < 50; i++) {
+      assertTrue(bag.reserveEntry(entry));
+      final AtomicReference<Object> borrowed = new AtomicReference<Object>();
+      Thread waiter = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            borrowed.set(bag.borrow(5, TimeUnit.SECONDS));
+          } catch (Throwable e) {
+            borrowed.set(e);
+          }
+        }
+      });
+      waiter.start();
+      // release the entry right after the waiter registered, while it may still be scanning
+      while (bag.getWaitingThreadCount() == 0 && waiter.isAlive()) {
+        Thread.yield();
+      }
+      long start = System.nanoTime();
+      bag.unreserveEntry(entry);
+      waiter.join(10000);
+      assertSame(entry, borrowed.get());
+      assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000, "waiter slept while the entry was idle");
+      assertTrue(bag.requite(entry));
+    }
+    assertEquals(1, bag.getIdleCount());
+  }
+
+}
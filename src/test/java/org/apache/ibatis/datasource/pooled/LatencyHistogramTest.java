@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+  @Test
+  void shouldReportZeroWhenEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMean());
+    assertEquals(0, histogram.getMax());
+    assertEquals(0, histogram.getPercentile(99));
+  }
+
+  @Test
+  void shouldKeepSmallValuesExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 16; i++) {
+      histogram.record(i);
+    }
+    histogram.record(-5);
+    assertEquals(17, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(0));
+    assertEquals(7, histogram.getPercentile(50));
+    assertEquals(15, histogram.getPercentile(100));
+    assertEquals(15, histogram.getMax());
+  }
+
+  @Test
+  void shouldKeepPercentilesWithinTheBucketError() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long micros = 1; micros <= 10000; micros++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+    assertEquals(10000, histogram.getCount());
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(5000) + 500, histogram.getMean());
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(10000), histogram.getMax());
+    assertWithinBucketError(TimeUnit.MICROSECONDS.toNanos(5000), histogram.getPercentile(50));
+    assertWithinBucketError(TimeUnit.MICROSECONDS.toNanos(9900), histogram.getPercentile(99));
+    assertEquals(histogram.getPercentile(99) / 1000, histogram.getPercentile(99, TimeUnit.MICROSECONDS));
+    assertEquals(histogram.getMax(), histogram.getPercentile(100));
+  }
+
+  @Test
+  void shouldMapEveryValueIntoABucketThatContainsIt() {
+    for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+      long upperBound = LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value));
+      assertTrue(upperBound >= value);
+      assertTrue(upperBound - value <= value / 8, "bucket of " + value + " ends at " + upperBound);
+    }
+    assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(Long.MAX_VALUE)));
+  }
+
+  @Test
+  void shouldNotLoseConcurrentRecords() throws Exception {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      final long value = (t + 1) * 1000L;
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            histogram.record(value);
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(40000, histogram.getCount());
+    assertEquals(2500, histogram.getMean());
+    assertEquals(4000, histogram.getMax());
+  }
+
+  private static void assertWithinBucketError(long expected, long actual) {
+    assertTrue(Math.abs(actual - expected) <= expected / 8, "expected about " + expected + " but was " + actual);
+  }
+}
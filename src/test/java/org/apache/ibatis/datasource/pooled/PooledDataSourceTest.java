@@ -0,0 +1,372 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.FakeDatabase;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PooledDataSourceTest {
+
+  private FakeDatabase database;
+  private PooledDataSource dataSource;
+
+  @BeforeEach
+  void setUp() {
+    database = FakeDatabase.create("pooledDataSource");
+    dataSource = new PooledDataSource(FakeDatabase.DRIVER, database.getUrl(), "sa", "");
+  }
+
+  @AfterEach
+  void tearDown() {
+    dataSource.close();
+  }
+
+  @Test
+  void shouldNeverHandOneConnectionToTwoThreads() throws Exception {
+    dataSource.setPoolMaximumActiveConnections(3);
+    dataSource.setPoolMaximumIdleConnections(2);
+    dataSource.setPoolTimeToWait(5000);
+    final Set<Connection> inUse = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 8; t++) {
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 200; i++) {
+              Connection connection = dataSource.getConnection();
+              Connection real = PooledDataSource.unwrapConnection(connection);
+              if (!inUse.add(real)) {
+                throw new AssertionError("connection " + real + " is used by two threads");
+              }
+              Thread.yield();
+              inUse.remove(real);
+              connection.close();
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join(30000);
+    }
+    assertNull(failure.get());
+    assertEquals(0, dataSource.getPoolMetrics().getActiveConnectionCount());
+    assertEquals(dataSource.bag.getCount(ConnectionBag.STATE_NOT_IN_USE), dataSource.getPoolMetrics().getIdleConnectionCount());
+    assertEquals(dataSource.bag.getCount(ConnectionBag.STATE_IN_USE), dataSource.getPoolMetrics().getActiveConnectionCount());
+    assertTrue(dataSource.getPoolMetrics().getIdleConnectionCount() <= 2);
+    assertTrue(database.getOpenConnections().size() <= 3);
+  }
+
+  @Test
+  void shouldKeepAtMostTheMaximumIdleConnections() throws Exception {
+    dataSource.setPoolMaximumIdleConnections(2);
+    List<Connection> connections = new ArrayList<Connection>();
+    for (int i = 0; i < 4; i++) {
+      connections.add(dataSource.getConnection());
+    }
+    assertEquals(0, dataSource.getPoolMetrics().getIdleConnectionCount());
+    for (Connection connection : connections) {
+      connection.close();
+    }
+    assertEquals(2, dataSource.getPoolMetrics().getIdleConnectionCount());
+    assertEquals(2, database.getOpenConnections().size());
+    dataSource.getConnection().close();
+    assertEquals(2, dataSource.getPoolMetrics().getIdleConnectionCount());
+  }
+
+  @Test
+  void shouldDiscardAConnectionThatCannotBeRolledBackAtCheckout() throws Exception {
+    dataSource.setPoolMaximumActiveConnections(1);
+    dataSource.setPoolTimeToWait(200);
+    Connection connection = dataSource.getConnection();
+    connection.setAutoCommit(false);
+    connection.close();
+    assertEquals(1, dataSource.getPoolMetrics().getIdleConnectionCount());
+
+    database.setRollbackFailure(new SQLException("connection reset"));
+    long start = System.currentTimeMillis();
+    connection = dataSource.getConnection();
+    // the broken connection left the pool, so its slot was free for a new one
+    assertTrue(System.currentTimeMillis() - start < 200);
+    assertTrue(connection.getAutoCommit());
+    assertEquals(1, dataSource.getPoolState().getBadConnectionCount());
+    assertEquals(1, dataSource.bag.getCount(ConnectionBag.STATE_IN_USE));
+    assertEquals(1, database.getOpenConnections().size());
+    database.setRollbackFailure(null);
+    connection.close();
+    assertEquals(1, dataSource.getPoolMetrics().getIdleConnectionCount());
+  }
+
+  @Test
+  void shouldNotLetAnOverdueClaimInWhileTheConnectionIsRolledBack() throws Exception {
+    dataSource.setPoolMaximumActiveConnections(1);
+    dataSource.setPoolMaximumCheckoutTime(20);
+    dataSource.setPoolTimeToWait(5000);
+    final Connection holder = dataSource.getConnection();
+    holder.setAutoCommit(false);
+    Thread.sleep(50);
+
+    // the holder returns its overdue connection and blocks in the rollback
+    final CountDownLatch rollingBack = new CountDownLatch(1);
+    final CountDownLatch releaseRollback = new CountDownLatch(1);
+    final Thread returner = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          holder.close();
+        } catch (Exception e) {
+          // checked below
+        }
+      }
+    });
+    database.setRollbackListener(new Runnable() {
+      @Override
+      public void run() {
+        if (Thread.currentThread() == returner) {
+          rollingBack.countDown();
+          await(releaseRollback);
+        }
+      }
+    });
+    returner.start();
+    assertTrue(rollingBack.await(5, TimeUnit.SECONDS));
+
+    final AtomicReference<Connection> borrowed = new AtomicReference<Connection>();
+    Thread borrower = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          borrowed.set(dataSource.getConnection());
+        } catch (Exception e) {
+          // checked below
+        }
+      }
+    });
+    borrower.start();
+    borrower.join(200);
+    assertNull(borrowed.get());
+
+    releaseRollback.countDown();
+    borrower.join(5000);
+    returner.join(5000);
+    assertNotNull(borrowed.get());
+    assertSame(PooledDataSource.unwrapConnection(holder), PooledDataSource.unwrapConnection(borrowed.get()));
+    assertEquals(0, dataSource.getPoolState().getClaimedOverdueConnectionCount());
+    borrowed.get().close();
+  }
+
+  @Test
+  void shouldWakeAWaiterWhenAConnectionIsDiscarded() throws Exception {
+    dataSource.setPoolMaximumActiveConnections(1);
+    dataSource.setPoolTimeToWait(20000);
+    Connection holder = dataSource.getConnection();
+    final AtomicReference<Connection> borrowed = new AtomicReference<Connection>();
+    Thread borrower = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          borrowed.set(dataSource.getConnection());
+        } catch (Exception e) {
+          // checked below
+        }
+      }
+    });
+    borrower.start();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (dataSource.getPoolMetrics().getPendingThreadCount() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, dataSource.getPoolMetrics().getPendingThreadCount());
+
+    // a broken connection is discarded on return, which frees its slot
+    PooledDataSource.unwrapConnection(holder).close();
+    holder.close();
+    borrower.join(5000);
+    assertFalse(borrower.isAlive());
+    assertNotNull(borrowed.get());
+    assertEquals(2, database.connectionsOpened.get());
+    borrowed.get().close();
+  }
+
+  @Test
+  void shouldReportGaugesAndLatencies() throws Exception {
+    database.on("select 1", FakeDatabase.rows(new String[] { "one" }, new Object[] { 1 }));
+    dataSource.setPoolPingEnabled(true);
+    dataSource.setPoolPingQuery("select 1");
+    dataSource.setPoolPingConnectionsNotUsedFor(0);
+    PoolMetrics metrics = dataSource.getPoolMetrics();
+    Connection first = dataSource.getConnection();
+    Connection second = dataSource.getConnection();
+    assertEquals(2, metrics.getActiveConnectionCount());
+    assertEquals(0, metrics.getIdleConnectionCount());
+    assertEquals(2, metrics.getTotalConnectionCount());
+    assertEquals(2, metrics.getConnectionCreationTime().getCount());
+
+    Thread.sleep(5);
+    first.close();
+    assertEquals(1, metrics.getActiveConnectionCount());
+    assertEquals(1, metrics.getIdleConnectionCount());
+    assertEquals(2, metrics.getTotalConnectionCount());
+    assertEquals(1, metrics.getCheckoutHoldTime().getCount());
+    assertTrue(metrics.getCheckoutHoldTime().getMax() >= TimeUnit.MILLISECONDS.toNanos(5));
+
+    // connections unused for a while are pinged on return and before an idle one is handed out
+    Thread.sleep(5);
+    dataSource.getConnection().close();
+    second.close();
+    assertEquals(3, metrics.getRequestCount());
+    assertEquals(3, metrics.getCheckoutWaitTime().getCount());
+    assertEquals(3, metrics.getCheckoutHoldTime().getCount());
+    assertEquals(3, metrics.getValidationTime().getCount());
+    assertEquals(2, metrics.getConnectionCreationTime().getCount());
+    assertTrue(dataSource.getPoolState().toString().contains("checkoutHoldTime"));
+  }
+
+  @Test
+  void shouldRecordTheTimeEachStatementHoldsTheConnection() throws Exception {
+    dataSource.setPoolLeakDetectionThreshold(60000);
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+    for (String id : Arrays.asList("slow", "fast")) {
+      configuration.addMappedStatement(new MappedStatement.Builder(configuration, id,
+          new XMLLanguageDriver().createSqlSource(configuration, "update " + id, String.class), SqlCommandType.UPDATE).build());
+    }
+    SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession();
+    try {
+      sqlSession.update("slow");
+      Thread.sleep(50);
+      sqlSession.update("fast");
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+    LatencyHistogram slow = dataSource.getPoolMetrics().getStatementHoldTimes().get("slow");
+    LatencyHistogram fast = dataSource.getPoolMetrics().getStatementHoldTimes().get("fast");
+    assertEquals(1, slow.getCount());
+    assertEquals(1, fast.getCount());
+    // the pause before the second statement is only charged to the first one
+    assertTrue(slow.getMax() >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertTrue(fast.getMax() < TimeUnit.MILLISECONDS.toNanos(50));
+    assertTrue(slow.getMax() + fast.getMax() <= dataSource.getPoolMetrics().getCheckoutHoldTime().getMax());
+  }
+
+  @Test
+  void shouldFillTheMinimumIdleConnectionsOnceConfigured() throws Exception {
+    PooledDataSourceFactory factory = new PooledDataSourceFactory();
+    Properties properties = new Properties();
+    properties.setProperty("driver", FakeDatabase.DRIVER);
+    properties.setProperty("url", database.getUrl());
+    properties.setProperty("username", "sa");
+    properties.setProperty("password", "");
+    properties.setProperty("poolMinimumIdleConnections", "2");
+    factory.setProperties(properties);
+    dataSource = (PooledDataSource) factory.getDataSource();
+
+    // no connection has been requested yet
+    waitFor(2, dataSource);
+    assertEquals(2, database.getOpenConnections().size());
+  }
+
+  @Test
+  void shouldStopTheHousekeeperWhenClosed() throws Exception {
+    dataSource.setPoolMinimumIdleConnections(1);
+    dataSource.getConnection().close();
+    ScheduledExecutorService housekeeper = dataSource.housekeeper;
+    assertNotNull(housekeeper);
+
+    dataSource.close();
+    assertNull(dataSource.housekeeper);
+    assertTrue(housekeeper.isShutdown());
+    assertEquals(0, database.getOpenConnections().size());
+  }
+
+  @Test
+  void shouldRescheduleTheHousekeeperWhenItsPeriodChanges() throws Exception {
+    dataSource.setPoolMinimumIdleConnections(1);
+    dataSource.setPoolHousekeepingPeriod(60000);
+    dataSource.getConnection().close();
+    ScheduledExecutorService housekeeper = dataSource.housekeeper;
+
+    dataSource.setPoolHousekeepingPeriod(10);
+    assertTrue(housekeeper.isShutdown());
+    assertNotNull(dataSource.housekeeper);
+    waitFor(1, dataSource);
+    // the idle connection is replaced on the next run, long before the old period
+    dataSource.closeIdleConnections();
+    waitFor(1, dataSource);
+    assertEquals(1, database.getOpenConnections().size());
+  }
+
+  @Test
+  void shouldNotStartTheHousekeeperWhenNothingNeedsIt() throws Exception {
+    dataSource.getConnection().close();
+    dataSource.forceCloseAll();
+    assertNull(dataSource.housekeeper);
+  }
+
+  private static void waitFor(int idleConnections, PooledDataSource dataSource) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (dataSource.getPoolMetrics().getIdleConnectionCount() < idleConnections && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(idleConnections, dataSource.getPoolMetrics().getIdleConnectionCount());
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
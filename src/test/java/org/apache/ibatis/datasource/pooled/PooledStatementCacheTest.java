@@ -0,0 +1,223 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.pooled;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+import org.apache.ibatis.FakeDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PooledStatementCacheTest {
+
+  private FakeDatabase database;
+  private PooledDataSource dataSource;
+
+  @BeforeEach
+  void setUp() {
+    database = FakeDatabase.create("pooledStatementCache");
+    database.on("update", FakeDatabase.updateCount(1));
+    dataSource = new PooledDataSource(FakeDatabase.DRIVER, database.getUrl(), "sa", "");
+    dataSource.setPoolPreparedStatementCacheSize(2);
+  }
+
+  @AfterEach
+  void tearDown() {
+    dataSource.forceCloseAll();
+  }
+
+  @Test
+  void shouldReuseStatementsAcrossCheckouts() throws SQLException {
+    for (int i = 0; i < 3; i++) {
+      Connection connection = dataSource.getConnection();
+      PreparedStatement statement = connection.prepareStatement("update users set name = ?");
+      statement.setString(1, "name " + i);
+      statement.executeUpdate();
+      statement.close();
+      connection.close();
+    }
+    assertEquals(1, database.statementsPrepared.get());
+    assertEquals(0, database.statementsClosed.get());
+    assertEquals(1, dataSource.getPoolState().getStatementCacheMissCount());
+    assertEquals(2, dataSource.getPoolState().getStatementCacheHitCount());
+    assertEquals(Arrays.asList("update users set name = ? [name 0]", "update users set name = ? [name 1]",
+        "update users set name = ? [name 2]"), database.getLog());
+  }
+
+  @Test
+  void shouldCacheCallableStatementsApartFromPreparedStatements() throws SQLException {
+    Connection connection = dataSource.getConnection();
+    try {
+      CallableStatement call = connection.prepareCall("update users set name = ?");
+      call.registerOutParameter(1, Types.VARCHAR);
+      call.setString("name", "a");
+      call.executeUpdate();
+      call.close();
+      PreparedStatement prepared = connection.prepareStatement("update users set name = ?");
+      // a prepared statement from the cache is not usable as a callable one
+      assertThrows(SQLException.class, () -> ((CallableStatement) prepared).registerOutParameter(1, Types.VARCHAR));
+      prepared.close();
+      CallableStatement reused = connection.prepareCall("update users set name = ?");
+      reused.setString("name", "b");
+      reused.executeUpdate();
+      reused.close();
+    } finally {
+      connection.close();
+    }
+    assertEquals(2, database.statementsPrepared.get());
+    assertEquals(1, dataSource.getPoolState().getStatementCacheHitCount());
+    assertEquals(Arrays.asList("update users set name = ? [{name=a}]", "update users set name = ? [{name=b}]"), database.getLog());
+  }
+
+  @Test
+  void shouldReturnThePooledConnectionFromTheStatement() throws SQLException {
+    Connection connection = dataSource.getConnection();
+    PreparedStatement statement = connection.prepareStatement("update users set name = ?");
+    CallableStatement call = connection.prepareCall("update users set name = ?");
+    assertSame(connection, statement.getConnection());
+    assertSame(connection, call.getConnection());
+    Connection fromStatement = statement.getConnection();
+    statement.close();
+    call.close();
+    // closing it returns the connection to the pool
+    fromStatement.close();
+    assertEquals(0, dataSource.getPoolMetrics().getActiveConnectionCount());
+    assertEquals(1, dataSource.getPoolMetrics().getIdleConnectionCount());
+  }
+
+  @Test
+  void shouldCloseOpenResultSetsBeforeTheNextBorrower() throws SQLException {
+    database.on("select", FakeDatabase.rows(new String[] { "NAME" }, new Object[] { "a" }, new Object[] { "b" }));
+    Connection connection = dataSource.getConnection();
+    try {
+      PreparedStatement statement = connection.prepareStatement("select name from users");
+      final ResultSet resultSet = statement.executeQuery();
+      assertTrue(resultSet.next());
+      statement.close();
+      assertThrows(SQLException.class, () -> resultSet.next());
+
+      PreparedStatement reused = connection.prepareStatement("select name from users");
+      assertEquals(1, database.statementsPrepared.get());
+      ResultSet fresh = reused.executeQuery();
+      assertTrue(fresh.next());
+      assertEquals("a", fresh.getString(1));
+      reused.close();
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test
+  void shouldReturnThePooledStatementFromItsResultSets() throws SQLException {
+    database.on("select", FakeDatabase.rows(new String[] { "NAME" }, new Object[] { "a" }));
+    Connection connection = dataSource.getConnection();
+    try {
+      PreparedStatement statement = connection.prepareStatement("select name from users");
+      ResultSet resultSet = statement.executeQuery();
+      assertSame(statement, resultSet.getStatement());
+      assertTrue(statement.execute());
+      assertSame(statement, statement.getResultSet().getStatement());
+      // closing it returns the statement to the cache
+      resultSet.getStatement().close();
+      connection.prepareStatement("select name from users").close();
+    } finally {
+      connection.close();
+    }
+    assertEquals(1, database.statementsPrepared.get());
+    assertEquals(0, database.statementsClosed.get());
+    assertEquals(1, dataSource.getPoolState().getStatementCacheHitCount());
+  }
+
+  @Test
+  void shouldResetTheSettingsOfAStatementBeforeTheNextBorrower() throws SQLException {
+    Connection connection = dataSource.getConnection();
+    PreparedStatement statement = connection.prepareStatement("update users set name = ?");
+    statement.setQueryTimeout(5);
+    statement.setFetchSize(50);
+    statement.setFetchDirection(ResultSet.FETCH_REVERSE);
+    statement.setMaxRows(10);
+    statement.setMaxFieldSize(100);
+    statement.setPoolable(false);
+    statement.setEscapeProcessing(false);
+    statement.setString(1, "a");
+    statement.addBatch();
+    statement.close();
+    connection.close();
+
+    connection = dataSource.getConnection();
+    try {
+      PreparedStatement reused = connection.prepareStatement("update users set name = ?");
+      assertEquals(1, database.statementsPrepared.get());
+      assertEquals(0, reused.getQueryTimeout());
+      assertEquals(0, reused.getFetchSize());
+      assertEquals(ResultSet.FETCH_FORWARD, reused.getFetchDirection());
+      assertEquals(0, reused.getMaxRows());
+      assertEquals(0, reused.getMaxFieldSize());
+      assertTrue(reused.isPoolable());
+      assertEquals(0, reused.executeBatch().length);
+      reused.close();
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test
+  void shouldNotCacheStatementsThatCannotBeReset() throws SQLException {
+    Connection connection = dataSource.getConnection();
+    try {
+      PreparedStatement statement = connection.prepareStatement("update users set name = ?");
+      statement.setCursorName("users_cursor");
+      statement.close();
+      PreparedStatement other = connection.prepareStatement("update users set name = ?");
+      assertNotSame(statement, other);
+      other.close();
+    } finally {
+      connection.close();
+    }
+    assertEquals(2, database.statementsPrepared.get());
+    assertEquals(1, database.statementsClosed.get());
+  }
+
+  @Test
+  void shouldEvictTheLeastRecentlyUsedStatement() throws SQLException {
+    Connection connection = dataSource.getConnection();
+    try {
+      for (String sql : Arrays.asList("update a", "update b", "update a", "update c", "update a", "update b")) {
+        connection.prepareStatement(sql).close();
+      }
+    } finally {
+      connection.close();
+    }
+    // b is evicted by c, then c by b
+    assertEquals(4, database.statementsPrepared.get());
+    assertEquals(2, database.statementsClosed.get());
+    assertEquals(2, dataSource.getPoolState().getStatementCacheEvictionCount());
+    assertEquals(2, dataSource.getPoolState().getStatementCacheHitCount());
+  }
+}
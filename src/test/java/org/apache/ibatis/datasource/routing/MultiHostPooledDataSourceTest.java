@@ -0,0 +1,261 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.datasource.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MultiHostPooledDataSourceTest {
+
+  private static final String DRIVER = "org.hsqldb.jdbcDriver";
+  private static final int HOSTS = 3;
+
+  private MultiHostPooledDataSource dataSource;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    Class.forName(DRIVER);
+    dataSource = new MultiHostPooledDataSource();
+    // probes are driven by the tests
+    dataSource.setHostProbePeriod(Long.MAX_VALUE / 2);
+    for (int i = 0; i < HOSTS; i++) {
+      startHost(i);
+      // ifexists=true keeps a shut down host from coming back as a new empty database
+      PooledDataSource hostDataSource = new PooledDataSource(DRIVER, url(i) + ";ifexists=true", "sa", "");
+      // HSQLDB reports a connection to a shut down database as valid, a ping query does not
+      hostDataSource.setPoolPingQuery("SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+      hostDataSource.setPoolPingEnabled(true);
+      dataSource.addHost("host" + i, hostDataSource);
+    }
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    dataSource.close();
+    for (int i = 0; i < HOSTS; i++) {
+      stopHost(i);
+    }
+  }
+
+  @Test
+  void shouldSpreadCheckoutsOverHealthyHosts() throws Exception {
+    dataSource.probe();
+    List<Connection> connections = checkout(9);
+    try {
+      int used = 0;
+      for (MultiHostPooledDataSource.Host host : dataSource.getHosts()) {
+        assertFalse(host.isQuarantined());
+        assertTrue(host.getLatency() > 0);
+        if (host.getDataSource().getPoolMetrics().getActiveConnectionCount() > 0) {
+          used++;
+        }
+      }
+      assertTrue(used > 1);
+    } finally {
+      close(connections);
+    }
+  }
+
+  @Test
+  void shouldFailOverWhenHostIsShutDown() throws Exception {
+    stopHost(1);
+    List<Connection> connections = checkout(9);
+    try {
+      MultiHostPooledDataSource.Host down = dataSource.getHosts().get(1);
+      assertTrue(down.isQuarantined());
+      assertEquals(0, down.getDataSource().getPoolMetrics().getActiveConnectionCount());
+      for (Connection connection : connections) {
+        assertTrue(connection.isValid(1));
+      }
+    } finally {
+      close(connections);
+    }
+  }
+
+  @Test
+  void shouldQuarantineAndReadmitHostAfterProbes() throws Exception {
+    dataSource.probe();
+    MultiHostPooledDataSource.Host host = dataSource.getHosts().get(2);
+    stopHost(2);
+    dataSource.probe();
+    assertTrue(host.isQuarantined());
+    assertEquals(0, host.getDataSource().getPoolMetrics().getIdleConnectionCount());
+
+    startHost(2);
+    dataSource.probe();
+    assertTrue(host.isQuarantined());
+    dataSource.probe();
+    assertFalse(host.isQuarantined());
+  }
+
+  @Test
+  void shouldFailWhenAllHostsAreShutDown() throws Exception {
+    for (int i = 0; i < HOSTS; i++) {
+      stopHost(i);
+    }
+    try {
+      dataSource.getConnection();
+      throw new AssertionError("Expected an SQLException");
+    } catch (SQLException e) {
+      for (MultiHostPooledDataSource.Host host : dataSource.getHosts()) {
+        assertTrue(host.isQuarantined());
+      }
+    }
+  }
+
+  @Test
+  void shouldProbeAHostWhosePoolIsExhausted() throws Exception {
+    List<Connection> connections = new ArrayList<Connection>();
+    for (MultiHostPooledDataSource.Host host : dataSource.getHosts()) {
+      host.getDataSource().setPoolMaximumActiveConnections(1);
+      connections.add(host.getDataSource().getConnection());
+    }
+    try {
+      Thread prober = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          dataSource.probe();
+        }
+      });
+      prober.start();
+      prober.join(5000);
+      assertFalse(prober.isAlive());
+      for (MultiHostPooledDataSource.Host host : dataSource.getHosts()) {
+        assertFalse(host.isQuarantined());
+        assertTrue(host.getLatency() > 0);
+      }
+    } finally {
+      close(connections);
+    }
+  }
+
+  @Test
+  void shouldReuseOneProbeConnectionPerHost() throws Exception {
+    dataSource.probe();
+    List<Connection> probeConnections = new ArrayList<Connection>();
+    for (MultiHostPooledDataSource.Host host : dataSource.getHosts()) {
+      assertNotNull(host.probeConnection.get());
+      probeConnections.add(host.probeConnection.get());
+    }
+    dataSource.probe();
+    for (int i = 0; i < HOSTS; i++) {
+      assertSame(probeConnections.get(i), dataSource.getHosts().get(i).probeConnection.get());
+      // the probe connection is not taken from the pool
+      assertEquals(0, dataSource.getHosts().get(i).getDataSource().getPoolMetrics().getTotalConnectionCount());
+    }
+
+    // a probe connection that went bad is replaced on the next probe
+    stopHost(0);
+    dataSource.probe();
+    assertTrue(probeConnections.get(0).isClosed());
+    assertNull(dataSource.getHosts().get(0).probeConnection.get());
+    startHost(0);
+    dataSource.probe();
+    assertNotNull(dataSource.getHosts().get(0).probeConnection.get());
+
+    dataSource.close();
+    for (MultiHostPooledDataSource.Host host : dataSource.getHosts()) {
+      assertNull(host.probeConnection.get());
+    }
+    assertTrue(probeConnections.get(1).isClosed());
+  }
+
+  @Test
+  void shouldCountConcurrentFailures() throws Exception {
+    final MultiHostPooledDataSource.Host host = dataSource.getHosts().get(0);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 1000; i++) {
+            host.recordCheckout(false);
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(4001, host.recordCheckout(false));
+    assertEquals(0, host.recordCheckout(true));
+  }
+
+  @Test
+  void shouldStopProbingWhenClosed() throws Exception {
+    dataSource.getConnection().close();
+    ScheduledExecutorService prober = dataSource.prober;
+    assertNotNull(prober);
+    dataSource.close();
+    assertNull(dataSource.prober);
+    assertTrue(prober.isShutdown());
+    for (MultiHostPooledDataSource.Host host : dataSource.getHosts()) {
+      assertEquals(0, host.getDataSource().getPoolMetrics().getTotalConnectionCount());
+    }
+  }
+
+  private List<Connection> checkout(int count) throws SQLException {
+    List<Connection> connections = new ArrayList<Connection>();
+    for (int i = 0; i < count; i++) {
+      connections.add(dataSource.getConnection());
+    }
+    return connections;
+  }
+
+  private static void close(List<Connection> connections) throws SQLException {
+    for (Connection connection : connections) {
+      connection.close();
+    }
+  }
+
+  private static String url(int host) {
+    return "jdbc:hsqldb:mem:multihost" + host;
+  }
+
+  private static void startHost(int host) throws SQLException {
+    DriverManager.getConnection(url(host), "sa", "").close();
+  }
+
+  private static void stopHost(int host) throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url(host) + ";ifexists=true", "sa", "");
+         Statement statement = connection.createStatement()) {
+      statement.execute("SHUTDOWN");
+    } catch (SQLException e) {
+      // already shut down
+    }
+  }
+
+}
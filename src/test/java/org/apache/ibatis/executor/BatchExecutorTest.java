@@ -0,0 +1,162 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.ibatis.FakeDatabase;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class BatchExecutorTest {
+
+  private FakeDatabase database;
+  private Configuration configuration;
+
+  @BeforeEach
+  void setUp() {
+    database = FakeDatabase.create("batchExecutor");
+    database.on("insert", FakeDatabase.updateCount(1));
+    database.on("update", FakeDatabase.updateCount(2));
+    configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), database));
+    addStatement("insertParent", "insert into parent (name) values (#{name})", SqlCommandType.INSERT);
+    addStatement("insertChild", "insert into child (name) values (#{name})", SqlCommandType.INSERT);
+    addStatement("updateParent", "update parent set name = #{name}", SqlCommandType.UPDATE);
+  }
+
+  @Test
+  void shouldKeepOneBatchPerStatementWhenGrouping() {
+    configuration.setBatchGroupingEnabled(true);
+    List<BatchResult> results = run("insertParent:p1", "insertChild:c1", "insertParent:p2", "insertChild:c2");
+    assertEquals(2, database.statementsPrepared.get());
+    assertEquals(Arrays.asList("insert into parent (name) values (?) [p1]", "insert into parent (name) values (?) [p2]",
+        "insert into child (name) values (?) [c1]", "insert into child (name) values (?) [c2]"), database.getLog());
+    assertEquals(2, results.size());
+    assertEquals("insertParent", results.get(0).getMappedStatement().getId());
+    assertEquals(2, results.get(0).getUpdateCounts().length);
+    assertEquals(2, results.get(1).getUpdateCounts().length);
+  }
+
+  @Test
+  void shouldStartANewBatchForEveryChangeOfStatementByDefault() {
+    List<BatchResult> results = run("insertParent:p1", "insertChild:c1", "insertParent:p2", "insertChild:c2");
+    assertEquals(4, database.statementsPrepared.get());
+    assertEquals(Arrays.asList("insert into parent (name) values (?) [p1]", "insert into child (name) values (?) [c1]",
+        "insert into parent (name) values (?) [p2]", "insert into child (name) values (?) [c2]"), database.getLog());
+    assertEquals(4, results.size());
+  }
+
+  @Test
+  void shouldNotMoveInsertsAheadOfAnUpdate() {
+    configuration.setBatchGroupingEnabled(true);
+    List<BatchResult> results = run("insertParent:p1", "updateParent:u", "insertParent:p2");
+    assertEquals(3, database.statementsPrepared.get());
+    assertEquals(Arrays.asList("insert into parent (name) values (?) [p1]", "update parent set name = ? [u]",
+        "insert into parent (name) values (?) [p2]"), database.getLog());
+    assertEquals(3, results.size());
+    assertEquals(2, results.get(1).getUpdateCounts()[0]);
+  }
+
+  @Test
+  void shouldFlushWhenTheRowCountIsReached() {
+    configuration.setBatchFlushSize(2);
+    SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession(ExecutorType.BATCH);
+    try {
+      sqlSession.insert("insertParent", "p1");
+      assertEquals(0, database.getLog().size());
+      sqlSession.insert("insertParent", "p2");
+      assertEquals(2, database.getLog().size());
+      sqlSession.insert("insertParent", "p3");
+      assertEquals(2, database.getLog().size());
+      // the results of the automatic flush are returned by the next one
+      List<BatchResult> results = sqlSession.flushStatements();
+      assertEquals(2, results.size());
+      assertEquals(2, results.get(0).getUpdateCounts().length);
+      assertEquals(1, results.get(1).getUpdateCounts().length);
+      assertEquals(3, database.getLog().size());
+      assertEquals(0, sqlSession.flushStatements().size());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  void shouldFlushWhenTheEstimatedMemoryIsReached() {
+    configuration.setBatchFlushMemoryKb(1);
+    char[] chars = new char[500];
+    Arrays.fill(chars, 'x');
+    String large = new String(chars);
+    SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession(ExecutorType.BATCH);
+    try {
+      sqlSession.insert("insertParent", "small");
+      assertEquals(0, database.getLog().size());
+      sqlSession.insert("insertParent", large);
+      assertEquals(2, database.getLog().size());
+      assertEquals(1, sqlSession.flushStatements().size());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  void shouldDropParametersOnlyWhenAllowed() {
+    List<BatchResult> retained = run("insertParent:p1", "insertParent:p2");
+    assertEquals(Arrays.<Object>asList("p1", "p2"), retained.get(0).getParameterObjects());
+
+    configuration.setBatchRetainParameters(false);
+    List<BatchResult> dropped = run("insertParent:p1", "insertParent:p2");
+    assertTrue(dropped.get(0).getParameterObjects().isEmpty());
+    assertEquals(2, dropped.get(0).getUpdateCounts().length);
+  }
+
+  private void addStatement(String id, String sql, SqlCommandType sqlCommandType) {
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, id,
+        new XMLLanguageDriver().createSqlSource(configuration, sql, String.class), sqlCommandType).build());
+  }
+
+  /**
+   * Runs each "statement:parameter" call in one batch session and flushes it.
+   */
+  private List<BatchResult> run(String... calls) {
+    SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession(ExecutorType.BATCH);
+    try {
+      for (String call : calls) {
+        String[] parts = call.split(":");
+        sqlSession.update(parts[0], parts[1]);
+      }
+      List<BatchResult> results = new ArrayList<BatchResult>(sqlSession.flushStatements());
+      assertEquals(Collections.emptyList(), sqlSession.flushStatements());
+      return results;
+    } finally {
+      sqlSession.close();
+    }
+  }
+}
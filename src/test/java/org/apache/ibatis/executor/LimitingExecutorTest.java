@@ -0,0 +1,300 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.FakeDatabase;
+import org.apache.ibatis.annotations.ConcurrencyLimit;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.SelectKey;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.limiter.ConcurrencyLimitExceededException;
+import org.apache.ibatis.executor.limiter.ConcurrencyLimiter;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LimitingExecutorTest {
+
+  private FakeDatabase database;
+  private DefaultSqlSessionFactory sqlSessionFactory;
+  private ConcurrencyLimiter limiter;
+
+  @BeforeEach
+  void setUp() {
+    database = FakeDatabase.create("limiting");
+    database.on("select name", FakeDatabase.rows(new String[] { "name" }, new Object[] { "a" }, new Object[] { "b" }));
+    database.on("select nickname", FakeDatabase.rows(new String[] { "nickname" }, new Object[] { "n" }));
+    database.on("select next value", FakeDatabase.rows(new String[] { "id" }, new Object[] { 7 }));
+    database.on("insert", FakeDatabase.updateCount(1));
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), database));
+    configuration.addMapper(UserMapper.class);
+    sqlSessionFactory = new DefaultSqlSessionFactory(configuration);
+    limiter = configuration.getConcurrencyLimiter(UserMapper.class.getName());
+  }
+
+  @Test
+  void shouldRunSelectKeyUnderThePermitOfTheInsert() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      User user = new User();
+      // the key statement runs on its own executor while the insert holds the only permit
+      sqlSession.getMapper(UserMapper.class).insert(user);
+      assertEquals(7, user.getId());
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(0, limiter.getInFlight());
+    assertEquals(0, limiter.getRejectedCount());
+  }
+
+  @Test
+  void shouldRunNestedSelectsUnderThePermitOfTheOuterSelect() {
+    final SqlSession sqlSession = sqlSessionFactory.openSession();
+    final List<String> names = new ArrayList<String>();
+    try {
+      sqlSession.select(UserMapper.class.getName() + ".selectNames", new ResultHandler() {
+        @Override
+        public void handleResult(ResultContext context) {
+          names.add(context.getResultObject() + "=" + sqlSession.getMapper(UserMapper.class).selectNickname(context.getResultCount()));
+        }
+      });
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(Arrays.asList("a=n", "b=n"), names);
+    assertEquals(0, limiter.getInFlight());
+    assertEquals(0, limiter.getRejectedCount());
+  }
+
+  @Test
+  void shouldRejectStatementsOverTheLimit() throws Exception {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch proceed = new CountDownLatch(1);
+    database.on("select slow", new FakeDatabase.Responder() {
+      @Override
+      public FakeDatabase.Result respond(String sql, List<Object> parameters) {
+        entered.countDown();
+        try {
+          proceed.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return FakeDatabase.rows(new String[] { "name" }, new Object[] { "slow" });
+      }
+    });
+    Thread holder = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        SqlSession sqlSession = sqlSessionFactory.openSession();
+        try {
+          sqlSession.getMapper(UserMapper.class).selectSlow();
+        } finally {
+          sqlSession.close();
+        }
+      }
+    });
+    holder.start();
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    final SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      PersistenceException e = assertThrows(PersistenceException.class, () -> sqlSession.getMapper(UserMapper.class).selectNames());
+      assertTrue(e.getCause() instanceof ConcurrencyLimitExceededException, String.valueOf(e.getCause()));
+    } finally {
+      proceed.countDown();
+      holder.join(5000);
+      sqlSession.close();
+    }
+    assertEquals(1, limiter.getRejectedCount());
+    assertEquals(0, limiter.getInFlight());
+    // only the held statement reached the database
+    assertEquals(Arrays.asList("select slow from users  []"), database.getLog());
+  }
+
+  @Test
+  void shouldReleaseThePermitWhenTheStatementFails() {
+    database.on("select slow", new FakeDatabase.Responder() {
+      @Override
+      public FakeDatabase.Result respond(String sql, List<Object> parameters) throws SQLException {
+        throw new SQLTransientException("busy");
+      }
+    });
+    final SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      assertThrows(PersistenceException.class, () -> sqlSession.getMapper(UserMapper.class).selectSlow());
+      assertEquals(0, limiter.getInFlight());
+      // the permit is free again, also for the nested statements of the next call
+      sqlSession.getMapper(UserMapper.class).insert(new User());
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(0, limiter.getInFlight());
+    assertEquals(0, limiter.getRejectedCount());
+  }
+
+  @Test
+  void shouldNotTakeAPermitForLocalCacheHits() throws Exception {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch proceed = new CountDownLatch(1);
+    database.on("select slow", new FakeDatabase.Responder() {
+      @Override
+      public FakeDatabase.Result respond(String sql, List<Object> parameters) {
+        entered.countDown();
+        try {
+          proceed.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return FakeDatabase.rows(new String[] { "name" }, new Object[] { "slow" });
+      }
+    });
+    final SqlSession sqlSession = sqlSessionFactory.openSession();
+    Thread holder = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        SqlSession holderSession = sqlSessionFactory.openSession();
+        try {
+          holderSession.getMapper(UserMapper.class).selectSlow();
+        } finally {
+          holderSession.close();
+        }
+      }
+    });
+    try {
+      assertEquals(Arrays.asList("a", "b"), sqlSession.getMapper(UserMapper.class).selectNames());
+      holder.start();
+      assertTrue(entered.await(5, TimeUnit.SECONDS));
+      // the only permit is taken, but the result comes from the local cache
+      assertEquals(Arrays.asList("a", "b"), sqlSession.getMapper(UserMapper.class).selectNames());
+    } finally {
+      proceed.countDown();
+      holder.join(5000);
+      sqlSession.close();
+    }
+    assertEquals(0, limiter.getRejectedCount());
+    assertEquals(Arrays.asList("select name from users  []", "select slow from users  []"), database.getLog());
+  }
+
+  @Test
+  void shouldBackOffWhenThePoolIsSaturated() throws Exception {
+    PooledDataSource dataSource = new PooledDataSource(FakeDatabase.DRIVER, database.getUrl(), "sa", "");
+    dataSource.setPoolMaximumActiveConnections(1);
+    Configuration configuration = new Configuration(new Environment("pooled", new JdbcTransactionFactory(), dataSource));
+    configuration.addMapper(PooledUserMapper.class);
+    final DefaultSqlSessionFactory pooledSessionFactory = new DefaultSqlSessionFactory(configuration);
+    ConcurrencyLimiter pooledLimiter = configuration.getConcurrencyLimiter(PooledUserMapper.class.getName());
+    assertEquals(10, pooledLimiter.getLimit());
+
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Connection held = dataSource.getConnection();
+    try {
+      Thread waiter = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          SqlSession sqlSession = pooledSessionFactory.openSession();
+          try {
+            sqlSession.getMapper(PooledUserMapper.class).selectNames();
+          } catch (Throwable e) {
+            failure.set(e);
+          } finally {
+            sqlSession.close();
+          }
+        }
+      });
+      waiter.start();
+      long deadline = System.currentTimeMillis() + 5000;
+      while (dataSource.getPoolMetrics().getPendingThreadCount() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      // the statement holds a permit while it waits for the only connection
+      assertEquals(1, pooledLimiter.getInFlight());
+      waiter.interrupt();
+      waiter.join(5000);
+    } finally {
+      held.close();
+      dataSource.forceCloseAll();
+    }
+    assertTrue(failure.get() instanceof PersistenceException, String.valueOf(failure.get()));
+    assertTrue(failure.get().getCause() instanceof SQLTransientConnectionException, String.valueOf(failure.get().getCause()));
+    assertEquals(0, pooledLimiter.getInFlight());
+    assertEquals(9, pooledLimiter.getLimit());
+  }
+
+  @ConcurrencyLimit(initialLimit = 10, minLimit = 1, maxLimit = 10)
+  public interface PooledUserMapper {
+    @Select("select name from users")
+    List<String> selectNames();
+  }
+
+  @ConcurrencyLimit(initialLimit = 1, minLimit = 1, maxLimit = 1)
+  public interface UserMapper {
+    @Select("select name from users")
+    List<String> selectNames();
+
+    @Select("select nickname from users where id = #{id}")
+    String selectNickname(int id);
+
+    @Select("select slow from users")
+    String selectSlow();
+
+    @Insert("insert into users (id, name) values (#{id}, #{name})")
+    @SelectKey(statement = "select next value for user_ids", keyProperty = "id", before = true, resultType = int.class)
+    int insert(User user);
+  }
+
+  public static class User {
+    private int id;
+    private String name;
+
+    public int getId() {
+      return id;
+    }
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+  }
+}
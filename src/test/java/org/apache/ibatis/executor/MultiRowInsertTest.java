@@ -0,0 +1,143 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.FakeDatabase;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MultiRowInsertTest {
+
+  private FakeDatabase database;
+  private Configuration configuration;
+
+  @BeforeEach
+  void setUp() {
+    database = FakeDatabase.create("multiRowInsert");
+    // one row inserted per values group
+    database.on("insert", new FakeDatabase.Responder() {
+      @Override
+      public FakeDatabase.Result respond(String sql, List<Object> parameters) {
+        return FakeDatabase.updateCount(parameters.size());
+      }
+    });
+    configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), database));
+    configuration.setBatchInsertRewriteSize(2);
+  }
+
+  @Test
+  void shouldRewriteRowsIntoMultiRowInserts() {
+    addInsert("insertUser", "insert into users (name) values (#{name})");
+    List<BatchResult> results = insert("insertUser", "a", "b", "c", "d", "e");
+    assertEquals(Arrays.asList("insert into users (name) values (?),(?) [a, b]", "insert into users (name) values (?),(?) [c, d]",
+        "insert into users (name) values (?) [e]"), database.getLog());
+    assertEquals(2, database.statementsPrepared.get());
+    assertEquals(1, results.size());
+    assertArrayEquals(new int[] { 1, 1, 1, 1, 1 }, results.get(0).getUpdateCounts());
+  }
+
+  @Test
+  void shouldRewriteColumnsThatOnlyContainSelect() {
+    addInsert("insertEvent", "insert into events (selected_at) values (#{selectedAt})");
+    insert("insertEvent", "t1", "t2");
+    assertEquals(Arrays.asList("insert into events (selected_at) values (?),(?) [t1, t2]"), database.getLog());
+  }
+
+  @Test
+  void shouldFallBackToARegularBatchForSelects() {
+    addInsert("insertCopy", "insert into users (name, parent) values (#{name}, (select max(id) from users))");
+    List<BatchResult> results = insert("insertCopy", "a", "b", "c");
+    assertEquals(Arrays.asList("insert into users (name, parent) values (?, (select max(id) from users)) [a]",
+        "insert into users (name, parent) values (?, (select max(id) from users)) [b]",
+        "insert into users (name, parent) values (?, (select max(id) from users)) [c]"), database.getLog());
+    assertArrayEquals(new int[] { 1, 1, 1 }, results.get(0).getUpdateCounts());
+  }
+
+  @Test
+  void shouldFallBackToARegularBatchForSeveralValuesGroups() {
+    addInsert("insertPair", "insert into users (name) values (#{name}), ('fixed')");
+    insert("insertPair", "a", "b");
+    assertEquals(Arrays.asList("insert into users (name) values (?), ('fixed') [a]",
+        "insert into users (name) values (?), ('fixed') [b]"), database.getLog());
+  }
+
+  @Test
+  void shouldReportTheUpdateCountsOfTheRowsOfAFailedBatch() {
+    final AtomicInteger executions = new AtomicInteger();
+    // the driver completes the first statement, fails the second and goes on with the third
+    database.on("insert", new FakeDatabase.Responder() {
+      @Override
+      public FakeDatabase.Result respond(String sql, List<Object> parameters) throws SQLException {
+        if (executions.incrementAndGet() == 2) {
+          throw new BatchUpdateException("duplicate key", new int[] { 2, Statement.EXECUTE_FAILED, 2 });
+        }
+        return FakeDatabase.updateCount(parameters.size());
+      }
+    });
+    addInsert("insertUser", "insert into users (name) values (#{name})");
+    SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession(ExecutorType.BATCH);
+    try {
+      for (String name : Arrays.asList("a", "b", "c", "d", "e", "f", "g")) {
+        sqlSession.insert("insertUser", name);
+      }
+      PersistenceException e = assertThrows(PersistenceException.class, () -> sqlSession.flushStatements());
+      assertTrue(e.getCause() instanceof BatchExecutorException);
+      BatchUpdateException cause = ((BatchExecutorException) e.getCause()).getBatchUpdateException();
+      assertArrayEquals(new int[] { 1, 1, Statement.EXECUTE_FAILED, Statement.EXECUTE_FAILED, 1, 1 }, cause.getUpdateCounts());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private void addInsert(String id, String sql) {
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, id,
+        new XMLLanguageDriver().createSqlSource(configuration, sql, String.class), SqlCommandType.INSERT).build());
+  }
+
+  private List<BatchResult> insert(String statement, String... names) {
+    SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession(ExecutorType.BATCH);
+    try {
+      for (String name : names) {
+        sqlSession.insert(statement, name);
+      }
+      return sqlSession.flushStatements();
+    } finally {
+      sqlSession.close();
+    }
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.FakeDatabase;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.Test;
+
+class TempTableTest {
+
+  private static final int ROWS = 3000;
+
+  private static final String IN_LIST = "<foreach collection='list' item='id' open='(' close=')' separator=',' tempTableThreshold='100'>#{id}</foreach>";
+
+  @Test
+  void shouldJoinAgainstTempTableOnHsqldb() throws Exception {
+    shouldJoinAgainstTempTable(new UnpooledDataSource("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:temptable", "sa", ""));
+  }
+
+  @Test
+  void shouldJoinAgainstTempTableOnDerby() throws Exception {
+    shouldJoinAgainstTempTable(new UnpooledDataSource("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:memory:temptable;create=true", "", ""));
+  }
+
+  private void shouldJoinAgainstTempTable(UnpooledDataSource dataSource) throws Exception {
+    createTable(dataSource);
+    SqlSessionFactory sqlSessionFactory = new DefaultSqlSessionFactory(createConfiguration(dataSource));
+    for (ExecutorType executorType : ExecutorType.values()) {
+      SqlSession sqlSession = sqlSessionFactory.openSession(executorType);
+      try {
+        // declared by the first statement, then emptied and reused
+        assertEquals(evenIds(0, ROWS), sqlSession.<Integer>selectList("selectIds", evenIds(0, ROWS)));
+        assertEquals(evenIds(1000, 1500), sqlSession.<Integer>selectList("selectIds", evenIds(1000, 1500)));
+        assertEquals(evenIds(0, 10), sqlSession.<Integer>selectList("selectIds", evenIds(0, 10)));
+        assertTempTableEmpty(sqlSession);
+        sqlSession.delete("deleteIds", evenIds(0, 1000));
+        sqlSession.flushStatements();
+        assertTempTableEmpty(sqlSession);
+        assertEquals(evenIds(1000, 1400), sqlSession.<Integer>selectList("selectIds", evenIds(0, 1400)));
+        // a rollback drops the declaration on Derby but not on HSQLDB
+        sqlSession.rollback(true);
+        assertEquals(evenIds(0, 400), sqlSession.<Integer>selectList("selectIds", evenIds(0, 400)));
+      } finally {
+        sqlSession.close();
+      }
+    }
+  }
+
+  @Test
+  void shouldNotReloadTablesThatAnOpenCursorReads() {
+    FakeDatabase database = createFakeDatabase("tempTableCursor");
+    SqlSession sqlSession = new DefaultSqlSessionFactory(createConfiguration(database)).openSession();
+    try {
+      Cursor<Integer> cursor = sqlSession.selectCursor("selectIds", evenIds(0, 400));
+      assertRefused(sqlSession, evenIds(0, 400));
+      // collections below the threshold do not use the table
+      assertEquals(evenIds(0, 6), sqlSession.<Integer>selectList("selectIds", evenIds(0, 10)));
+      Iterator<Integer> iterator = cursor.iterator();
+      while (iterator.hasNext()) {
+        iterator.next();
+      }
+      assertEquals(evenIds(0, 6), sqlSession.<Integer>selectList("selectIds", evenIds(0, 400)));
+      sqlSession.selectCursor("selectIds", evenIds(0, 400)).close();
+      assertEquals(evenIds(0, 6), sqlSession.<Integer>selectList("selectIds", evenIds(0, 402)));
+    } finally {
+      sqlSession.close();
+    }
+    // emptied before each reuse and again after each statement or cursor
+    assertEquals(7, count(database.getLog(), "DELETE FROM SESSION.MYBATIS_TMP_INTEGER_0"));
+  }
+
+  @Test
+  void shouldNotReloadTablesOfTheEnclosingStatement() {
+    FakeDatabase database = createFakeDatabase("tempTableNested");
+    final SqlSession sqlSession = new DefaultSqlSessionFactory(createConfiguration(database)).openSession();
+    final List<Object> results = new ArrayList<Object>();
+    try {
+      sqlSession.select("selectIds", evenIds(0, 400), new ResultHandler() {
+        @Override
+        public void handleResult(ResultContext context) {
+          results.add(sqlSession.selectList("selectIds", evenIds(0, 10)));
+          try {
+            sqlSession.selectList("selectIds", evenIds(0, 1000));
+          } catch (PersistenceException e) {
+            results.add(e.getCause().getClass());
+          }
+        }
+      });
+      assertEquals(evenIds(0, 6), sqlSession.<Integer>selectList("selectIds", evenIds(0, 1000)));
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(6, results.size());
+    assertEquals(evenIds(0, 6), results.get(0));
+    assertEquals(ExecutorException.class, results.get(1));
+  }
+
+  @Test
+  void shouldSelectTheKeyBeforeEvaluatingTheCollectionOnce() {
+    FakeDatabase database = createFakeDatabase("tempTableKey");
+    database.on("SELECT NEXT_ID", FakeDatabase.rows(new String[] { "ID" }, new Object[] { 7 }));
+    Configuration configuration = createConfiguration(database);
+    XMLLanguageDriver languageDriver = new XMLLanguageDriver();
+    ResultMap resultMap = new ResultMap.Builder(configuration, "insertIds!selectKey-Inline", Integer.class, new ArrayList<ResultMapping>()).build();
+    MappedStatement keyStatement = new MappedStatement.Builder(configuration, "insertIds!selectKey",
+        languageDriver.createSqlSource(configuration, "SELECT NEXT_ID FROM DUAL", Map.class), SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(resultMap)).keyProperty("batch").build();
+    SqlSource insert = languageDriver.createSqlSource(configuration,
+        "<script>INSERT INTO TEMP_TABLE_COPIES (BATCH, ID) SELECT #{batch}, ID FROM TEMP_TABLE_ROWS WHERE ID IN " + IN_LIST + "</script>", Map.class);
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, "insertIds", insert, SqlCommandType.INSERT)
+        .keyGenerator(new SelectKeyGenerator(keyStatement, true)).keyProperty("batch").build());
+    final List<Integer> ids = evenIds(0, 400);
+    final int[] reads = new int[1];
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("list", new AbstractList<Integer>() {
+      @Override
+      public Integer get(int index) {
+        reads[0]++;
+        return ids.get(index);
+      }
+
+      @Override
+      public int size() {
+        return ids.size();
+      }
+    });
+    SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession();
+    try {
+      sqlSession.insert("insertIds", parameter);
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(7, parameter.get("batch"));
+    assertEquals(ids.size(), reads[0]);
+    List<String> log = database.getLog();
+    assertEquals("SELECT NEXT_ID FROM DUAL []", log.get(0));
+    assertTrue(log.get(1).startsWith("DECLARE LOCAL TEMPORARY TABLE MYBATIS_TMP_INTEGER_0"), log.get(1));
+    assertEquals("INSERT INTO TEMP_TABLE_COPIES (BATCH, ID) SELECT ?, ID FROM TEMP_TABLE_ROWS WHERE ID IN  ( select VAL from SESSION.MYBATIS_TMP_INTEGER_0 ) [7]",
+        log.get(log.size() - 2));
+    assertEquals("DELETE FROM SESSION.MYBATIS_TMP_INTEGER_0 []", log.get(log.size() - 1));
+  }
+
+  private static void assertTempTableEmpty(SqlSession sqlSession) throws SQLException {
+    Statement statement = sqlSession.getConnection().createStatement();
+    try {
+      ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM SESSION.MYBATIS_TMP_INTEGER_0");
+      assertTrue(rs.next());
+      assertEquals(0, rs.getInt(1));
+    } finally {
+      statement.close();
+    }
+  }
+
+  private static void assertRefused(final SqlSession sqlSession, final List<Integer> ids) {
+    PersistenceException e = assertThrows(PersistenceException.class, () -> sqlSession.selectList("selectIds", ids));
+    assertTrue(e.getCause() instanceof ExecutorException, String.valueOf(e.getCause()));
+  }
+
+  private static int count(List<String> log, String prefix) {
+    int count = 0;
+    for (String entry : log) {
+      if (entry.startsWith(prefix)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static FakeDatabase createFakeDatabase(String name) {
+    FakeDatabase database = FakeDatabase.create(name);
+    database.setProductName("HSQL Database Engine");
+    database.on("SELECT ID FROM TEMP_TABLE_ROWS", FakeDatabase.rows(new String[] { "ID" }, new Object[] { 0 }, new Object[] { 2 }, new Object[] { 4 }));
+    return database;
+  }
+
+  private static List<Integer> evenIds(int from, int to) {
+    List<Integer> ids = new ArrayList<Integer>();
+    for (int id = from; id < to; id += 2) {
+      ids.add(id);
+    }
+    return ids;
+  }
+
+  private static void createTable(UnpooledDataSource dataSource) throws SQLException {
+    Connection connection = dataSource.getConnection();
+    try {
+      Statement statement = connection.createStatement();
+      try {
+        statement.execute("CREATE TABLE TEMP_TABLE_ROWS (ID INTEGER NOT NULL PRIMARY KEY)");
+      } finally {
+        statement.close();
+      }
+      PreparedStatement insert = connection.prepareStatement("INSERT INTO TEMP_TABLE_ROWS (ID) VALUES (?)");
+      try {
+        for (int id = 0; id < ROWS; id++) {
+          insert.setInt(1, id);
+          insert.addBatch();
+        }
+        insert.executeBatch();
+      } finally {
+        insert.close();
+      }
+      if (!connection.getAutoCommit()) {
+        connection.commit();
+      }
+    } finally {
+      connection.close();
+    }
+  }
+
+  private static Configuration createConfiguration(DataSource dataSource) {
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+    XMLLanguageDriver languageDriver = new XMLLanguageDriver();
+    SqlSource select = languageDriver.createSqlSource(configuration,
+        "<script>SELECT ID FROM TEMP_TABLE_ROWS WHERE ID IN " + IN_LIST + " ORDER BY ID</script>", Map.class);
+    ResultMap resultMap = new ResultMap.Builder(configuration, "selectIds-Inline", Integer.class, new ArrayList<ResultMapping>()).build();
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, "selectIds", select, SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(resultMap)).build());
+    SqlSource delete = languageDriver.createSqlSource(configuration,
+        "<script>DELETE FROM TEMP_TABLE_ROWS WHERE ID IN " + IN_LIST + "</script>", Map.class);
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, "deleteIds", delete, SqlCommandType.DELETE).build());
+    return configuration;
+  }
+
+}
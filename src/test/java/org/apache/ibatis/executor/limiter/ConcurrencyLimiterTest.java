@@ -0,0 +1,127 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.limiter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class ConcurrencyLimiterTest {
+
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(20);
+
+  @Test
+  void shouldRejectWhenLimitReachedAndNoQueue() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 1, 0, 0);
+    limiter.acquire();
+    assertThrows(ConcurrencyLimitExceededException.class, () -> limiter.acquire());
+    assertEquals(1, limiter.getRejectedCount());
+    limiter.onSuccess(FAST);
+    limiter.acquire();
+    assertEquals(1, limiter.getInFlight());
+  }
+
+  @Test
+  void shouldTimeOutQueuedCaller() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 1, 1, 10);
+    limiter.acquire();
+    assertThrows(ConcurrencyLimitExceededException.class, () -> limiter.acquire());
+    assertEquals(0, limiter.getWaiting());
+  }
+
+  @Test
+  void shouldGrowLimitWhileLatencyIsStable() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 4, 1, 50, 0, 0);
+    for (int i = 0; i < 200; i++) {
+      runBatch(limiter, limiter.getLimit(), FAST);
+    }
+    assertTrue(limiter.getLimit() > 4, "limit should grow, was " + limiter.getLimit());
+  }
+
+  @Test
+  void shouldShrinkLimitWhenLatencyRises() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 40, 1, 50, 0, 0);
+    for (int i = 0; i < 20; i++) {
+      runBatch(limiter, limiter.getLimit(), FAST);
+    }
+    int before = limiter.getLimit();
+    for (int i = 0; i < 20; i++) {
+      runBatch(limiter, limiter.getLimit(), SLOW);
+    }
+    assertTrue(limiter.getLimit() < before, "limit should shrink, was " + limiter.getLimit());
+  }
+
+  @Test
+  void shouldBackOffOnDrop() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 10, 1, 50, 0, 0);
+    limiter.acquire();
+    limiter.onDropped();
+    assertEquals(9, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  void shouldHandEachReleasedPermitToOneQueuedCaller() throws Exception {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 1, 3, 5000);
+    limiter.acquire();
+    final AtomicInteger acquired = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(3);
+    for (int i = 0; i < 3; i++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          limiter.acquire();
+          acquired.incrementAndGet();
+          done.countDown();
+        }
+      }).start();
+    }
+    while (limiter.getWaiting() < 3) {
+      Thread.sleep(1);
+    }
+    for (int i = 1; i <= 3; i++) {
+      limiter.onSuccess(FAST);
+      while (acquired.get() < i) {
+        Thread.sleep(1);
+      }
+      assertEquals(1, limiter.getInFlight());
+      assertEquals(3 - i, limiter.getWaiting());
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(0, limiter.getRejectedCount());
+  }
+
+  @Test
+  void shouldRejectInvalidBounds() {
+    assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimiter("test", 10, 1, 5, 0, 0));
+  }
+
+  private static void runBatch(ConcurrencyLimiter limiter, int size, long rtt) {
+    for (int i = 0; i < size; i++) {
+      limiter.acquire();
+    }
+    for (int i = 0; i < size; i++) {
+      limiter.onSuccess(rtt);
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.ibatis.FakeDatabase;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class BatchLoadGroupTest {
+
+  private FakeDatabase database;
+  private Configuration configuration;
+  private volatile FakeDatabase.Responder beforeItems;
+
+  @BeforeEach
+  void setUp() {
+    database = FakeDatabase.create("batchLoadGroup");
+    database.on("from orders", FakeDatabase.rows(new String[] { "ID" }, new Object[] { 1 }, new Object[] { 2 }, new Object[] { 3 }));
+    database.on("from items", new FakeDatabase.Responder() {
+      @Override
+      public FakeDatabase.Result respond(String sql, List<Object> parameters) throws SQLException {
+        if (beforeItems != null) {
+          beforeItems.respond(sql, parameters);
+        }
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (Object orderId : parameters) {
+          rows.add(new Object[] { "item of " + orderId, orderId });
+        }
+        return FakeDatabase.rows(new String[] { "NAME", "ORDER_ID" }, rows);
+      }
+    });
+    configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), database));
+    configuration.setMapUnderscoreToCamelCase(true);
+
+    SqlSource items = new XMLLanguageDriver().createSqlSource(configuration, "<script>select * from items where order_id in "
+        + "<foreach collection='list' item='orderId' open='(' separator=',' close=')'>#{orderId}</foreach></script>", Object.class);
+    ResultMap itemMap = new ResultMap.Builder(configuration, "itemMap", BatchResultLoaderTest.Item.class, new ArrayList<ResultMapping>(), true).build();
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, "selectItems", items, SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(itemMap)).build());
+
+    List<ResultMapping> orderMappings = new ArrayList<ResultMapping>();
+    orderMappings.add(new ResultMapping.Builder(configuration, "id", "ID", int.class).flags(Collections.singletonList(ResultFlag.ID)).build());
+    orderMappings.add(new ResultMapping.Builder(configuration, "items", "ID", List.class)
+        .nestedQueryId("selectItems").foreignColumn("ORDER_ID").batch(true).lazy(true).build());
+    ResultMap orderMap = new ResultMap.Builder(configuration, "orderMap", BatchResultLoaderTest.Order.class, orderMappings).build();
+    SqlSource orders = new XMLLanguageDriver().createSqlSource(configuration, "select * from orders", Object.class);
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, "selectOrders", orders, SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(orderMap)).build());
+  }
+
+  @Test
+  void shouldLoadAllSiblingsWithOneQuery() {
+    SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession();
+    try {
+      List<BatchResultLoaderTest.Order> orders = sqlSession.selectList("selectOrders");
+      assertEquals(0, itemQueries().size());
+      assertEquals("item of 2", orders.get(1).getItems().get(0).getName());
+      assertEquals("item of 1", orders.get(0).getItems().get(0).getName());
+      assertEquals("item of 3", orders.get(2).getItems().get(0).getName());
+      assertEquals(Arrays.asList("[1, 2, 3]"), itemQueries());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  @Test
+  void shouldMakeOtherReadersWaitForTheBatchLoad() throws Exception {
+    final CountDownLatch ordersSelected = new CountDownLatch(1);
+    final CountDownLatch batchStarted = new CountDownLatch(1);
+    final CountDownLatch releaseBatch = new CountDownLatch(1);
+    final AtomicReference<List<BatchResultLoaderTest.Order>> orders = new AtomicReference<List<BatchResultLoaderTest.Order>>();
+    final AtomicReference<List<BatchResultLoaderTest.Item>> readByOtherThread = new AtomicReference<List<BatchResultLoaderTest.Item>>();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    beforeItems = new FakeDatabase.Responder() {
+      @Override
+      public FakeDatabase.Result respond(String sql, List<Object> parameters) {
+        batchStarted.countDown();
+        await(releaseBatch);
+        return null;
+      }
+    };
+
+    // the thread that ran the query triggers the batch load
+    Thread creator = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession();
+        try {
+          orders.set(sqlSession.<BatchResultLoaderTest.Order>selectList("selectOrders"));
+          ordersSelected.countDown();
+          orders.get().get(0).getItems();
+        } catch (Throwable t) {
+          failure.set(t);
+        } finally {
+          sqlSession.close();
+        }
+      }
+    });
+    creator.start();
+    assertTrue(ordersSelected.await(5, TimeUnit.SECONDS));
+    assertTrue(batchStarted.await(5, TimeUnit.SECONDS));
+
+    // a second caller reads a sibling while its value is being loaded
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          readByOtherThread.set(orders.get().get(1).getItems());
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    });
+    reader.start();
+    waitUntilBlocked(reader);
+    assertTrue(reader.isAlive());
+
+    releaseBatch.countDown();
+    creator.join(5000);
+    reader.join(5000);
+    assertEquals(null, failure.get());
+    assertEquals(1, readByOtherThread.get().size());
+    assertEquals("item of 2", readByOtherThread.get().get(0).getName());
+    assertEquals("item of 3", orders.get().get(2).getItems().get(0).getName());
+    assertEquals(Arrays.asList("[1, 2, 3]"), itemQueries());
+  }
+
+  @Test
+  void shouldKeepTheSiblingLoadersWhenTheBatchLoadFails() {
+    final AtomicBoolean failed = new AtomicBoolean();
+    beforeItems = new FakeDatabase.Responder() {
+      @Override
+      public FakeDatabase.Result respond(String sql, List<Object> parameters) throws SQLException {
+        if (failed.compareAndSet(false, true)) {
+          throw new SQLException("connection reset");
+        }
+        return null;
+      }
+    };
+    SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession();
+    try {
+      final List<BatchResultLoaderTest.Order> orders = sqlSession.selectList("selectOrders");
+      assertThrows(SQLException.class, () -> orders.get(0).getItems());
+      assertEquals("item of 2", orders.get(1).getItems().get(0).getName());
+      assertEquals("item of 1", orders.get(0).getItems().get(0).getName());
+      assertEquals(Arrays.asList("[1, 2, 3]", "[2]", "[1]"), itemQueries());
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private List<String> itemQueries() {
+    List<String> parameters = new ArrayList<String>();
+    for (String entry : database.getLog()) {
+      if (entry.contains("from items")) {
+        parameters.add(entry.substring(entry.lastIndexOf('[')));
+      }
+    }
+    return parameters;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void waitUntilBlocked(Thread thread) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.BLOCKED
+        && thread.isAlive() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.FakeDatabase;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class BatchResultLoaderTest {
+
+  private static final String[] ORDER_COLUMNS = { "ID" };
+
+  private FakeDatabase database;
+  private Configuration configuration;
+
+  @BeforeEach
+  void setUp() {
+    database = FakeDatabase.create("batchResultLoader");
+    database.on("from orders", FakeDatabase.rows(ORDER_COLUMNS, new Object[] { 1 }, new Object[] { 2 }, new Object[] { 3 }));
+    // one item per requested order id, with the id passed back unchanged
+    database.on("from items", new FakeDatabase.Responder() {
+      @Override
+      public FakeDatabase.Result respond(String sql, List<Object> parameters) {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (Object orderId : parameters) {
+          rows.add(new Object[] { "item of " + orderId, orderId });
+        }
+        return FakeDatabase.rows(new String[] { "NAME", "ORDER_ID" }, rows);
+      }
+    });
+    configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), database));
+    configuration.setMapUnderscoreToCamelCase(true);
+    addSelect("selectItems", "<script>select * from items where order_id in "
+        + "<foreach collection='list' item='orderId' open='(' separator=',' close=')'>#{orderId}</foreach></script>", itemMap());
+    addSelect("selectItemsOfOneOrder", "select * from items where order_id = #{id}", itemMap());
+    addSelect("selectOrders", "select * from orders", orderMap("orderMap", "ID", "selectItems", true));
+    addSelect("selectOrdersWithSingleKeyItems", "select * from orders", orderMap("singleKeyOrderMap", "ID", "selectItemsOfOneOrder", true));
+    addSelect("selectOrderKeysOnly", "select * from orders", orderMap("keyOnlyOrderMap", "ID", "selectItems", false));
+  }
+
+  @Test
+  void shouldLoadTheChildrenOfAllParentsWithOneQuery() {
+    List<Order> orders = selectList("selectOrders");
+    assertEquals(3, orders.size());
+    for (Order order : orders) {
+      assertEquals(1, order.getItems().size());
+      assertEquals("item of " + order.getId(), order.getItems().get(0).getName());
+    }
+    assertEquals(Arrays.asList("[1, 2, 3]"), itemQueries());
+  }
+
+  @Test
+  void shouldLoadRowByRowWhenTheNestedSelectTakesASingleKey() {
+    List<Order> orders = selectList("selectOrdersWithSingleKeyItems");
+    assertEquals(3, orders.size());
+    for (Order order : orders) {
+      assertEquals(1, order.getItems().size());
+      assertEquals("item of " + order.getId(), order.getItems().get(0).getName());
+    }
+    assertEquals(Arrays.asList("[1]", "[2]", "[3]"), itemQueries());
+  }
+
+  @Test
+  void shouldMatchNumbersOfAnyTypeButNotKeysOfDifferentTypes() throws SQLException {
+    final List<Object> requestedKeys = new ArrayList<Object>();
+    Executor executor = new SimpleExecutor(configuration, new JdbcTransaction(database, null, false));
+    BatchResultLoader batchResultLoader = new BatchResultLoader(configuration, executor, configuration.getMappedStatement("selectItems"),
+        "items", List.class, "ORDER_ID") {
+      @Override
+      protected List<Object> selectList(Object parameterObject) {
+        List<Object> rows = new ArrayList<Object>();
+        for (Object key : (List<?>) ((Map<?, ?>) parameterObject).get("list")) {
+          requestedKeys.add(key);
+          Item item = new Item();
+          item.setOrderId(key instanceof Number ? (Object) Long.valueOf(key.toString()) : key);
+          rows.add(item);
+        }
+        return rows;
+      }
+    };
+    Order byInteger = new Order();
+    Order byLong = new Order();
+    Order byString = new Order();
+    batchResultLoader.addResultObject(configuration.newMetaObject(byInteger), 1);
+    batchResultLoader.addResultObject(configuration.newMetaObject(byLong), 1L);
+    batchResultLoader.addResultObject(configuration.newMetaObject(byString), "1");
+    batchResultLoader.load();
+    executor.close(false);
+
+    assertEquals(Arrays.<Object>asList(1, "1"), requestedKeys);
+    assertEquals(1, byInteger.getItems().size());
+    assertEquals(Long.valueOf(1), byInteger.getItems().get(0).getOrderId());
+    assertSame(byInteger.getItems().get(0), byLong.getItems().get(0));
+    assertEquals(1, byString.getItems().size());
+    assertEquals("1", byString.getItems().get(0).getOrderId());
+  }
+
+  @Test
+  void shouldNotLoadChildrenOfDiscardedParents() {
+    List<Order> orders = selectList("selectOrderKeysOnly");
+    assertEquals(3, orders.size());
+    assertNull(orders.get(0));
+    assertEquals(0, itemQueries().size());
+  }
+
+  @Test
+  void shouldLoadTheChildrenOfCursorRowsInBatches() {
+    configuration.setBatchFetchSize(2);
+    List<Order> orders = selectCursor("selectOrders", RowBounds.DEFAULT);
+    assertEquals(3, orders.size());
+    for (Order order : orders) {
+      assertEquals("item of " + order.getId(), order.getItems().get(0).getName());
+    }
+    assertEquals(Arrays.asList("[1, 2]", "[3]"), itemQueries());
+  }
+
+  @Test
+  void shouldNotReadCursorRowsBeyondTheLimit() {
+    List<Order> orders = selectCursor("selectOrders", new RowBounds(0, 2));
+    assertEquals(2, orders.size());
+    assertEquals(Arrays.asList("[1, 2]"), itemQueries());
+  }
+
+  private void addSelect(String id, String script, ResultMap resultMap) {
+    SqlSource sqlSource = new XMLLanguageDriver().createSqlSource(configuration, script, Object.class);
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, id, sqlSource, SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(resultMap)).build());
+  }
+
+  private ResultMap itemMap() {
+    return new ResultMap.Builder(configuration, "itemMap", Item.class, new ArrayList<ResultMapping>(), true).build();
+  }
+
+  /**
+   * An order with its items loaded by a batched nested select on the given column. Without the id mapping
+   * nothing but the nested select is mapped, so the order is discarded.
+   */
+  private ResultMap orderMap(String id, String keyColumn, String nestedQueryId, boolean mapId) {
+    List<ResultMapping> resultMappings = new ArrayList<ResultMapping>();
+    if (mapId) {
+      resultMappings.add(new ResultMapping.Builder(configuration, "id", "ID", int.class)
+          .flags(Collections.singletonList(ResultFlag.ID)).build());
+    }
+    resultMappings.add(new ResultMapping.Builder(configuration, "items", keyColumn, List.class)
+        .nestedQueryId(nestedQueryId).foreignColumn("ORDER_ID").batch(true).lazy(false).build());
+    return new ResultMap.Builder(configuration, id, Order.class, resultMappings, mapId).build();
+  }
+
+  private List<Order> selectList(String statement) {
+    SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession();
+    try {
+      return sqlSession.selectList(statement);
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  private List<Order> selectCursor(String statement, RowBounds rowBounds) {
+    SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession();
+    try {
+      Cursor<Order> cursor = sqlSession.selectCursor(statement, null, rowBounds);
+      List<Order> orders = new ArrayList<Order>();
+      for (Order order : cursor) {
+        orders.add(order);
+      }
+      assertTrue(cursor.isConsumed());
+      return orders;
+    } finally {
+      sqlSession.close();
+    }
+  }
+
+  /**
+   * The parameters of every execution of the nested select.
+   */
+  private List<String> itemQueries() {
+    List<String> parameters = new ArrayList<String>();
+    for (String entry : database.getLog()) {
+      if (entry.contains("from items")) {
+        parameters.add(entry.substring(entry.lastIndexOf('[')));
+      }
+    }
+    return parameters;
+  }
+
+  public static class Order {
+    private int id;
+    private List<Item> items;
+
+    public int getId() {
+      return id;
+    }
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public List<Item> getItems() {
+      return items;
+    }
+
+    public void setItems(List<Item> items) {
+      this.items = items;
+    }
+  }
+
+  public static class Item {
+    private String name;
+    private Object orderId;
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public Object getOrderId() {
+      return orderId;
+    }
+
+    public void setOrderId(Object orderId) {
+      this.orderId = orderId;
+    }
+  }
+}
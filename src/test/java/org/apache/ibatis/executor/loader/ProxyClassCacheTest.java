@@ -0,0 +1,119 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.executor.loader.cglib.CglibProxyFactory;
+import org.apache.ibatis.executor.loader.javassist.JavassistProxyFactory;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.Test;
+
+class ProxyClassCacheTest {
+
+  private final Configuration configuration = new Configuration();
+  private final MappedStatement selectName = new MappedStatement.Builder(configuration, "selectName",
+      new StaticSqlSource(configuration, "select name from author"), SqlCommandType.SELECT).build();
+  private final AtomicInteger loads = new AtomicInteger();
+
+  @Test
+  void shouldReuseJavassistProxyClassesAndStillLoadLazily() {
+    shouldReuseProxyClassesAndStillLoadLazily(new JavassistProxyFactory());
+  }
+
+  @Test
+  void shouldReuseCglibProxyClassesAndStillLoadLazily() {
+    shouldReuseProxyClassesAndStillLoadLazily(new CglibProxyFactory());
+  }
+
+  private void shouldReuseProxyClassesAndStillLoadLazily(ProxyFactory proxyFactory) {
+    ResultLoaderMap firstLoader = new ResultLoaderMap();
+    ResultLoaderMap secondLoader = new ResultLoaderMap();
+    Author first = createProxy(proxyFactory, firstLoader, Collections.<Class<?>>emptyList(), Collections.emptyList());
+    Author second = createProxy(proxyFactory, secondLoader, Collections.<Class<?>>emptyList(), Collections.emptyList());
+    assertNotSame(first, second);
+    assertSame(first.getClass(), second.getClass());
+
+    assertEquals("name 1", first.getName());
+    assertEquals(0, firstLoader.size());
+    assertEquals(1, secondLoader.size());
+    assertEquals("name 1", first.getName());
+    assertEquals("name 2", second.getName());
+    assertEquals(2, loads.get());
+
+    // another constructor of the same type shares the proxy class
+    Author third = createProxy(proxyFactory, new ResultLoaderMap(), Arrays.<Class<?>>asList(int.class), Arrays.<Object>asList(7));
+    Author fourth = createProxy(proxyFactory, new ResultLoaderMap(), Arrays.<Class<?>>asList(int.class), Arrays.<Object>asList(8));
+    assertSame(first.getClass(), third.getClass());
+    assertSame(first.getClass(), fourth.getClass());
+    assertEquals(7, third.getId());
+    assertEquals(8, fourth.getId());
+    assertEquals("name 3", third.getName());
+  }
+
+  /**
+   * Proxies a new author whose name is loaded lazily by a loader that counts its executions.
+   */
+  private Author createProxy(ProxyFactory proxyFactory, ResultLoaderMap lazyLoader, List<Class<?>> constructorArgTypes,
+      List<Object> constructorArgs) {
+    Author target = constructorArgs.isEmpty() ? new Author() : new Author((Integer) constructorArgs.get(0));
+    Author proxy = (Author) proxyFactory.createProxy(target, lazyLoader, configuration, new DefaultObjectFactory(),
+        constructorArgTypes, constructorArgs);
+    ResultLoader resultLoader = new ResultLoader(configuration, null, selectName, null, String.class, null, null) {
+      @Override
+      public Object loadResult() {
+        return "name " + loads.incrementAndGet();
+      }
+    };
+    lazyLoader.addLoader("name", configuration.newMetaObject(proxy), resultLoader);
+    return proxy;
+  }
+
+  public static class Author {
+    private int id;
+    private String name;
+
+    public Author() {
+    }
+
+    public Author(int id) {
+      this.id = id;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+  }
+}
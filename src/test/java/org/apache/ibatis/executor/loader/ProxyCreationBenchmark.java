@@ -0,0 +1,125 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.loader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.executor.loader.cglib.CglibProxyFactory;
+import org.apache.ibatis.executor.loader.javassist.JavassistProxyFactory;
+import org.apache.ibatis.reflection.factory.DefaultObjectFactory;
+import org.apache.ibatis.reflection.factory.ObjectFactory;
+import org.apache.ibatis.session.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *  延迟加载代理对象的创建开销，与 DefaultObjectFactory 直接创建对象对比
+ *
+ *  mvn test-compile 之后运行 main 方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyCreationBenchmark {
+
+  private Configuration configuration;
+  private ObjectFactory objectFactory;
+  private ProxyFactory javassistProxyFactory;
+  private ProxyFactory cglibProxyFactory;
+  private Author target;
+  private List<Class<?>> constructorArgTypes;
+  private List<Object> constructorArgs;
+
+  @Setup
+  public void setup() {
+    configuration = new Configuration();
+    objectFactory = new DefaultObjectFactory();
+    javassistProxyFactory = new JavassistProxyFactory();
+    cglibProxyFactory = new CglibProxyFactory();
+    target = new Author(1, "author");
+    constructorArgTypes = new ArrayList<Class<?>>();
+    constructorArgs = new ArrayList<Object>();
+  }
+
+  @Benchmark
+  public Object defaultObjectFactory() {
+    return objectFactory.create(Author.class);
+  }
+
+  @Benchmark
+  public Object javassistProxy() {
+    return javassistProxyFactory.createProxy(target, new ResultLoaderMap(), configuration, objectFactory, constructorArgTypes, constructorArgs);
+  }
+
+  @Benchmark
+  public Object cglibProxy() {
+    return cglibProxyFactory.createProxy(target, new ResultLoaderMap(), configuration, objectFactory, constructorArgTypes, constructorArgs);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(ProxyCreationBenchmark.class.getSimpleName())
+        .build();
+    new Runner(options).run();
+  }
+
+  public static class Author {
+    private int id;
+    private String name;
+
+    public Author() {
+    }
+
+    public Author(int id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+  }
+
+}
@@ -0,0 +1,255 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.ibatis.FakeDatabase;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.junit.jupiter.api.Test;
+
+class CompiledRowMapperTest {
+
+  private static final String[] COLUMNS = { "ID", "USER_NAME", "AMOUNT", "ACTIVE", "NICK" };
+
+  private static final Object[][] ROWS = {
+      { 1, "alice", 10L, true, "al" },
+      { 2, null, null, null, null },
+      { 3, "carol", 30L, false, "cc" } };
+
+  @Test
+  void shouldMapTheSameObjectsAsTheReflectivePath() throws Exception {
+    for (boolean callSettersOnNulls : new boolean[] { false, true }) {
+      List<Object> reflective = map(false, callSettersOnNulls);
+      List<Object> compiled = map(true, callSettersOnNulls);
+      assertEquals(3, compiled.size());
+      assertEquals(describe(reflective), describe(compiled));
+    }
+  }
+
+  @Test
+  void shouldReuseCompiledMappersAcrossExecutions() throws Exception {
+    Configuration configuration = newConfiguration(true, false);
+    MappedStatement ms = newMappedStatement(configuration);
+    FakeDatabase database = FakeDatabase.create("compiledRowMapper");
+    database.on("select", FakeDatabase.rows(COLUMNS, ROWS));
+    handle(ms, database);
+    ResultSetLayout layout = ms.getResultSetLayout(fingerprint(COLUMNS, Types.INTEGER, Types.VARCHAR, Types.BIGINT, Types.BOOLEAN, Types.VARCHAR));
+    assertNotNull(layout);
+    assertEquals(1, layout.compiledRowMappers.size());
+    CompiledRowMapper rowMapper = layout.compiledRowMappers.values().iterator().next();
+    handle(ms, database);
+    assertSame(rowMapper, layout.compiledRowMappers.values().iterator().next());
+  }
+
+  @Test
+  void shouldNotKeepCompiledMappersBeyondTheLayoutLimit() throws Exception {
+    Configuration configuration = newConfiguration(true, false);
+    MappedStatement ms = newMappedStatement(configuration);
+    FakeDatabase database = FakeDatabase.create("compiledRowMapperLayouts");
+    List<CacheKey> fingerprints = new ArrayList<CacheKey>();
+    for (int i = 0; i < ResultSetLayout.MAX_LAYOUTS_PER_STATEMENT + 4; i++) {
+      // select * against a table that keeps gaining columns
+      String[] columns = new String[i + 2];
+      Object[] row = new Object[i + 2];
+      int[] types = new int[i + 2];
+      columns[0] = "ID";
+      row[0] = i;
+      types[0] = Types.INTEGER;
+      for (int c = 1; c < columns.length; c++) {
+        columns[c] = "EXTRA" + c;
+        row[c] = "x";
+        types[c] = Types.VARCHAR;
+      }
+      database.on("select", FakeDatabase.rows(columns, row));
+      List<Object> results = handle(ms, database);
+      assertEquals(i, ((Account) results.get(0)).getId());
+      fingerprints.add(fingerprint(columns, types));
+    }
+    for (int i = 0; i < fingerprints.size(); i++) {
+      ResultSetLayout layout = ms.getResultSetLayout(fingerprints.get(i));
+      if (i < ResultSetLayout.MAX_LAYOUTS_PER_STATEMENT) {
+        assertEquals(1, layout.compiledRowMappers.size());
+      } else {
+        assertNull(layout);
+      }
+    }
+  }
+
+  @Test
+  void shouldFallBackForDottedAutoMappedColumns() throws Exception {
+    String[] columns = { "ID", "profile.city" };
+    for (boolean compiled : new boolean[] { false, true }) {
+      Configuration configuration = newConfiguration(compiled, false);
+      FakeDatabase database = FakeDatabase.create("compiledRowMapperDotted" + compiled);
+      database.on("select", FakeDatabase.rows(columns, new Object[] { 1, "oslo" }));
+      Account account = (Account) handle(newMappedStatement(configuration), database).get(0);
+      assertEquals(1, account.getId());
+      assertNotNull(account.getProfile());
+      assertEquals("oslo", account.getProfile().getCity());
+    }
+  }
+
+  private List<Object> map(boolean compiled, boolean callSettersOnNulls) throws SQLException {
+    Configuration configuration = newConfiguration(compiled, callSettersOnNulls);
+    FakeDatabase database = FakeDatabase.create("compiledRowMapper" + compiled);
+    database.on("select", FakeDatabase.rows(COLUMNS, ROWS));
+    return handle(newMappedStatement(configuration), database);
+  }
+
+  private static Configuration newConfiguration(boolean compiled, boolean callSettersOnNulls) {
+    Configuration configuration = new Configuration();
+    configuration.setCompiledRowMappingEnabled(compiled);
+    configuration.setCallSettersOnNulls(callSettersOnNulls);
+    configuration.setMapUnderscoreToCamelCase(true);
+    return configuration;
+  }
+
+  private static MappedStatement newMappedStatement(Configuration configuration) {
+    List<ResultMapping> mappings = new ArrayList<ResultMapping>();
+    mappings.add(new ResultMapping.Builder(configuration, "nickname", "NICK", String.class).build());
+    ResultMap resultMap = new ResultMap.Builder(configuration, "accountMap", Account.class, mappings, true).build();
+    return new MappedStatement.Builder(configuration, "selectAccounts", new StaticSqlSource(configuration, "select * from account"),
+        SqlCommandType.SELECT).resultMaps(Collections.singletonList(resultMap)).build();
+  }
+
+  private static List<Object> handle(MappedStatement ms, FakeDatabase database) throws SQLException {
+    Connection connection = database.getConnection();
+    try {
+      Statement stmt = connection.createStatement();
+      stmt.execute("select * from account");
+      return new DefaultResultSetHandler(null, ms, null, null, null, RowBounds.DEFAULT).handleResultSets(stmt);
+    } finally {
+      connection.close();
+    }
+  }
+
+  private static CacheKey fingerprint(String[] columns, int... types) {
+    List<Integer> columnTypes = new ArrayList<Integer>();
+    for (int type : types) {
+      columnTypes.add(type);
+    }
+    return ResultSetLayout.fingerprint(Arrays.asList(columns), columnTypes);
+  }
+
+  private static List<String> describe(List<Object> accounts) {
+    List<String> descriptions = new ArrayList<String>();
+    for (Object object : accounts) {
+      Account account = (Account) object;
+      descriptions.add(account.getId() + "|" + account.getUserName() + "|" + account.getAmount() + "|" + account.isActive() + "|"
+          + account.getNickname() + "|" + account.nullSetterCalls);
+    }
+    return descriptions;
+  }
+
+  public static class Account {
+    private int id;
+    private String userName;
+    private Long amount;
+    private boolean active;
+    private String nickname;
+    private Profile profile;
+    private int nullSetterCalls;
+
+    public int getId() {
+      return id;
+    }
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public String getUserName() {
+      return userName;
+    }
+
+    public void setUserName(String userName) {
+      if (userName == null) {
+        nullSetterCalls++;
+      }
+      this.userName = userName;
+    }
+
+    public Long getAmount() {
+      return amount;
+    }
+
+    public void setAmount(Long amount) {
+      if (amount == null) {
+        nullSetterCalls++;
+      }
+      this.amount = amount;
+    }
+
+    public boolean isActive() {
+      return active;
+    }
+
+    public void setActive(boolean active) {
+      this.active = active;
+    }
+
+    public String getNickname() {
+      return nickname;
+    }
+
+    public void setNickname(String nickname) {
+      if (nickname == null) {
+        nullSetterCalls++;
+      }
+      this.nickname = nickname;
+    }
+
+    public Profile getProfile() {
+      return profile;
+    }
+
+    public void setProfile(Profile profile) {
+      this.profile = profile;
+    }
+  }
+
+  public static class Profile {
+    private String city;
+
+    public String getCity() {
+      return city;
+    }
+
+    public void setCity(String city) {
+      this.city = city;
+    }
+  }
+}
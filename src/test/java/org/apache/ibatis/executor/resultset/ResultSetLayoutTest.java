@@ -0,0 +1,180 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.executor.resultset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ibatis.FakeDatabase;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ResultSetLayoutTest {
+
+  private final AtomicInteger classNameLookups = new AtomicInteger();
+
+  private Configuration configuration;
+  private MappedStatement ms;
+  private ResultMap resultMap;
+  private FakeDatabase database;
+  private Connection connection;
+
+  @BeforeEach
+  void setUp() throws SQLException {
+    configuration = new Configuration();
+    resultMap = new ResultMap.Builder(configuration, "userMap", Object.class, Collections.singletonList(
+        new ResultMapping.Builder(configuration, "name", "NAME", String.class).build())).build();
+    ms = new MappedStatement.Builder(configuration, "selectUsers", new StaticSqlSource(configuration, "select * from users"),
+        SqlCommandType.SELECT).resultMaps(Collections.singletonList(resultMap)).build();
+    database = FakeDatabase.create("resultSetLayout");
+    connection = database.getConnection();
+  }
+
+  @AfterEach
+  void tearDown() throws SQLException {
+    connection.close();
+  }
+
+  @Test
+  void shouldAnalyzeTheColumnsOfALayoutOnce() throws SQLException {
+    database.on("select", FakeDatabase.rows(new String[] { "ID", "NAME" }, new Object[] { 1, "a" }));
+    ResultSetWrapper first = new ResultSetWrapper(query(), configuration, ms);
+    assertEquals(Arrays.asList("NAME"), first.getMappedColumnNames(resultMap, null));
+    assertEquals(Arrays.asList("ID"), first.getUnmappedColumnNames(resultMap, null));
+    assertEquals(2, classNameLookups.get());
+
+    ResultSetWrapper second = new ResultSetWrapper(query(), configuration, ms);
+    assertEquals(2, classNameLookups.get());
+    assertSame(first.getColumnNames(), second.getColumnNames());
+    assertSame(first.getMappedColumnNames(resultMap, null), second.getMappedColumnNames(resultMap, null));
+    assertSame(first.getUnmappedColumnNames(resultMap, null), second.getUnmappedColumnNames(resultMap, null));
+    assertSame(first.getTypeHandler(Integer.class, "ID"), second.getTypeHandler(Integer.class, "ID"));
+    assertEquals(Arrays.asList(Integer.class.getName(), String.class.getName()), second.getClassNames());
+  }
+
+  @Test
+  void shouldAnalyzeAChangedLayoutAgain() throws SQLException {
+    database.on("select", FakeDatabase.rows(new String[] { "ID", "NAME" }, new Object[] { 1, "a" }));
+    ResultSetWrapper first = new ResultSetWrapper(query(), configuration, ms);
+    // same column names, different types
+    database.on("select", FakeDatabase.rows(new String[] { "ID", "NAME" }, new Object[] { 1L, "a" }));
+    ResultSetWrapper second = new ResultSetWrapper(query(), configuration, ms);
+    assertEquals(4, classNameLookups.get());
+    assertNotSame(first.getColumnNames(), second.getColumnNames());
+    assertEquals(Integer.class.getName(), first.getClassNames().get(0));
+    assertEquals(Long.class.getName(), second.getClassNames().get(0));
+  }
+
+  @Test
+  void shouldNotConfuseLayoutsWhoseLabelsContainSeparators() throws SQLException {
+    database.on("select", FakeDatabase.rows(new String[] { "A", "B:12,C" }, new Object[] { 1, "x" }));
+    ResultSetWrapper first = new ResultSetWrapper(query(), configuration, ms);
+    // joined as "name:type" pairs both layouts read 2,A:4,B:12,C:12
+    database.on("select", FakeDatabase.rows(new String[] { "A:4,B", "C" }, new Object[] { "x", "y" }));
+    ResultSetWrapper second = new ResultSetWrapper(query(), configuration, ms);
+    assertEquals(Arrays.asList("A", "B:12,C"), first.getColumnNames());
+    assertEquals(Arrays.asList("A:4,B", "C"), second.getColumnNames());
+  }
+
+  @Test
+  void shouldNotCacheMoreLayoutsThanTheLimit() throws SQLException {
+    for (int i = 0; i < ResultSetLayout.MAX_LAYOUTS_PER_STATEMENT + 1; i++) {
+      String[] columns = new String[i + 1];
+      Object[] row = new Object[i + 1];
+      for (int c = 0; c <= i; c++) {
+        columns[c] = "C" + c;
+        row[c] = c;
+      }
+      database.on("select", FakeDatabase.rows(columns, row));
+      ResultSetWrapper rsw = new ResultSetWrapper(query(), configuration, ms);
+      assertEquals(Arrays.asList(columns), rsw.getColumnNames());
+      CacheKey fingerprint = ResultSetLayout.fingerprint(rsw.getColumnNames(), new ArrayList<Integer>(Collections.nCopies(i + 1, Types.INTEGER)));
+      if (i < ResultSetLayout.MAX_LAYOUTS_PER_STATEMENT) {
+        assertEquals(Arrays.asList(columns), ms.getResultSetLayout(fingerprint).columnNames);
+      } else {
+        assertNull(ms.getResultSetLayout(fingerprint));
+      }
+    }
+  }
+
+  @Test
+  void shouldNotShareLayoutsWithoutAStatement() throws SQLException {
+    database.on("select", FakeDatabase.rows(new String[] { "ID" }, new Object[] { 1 }));
+    ResultSetWrapper first = new ResultSetWrapper(query(), configuration);
+    ResultSetWrapper second = new ResultSetWrapper(query(), configuration);
+    assertNotSame(first.getColumnNames(), second.getColumnNames());
+    assertEquals(2, classNameLookups.get());
+  }
+
+  /**
+   * Runs the query and counts the getColumnClassName calls made on its metadata.
+   */
+  private ResultSet query() throws SQLException {
+    Statement stmt = connection.createStatement();
+    final ResultSet rs = stmt.executeQuery("select * from users");
+    return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("getMetaData".equals(method.getName())) {
+          final ResultSetMetaData metaData = rs.getMetaData();
+          return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSetMetaData.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+              if ("getColumnClassName".equals(method.getName())) {
+                classNameLookups.incrementAndGet();
+              }
+              return invokeOn(metaData, method, args);
+            }
+          });
+        }
+        return invokeOn(rs, method, args);
+      }
+    });
+  }
+
+  private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+}
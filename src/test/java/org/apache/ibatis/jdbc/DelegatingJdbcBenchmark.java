@@ -0,0 +1,211 @@
+/**
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.logging.Log;
+import org.apache.ibatis.logging.jdbc.PreparedStatementLogger;
+import org.apache.ibatis.logging.jdbc.ResultSetLogger;
+import org.apache.ibatis.logging.nologging.NoLoggingImpl;
+import org.apache.ibatis.reflection.ExceptionUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *  每次 JDBC 调用经过包装层的开销： java.lang.reflect.Proxy 动态代理（连接池和日志原来的实现方式）
+ *    与委托模式的包装类对比，被包装的是什么也不做的 JDBC 对象
+ *
+ *  mvn test-compile 之后运行 main 方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DelegatingJdbcBenchmark {
+
+  private Connection proxyConnection;
+  private Connection delegatingConnection;
+  private PreparedStatement proxyStatement;
+  private PreparedStatement delegatingStatement;
+  private PreparedStatement loggingStatement;
+  private ResultSet proxyResultSet;
+  private ResultSet delegatingResultSet;
+  private ResultSet loggingResultSet;
+
+  @Setup
+  public void setup() {
+    final Connection connection = new StubConnection();
+    final PreparedStatement statement = new StubPreparedStatement();
+    final ResultSet resultSet = new StubResultSet();
+    final Log log = new NoLoggingImpl("benchmark");
+
+    proxyConnection = forwardingProxy(Connection.class, connection);
+    delegatingConnection = new DelegatingConnection() {
+      @Override
+      protected Connection getDelegate() {
+        return connection;
+      }
+    };
+
+    proxyStatement = forwardingProxy(PreparedStatement.class, statement);
+    delegatingStatement = new DelegatingPreparedStatement() {
+      @Override
+      protected PreparedStatement getDelegate() {
+        return statement;
+      }
+    };
+    loggingStatement = PreparedStatementLogger.newInstance(statement, log, 1);
+
+    proxyResultSet = forwardingProxy(ResultSet.class, resultSet);
+    delegatingResultSet = new DelegatingResultSet() {
+      @Override
+      protected ResultSet getDelegate() {
+        return resultSet;
+      }
+    };
+    loggingResultSet = ResultSetLogger.newInstance(resultSet, log, 1);
+  }
+
+  @Benchmark
+  public boolean proxyConnection() throws SQLException {
+    return proxyConnection.getAutoCommit();
+  }
+
+  @Benchmark
+  public boolean delegatingConnection() throws SQLException {
+    return delegatingConnection.getAutoCommit();
+  }
+
+  @Benchmark
+  public int proxyStatement() throws SQLException {
+    proxyStatement.setInt(1, 1);
+    return proxyStatement.executeUpdate();
+  }
+
+  @Benchmark
+  public int delegatingStatement() throws SQLException {
+    delegatingStatement.setInt(1, 1);
+    return delegatingStatement.executeUpdate();
+  }
+
+  @Benchmark
+  public int loggingStatement() throws SQLException {
+    loggingStatement.setInt(1, 1);
+    return loggingStatement.executeUpdate();
+  }
+
+  @Benchmark
+  public String proxyResultSet() throws SQLException {
+    return proxyResultSet.getString(1);
+  }
+
+  @Benchmark
+  public String delegatingResultSet() throws SQLException {
+    return delegatingResultSet.getString(1);
+  }
+
+  @Benchmark
+  public String loggingResultSet() throws SQLException {
+    return loggingResultSet.getString(1);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(DelegatingJdbcBenchmark.class.getSimpleName())
+        .build();
+    new Runner(options).run();
+  }
+
+  /**
+   *  与原来的 PooledConnection、ConnectionLogger 一样，通过反射把调用转发给被代理的对象
+   * */
+  private static <T> T forwardingProxy(Class<T> type, final T target) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        try {
+          return method.invoke(target, args);
+        } catch (Throwable t) {
+          throw ExceptionUtil.unwrapThrowable(t);
+        }
+      }
+    }));
+  }
+
+  private static class StubConnection extends DelegatingConnection {
+    @Override
+    protected Connection getDelegate() throws SQLException {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public boolean getAutoCommit() {
+      return true;
+    }
+  }
+
+  private static class StubPreparedStatement extends DelegatingPreparedStatement {
+    @Override
+    protected PreparedStatement getDelegate() throws SQLException {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void setInt(int parameterIndex, int x) {
+    }
+
+    @Override
+    public int executeUpdate() {
+      return 1;
+    }
+  }
+
+  private static class StubResultSet extends DelegatingResultSet {
+    @Override
+    protected ResultSet getDelegate() throws SQLException {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+      return "value";
+    }
+  }
+
+}
@@ -15,19 +15,29 @@
  */
 package org.apache.ibatis.logging.jdbc;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.contains;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.math.BigDecimal;
+import java.sql.CallableStatement;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import org.apache.ibatis.FakeDatabase;
 import org.apache.ibatis.logging.Log;
 import org.apache.ibatis.logging.jdbc.PreparedStatementLogger;
 import org.apache.ibatis.type.JdbcType;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -49,9 +59,24 @@ class PreparedStatementLoggerTest {
 
   private PreparedStatement ps;
 
+  private FakeDatabase database;
+  private RecordingLog recordingLog;
+  private Connection connection;
+
   @BeforeEach
   void setUp() throws SQLException {
     ps = PreparedStatementLogger.newInstance(this.preparedStatement, log, 1);
+
+    database = FakeDatabase.create("preparedStatementLogger");
+    database.on("update", FakeDatabase.updateCount(2));
+    database.on("select", FakeDatabase.rows(new String[] { "id", "name" }, new Object[] { 1, "a" }, new Object[] { 2, "b" }));
+    recordingLog = new RecordingLog();
+    connection = ConnectionLogger.newInstance(database.getConnection(), recordingLog, 0);
+  }
+
+  @AfterEach
+  void tearDown() throws SQLException {
+    connection.close();
   }
 
   @Test
@@ -96,4 +121,101 @@ class PreparedStatementLoggerTest {
 
     verify(log).debug(contains("Updates: 1"));
   }
+
+  @Test
+  void shouldLogIndexedParametersAndUpdateCount() throws SQLException {
+    PreparedStatement statement = connection.prepareStatement("update users\n  set name = ?, age = ?, score = ?\n where id = ?");
+    statement.setString(1, "a");
+    statement.setInt(2, 30);
+    statement.setBigDecimal(3, new BigDecimal("1.5"));
+    statement.setNull(4, Types.INTEGER);
+    statement.execute();
+    statement.getUpdateCount();
+    statement.close();
+    assertEquals(Arrays.asList(
+        "==>  Preparing: update users set name = ?, age = ?, score = ? where id = ? ",
+        "==> Parameters: a(String), 30(Integer), 1.5(BigDecimal), null",
+        "<==    Updates: 2"), recordingLog.lines);
+  }
+
+  @Test
+  void shouldLogNamedParametersOfCallableStatements() throws SQLException {
+    CallableStatement statement = connection.prepareCall("{call update_user(?, ?, ?)}");
+    statement.registerOutParameter(3, Types.INTEGER);
+    statement.setString("name", "a");
+    statement.setLong("id", 7L);
+    statement.setNull("note", Types.VARCHAR);
+    statement.setObject("age", 30, Types.INTEGER);
+    statement.executeUpdate();
+    statement.close();
+    assertEquals(Arrays.asList(
+        "==>  Preparing: {call update_user(?, ?, ?)} ",
+        "==> Parameters: a(String), 7(Long), null, 30(Integer)"), recordingLog.lines);
+  }
+
+  @Test
+  void shouldLogEachBatchAndTheRowsOfAQuery() throws SQLException {
+    recordingLog.trace = true;
+    PreparedStatement statement = connection.prepareStatement("select id, name from users where name = ?");
+    statement.setString(1, "a");
+    statement.addBatch();
+    statement.setString(1, "b");
+    statement.addBatch();
+    statement.setString(1, "c");
+    ResultSet rs = statement.executeQuery();
+    while (rs.next()) {
+      rs.getString("name");
+    }
+    rs.close();
+    statement.close();
+    assertEquals(Arrays.asList(
+        "==>  Preparing: select id, name from users where name = ? ",
+        "==> Parameters: a(String)",
+        "==> Parameters: b(String)",
+        "==> Parameters: c(String)",
+        "<==    Columns: id, name",
+        "<==        Row: 1, a",
+        "<==        Row: 2, b",
+        "<==      Total: 2"), recordingLog.lines);
+  }
+
+  private static class RecordingLog implements Log {
+    private final List<String> lines = new ArrayList<String>();
+    private boolean trace;
+
+    @Override
+    public boolean isDebugEnabled() {
+      return true;
+    }
+
+    @Override
+    public boolean isTraceEnabled() {
+      return trace;
+    }
+
+    @Override
+    public void error(String s, Throwable e) {
+      lines.add(s);
+    }
+
+    @Override
+    public void error(String s) {
+      lines.add(s);
+    }
+
+    @Override
+    public void debug(String s) {
+      lines.add(s);
+    }
+
+    @Override
+    public void trace(String s) {
+      lines.add(s);
+    }
+
+    @Override
+    public void warn(String s) {
+      lines.add(s);
+    }
+  }
 }
@@ -0,0 +1,196 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.FakeDatabase;
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.executor.ExecutorException;
+import org.apache.ibatis.executor.keygen.SelectKeyGenerator;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.Test;
+
+class ChunkedForEachTest {
+
+  private static final String IN_LIST = "select * from t where name = #{name} and id in "
+      + "<foreach collection='ids' item='id' index='i' open='(' close=')' separator=','%s>#{id}</foreach>";
+
+  @Test
+  void shouldNotChunkCollectionsWithinChunkSize() {
+    BoundSql boundSql = createSqlSource(64, String.format(IN_LIST, " chunkSize='3'")).getBoundSql(param(1, 2, 3));
+    assertNull(boundSql.getChunks());
+    assertEquals("select * from t where name = ? and id in  (  ? , ? , ? )", boundSql.getSql());
+  }
+
+  @Test
+  void shouldGenerateOneBoundSqlPerChunk() {
+    for (String positional : new String[] { "", " positional='true'" }) {
+      SqlSource sqlSource = createSqlSource(64, String.format(IN_LIST, " chunkSize='3' chunkBatch='true'" + positional));
+      assertTrue(((DynamicSqlSource) sqlSource).isChunked());
+      BoundSql boundSql = sqlSource.getBoundSql(param(1, 2, 3, 4, 5, 6, 7));
+      List<BoundSql> chunks = boundSql.getChunks();
+      assertEquals(3, chunks.size());
+      assertSame(boundSql, chunks.get(0));
+      assertTrue(boundSql.isChunkBatch());
+      assertEquals("select * from t where name = ? and id in  (  ? , ? , ? )", chunks.get(0).getSql());
+      assertEquals(chunks.get(0).getSql(), chunks.get(1).getSql());
+      assertEquals("select * from t where name = ? and id in  (  ? )", chunks.get(2).getSql());
+      assertEquals(Arrays.<Object>asList(4, 5, 6), values(chunks.get(1)));
+      assertEquals(Arrays.<Object>asList(7), values(chunks.get(2)));
+    }
+  }
+
+  @Test
+  void shouldReadEachElementOnceAcrossChunks() {
+    final List<Object> ids = Arrays.<Object>asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+    final int[] reads = new int[1];
+    Map<String, Object> param = param();
+    param.put("ids", new AbstractList<Object>() {
+      @Override
+      public Object get(int index) {
+        reads[0]++;
+        return ids.get(index);
+      }
+
+      @Override
+      public int size() {
+        return ids.size();
+      }
+    });
+    for (String positional : new String[] { "", " positional='true'" }) {
+      reads[0] = 0;
+      List<BoundSql> chunks = createSqlSource(64, String.format(IN_LIST, " chunkSize='3'" + positional)).getBoundSql(param).getChunks();
+      assertEquals(4, chunks.size());
+      assertEquals(Arrays.<Object>asList(7, 8, 9), values(chunks.get(2)));
+      assertEquals(Arrays.<Object>asList(10), values(chunks.get(3)));
+      // every chunk iterates its own window only
+      assertEquals(ids.size(), reads[0]);
+    }
+  }
+
+  @Test
+  void shouldChunkCollectionsWithoutIndexedAccess() {
+    Map<String, Object> param = param();
+    param.put("ids", new LinkedHashSet<Object>(Arrays.<Object>asList(5, 4, 3, 2, 1)));
+    List<BoundSql> chunks = createSqlSource(64, String.format(IN_LIST, " chunkSize='2'")).getBoundSql(param).getChunks();
+    assertEquals(3, chunks.size());
+    assertEquals(Arrays.<Object>asList(5, 4), values(chunks.get(0)));
+    assertEquals(Arrays.<Object>asList(3, 2), values(chunks.get(1)));
+    assertEquals(Arrays.<Object>asList(1), values(chunks.get(2)));
+  }
+
+  @Test
+  void shouldRejectTwoChunkedCollections() {
+    SqlSource sqlSource = createSqlSource(0, String.format(IN_LIST, " chunkSize='2'")
+        + " or id in <foreach collection='ids' item='id' open='(' close=')' separator=',' chunkSize='2'>#{id}</foreach>");
+    assertNull(sqlSource.getBoundSql(param(1, 2)).getChunks());
+    assertThrows(BuilderException.class, () -> sqlSource.getBoundSql(param(1, 2, 3)));
+  }
+
+  @Test
+  void shouldNotCompileChunkedForEach() {
+    Configuration configuration = new Configuration();
+    configuration.setCompiledDynamicSqlEnabled(true);
+    SqlSource sqlSource = new XMLLanguageDriver().createSqlSource(configuration,
+        "<script>" + String.format(IN_LIST, " chunkSize='2'") + "</script>", Map.class);
+    assertTrue(sqlSource instanceof DynamicSqlSource);
+  }
+
+  @Test
+  void shouldRejectChunksBeforeSelectingTheKey() {
+    FakeDatabase database = FakeDatabase.create("chunkedSelectKey");
+    database.on("select next value", FakeDatabase.rows(new String[] { "id" }, new Object[] { 7 }));
+    database.on("insert", FakeDatabase.updateCount(1));
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), database));
+    XMLLanguageDriver languageDriver = new XMLLanguageDriver();
+    ResultMap resultMap = new ResultMap.Builder(configuration, "insertIds!selectKey-Inline", Integer.class, new ArrayList<ResultMapping>()).build();
+    MappedStatement keyStatement = new MappedStatement.Builder(configuration, "insertIds!selectKey",
+        languageDriver.createSqlSource(configuration, "select next value for batch_ids", Map.class), SqlCommandType.SELECT)
+        .resultMaps(Collections.singletonList(resultMap)).keyProperty("batch").build();
+    SqlSource insert = languageDriver.createSqlSource(configuration, "<script>insert into copies (batch, id) select #{batch}, id from t where id in "
+        + "<foreach collection='ids' item='id' open='(' close=')' separator=',' chunkSize='2'>#{id}</foreach></script>", Map.class);
+    configuration.addMappedStatement(new MappedStatement.Builder(configuration, "insertIds", insert, SqlCommandType.INSERT)
+        .keyGenerator(new SelectKeyGenerator(keyStatement, true)).keyProperty("batch").build());
+    final SqlSession sqlSession = new DefaultSqlSessionFactory(configuration).openSession();
+    try {
+      final Map<String, Object> chunked = param(1, 2, 3);
+      PersistenceException e = assertThrows(PersistenceException.class, () -> sqlSession.insert("insertIds", chunked));
+      assertTrue(e.getCause() instanceof ExecutorException, String.valueOf(e.getCause()));
+      // the key was never selected for the rejected statement
+      assertEquals(Collections.emptyList(), database.getLog());
+      assertNull(chunked.get("batch"));
+
+      Map<String, Object> single = param(1, 2);
+      assertEquals(1, sqlSession.insert("insertIds", single));
+      assertEquals(7, single.get("batch"));
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(Arrays.asList("select next value for batch_ids []",
+        "insert into copies (batch, id) select ?, id from t where id in  (  ? , ? ) [7, 1, 2]"), database.getLog());
+  }
+
+  private static Map<String, Object> param(Object... ids) {
+    Map<String, Object> param = new HashMap<String, Object>();
+    param.put("name", "x");
+    param.put("ids", Arrays.asList(ids));
+    return param;
+  }
+
+  private static List<Object> values(BoundSql boundSql) {
+    List<Object> values = new ArrayList<Object>();
+    for (int i = 1; i < boundSql.getParameterMappings().size(); i++) {
+      if (boundSql.hasPositionalValue(i)) {
+        values.add(boundSql.getPositionalValue(i));
+      } else {
+        values.add(boundSql.getAdditionalParameter(boundSql.getParameterMappings().get(i).getProperty()));
+      }
+    }
+    return values;
+  }
+
+  private SqlSource createSqlSource(int shapeCacheSize, String script) {
+    Configuration configuration = new Configuration();
+    configuration.setDynamicSqlShapeCacheSize(shapeCacheSize);
+    return new XMLLanguageDriver().createSqlSource(configuration, "<script>" + script + "</script>", Map.class);
+  }
+
+}
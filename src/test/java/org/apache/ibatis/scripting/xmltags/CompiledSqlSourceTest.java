@@ -0,0 +1,111 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.Test;
+
+class CompiledSqlSourceTest {
+
+  @Test
+  void shouldMatchDynamicSqlForConditionsAndTrim() {
+    Map<String, Object> all = new HashMap<String, Object>();
+    all.put("id", 1);
+    all.put("name", "x");
+    Map<String, Object> none = new HashMap<String, Object>();
+    String script = "select * from t <where><if test='id != null'>and id = #{id}</if>"
+        + "<if test='name != null'> AND name = #{name,jdbcType=VARCHAR}</if></where>";
+    assertSameBoundSql(script, all, none);
+    assertSameBoundSql("update t <set><if test='name != null'>name = #{name},</if></set> where id = #{id}", all, none);
+    assertSameBoundSql("select * from t <choose><when test='id == 1'>where id = #{id}</when>"
+        + "<otherwise>where 1 = 1</otherwise></choose>", all, none);
+  }
+
+  @Test
+  void shouldMatchDynamicSqlForNestedForEach() {
+    Map<String, Object> param = new HashMap<String, Object>();
+    param.put("ids", Arrays.asList(1, 2, 3));
+    param.put("names", Arrays.asList("a", "b"));
+    Map<String, Object> extra = new LinkedHashMap<String, Object>();
+    extra.put("k1", "v1");
+    extra.put("k2", 2);
+    param.put("extra", extra);
+    assertSameBoundSql("select * from t where id in <foreach collection='ids' item='i' open='(' close=')' separator=','>#{i}</foreach>", param);
+    assertSameBoundSql("select * from t where <foreach collection='names' item='n' separator=' or '>"
+        + "<foreach collection='ids' item='i' index='x' separator=' and '>(#{n} = #{i} ${x} #{x})</foreach></foreach>", param);
+    assertSameBoundSql("select * from t where <foreach collection='extra' item='v' index='k' separator=' and '>${k} = #{v}</foreach>", param);
+  }
+
+  @Test
+  void shouldMatchDynamicSqlForBindAndSimpleParameters() {
+    Map<String, Object> param = new HashMap<String, Object>();
+    param.put("name", "x");
+    assertSameBoundSql("<bind name='pattern' value=\"'%' + name + '%'\"/>select * from t where name like #{pattern}", param);
+    assertSameBoundSql("select * from ${value} where x = #{value}", 3, null);
+  }
+
+  @Test
+  void shouldFallBackToDynamicSqlSourceWhenNotCompilable() {
+    Configuration configuration = new Configuration();
+    configuration.setCompiledDynamicSqlEnabled(true);
+    SqlSource escaped = createSqlSource(configuration, "<foreach collection='list' item='i'>\\#{i}</foreach>");
+    SqlSource openPlaceholder = createSqlSource(configuration, "<foreach collection='list' item='i' open='#{x}'>a</foreach>");
+    assertTrue(escaped instanceof DynamicSqlSource);
+    assertTrue(openPlaceholder instanceof DynamicSqlSource);
+  }
+
+  private void assertSameBoundSql(String script, Object... parameters) {
+    Configuration dynamicConfiguration = new Configuration();
+    Configuration compiledConfiguration = new Configuration();
+    compiledConfiguration.setCompiledDynamicSqlEnabled(true);
+    SqlSource dynamic = createSqlSource(dynamicConfiguration, script);
+    SqlSource compiled = createSqlSource(compiledConfiguration, script);
+    assertTrue(compiled instanceof CompiledSqlSource);
+    for (Object parameter : parameters) {
+      assertEquals(describe(dynamic.getBoundSql(parameter)), describe(compiled.getBoundSql(parameter)));
+    }
+  }
+
+  private SqlSource createSqlSource(Configuration configuration, String script) {
+    return new XMLLanguageDriver().createSqlSource(configuration, "<script>" + script + "</script>", Object.class);
+  }
+
+  private String describe(BoundSql boundSql) {
+    StringBuilder description = new StringBuilder(boundSql.getSql());
+    List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+    for (ParameterMapping parameterMapping : parameterMappings) {
+      String property = parameterMapping.getProperty();
+      description.append(" | ").append(property)
+          .append(' ').append(parameterMapping.getJavaType().getName())
+          .append(' ').append(parameterMapping.getJdbcType())
+          .append(' ').append(boundSql.hasAdditionalParameter(property) ? boundSql.getAdditionalParameter(property) : "-");
+    }
+    return description.toString();
+  }
+
+}
@@ -0,0 +1,138 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.Test;
+
+class DynamicSqlSourceShapeCacheTest {
+
+  private static final String SCRIPT = "<script>select * from t <where><if test='name != null'>name = #{name}</if>"
+      + "<if test='ids != null'> and id in <foreach collection='ids' item='i' open='(' close=')' separator=','>#{i}</foreach></if>"
+      + "</where></script>";
+
+  @Test
+  void shouldReuseSqlAndMappingsForSameBranches() {
+    SqlSource sqlSource = createSqlSource(64);
+    BoundSql first = sqlSource.getBoundSql(param("a", 1, 2));
+    BoundSql second = sqlSource.getBoundSql(param("b", 3, 4));
+    assertSame(first.getSql(), second.getSql());
+    assertSame(first.getParameterMappings(), second.getParameterMappings());
+    assertEquals(3, second.getAdditionalParameter("__frch_i_0"));
+    assertEquals(4, second.getAdditionalParameter("__frch_i_1"));
+  }
+
+  @Test
+  void shouldNotReuseShapeForDifferentBranches() {
+    SqlSource sqlSource = createSqlSource(64);
+    BoundSql twoIds = sqlSource.getBoundSql(param("a", 1, 2));
+    BoundSql threeIds = sqlSource.getBoundSql(param("a", 1, 2, 3));
+    BoundSql noName = sqlSource.getBoundSql(param(null, 1, 2));
+    assertEquals("select * from t  WHERE name = ? and id in (?,?)", twoIds.getSql());
+    assertEquals("select * from t  WHERE name = ? and id in (?,?,?)", threeIds.getSql());
+    assertEquals("select * from t  WHERE  id in (?,?)", noName.getSql());
+  }
+
+  @Test
+  void shouldRebuildMappingsWhenBoundValueTypesChange() {
+    SqlSource sqlSource = createSqlSource(64);
+    BoundSql numbers = sqlSource.getBoundSql(param("a", 1, 2));
+    BoundSql strings = sqlSource.getBoundSql(param("a", "x", "y"));
+    assertNotSame(numbers.getParameterMappings(), strings.getParameterMappings());
+    assertEquals(Integer.class, numbers.getParameterMappings().get(1).getJavaType());
+    assertEquals(String.class, strings.getParameterMappings().get(1).getJavaType());
+  }
+
+  @Test
+  void shouldEvictTheLeastRecentlyUsedShape() {
+    SqlSource sqlSource = createSqlSource(2);
+    BoundSql one = sqlSource.getBoundSql(param("a", 1));
+    BoundSql two = sqlSource.getBoundSql(param("a", 1, 2));
+    // touching the first shape makes the second one the eldest
+    assertSame(one.getSql(), sqlSource.getBoundSql(param("b", 3)).getSql());
+    BoundSql three = sqlSource.getBoundSql(param("a", 1, 2, 3));
+    // a shape seen after the cache filled up is admitted
+    assertSame(three.getSql(), sqlSource.getBoundSql(param("b", 4, 5, 6)).getSql());
+    assertSame(one.getSql(), sqlSource.getBoundSql(param("c", 7)).getSql());
+    assertNotSame(two.getSql(), sqlSource.getBoundSql(param("b", 3, 4)).getSql());
+  }
+
+  @Test
+  void shouldRecordTheIterationCountAsANumber() {
+    Configuration configuration = new Configuration();
+    SqlNode plain = new ForEachSqlNode(configuration, new StaticTextSqlNode("#{i}"), "ids", null, "i", "(", ")", ",");
+    SqlNode nested = new ForEachSqlNode(configuration, new IfSqlNode(new StaticTextSqlNode("#{i}"), "i > 1"), "ids", null, "i", "(", ")", ",");
+    List<Object> ids = new ArrayList<Object>(Collections.nCopies(1000, (Object) 2));
+    assertEquals("1000.", signature(configuration, plain, ids));
+    assertEquals("0.", signature(configuration, plain, Collections.emptyList()));
+    // inner branches still record one token per iteration
+    assertEquals("F+T+2.", signature(configuration, nested, Arrays.<Object>asList(1, 2)));
+    assertEquals("T+F+2.", signature(configuration, nested, Arrays.<Object>asList(2, 1)));
+  }
+
+  @Test
+  void shouldMatchUncachedSqlSource() {
+    SqlSource cached = createSqlSource(64);
+    SqlSource uncached = createSqlSource(0);
+    List<Map<String, Object>> params = Arrays.asList(param("a", 1), param(null), param("b", "x", 2L), param("a", 1));
+    for (Map<String, Object> param : params) {
+      BoundSql expected = uncached.getBoundSql(param);
+      BoundSql actual = cached.getBoundSql(param);
+      assertEquals(expected.getSql(), actual.getSql());
+      assertEquals(expected.getParameterMappings().size(), actual.getParameterMappings().size());
+      for (int i = 0; i < expected.getParameterMappings().size(); i++) {
+        assertEquals(expected.getParameterMappings().get(i).getProperty(), actual.getParameterMappings().get(i).getProperty());
+        assertEquals(expected.getParameterMappings().get(i).getJavaType(), actual.getParameterMappings().get(i).getJavaType());
+      }
+    }
+  }
+
+  private SqlSource createSqlSource(int shapeCacheSize) {
+    Configuration configuration = new Configuration();
+    configuration.setDynamicSqlShapeCacheSize(shapeCacheSize);
+    return new XMLLanguageDriver().createSqlSource(configuration, SCRIPT, Map.class);
+  }
+
+  private static String signature(Configuration configuration, SqlNode node, List<Object> ids) {
+    Map<String, Object> param = new HashMap<String, Object>();
+    param.put("ids", ids);
+    DynamicContext context = new DynamicContext(configuration, param);
+    context.recordBranchSignature();
+    node.apply(context);
+    return context.getBranchSignature().toString();
+  }
+
+  private Map<String, Object> param(String name, Object... ids) {
+    Map<String, Object> param = new HashMap<String, Object>();
+    param.put("name", name);
+    param.put("ids", ids.length == 0 ? null : Arrays.asList(ids));
+    return param;
+  }
+
+}
@@ -0,0 +1,119 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.session.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *  动态SQL节点的表达式求值开销： 每次通过 OgnlCache 计算（原来的实现方式）与预编译的内置表达式对比，
+ *    表达式取自测试用例的映射文件，参数为 DynamicContext 的 bindings
+ *
+ *  mvn test-compile 之后运行 main 方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+
+  private static final String[] EXPRESSIONS = {
+      "id != null",
+      "_databaseId == 'hsql'",
+      "conditions != null and conditions.id != null",
+      "type.toString() == 'EMPLOYEE'",
+      "name == 'DIRECTOR'",
+      "enabled",
+      "index != 0",
+      "list.size() > 0",
+      "'%' + name + '%'"
+  };
+
+  private Expression[] expressions;
+  private Map<String, Object> bindings;
+
+  @Setup
+  public void setup() {
+    expressions = new Expression[EXPRESSIONS.length];
+    for (int i = 0; i < EXPRESSIONS.length; i++) {
+      expressions[i] = Expression.compile(EXPRESSIONS[i]);
+    }
+    Map<String, Object> conditions = new HashMap<String, Object>();
+    conditions.put("id", 1);
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("id", 1);
+    parameter.put("conditions", conditions);
+    parameter.put("type", TimeUnit.SECONDS);
+    parameter.put("name", "DIRECTOR");
+    parameter.put("enabled", Boolean.TRUE);
+    parameter.put("index", 2);
+    parameter.put("list", new ArrayList<Integer>(Arrays.asList(1, 2, 3)));
+    Configuration configuration = new Configuration();
+    configuration.setDatabaseId("hsql");
+    bindings = new DynamicContext(configuration, parameter).getBindings();
+  }
+
+  @Benchmark
+  public int ognl() {
+    int taken = 0;
+    for (String expression : EXPRESSIONS) {
+      if (ExpressionParser.booleanValue(OgnlCache.getValue(expression, bindings))) {
+        taken++;
+      }
+    }
+    return taken;
+  }
+
+  @Benchmark
+  public int builtIn() {
+    int taken = 0;
+    for (Expression expression : expressions) {
+      if (ExpressionParser.booleanValue(expression.getValue(bindings))) {
+        taken++;
+      }
+    }
+    return taken;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(ExpressionBenchmark.class.getSimpleName())
+        .build();
+    new Runner(options).run();
+  }
+
+}
@@ -0,0 +1,186 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.Test;
+
+class ExpressionTest {
+
+  private static final String[] EXPRESSIONS = {
+      "id != null", "id == null", "_databaseId == 'hsql'", "author != null and author.id != null",
+      "author.section.toString() == 'SECONDS'", "name == 'DIRECTOR'", "enabled", "!enabled", "not enabled",
+      "index != 0", "index gt 1", "index lte 2L", "index == 2.0", "list.size() > 0", "list != null && !list.isEmpty()",
+      "'%' + name + '%'", "name or id", "name and id", "(id != null or name != null) and enabled",
+      "id == 'a'", "name == null || name == ''", "missing", "author.name", "author.active", "id + 1"
+  };
+
+  @Test
+  void shouldCompileSupportedSyntaxOnly() {
+    assertTrue(Expression.compile("id != null and list.size() > 0").isBuiltIn());
+    assertTrue(Expression.compile("not (a.b eq 'x' or c lt 10L)").isBuiltIn());
+    assertTrue(!Expression.compile("index % 2 != 0").isBuiltIn());
+    assertTrue(!Expression.compile("id in {1, 2}").isBuiltIn());
+    assertTrue(!Expression.compile("list[0] != null").isBuiltIn());
+    assertTrue(!Expression.compile("@java.lang.Math@abs(id)").isBuiltIn());
+    assertTrue(!Expression.compile("name.indexOf('a') > 0").isBuiltIn());
+    assertTrue(!Expression.compile("'it\\'s' == name").isBuiltIn());
+  }
+
+  @Test
+  void shouldMatchOgnlForMapAndBeanParameters() {
+    List<Object> parameters = new ArrayList<Object>();
+    for (Object id : Arrays.<Object>asList(null, 0, 2, 2L, 2.0, "a", 'a', Boolean.TRUE)) {
+      for (String name : Arrays.asList(null, "", "DIRECTOR")) {
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("id", id);
+        parameter.put("index", id);
+        parameter.put("name", name);
+        parameter.put("enabled", name != null);
+        parameter.put("list", name == null ? null : new ArrayList<Object>(Arrays.asList(name)));
+        parameter.put("author", id == null ? null : new Author(1, name, TimeUnit.SECONDS));
+        parameters.add(parameter);
+        parameters.add(new Author(id instanceof Integer ? (Integer) id : -1, name, null));
+      }
+    }
+    Configuration configuration = new Configuration();
+    configuration.setDatabaseId("hsql");
+    for (String text : EXPRESSIONS) {
+      Expression expression = Expression.compile(text);
+      for (Object parameter : parameters) {
+        Map<String, Object> bindings = new DynamicContext(configuration, parameter).getBindings();
+        assertEquals(evaluate(text, bindings), evaluate(expression, bindings), text + " with " + parameter);
+      }
+    }
+  }
+
+  @Test
+  void shouldReturnOperandsLikeOgnl() {
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("a", "x");
+    parameter.put("b", 0);
+    Map<String, Object> bindings = new DynamicContext(new Configuration(), parameter).getBindings();
+    assertEquals(0, Expression.compile("a and b").getValue(bindings));
+    assertEquals("x", Expression.compile("b or a").getValue(bindings));
+    assertEquals(Character.valueOf('x'), Expression.compile("'x'").getValue(bindings));
+    assertEquals("xy", Expression.compile("'xy'").getValue(bindings));
+    assertEquals(10L, Expression.compile("10L").getValue(bindings));
+    assertEquals("%x%", Expression.compile("'%' + a + '%'").getValue(bindings));
+  }
+
+  @Test
+  void shouldFailLikeOgnl() {
+    final Map<String, Object> bindings = new DynamicContext(new Configuration(), new HashMap<String, Object>()).getBindings();
+    assertThrows(BuilderException.class, () -> Expression.compile("missing.name").getValue(bindings));
+    assertThrows(NullPointerException.class, () -> Expression.compile("'%' + missing").getValue(bindings));
+  }
+
+  @Test
+  void shouldNotReevaluateWhenUserCodeThrows() {
+    final int[] calls = new int[2];
+    Map<String, Object> parameter = new HashMap<String, Object>();
+    parameter.put("author", new Author(1, "a", null) {
+      @Override
+      public String getName() {
+        calls[0]++;
+        throw new IllegalStateException("getter failed");
+      }
+    });
+    parameter.put("settings", new HashMap<String, Object>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public Object get(Object key) {
+        calls[1]++;
+        throw new UnsupportedOperationException("lookup failed");
+      }
+    });
+    final Map<String, Object> bindings = new DynamicContext(new Configuration(), parameter).getBindings();
+    BuilderException e = assertThrows(BuilderException.class, () -> Expression.compile("author.name != null").getValue(bindings));
+    assertTrue(e.getCause() instanceof IllegalStateException, String.valueOf(e.getCause()));
+    assertEquals(1, calls[0]);
+    assertThrows(UnsupportedOperationException.class, () -> Expression.compile("settings.timeout != null").getValue(bindings));
+    assertEquals(1, calls[1]);
+    // values the built-in engine does not handle still go to OGNL
+    assertEquals(2, Expression.compile("author.id + 1").getValue(bindings));
+  }
+
+  private static String evaluate(String expression, Object root) {
+    try {
+      return describe(OgnlCache.getValue(expression, root));
+    } catch (RuntimeException e) {
+      return e.getClass().getName() + ": " + e.getMessage();
+    }
+  }
+
+  private static String evaluate(Expression expression, Object root) {
+    try {
+      return describe(expression.getValue(root));
+    } catch (RuntimeException e) {
+      return e.getClass().getName() + ": " + e.getMessage();
+    }
+  }
+
+  private static String describe(Object value) {
+    return value == null ? "null" : value + ":" + value.getClass().getName();
+  }
+
+  public static class Author {
+    private final int id;
+    private final String name;
+    private final TimeUnit section;
+
+    Author(int id, String name, TimeUnit section) {
+      this.id = id;
+      this.name = name;
+      this.section = section;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public TimeUnit getSection() {
+      return section;
+    }
+
+    public boolean isActive() {
+      return name != null;
+    }
+
+    @Override
+    public String toString() {
+      return "Author " + id;
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.Test;
+
+class PaddedForEachTest {
+
+  private static final String IN_LIST = "select * from t where id in "
+      + "<foreach collection='ids' item='id' open='(' close=')' separator=','%s>#{id}</foreach>";
+
+  @Test
+  void shouldPadToPowersOfTwo() {
+    SqlSource sqlSource = createSqlSource(String.format(IN_LIST, " padding='powerOfTwo'"));
+    Set<String> statements = new HashSet<String>();
+    for (int size = 1; size <= 100; size++) {
+      BoundSql boundSql = sqlSource.getBoundSql(param(ids(size)));
+      statements.add(boundSql.getSql());
+      int expected = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+      assertEquals(expected, boundSql.getParameterMappings().size());
+      assertEquals(size - 1, value(boundSql, expected - 1));
+    }
+    assertEquals(8, statements.size());
+  }
+
+  @Test
+  void shouldPadToConfiguredStepsWithNulls() {
+    for (String positional : new String[] { "", " positional='true'" }) {
+      SqlSource sqlSource = createSqlSource(String.format(IN_LIST, " padding='4, 10' padWith='null'" + positional));
+      assertEquals(4, sqlSource.getBoundSql(param(ids(3))).getParameterMappings().size());
+      assertEquals(10, sqlSource.getBoundSql(param(ids(5))).getParameterMappings().size());
+      BoundSql boundSql = sqlSource.getBoundSql(param(ids(11)));
+      assertEquals(20, boundSql.getParameterMappings().size());
+      assertEquals(10, value(boundSql, 10));
+      assertEquals(null, value(boundSql, 11));
+      assertEquals(null, value(boundSql, 19));
+    }
+  }
+
+  @Test
+  void shouldPadMapEntriesAndLastChunk() {
+    Map<String, Object> entries = new LinkedHashMap<String, Object>();
+    entries.put("a", 1);
+    entries.put("b", 2);
+    entries.put("c", 3);
+    Map<String, Object> param = new HashMap<String, Object>();
+    param.put("entries", entries);
+    BoundSql entryBoundSql = createSqlSource("select * from t where <foreach collection='entries' item='v' index='k' separator=' or ' padding='powerOfTwo'>"
+        + "(k = #{k} and v = #{v})</foreach>").getBoundSql(param);
+    assertEquals(8, entryBoundSql.getParameterMappings().size());
+    assertEquals("c", value(entryBoundSql, 6));
+    assertEquals(3, value(entryBoundSql, 7));
+
+    BoundSql boundSql = createSqlSource(String.format(IN_LIST, " chunkSize='6' padding='powerOfTwo'")).getBoundSql(param(ids(13)));
+    List<BoundSql> chunks = boundSql.getChunks();
+    assertEquals(3, chunks.size());
+    assertEquals(6, chunks.get(0).getParameterMappings().size());
+    assertEquals(6, chunks.get(1).getParameterMappings().size());
+    assertEquals(1, chunks.get(2).getParameterMappings().size());
+    BoundSql last = createSqlSource(String.format(IN_LIST, " chunkSize='6' padding='powerOfTwo'")).getBoundSql(param(ids(17))).getChunks().get(2);
+    assertEquals(6, last.getParameterMappings().size());
+    assertEquals(16, value(last, 5));
+  }
+
+  @Test
+  void shouldRejectInvalidPadding() {
+    assertThrows(BuilderException.class, () -> createSqlSource(String.format(IN_LIST, " padding='10,5'")));
+    assertThrows(BuilderException.class, () -> createSqlSource(String.format(IN_LIST, " padding='pow2'")));
+  }
+
+  private static List<Object> ids(int size) {
+    List<Object> ids = new ArrayList<Object>();
+    for (int i = 0; i < size; i++) {
+      ids.add(i);
+    }
+    return ids;
+  }
+
+  private static Map<String, Object> param(List<Object> ids) {
+    Map<String, Object> param = new HashMap<String, Object>();
+    param.put("ids", ids);
+    return param;
+  }
+
+  private static Object value(BoundSql boundSql, int index) {
+    if (boundSql.hasPositionalValue(index)) {
+      return boundSql.getPositionalValue(index);
+    }
+    return boundSql.getAdditionalParameter(boundSql.getParameterMappings().get(index).getProperty());
+  }
+
+  private SqlSource createSqlSource(String script) {
+    Configuration configuration = new Configuration();
+    return new XMLLanguageDriver().createSqlSource(configuration, "<script>" + script + "</script>", Map.class);
+  }
+
+}
@@ -0,0 +1,110 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.scripting.xmltags;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.ibatis.builder.BuilderException;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.Test;
+
+class PositionalForEachTest {
+
+  private static final String IN_LIST = "select * from t where id in "
+      + "<foreach collection='ids' item='id' open='(' close=')' separator=','%s>#{id}</foreach> and name = #{name}";
+
+  @Test
+  void shouldBindItemsByPositionWithoutBindings() {
+    Map<String, Object> param = new HashMap<String, Object>();
+    param.put("ids", Arrays.asList(1, "a", null));
+    param.put("name", "x");
+    BoundSql classic = createSqlSource(64, String.format(IN_LIST, "")).getBoundSql(param);
+    BoundSql positional = createSqlSource(64, String.format(IN_LIST, " positional='true'")).getBoundSql(param);
+    assertEquals(classic.getSql(), positional.getSql());
+    assertEquals(4, positional.getParameterMappings().size());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(classic.getParameterMappings().get(i).getJavaType(), positional.getParameterMappings().get(i).getJavaType());
+    }
+    assertEquals(1, positional.getPositionalValue(0));
+    assertEquals("a", positional.getPositionalValue(1));
+    assertEquals(null, positional.getPositionalValue(2));
+    assertTrue(positional.hasPositionalValue(2));
+    assertTrue(!positional.hasPositionalValue(3));
+    assertTrue(classic.hasAdditionalParameter("__frch_id_0"));
+    assertTrue(!positional.hasAdditionalParameter("__frch_id_0"));
+  }
+
+  @Test
+  void shouldBindIndexAndItemPropertiesOfMapEntries() {
+    Map<String, Object> entries = new LinkedHashMap<String, Object>();
+    Map<String, Object> value = new HashMap<String, Object>();
+    value.put("value", "x");
+    entries.put("a", value);
+    entries.put("b", new HashMap<String, Object>());
+    Map<String, Object> param = new HashMap<String, Object>();
+    param.put("entries", entries);
+    String script = "select * from t where <foreach collection='entries' item='v' index='k' separator=' or ' positional='true'>"
+        + "(k = #{k} and v = #{v.value, jdbcType=VARCHAR})</foreach>";
+    BoundSql boundSql = createSqlSource(0, script).getBoundSql(param);
+    assertEquals("select * from t where   (k = ? and v = ?)  or  (k = ? and v = ?)", boundSql.getSql());
+    assertEquals("a", boundSql.getPositionalValue(0));
+    assertEquals("x", boundSql.getPositionalValue(1));
+    assertEquals("b", boundSql.getPositionalValue(2));
+    assertEquals(null, boundSql.getPositionalValue(3));
+    assertEquals("v.value", boundSql.getParameterMappings().get(1).getProperty());
+  }
+
+  @Test
+  void shouldReuseCachedShapeWithNewValues() {
+    SqlSource sqlSource = createSqlSource(64, String.format(IN_LIST, " positional='true'"));
+    Map<String, Object> param = new HashMap<String, Object>();
+    param.put("ids", Arrays.asList(1, 2));
+    BoundSql first = sqlSource.getBoundSql(param);
+    param.put("ids", Arrays.asList(3, 4));
+    BoundSql second = sqlSource.getBoundSql(param);
+    assertEquals(first.getParameterMappings(), second.getParameterMappings());
+    assertEquals(3, second.getPositionalValue(0));
+    assertEquals(4, second.getPositionalValue(1));
+    param.put("ids", Arrays.asList("x", "y"));
+    BoundSql strings = sqlSource.getBoundSql(param);
+    assertEquals(String.class, strings.getParameterMappings().get(0).getJavaType());
+    assertEquals("y", strings.getPositionalValue(1));
+  }
+
+  @Test
+  void shouldRejectUnsupportedContent() {
+    assertThrows(BuilderException.class, () -> createSqlSource(0, "select * from t where id in "
+        + "<foreach collection='ids' item='id' separator=',' positional='true'><if test='id != null'>#{id}</if></foreach>"));
+    assertThrows(BuilderException.class, () -> createSqlSource(0, "select * from t where id in "
+        + "<foreach collection='ids' item='id' separator=',' positional='true'>#{id.a.b}</foreach>"));
+  }
+
+  private SqlSource createSqlSource(int shapeCacheSize, String script) {
+    Configuration configuration = new Configuration();
+    configuration.setDynamicSqlShapeCacheSize(shapeCacheSize);
+    return new XMLLanguageDriver().createSqlSource(configuration, "<script>" + script + "</script>", Map.class);
+  }
+
+}
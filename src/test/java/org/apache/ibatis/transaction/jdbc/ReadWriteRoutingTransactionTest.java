@@ -0,0 +1,167 @@
+/*
+ *    Copyright 2009-2015 the original author or authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.apache.ibatis.transaction.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.ibatis.FakeDatabase;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.SelectKey;
+import org.apache.ibatis.datasource.routing.ReadWriteRoutingDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.RouteType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ReadWriteRoutingTransactionTest {
+
+  private FakeDatabase primary;
+  private FakeDatabase replica;
+  private DefaultSqlSessionFactory sqlSessionFactory;
+
+  @BeforeEach
+  void setUp() {
+    primary = FakeDatabase.create("routingPrimary");
+    replica = FakeDatabase.create("routingReplica");
+    for (FakeDatabase database : Arrays.asList(primary, replica)) {
+      database.on("select name", FakeDatabase.rows(new String[] { "name" }, new Object[] { "a" }));
+      database.on("select next value", FakeDatabase.rows(new String[] { "id" }, new Object[] { 7 }));
+      database.on("insert", FakeDatabase.updateCount(1));
+    }
+    ReadWriteRoutingDataSource dataSource = new ReadWriteRoutingDataSource(primary);
+    dataSource.addReplica("replica", replica, 1);
+    Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+    configuration.addMapper(UserMapper.class);
+    sqlSessionFactory = new DefaultSqlSessionFactory(configuration);
+  }
+
+  @Test
+  void shouldRunSelectKeyOnThePrimary() {
+    assertEquals(RouteType.PRIMARY,
+        sqlSessionFactory.getConfiguration().getMappedStatement(UserMapper.class.getName() + ".insert!selectKey").getRoute());
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      User user = new User();
+      user.setName("a");
+      // the key is selected before the transaction has written anything
+      sqlSession.getMapper(UserMapper.class).insert(user);
+      assertEquals(7, user.getId());
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(Arrays.asList("select next value for user_ids  []", "insert into users (id, name) values (?, ?)  [7, a]"),
+        primary.getLog());
+    assertEquals(Collections.emptyList(), replica.getLog());
+  }
+
+  @Test
+  void shouldReadFromTheReplicaAgainAfterCommit() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      UserMapper mapper = sqlSession.getMapper(UserMapper.class);
+      mapper.selectName(1);
+      mapper.insert(new User());
+      // reads after a write see it on the primary
+      mapper.selectName(2);
+      sqlSession.commit();
+      mapper.selectName(3);
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(Arrays.asList("select name from users where id = ?  [1]", "select name from users where id = ?  [3]"),
+        replica.getLog());
+    assertEquals(Arrays.asList("select next value for user_ids  []", "insert into users (id, name) values (?, ?)  [7, null]",
+        "select name from users where id = ?  [2]"), primary.getLog());
+  }
+
+  @Test
+  void shouldReadFromTheReplicaAgainAfterRollback() {
+    SqlSession sqlSession = sqlSessionFactory.openSession();
+    try {
+      UserMapper mapper = sqlSession.getMapper(UserMapper.class);
+      mapper.insert(new User());
+      mapper.selectName(1);
+      sqlSession.rollback(true);
+      mapper.selectName(2);
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(Arrays.asList("select name from users where id = ?  [2]"), replica.getLog());
+    assertEquals(Arrays.asList("select next value for user_ids  []", "insert into users (id, name) values (?, ?)  [7, null]",
+        "select name from users where id = ?  [1]"), primary.getLog());
+  }
+
+  @Test
+  void shouldCloseTheReusedStatementWhenTheRouteChanges() {
+    SqlSession sqlSession = sqlSessionFactory.openSession(ExecutorType.REUSE);
+    try {
+      UserMapper mapper = sqlSession.getMapper(UserMapper.class);
+      mapper.selectName(1);
+      mapper.insert(new User());
+      // the same sql now runs on the primary, the replica statement must not be left open
+      mapper.selectName(2);
+      assertEquals(1, replica.statementsPrepared.get());
+      assertEquals(1, replica.statementsClosed.get());
+      int prepared = primary.statementsPrepared.get();
+      mapper.selectName(3);
+      assertEquals(prepared, primary.statementsPrepared.get());
+      sqlSession.commit();
+    } finally {
+      sqlSession.close();
+    }
+    assertEquals(primary.statementsPrepared.get(), primary.statementsClosed.get());
+    assertEquals(replica.statementsPrepared.get(), replica.statementsClosed.get());
+  }
+
+  public interface UserMapper {
+    @Select("select name from users where id = #{id}")
+    String selectName(int id);
+
+    @Insert("insert into users (id, name) values (#{id}, #{name})")
+    @SelectKey(statement = "select next value for user_ids", keyProperty = "id", before = true, resultType = int.class)
+    int insert(User user);
+  }
+
+  public static class User {
+    private int id;
+    private String name;
+
+    public int getId() {
+      return id;
+    }
+
+    public void setId(int id) {
+      this.id = id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+  }
+}